@@ -40,6 +40,8 @@ public final class AgentActivator {
     private static final String AGENT_DM_START_TRACKER = "agentDMStartTracker";
     private final ServiceRegistrationTracker registrationTracker = new ServiceRegistrationTracker();
 
+    private volatile BlueprintEventPostingOsgiBundleApplicationContextListener blueprintEventPostingListener;
+
     public void activate(ComponentContext context) {
         registerSpringDmToBlueprintEventAdapter(context.getBundleContext());
         context.enableComponent(AGENT_DM_START_TRACKER);
@@ -53,6 +55,7 @@ public final class AgentActivator {
     private void registerBlueprintEventPostingOsgiBundleApplicationContextListener(BundleContext context) {
         EventAdmin eventAdmin = getRequiredService(context, EventAdmin.class);
         BlueprintEventPostingOsgiBundleApplicationContextListener listener = new BlueprintEventPostingOsgiBundleApplicationContextListener(eventAdmin);
+        this.blueprintEventPostingListener = listener;
         this.registrationTracker.track(context.registerService(OsgiBundleApplicationContextListener.class.getName(), listener, null));
     }
 
@@ -67,6 +70,11 @@ public final class AgentActivator {
 
     public void deactivate(ComponentContext context) throws Exception {
         this.registrationTracker.unregisterAll();
+        BlueprintEventPostingOsgiBundleApplicationContextListener listener = this.blueprintEventPostingListener;
+        if (listener != null) {
+            listener.stop();
+            this.blueprintEventPostingListener = null;
+        }
     }
 
     private <T> T getRequiredService(BundleContext context, Class<T> clazz) {
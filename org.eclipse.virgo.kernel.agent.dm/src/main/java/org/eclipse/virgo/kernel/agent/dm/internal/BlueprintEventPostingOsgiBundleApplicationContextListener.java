@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,10 +15,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.event.Event;
@@ -38,8 +46,14 @@ import org.eclipse.gemini.blueprint.service.importer.event.OsgiServiceDependency
 import org.eclipse.gemini.blueprint.service.importer.event.OsgiServiceDependencyWaitTimedOutEvent;
 
 /**
- * An {@link OsgiBundleApplicationContextListener} implementation that listens to Spring DM events and sends the
+ * An {@link OsgiBundleApplicationContextListener} implementation that listens to Spring DM events and posts the
  * equivalent Blueprint events.
+ * <p />
+ * Events are delivered asynchronously so that the thread creating an application context is never held up by
+ * {@link EventAdmin} handlers. Each bundle has its own queue of pending events which is drained by a small pool of
+ * delivery threads, one bundle at a time, so the events of any one bundle are delivered in the order in which they
+ * occurred. A grace period event which is still pending when a later grace period event for the same bundle arrives
+ * is superseded by it and is not delivered.
  * 
  * <p />
  * 
@@ -94,14 +108,55 @@ public final class BlueprintEventPostingOsgiBundleApplicationContextListener imp
 
     private static final int TYPE_WAITING = 7;
 
+    private static final int DELIVERY_THREAD_COUNT = 2;
+
+    private static final String DELIVERY_THREAD_NAME_PREFIX = "blueprint-event-delivery-";
+
     private final EventAdmin eventAdmin;
 
-    private final Map<Bundle, List<OsgiServiceDependency>> unsatisfiedDependencies = new HashMap<Bundle, List<OsgiServiceDependency>>();
+    private final ExecutorService deliveryExecutor;
+
+    private final ConcurrentMap<Bundle, List<OsgiServiceDependency>> unsatisfiedDependencies = new ConcurrentHashMap<Bundle, List<OsgiServiceDependency>>();
 
-    private final Object monitor = new Object();
+    private final ConcurrentMap<Long, BundleEventQueue> eventQueues = new ConcurrentHashMap<Long, BundleEventQueue>();
+
+    private final AtomicLong coalescedEventCount = new AtomicLong();
 
     public BlueprintEventPostingOsgiBundleApplicationContextListener(EventAdmin eventAdmin) {
+        this(eventAdmin, createDeliveryExecutor());
+    }
+
+    BlueprintEventPostingOsgiBundleApplicationContextListener(EventAdmin eventAdmin, ExecutorService deliveryExecutor) {
         this.eventAdmin = eventAdmin;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    private static ExecutorService createDeliveryExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(DELIVERY_THREAD_COUNT, new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, DELIVERY_THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Stop accepting events. Events which are already pending are still delivered.
+     */
+    public void stop() {
+        this.deliveryExecutor.shutdown();
+    }
+
+    /**
+     * Returns the number of grace period events which were superseded before they could be delivered.
+     * 
+     * @return the number of coalesced events
+     */
+    long getCoalescedEventCount() {
+        return this.coalescedEventCount.get();
     }
 
     /**
@@ -113,13 +168,13 @@ public final class BlueprintEventPostingOsgiBundleApplicationContextListener imp
 
         if (event instanceof OsgiBundleContextRefreshedEvent) {
             clearUnsatisfiedDependencies(bundle);
-            sendCreatedEvent(properties);
+            sendCreatedEvent(bundle, properties);
         } else if (event instanceof OsgiBundleContextFailedEvent) {
             clearUnsatisfiedDependencies(bundle);
             properties.put(PROPERTY_EXCEPTION, ((OsgiBundleContextFailedEvent) event).getFailureCause());
-            sendFailureEvent(properties);
+            sendFailureEvent(bundle, properties);
         } else if (event instanceof OsgiBundleContextClosedEvent) {
-            sendDestroyedEvent(properties);
+            sendDestroyedEvent(bundle, properties);
         } else if (event instanceof BootstrappingDependencyEvent) {
             OsgiServiceDependencyEvent serviceDependencyEvent = ((BootstrappingDependencyEvent) event).getDependencyEvent();
 
@@ -128,60 +183,57 @@ public final class BlueprintEventPostingOsgiBundleApplicationContextListener imp
             if (serviceDependencyEvent instanceof OsgiServiceDependencyWaitStartingEvent) {
                 addUnsatisfiedDependency(bundle, dependency);
                 addDependencyProperties(dependency, properties);
-                sendWaitingEvent(properties);
+                sendWaitingEvent(bundle, properties);
             } else if (serviceDependencyEvent instanceof OsgiServiceDependencyWaitTimedOutEvent) {
                 List<OsgiServiceDependency> unsatisfiedDependencies = getUnsatisfiedDependencies(bundle);
                 addDependenciesProperties(unsatisfiedDependencies, properties);
-                sendFailureEvent(properties);
+                sendFailureEvent(bundle, properties);
             } else if (serviceDependencyEvent instanceof OsgiServiceDependencyWaitEndedEvent) {
                 List<OsgiServiceDependency> unsatisfiedDependencies = removeUnsatisfiedDependency(bundle, dependency);
                 if (unsatisfiedDependencies != null) {
                     addDependenciesProperties(unsatisfiedDependencies, properties);
-                    sendGracePeriodEvent(properties);
+                    sendGracePeriodEvent(bundle, properties);
                 }
             }
         }
     }
 
     private List<OsgiServiceDependency> getUnsatisfiedDependencies(Bundle bundle) {
-        synchronized (this.monitor) {
-            List<OsgiServiceDependency> dependencies = this.unsatisfiedDependencies.get(bundle);
-            if (dependencies == null) {
-                dependencies = Collections.<OsgiServiceDependency> emptyList();
-            }
-            return dependencies;
+        List<OsgiServiceDependency> dependencies = this.unsatisfiedDependencies.get(bundle);
+        if (dependencies == null) {
+            dependencies = Collections.<OsgiServiceDependency> emptyList();
         }
+        return dependencies;
     }
 
     private List<OsgiServiceDependency> addUnsatisfiedDependency(Bundle bundle, OsgiServiceDependency dependency) {
-        synchronized (this.monitor) {
-            List<OsgiServiceDependency> bundlesDependencies = this.unsatisfiedDependencies.get(bundle);
+        List<OsgiServiceDependency> bundlesDependencies = this.unsatisfiedDependencies.get(bundle);
+        if (bundlesDependencies == null) {
+            List<OsgiServiceDependency> newDependencies = new CopyOnWriteArrayList<OsgiServiceDependency>();
+            bundlesDependencies = this.unsatisfiedDependencies.putIfAbsent(bundle, newDependencies);
             if (bundlesDependencies == null) {
-                bundlesDependencies = new ArrayList<OsgiServiceDependency>();
-                this.unsatisfiedDependencies.put(bundle, bundlesDependencies);
+                bundlesDependencies = newDependencies;
             }
-            bundlesDependencies.add(dependency);
-            return bundlesDependencies;
         }
+        bundlesDependencies.add(dependency);
+        return bundlesDependencies;
     }
 
     private List<OsgiServiceDependency> removeUnsatisfiedDependency(Bundle bundle, OsgiServiceDependency satisfiedDependency) {
-        synchronized (this.monitor) {
-            List<OsgiServiceDependency> bundlesDependencies = this.unsatisfiedDependencies.get(bundle);
-            if (bundlesDependencies != null) {
-                bundlesDependencies.remove(satisfiedDependency);
-            }
-            return bundlesDependencies;
+        List<OsgiServiceDependency> bundlesDependencies = this.unsatisfiedDependencies.get(bundle);
+        if (bundlesDependencies != null) {
+            bundlesDependencies.remove(satisfiedDependency);
         }
+        return bundlesDependencies;
     }
 
     private void clearUnsatisfiedDependencies(Bundle bundle) {
-        synchronized (this.monitor) {
-            this.unsatisfiedDependencies.remove(bundle);
-        }
+        this.unsatisfiedDependencies.remove(bundle);
     }
 
-    private void addDependenciesProperties(List<OsgiServiceDependency> dependencies, Dictionary<String, Object> properties) {
+    private void addDependenciesProperties(List<OsgiServiceDependency> unsatisfiedDependencies, Dictionary<String, Object> properties) {
+        // Take a snapshot as the dependencies may be changing concurrently.
+        List<OsgiServiceDependency> dependencies = new ArrayList<OsgiServiceDependency>(unsatisfiedDependencies);
         if (!dependencies.isEmpty()) {
             String[] beanNames = new String[dependencies.size()];
             String[] filters = new String[dependencies.size()];
@@ -205,40 +257,61 @@ public final class BlueprintEventPostingOsgiBundleApplicationContextListener imp
         addDependenciesProperties(Arrays.asList(new OsgiServiceDependency[] { dependency }), properties);
     }
 
-    private void sendCreatedEvent(Dictionary<String, Object> properties) {
-        sendEvent(EVENT_CREATED, properties, TYPE_CREATED);
+    private void sendCreatedEvent(Bundle bundle, Dictionary<String, Object> properties) {
+        postEvent(bundle, EVENT_CREATED, properties, TYPE_CREATED);
     }
 
-    private void sendEvent(String topic, Dictionary<String, Object> properties, int type) {
+    private void postEvent(Bundle bundle, String topic, Dictionary<String, Object> properties, int type) {
         properties.put(PROPERTY_TYPE, type);
-        logger.info("Sending event to topic '{}' with properties '{}'", topic, properties);
+        PendingEvent pendingEvent = new PendingEvent(topic, properties, type);
+        while (true) {
+            BundleEventQueue eventQueue = this.eventQueues.get(bundle.getBundleId());
+            if (eventQueue == null) {
+                BundleEventQueue newEventQueue = new BundleEventQueue(bundle.getBundleId());
+                eventQueue = this.eventQueues.putIfAbsent(bundle.getBundleId(), newEventQueue);
+                if (eventQueue == null) {
+                    eventQueue = newEventQueue;
+                }
+            }
+            if (eventQueue.offer(pendingEvent)) {
+                return;
+            }
+            // The queue was retired after being drained, so replace it.
+            this.eventQueues.remove(bundle.getBundleId(), eventQueue);
+        }
+    }
+
+    private void sendEvent(PendingEvent pendingEvent) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending event to topic '{}' with properties '{}'", pendingEvent.topic, pendingEvent.properties);
+        }
         try {
-            this.eventAdmin.sendEvent(new Event(topic, properties));
+            this.eventAdmin.sendEvent(new Event(pendingEvent.topic, pendingEvent.properties));
         } catch (Exception ex) {
             if (logger.isDebugEnabled()) {
-                logger.debug("Failed to send event to topic '" + topic + "'. This may be expected during shutdown.", ex);
+                logger.debug("Failed to send event to topic '" + pendingEvent.topic + "'. This may be expected during shutdown.", ex);
             } else {
                 logger.error(
                     "Failed to send event to topic '{}'. Exception message: '{}'. This may be expected during shutdown. Turn on debug logging for more details.",
-                    topic, ex.getMessage());
+                    pendingEvent.topic, ex.getMessage());
             }
         }
     }
 
-    private void sendFailureEvent(Dictionary<String, Object> properties) {
-        sendEvent(EVENT_FAILURE, properties, TYPE_FAILURE);
+    private void sendFailureEvent(Bundle bundle, Dictionary<String, Object> properties) {
+        postEvent(bundle, EVENT_FAILURE, properties, TYPE_FAILURE);
     }
 
-    private void sendDestroyedEvent(Dictionary<String, Object> properties) {
-        sendEvent(EVENT_DESTROYED, properties, TYPE_DESTROYED);
+    private void sendDestroyedEvent(Bundle bundle, Dictionary<String, Object> properties) {
+        postEvent(bundle, EVENT_DESTROYED, properties, TYPE_DESTROYED);
     }
 
-    private void sendWaitingEvent(Dictionary<String, Object> properties) {
-        sendEvent(EVENT_WAITING, properties, TYPE_WAITING);
+    private void sendWaitingEvent(Bundle bundle, Dictionary<String, Object> properties) {
+        postEvent(bundle, EVENT_WAITING, properties, TYPE_WAITING);
     }
 
-    private void sendGracePeriodEvent(Dictionary<String, Object> properties) {
-        sendEvent(EVENT_GRACE_PERIOD, properties, TYPE_GRACE_PERIOD);
+    private void sendGracePeriodEvent(Bundle bundle, Dictionary<String, Object> properties) {
+        postEvent(bundle, EVENT_GRACE_PERIOD, properties, TYPE_GRACE_PERIOD);
     }
 
     private Dictionary<String, Object> createEventProperties(OsgiBundleApplicationContextEvent event) {
@@ -253,4 +326,98 @@ public final class BlueprintEventPostingOsgiBundleApplicationContextListener imp
 
         return properties;
     }
+
+    private static final class PendingEvent {
+
+        private final String topic;
+
+        private final Dictionary<String, Object> properties;
+
+        private final int type;
+
+        private PendingEvent(String topic, Dictionary<String, Object> properties, int type) {
+            this.topic = topic;
+            this.properties = properties;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The events of a single bundle which are waiting to be delivered. A queue is scheduled for delivery when its first
+     * event is offered and is retired once it has been drained, after which a new queue takes its place.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * Thread-safe. At most one thread drains a given queue at any time.
+     * 
+     */
+    private final class BundleEventQueue implements Runnable {
+
+        private final long bundleId;
+
+        private final Object monitor = new Object();
+
+        private final LinkedList<PendingEvent> pendingEvents = new LinkedList<PendingEvent>();
+
+        private boolean scheduled = false;
+
+        private boolean retired = false;
+
+        private BundleEventQueue(long bundleId) {
+            this.bundleId = bundleId;
+        }
+
+        /**
+         * Add the given event to this queue, superseding a pending grace period event if the given event is also a
+         * grace period event.
+         * 
+         * @param pendingEvent the event to be delivered
+         * @return <code>false</code> if and only if this queue has been retired and the event was not added
+         */
+        private boolean offer(PendingEvent pendingEvent) {
+            boolean schedule;
+            synchronized (this.monitor) {
+                if (this.retired) {
+                    return false;
+                }
+                if (pendingEvent.type == TYPE_GRACE_PERIOD && !this.pendingEvents.isEmpty()
+                    && this.pendingEvents.getLast().type == TYPE_GRACE_PERIOD) {
+                    this.pendingEvents.removeLast();
+                    coalescedEventCount.incrementAndGet();
+                }
+                this.pendingEvents.addLast(pendingEvent);
+                schedule = !this.scheduled;
+                this.scheduled = true;
+            }
+            if (schedule) {
+                try {
+                    deliveryExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Blueprint event delivery has stopped. Delivering event to topic '{}' on the calling thread.", pendingEvent.topic);
+                    run();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            while (true) {
+                PendingEvent pendingEvent;
+                synchronized (this.monitor) {
+                    pendingEvent = this.pendingEvents.poll();
+                    if (pendingEvent == null) {
+                        this.scheduled = false;
+                        this.retired = true;
+                        eventQueues.remove(this.bundleId, this);
+                        return;
+                    }
+                }
+                sendEvent(pendingEvent);
+            }
+        }
+    }
 }
@@ -12,10 +12,14 @@
 package org.eclipse.virgo.kernel.agent.dm.internal;
 
 import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 import org.osgi.framework.Filter;
@@ -139,14 +143,58 @@ public class BlueprintEventPostingOsgiBundleApplicationContextListenerTests {
         assertTrue(eventAdmin.awaitSendingOfEvent(new Event("org/osgi/service/blueprint/container/GRACE_PERIOD", properties), 1000));
     }
     
+    @Test
+    public void pendingGracePeriodEventIsSuperseded() throws InterruptedException {
+        final CountDownLatch deliveryLatch = new CountDownLatch(1);
+        ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+        deliveryExecutor.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    deliveryLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        BlueprintEventPostingOsgiBundleApplicationContextListener blockedListener = new BlueprintEventPostingOsgiBundleApplicationContextListener(
+            eventAdmin, deliveryExecutor);
+
+        final Filter integerFilter = new ObjectClassFilter(Integer.class);
+        final Filter booleanFilter = new ObjectClassFilter(Boolean.class);
+        final Filter longFilter = new ObjectClassFilter(Long.class);
+
+        sendWaitStartingEvent(blockedListener, booleanFilter);
+        sendWaitStartingEvent(blockedListener, integerFilter);
+        sendWaitStartingEvent(blockedListener, longFilter);
+        sendWaitEndedEvent(blockedListener, booleanFilter);
+        long timestamp = sendWaitEndedEvent(blockedListener, integerFilter);
+
+        deliveryLatch.countDown();
+
+        Dictionary<String, Object> properties = createEventProperties(new StubOsgiServiceDependency(longFilter), timestamp, TYPE_GRACE_PERIOD);
+        assertTrue(eventAdmin.awaitSendingOfEvent(new Event("org/osgi/service/blueprint/container/GRACE_PERIOD", properties), 1000));
+        assertEquals(1, blockedListener.getCoalescedEventCount());
+
+        blockedListener.stop();
+    }
+
     private void sendWaitStartingEvent(Filter filter) {
+        sendWaitStartingEvent(this.listener, filter);
+    }
+
+    private long sendWaitEndedEvent(Filter filter) {
+        return sendWaitEndedEvent(this.listener, filter);
+    }
+
+    private void sendWaitStartingEvent(BlueprintEventPostingOsgiBundleApplicationContextListener listener, Filter filter) {
         OsgiServiceDependency serviceDependency = new StubOsgiServiceDependency(filter);        
         OsgiServiceDependencyEvent serviceDependencyEvent = new OsgiServiceDependencyWaitStartingEvent(applicationContext, serviceDependency, 1000);
         BootstrappingDependencyEvent event = new BootstrappingDependencyEvent(applicationContext, bundle, serviceDependencyEvent);
         listener.onOsgiApplicationEvent(event);
     }
     
-    private long sendWaitEndedEvent(Filter filter) {
+    private long sendWaitEndedEvent(BlueprintEventPostingOsgiBundleApplicationContextListener listener, Filter filter) {
         OsgiServiceDependency serviceDependency = new StubOsgiServiceDependency(filter);
         OsgiServiceDependencyEvent serviceDependencyEvent = new OsgiServiceDependencyWaitEndedEvent(this.applicationContext, serviceDependency, 1000);
         BootstrappingDependencyEvent event = new BootstrappingDependencyEvent(applicationContext, bundle, serviceDependencyEvent);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,9 +13,11 @@ package org.eclipse.virgo.kernel.install.artifact.internal;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.osgi.framework.Version;
 
@@ -112,9 +114,10 @@ final class PlanScoper {
     /**
      * Scope the application.
      * 
+     * @return a description of the services contributed to the scope by each bundle scope member, keyed by member
      * @throws DeploymentException
      */
-    void scope() throws DeploymentException {
+    Map<InstallArtifact, String> scope() throws DeploymentException {
         try {
             // Transform the modules' bundle manifests to scope the OSGi
             // application.
@@ -134,15 +137,28 @@ final class PlanScoper {
             throw new DeploymentException("Package '" + packageName + "' exported by more than one bundle [" + exporters + "] in scope '"
                 + this.scopeName + "' version '" + this.scopeVersion + "'");
         }
-        this.serviceScoper.scope(getBundleArtifacts());
+        Map<ArtifactFS, InstallArtifact> bundleArtifacts = getBundleArtifacts();
+        Map<ArtifactFS, String> serviceModels = this.serviceScoper.scope(bundleArtifacts.keySet());
+        Map<InstallArtifact, String> memberServiceModels = new HashMap<InstallArtifact, String>();
+        for (Entry<ArtifactFS, String> serviceModel : serviceModels.entrySet()) {
+            InstallArtifact scopeMember = bundleArtifacts.get(serviceModel.getKey());
+            if (scopeMember != null) {
+                memberServiceModels.put(scopeMember, serviceModel.getValue());
+            }
+        }
+        return memberServiceModels;
     }
 
-    private Set<ArtifactFS> getBundleArtifacts() {
-        Set<ArtifactFS> bundleArtifacts = new HashSet<ArtifactFS>();
+    /**
+     * Returns the bundle scope members keyed by their {@link ArtifactFS}. Each call to
+     * {@link InstallArtifact#getArtifactFS()} may create a new <code>ArtifactFS</code>, so the instances passed to the
+     * {@link ServiceScoper} are the keys used to map its results back to scope members.
+     */
+    private Map<ArtifactFS, InstallArtifact> getBundleArtifacts() {
+        Map<ArtifactFS, InstallArtifact> bundleArtifacts = new IdentityHashMap<ArtifactFS, InstallArtifact>();
         for (InstallArtifact scopeMember : this.scopeMembers) {
             if (scopeMember instanceof BundleInstallArtifact) {
-                ArtifactFS artifactFS = scopeMember.getArtifactFS();
-                bundleArtifacts.add(artifactFS);
+                bundleArtifacts.put(scopeMember.getArtifactFS(), scopeMember);
             }
         }
         return bundleArtifacts;
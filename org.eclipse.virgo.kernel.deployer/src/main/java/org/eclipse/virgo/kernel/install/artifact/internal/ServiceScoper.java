@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,7 +18,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +38,7 @@ import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.util.io.IOUtils;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.osgi.framework.InvalidSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.xml.XmlValidationModeDetector;
@@ -78,14 +83,29 @@ final class ServiceScoper {
      * Scopes the application's services.
      * 
      * @param modules set of stored artifacts to search for configurations
+     * @return a description of the services of each artifact, as returned by {@link #describeServiceModel(ArtifactFS)}
      * @throws DeploymentException if configuration files or manifests are not well-formed
      */
-    public void scope(Set<ArtifactFS> modules) throws DeploymentException {
+    public Map<ArtifactFS, String> scope(Set<ArtifactFS> modules) throws DeploymentException {
         Map<ArtifactFS, List<ArtifactFSEntry>> configFiles = new HashMap<ArtifactFS, List<ArtifactFSEntry>>();
         for (ArtifactFS moduleData : modules) {
             configFiles.put(moduleData, findConfigFiles(moduleData));
         }
-        doScope(configFiles);
+        return doScope(configFiles, this.repository);
+    }
+
+    /**
+     * Describes the services which the given {@link ArtifactFS} would contribute to the scope's service model, without
+     * recording them. Two descriptions are equal if and only if the artifacts contribute the same services.
+     * 
+     * @param bundleData the <code>ArtifactFS</code> to be scanned
+     * @return a description of the artifact's services
+     * @throws DeploymentException if configuration files or the manifest are not well-formed
+     */
+    public String describeServiceModel(ArtifactFS bundleData) throws DeploymentException {
+        Map<ArtifactFS, List<ArtifactFSEntry>> configFiles = new HashMap<ArtifactFS, List<ArtifactFSEntry>>();
+        configFiles.put(bundleData, findConfigFiles(bundleData));
+        return doScope(configFiles, null).get(bundleData);
     }
 
     private List<ArtifactFSEntry> findConfigFiles(ArtifactFS bundleData) throws DeploymentException {
@@ -141,20 +161,25 @@ final class ServiceScoper {
     public void rescope(ArtifactFS bundleData) throws DeploymentException {
         Map<ArtifactFS, List<ArtifactFSEntry>> configFiles = new HashMap<ArtifactFS, List<ArtifactFSEntry>>();
         configFiles.put(bundleData, findConfigFiles(bundleData));
-        doScope(configFiles);
+        doScope(configFiles, this.repository);
     }
 
     /**
-     * Updates the {@link StandardScopeServiceRepository} with the service information from the given config files.
+     * Updates the given {@link ScopeServiceRepository}, if any, with the service information from the given config
+     * files and returns a description of the services found for each artifact.
      * 
-     * @param scopeName the name of the scope.
      * @param configFiles the config files to scope.
+     * @param targetRepository the repository to update or <code>null</code> to leave all repositories unchanged
+     * @return a map of artifact to a description of its services
      * @throws DeploymentException
      */
-    private void doScope(Map<ArtifactFS, List<ArtifactFSEntry>> configFiles) throws DeploymentException {
-        SpringConfigServiceModelScanner scanner = new SpringConfigServiceModelScanner(this.scopeName, this.repository, this.eventLogger);
+    private Map<ArtifactFS, String> doScope(Map<ArtifactFS, List<ArtifactFSEntry>> configFiles, ScopeServiceRepository targetRepository)
+        throws DeploymentException {
+        Map<ArtifactFS, String> serviceModels = new HashMap<ArtifactFS, String>();
         Map<ArtifactFS, BundleManifest> manifests = loadBundleManifests(configFiles.keySet());
         for (Entry<ArtifactFS, List<ArtifactFSEntry>> entry : configFiles.entrySet()) {
+            ServiceModelRecorder recorder = new ServiceModelRecorder(targetRepository);
+            SpringConfigServiceModelScanner scanner = new SpringConfigServiceModelScanner(this.scopeName, recorder, this.eventLogger);
             BundleManifest bundleManifest = manifests.get(entry.getKey());
             for (ArtifactFSEntry configFile : entry.getValue()) {
                 InputStream is = configFile.getInputStream();
@@ -165,7 +190,9 @@ final class ServiceScoper {
                     IOUtils.closeQuietly(is);
                 }
             }
+            serviceModels.put(entry.getKey(), recorder.describe());
         }
+        return serviceModels;
     }
 
     private Map<ArtifactFS, BundleManifest> loadBundleManifests(Collection<ArtifactFS> modules) throws DeploymentException {
@@ -191,4 +218,80 @@ final class ServiceScoper {
             IOUtils.closeQuietly(reader);
         }
     }
+
+    /**
+     * A {@link ScopeServiceRepository} which builds a canonical description of the services recorded through it and
+     * passes them on to an optional target repository.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * Not thread safe.
+     * 
+     */
+    private static final class ServiceModelRecorder implements ScopeServiceRepository {
+
+        private final ScopeServiceRepository targetRepository;
+
+        private final List<String> services = new ArrayList<String>();
+
+        private ServiceModelRecorder(ScopeServiceRepository targetRepository) {
+            this.targetRepository = targetRepository;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void recordService(String scopeName, String[] types, Dictionary<String, Object> properties) {
+            this.services.add(describeService(types, properties));
+            if (this.targetRepository != null) {
+                this.targetRepository.recordService(scopeName, types, properties);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean scopeHasMatchingService(String scopeName, String type, String filter) throws InvalidSyntaxException {
+            return this.targetRepository != null && this.targetRepository.scopeHasMatchingService(scopeName, type, filter);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void clearScope(String scopeName) {
+            if (this.targetRepository != null) {
+                this.targetRepository.clearScope(scopeName);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Set<String> knownScopes() {
+            return this.targetRepository == null ? Collections.<String> emptySet() : this.targetRepository.knownScopes();
+        }
+
+        private String describe() {
+            List<String> sortedServices = new ArrayList<String>(this.services);
+            Collections.sort(sortedServices);
+            return sortedServices.toString();
+        }
+
+        private static String describeService(String[] types, Dictionary<String, Object> properties) {
+            String[] sortedTypes = types.clone();
+            Arrays.sort(sortedTypes);
+            List<String> sortedProperties = new ArrayList<String>();
+            if (properties != null) {
+                Enumeration<String> keys = properties.keys();
+                while (keys.hasMoreElements()) {
+                    String key = keys.nextElement();
+                    Object value = properties.get(key);
+                    sortedProperties.add(key + "=" + (value instanceof Object[] ? Arrays.toString((Object[]) value) : String.valueOf(value)));
+                }
+                Collections.sort(sortedProperties);
+            }
+            return Arrays.toString(sortedTypes) + sortedProperties;
+        }
+    }
 }
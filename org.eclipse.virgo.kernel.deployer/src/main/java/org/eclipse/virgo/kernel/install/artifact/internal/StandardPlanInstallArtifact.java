@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc. and others
+ * Copyright (c) 2008, 2012 VMware Inc. and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,7 +13,10 @@
 package org.eclipse.virgo.kernel.install.artifact.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.virgo.kernel.artifact.ArtifactSpecification;
 import org.eclipse.virgo.kernel.artifact.plan.PlanDescriptor.Provisioning;
@@ -68,6 +71,8 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
 
     private Scope applicationScope;
 
+    private Map<InstallArtifact, String> memberServiceModels = Collections.emptyMap();
+
     protected StandardPlanInstallArtifact(@NonNull ArtifactIdentity artifactIdentity, boolean atomic, boolean scoped,
         @NonNull Provisioning provisioning, @NonNull ArtifactStorage artifactStorage, @NonNull ArtifactStateMonitor artifactStateMonitor,
         @NonNull ScopeServiceRepository scopeServiceRepository, @NonNull ScopeFactory scopeFactory, @NonNull EventLogger eventLogger,
@@ -190,7 +195,7 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
             synchronized (this.monitor) {
                 this.applicationScope = this.scopeFactory.getApplicationScope(scopeName);
                 // TODO Do we really need to hold this lock while we're driving the planScoper?
-                planScoper.scope();
+                this.memberServiceModels = new HashMap<InstallArtifact, String>(planScoper.scope());
             }
         }
     }
@@ -202,7 +207,34 @@ public class StandardPlanInstallArtifact extends AbstractInstallArtifact impleme
                 this.scopeServiceRepository.clearScope(this.applicationScope.getScopeName());
                 this.applicationScope = null;
             }
+            this.memberServiceModels = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Determines whether the given member of this plan's scope would contribute the same services to the scope's
+     * service model as it did when the scope was last computed. The member's Spring configuration is rescanned but the
+     * scope's service model is not changed.
+     * 
+     * @param scopeMember the scope member whose contents may have changed
+     * @return <code>true</code> if and only if the plan is scoped, the member was scoped, and its services are unchanged
+     * @throws DeploymentException if the member's configuration cannot be scanned
+     */
+    public boolean isScopeMemberServiceModelUnchanged(InstallArtifact scopeMember) throws DeploymentException {
+        String scopeName;
+        String previousServiceModel;
+        synchronized (this.monitor) {
+            if (this.applicationScope == null) {
+                return false;
+            }
+            scopeName = this.applicationScope.getScopeName();
+            previousServiceModel = this.memberServiceModels.get(scopeMember);
+        }
+        if (previousServiceModel == null) {
+            return false;
         }
+        ServiceScoper serviceScoper = new ServiceScoper(scopeName, this.scopeServiceRepository, this.eventLogger);
+        return previousServiceModel.equals(serviceScoper.describeServiceModel(scopeMember.getArtifactFS()));
     }
 
     /**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -58,13 +58,17 @@ final class BundleInstallArtifactFactory {
 
     private final ArtifactIdentityDeterminer identityDeterminer;
 
+    private final RefreshImpactAnalyzer refreshImpactAnalyzer;
+
     BundleInstallArtifactFactory(BundleContext kernelBundleContext, InstallArtifactRefreshHandler refreshHandler,
-        BundleDriverFactory bundleDriverFactory, EventLogger eventLogger, ArtifactIdentityDeterminer identityDeterminer) {
+        BundleDriverFactory bundleDriverFactory, EventLogger eventLogger, ArtifactIdentityDeterminer identityDeterminer,
+        RefreshImpactAnalyzer refreshImpactAnalyzer) {
         this.kernelBundleContext = kernelBundleContext;
         this.refreshHandler = refreshHandler;
         this.bundleDriverFactory = bundleDriverFactory;
         this.eventLogger = eventLogger;
         this.identityDeterminer = identityDeterminer;
+        this.refreshImpactAnalyzer = refreshImpactAnalyzer;
     }
 
     BundleInstallArtifact createBundleInstallArtifact(ArtifactIdentity identity, ArtifactStorage artifactStorage, String repositoryName)
@@ -77,7 +81,8 @@ final class BundleInstallArtifactFactory {
         BundleManifest bundleManifest = retrieveArtifactFSManifest(artifactStorage.getArtifactFS());
 
         StandardBundleInstallArtifact bundleInstallArtifact = new StandardBundleInstallArtifact(identity, bundleManifest, artifactStorage,
-            bundleDriver, artifactStateMonitor, this.refreshHandler, repositoryName, this.eventLogger, this.identityDeterminer);
+            bundleDriver, artifactStateMonitor, this.refreshHandler, repositoryName, this.eventLogger, this.identityDeterminer,
+            this.refreshImpactAnalyzer);
 
         // TODO: need to set identity version from bundleManifest etc. Best to use supertype method.
 
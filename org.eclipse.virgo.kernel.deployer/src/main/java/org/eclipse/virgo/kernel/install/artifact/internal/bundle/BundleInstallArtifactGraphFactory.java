@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc. and others
+ * Copyright (c) 2008, 2012 VMware Inc. and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -49,13 +49,14 @@ public final class BundleInstallArtifactGraphFactory extends AbstractArtifactGra
     public BundleInstallArtifactGraphFactory(@NonNull OsgiFramework osgiFramework, @NonNull BundleContext kernelBundleContext,
         @NonNull InstallArtifactRefreshHandler refreshHandler, @NonNull BundleStarter bundleStarter, @NonNull TracingService tracingService,
         @NonNull PackageAdminUtil packageAdminUtil, @NonNull BundleContext regionBundleContext, EventLogger eventLogger, ArtifactIdentityDeterminer identityDeterminer,
-        @NonNull DirectedAcyclicGraph<InstallArtifact> dag) {
+        @NonNull DirectedAcyclicGraph<InstallArtifact> dag, @NonNull RefreshImpactAnalyzer refreshImpactAnalyzer) {
 
     		super(dag);
         BundleDriverFactory bundleDriverFactory = new BundleDriverFactory(osgiFramework, regionBundleContext, bundleStarter, tracingService,
             packageAdminUtil);
 
-        this.bundleArtifactFactory = new BundleInstallArtifactFactory(kernelBundleContext, refreshHandler, bundleDriverFactory, eventLogger, identityDeterminer);
+        this.bundleArtifactFactory = new BundleInstallArtifactFactory(kernelBundleContext, refreshHandler, bundleDriverFactory, eventLogger, identityDeterminer,
+            refreshImpactAnalyzer);
     }
 
     /**
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import org.eclipse.virgo.medic.eventlog.Level;
+import org.eclipse.virgo.medic.eventlog.LogEvent;
+import org.eclipse.virgo.nano.serviceability.LogEventDelegate;
+
+/**
+ * Bundle refresh log events.
+ * <p />
+ * 
+ */
+public enum BundleRefreshLogEvents implements LogEvent {
+
+    REFRESH_BLAST_RADIUS_EXCEEDED(72, Level.WARNING);
+
+    private static final String PREFIX = "DE";
+
+    private final LogEventDelegate delegate;
+
+    private BundleRefreshLogEvents(int code, Level level) {
+        this.delegate = new LogEventDelegate(PREFIX, code, level);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getEventCode() {
+        return this.delegate.getEventCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Level getLevel() {
+        return this.delegate.getLevel();
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+
+/**
+ * {@link IncrementalScopeRefresh} decides whether a bundle in a scoped plan can be refreshed without recomputing the
+ * whole scope. It remembers the headers of the bundle's manifest as transformed by the bundle's own transformation
+ * pipeline, that is without scoping, and, on refresh, diffs them against the headers of the newly transformed manifest.
+ * <p />
+ * If only headers which play no part in scoping have changed, the bundle's current scoped manifest is reused with those
+ * headers updated. Otherwise, for example when exports or imports, including expanded imports, have changed, a full
+ * scope refresh is required. Until a baseline has been recorded, a full scope refresh is always required.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * This class is thread safe.
+ * 
+ */
+final class IncrementalScopeRefresh {
+
+    private static final String SPRING_CONTEXT_HEADER = "Spring-Context";
+
+    /**
+     * Headers which may change without affecting the scope. Any changes to Spring configuration are detected separately
+     * by comparing the bundle's service model.
+     */
+    private static final Set<String> SCOPE_NEUTRAL_HEADERS = new HashSet<String>(Arrays.asList( //
+        "manifest-version", //
+        "bundle-name", //
+        "bundle-description", //
+        "bundle-vendor", //
+        "bundle-copyright", //
+        "bundle-docurl", //
+        "bundle-contactaddress", //
+        "bundle-category", //
+        "bundle-license", //
+        "bundle-icon", //
+        "bundle-localization", //
+        "bnd-lastmodified", //
+        "built-by", //
+        "created-by", //
+        "tool", //
+        SPRING_CONTEXT_HEADER.toLowerCase(Locale.ENGLISH)));
+
+    private final Object monitor = new Object();
+
+    private Map<String, String> baselineHeaders;
+
+    /**
+     * Creates an {@link IncrementalScopeRefresh} with no baseline.
+     */
+    IncrementalScopeRefresh() {
+        this.baselineHeaders = null;
+    }
+
+    /**
+     * Returns a manifest which can be used in place of a newly transformed and scoped manifest or <code>null</code> if
+     * there is no baseline or the changes between the baseline and the given new manifest require the scope to be
+     * refreshed.
+     * 
+     * @param currentBundleManifest the bundle's current, transformed and scoped, manifest
+     * @param newTransformedBundleManifest the bundle's new manifest, transformed but not scoped
+     * @return a new manifest or <code>null</code> if a full scope refresh is required
+     */
+    BundleManifest incrementalManifest(BundleManifest currentBundleManifest, BundleManifest newTransformedBundleManifest) {
+        Map<String, String> previousHeaders;
+        synchronized (this.monitor) {
+            previousHeaders = this.baselineHeaders;
+        }
+        if (previousHeaders == null) {
+            return null;
+        }
+        Map<String, String> newHeaders = headersOf(newTransformedBundleManifest);
+
+        Set<String> changedHeaders = changedHeaders(previousHeaders, newHeaders);
+        for (String changedHeader : changedHeaders) {
+            if (!SCOPE_NEUTRAL_HEADERS.contains(changedHeader.toLowerCase(Locale.ENGLISH))) {
+                return null;
+            }
+        }
+
+        Dictionary<String, String> headers = currentBundleManifest.toDictionary();
+        for (String changedHeader : changedHeaders) {
+            removeHeader(headers, changedHeader);
+            String newValue = newHeaders.get(changedHeader);
+            if (newValue != null) {
+                headers.put(changedHeader, newValue);
+            }
+        }
+        return BundleManifestFactory.createBundleManifest(headers);
+    }
+
+    /**
+     * Makes the given manifest the baseline for subsequent refreshes. A <code>null</code> manifest discards the baseline
+     * so that the next refresh recomputes the scope.
+     * 
+     * @param transformedBundleManifest the bundle's manifest, transformed but not scoped, or <code>null</code>
+     */
+    void rebase(BundleManifest transformedBundleManifest) {
+        Map<String, String> headers = transformedBundleManifest == null ? null : headersOf(transformedBundleManifest);
+        synchronized (this.monitor) {
+            this.baselineHeaders = headers;
+        }
+    }
+
+    private static Set<String> changedHeaders(Map<String, String> previousHeaders, Map<String, String> newHeaders) {
+        Map<String, String> previousByLowerCaseName = byLowerCaseName(previousHeaders);
+        Map<String, String> newByLowerCaseName = byLowerCaseName(newHeaders);
+
+        Set<String> changedHeaders = new HashSet<String>();
+        for (Entry<String, String> header : newHeaders.entrySet()) {
+            if (!header.getValue().equals(previousByLowerCaseName.get(header.getKey().toLowerCase(Locale.ENGLISH)))) {
+                changedHeaders.add(header.getKey());
+            }
+        }
+        for (String previousHeader : previousHeaders.keySet()) {
+            if (!newByLowerCaseName.containsKey(previousHeader.toLowerCase(Locale.ENGLISH))) {
+                changedHeaders.add(previousHeader);
+            }
+        }
+        return changedHeaders;
+    }
+
+    private static Map<String, String> byLowerCaseName(Map<String, String> headers) {
+        Map<String, String> byLowerCaseName = new HashMap<String, String>();
+        for (Entry<String, String> header : headers.entrySet()) {
+            byLowerCaseName.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue());
+        }
+        return byLowerCaseName;
+    }
+
+    private static void removeHeader(Dictionary<String, String> headers, String name) {
+        Enumeration<String> keys = headers.keys();
+        Set<String> matchingKeys = new HashSet<String>();
+        while (keys.hasMoreElements()) {
+            String key = keys.nextElement();
+            if (key.equalsIgnoreCase(name)) {
+                matchingKeys.add(key);
+            }
+        }
+        for (String matchingKey : matchingKeys) {
+            headers.remove(matchingKey);
+        }
+    }
+
+    private static Map<String, String> headersOf(BundleManifest bundleManifest) {
+        Map<String, String> headers = new HashMap<String, String>();
+        Dictionary<String, String> dictionary = bundleManifest.toDictionary();
+        Enumeration<String> keys = dictionary.keys();
+        while (keys.hasMoreElements()) {
+            String key = keys.nextElement();
+            headers.put(key, dictionary.get(key));
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+}
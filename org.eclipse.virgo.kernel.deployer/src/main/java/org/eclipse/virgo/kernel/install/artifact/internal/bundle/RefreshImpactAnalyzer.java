@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * {@link RefreshImpactAnalyzer} determines, from the current wiring of the framework, which bundles a refresh packages
+ * operation specifying a given bundle would stop, rewire and restart. A refresh whose impact exceeds the configured
+ * blast radius threshold should be rejected.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread-safe.
+ * 
+ */
+public final class RefreshImpactAnalyzer {
+
+    private static final Comparator<Bundle> BUNDLE_ID_ORDER = new Comparator<Bundle>() {
+
+        public int compare(Bundle bundle1, Bundle bundle2) {
+            long id1 = bundle1.getBundleId();
+            long id2 = bundle2.getBundleId();
+            return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+        }
+    };
+
+    private final OsgiFramework osgiFramework;
+
+    private final int blastRadiusThreshold;
+
+    /**
+     * @param osgiFramework the framework whose wiring is analysed
+     * @param blastRadiusThreshold the maximum number of bundles a refresh may affect, or zero for no limit
+     */
+    public RefreshImpactAnalyzer(@NonNull OsgiFramework osgiFramework, int blastRadiusThreshold) {
+        this.osgiFramework = osgiFramework;
+        this.blastRadiusThreshold = Math.max(0, blastRadiusThreshold);
+    }
+
+    /**
+     * Returns the bundles that refreshing the given bundle would affect: the bundle itself and every bundle that is
+     * transitively wired to it, in bundle id order. Nothing is refreshed.
+     * 
+     * @param bundle the bundle to be refreshed
+     * @return the affected bundles
+     */
+    public List<Bundle> analyze(@NonNull Bundle bundle) {
+        FrameworkWiring frameworkWiring = this.osgiFramework.getBundleContext().getBundle(0).adapt(FrameworkWiring.class);
+        List<Bundle> impact = new ArrayList<Bundle>(frameworkWiring.getDependencyClosure(Collections.singleton(bundle)));
+        Collections.sort(impact, BUNDLE_ID_ORDER);
+        return impact;
+    }
+
+    /**
+     * @return the maximum number of bundles a refresh may affect, or zero if refreshes are not limited
+     */
+    public int getBlastRadiusThreshold() {
+        return this.blastRadiusThreshold;
+    }
+
+    /**
+     * @return <code>true</code> if and only if a blast radius threshold is configured
+     */
+    public boolean isLimited() {
+        return this.blastRadiusThreshold > 0;
+    }
+
+    /**
+     * @param impact the bundles a refresh would affect
+     * @return <code>true</code> if and only if a threshold is configured and the given impact exceeds it
+     */
+    public boolean exceedsBlastRadiusThreshold(List<Bundle> impact) {
+        return isLimited() && impact.size() > this.blastRadiusThreshold;
+    }
+
+    /**
+     * Describes the given bundle for inclusion in a refresh impact report.
+     * 
+     * @param bundle the bundle
+     * @return the bundle's id, symbolic name, version and state
+     */
+    public static String describe(Bundle bundle) {
+        return String.format("%d %s %s %s", bundle.getBundleId(), bundle.getSymbolicName(), bundle.getVersion(), getStateName(bundle.getState()));
+    }
+
+    private static String getStateName(int state) {
+        switch (state) {
+            case Bundle.INSTALLED:
+                return "INSTALLED";
+            case Bundle.RESOLVED:
+                return "RESOLVED";
+            case Bundle.STARTING:
+                return "STARTING";
+            case Bundle.ACTIVE:
+                return "ACTIVE";
+            case Bundle.STOPPING:
+                return "STOPPING";
+            case Bundle.UNINSTALLED:
+                return "UNINSTALLED";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc. and others
+ * Copyright (c) 2008, 2012 VMware Inc. and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -37,6 +37,7 @@ import org.eclipse.virgo.kernel.install.artifact.PlanInstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.internal.AbstractInstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.internal.ArtifactStateMonitor;
 import org.eclipse.virgo.kernel.install.artifact.internal.InstallArtifactRefreshHandler;
+import org.eclipse.virgo.kernel.install.artifact.internal.StandardPlanInstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.internal.scoping.ArtifactIdentityScoper;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
@@ -88,6 +89,10 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
 
     private final ArtifactIdentityDeterminer identityDeterminer;
 
+    private final IncrementalScopeRefresh incrementalScopeRefresh;
+
+    private final RefreshImpactAnalyzer refreshImpactAnalyzer;
+
     private BundleManifest bundleManifest;
 
     private QuasiBundle quasiBundle;
@@ -109,11 +114,12 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
      * @param repositoryName
      * @param eventLogger
      * @param identityDeterminer
+     * @param refreshImpactAnalyzer to check the impact of a refresh against the blast radius threshold
      */
     public StandardBundleInstallArtifact(@NonNull ArtifactIdentity artifactIdentifier, @NonNull BundleManifest bundleManifest,
         @NonNull ArtifactStorage artifactStorage, @NonNull BundleDriver bundleDriver, @NonNull ArtifactStateMonitor artifactStateMonitor,
         @NonNull InstallArtifactRefreshHandler refreshHandler, String repositoryName, EventLogger eventLogger,
-        ArtifactIdentityDeterminer identityDeterminer) {
+        ArtifactIdentityDeterminer identityDeterminer, @NonNull RefreshImpactAnalyzer refreshImpactAnalyzer) {
         super(artifactIdentifier, artifactStorage, artifactStateMonitor, repositoryName, eventLogger);
 
         this.artifactStorage = artifactStorage;
@@ -123,6 +129,9 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
         this.refreshHandler = refreshHandler;
 
         this.identityDeterminer = identityDeterminer;
+        this.refreshImpactAnalyzer = refreshImpactAnalyzer;
+
+        this.incrementalScopeRefresh = new IncrementalScopeRefresh();
 
         synchronizeBundleSymbolicNameWithIdentity();
     }
@@ -418,38 +427,63 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
             return false;
         }
 
+        if (!isRefreshImpactWithinThreshold()) {
+            return false;
+        }
+
         /*
          * To avoid this module's bundle from being stopped and started by each of update and refresh packages, stop it
          * if necessary and restart it later if we had to stop it.
          */
         boolean bundleStopped = stopBundleIfNecessary();
 
-        synchronized (this.monitor) {
-            this.bundleManifest = newBundleManifest;
-        }
-
-        synchronizeBundleSymbolicNameWithIdentity();
+        BundleManifest unscopedBundleManifest = null;
+        BundleManifest incrementalBundleManifest = null;
 
-        if (!refreshScope()) {
-            synchronized (this.monitor) {
-                this.bundleManifest = currentBundleManifest;
+        PlanInstallArtifact scopedAncestor = getScopedAncestor();
+        if (scopedAncestor instanceof StandardPlanInstallArtifact) {
+            unscopedBundleManifest = transformWithoutScoping(newBundleManifest);
+            if (unscopedBundleManifest != null) {
+                incrementalBundleManifest = getIncrementalBundleManifest((StandardPlanInstallArtifact) scopedAncestor, currentBundleManifest,
+                    unscopedBundleManifest);
             }
-            startIfNecessary(bundleStopped);
-            return false;
         }
 
-        if (isScoped() && !isExportPackageUnchanged(currentBundleManifest, newBundleManifest)) {
-            this.eventLogger.log(DeployerLogEvents.CANNOT_REFRESH_BUNDLE_AS_SCOPED_AND_EXPORTS_CHANGED, getName(), getVersion());
+        if (incrementalBundleManifest != null) {
+            this.logger.debug("Refreshing {} without refreshing its scope", this);
             synchronized (this.monitor) {
-                this.bundleManifest = currentBundleManifest;
+                this.bundleManifest = incrementalBundleManifest;
+            }
+        } else {
+            synchronized (this.monitor) {
+                this.bundleManifest = newBundleManifest;
+            }
+
+            synchronizeBundleSymbolicNameWithIdentity();
+
+            if (!refreshScope()) {
+                synchronized (this.monitor) {
+                    this.bundleManifest = currentBundleManifest;
+                }
+                startIfNecessary(bundleStopped);
+                return false;
+            }
+
+            if (isScoped() && !isExportPackageUnchanged(currentBundleManifest, newBundleManifest)) {
+                this.eventLogger.log(DeployerLogEvents.CANNOT_REFRESH_BUNDLE_AS_SCOPED_AND_EXPORTS_CHANGED, getName(), getVersion());
+                synchronized (this.monitor) {
+                    this.bundleManifest = currentBundleManifest;
+                }
+                startIfNecessary(bundleStopped);
+                return false;
             }
-            startIfNecessary(bundleStopped);
-            return false;
         }
 
         boolean refreshSuccessful = completeUpdateAndRefresh(bundleStopped);
 
-        if (!refreshSuccessful) {
+        if (refreshSuccessful) {
+            this.incrementalScopeRefresh.rebase(unscopedBundleManifest);
+        } else {
             synchronized (this.monitor) {
                 this.bundleManifest = currentBundleManifest;
             }
@@ -458,6 +492,48 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
         return refreshSuccessful;
     }
 
+    /**
+     * Runs the given new manifest through this bundle's own transformers, without refreshing the scope, and returns a
+     * copy of the result or <code>null</code> if transformation failed. The new manifest itself is not modified.
+     */
+    private BundleManifest transformWithoutScoping(BundleManifest newBundleManifest) {
+        synchronized (this.monitor) {
+            this.bundleManifest = BundleManifestFactory.createBundleManifest(newBundleManifest.toDictionary());
+        }
+
+        synchronizeBundleSymbolicNameWithIdentity();
+
+        if (!this.refreshHandler.refresh(this)) {
+            this.logger.debug("Unable to transform {} without scoping, refreshing scope", this);
+            return null;
+        }
+
+        synchronized (this.monitor) {
+            return BundleManifestFactory.createBundleManifest(this.bundleManifest.toDictionary());
+        }
+    }
+
+    /**
+     * Returns a manifest with which this bundle, a member of a scoped plan, can be refreshed without refreshing the
+     * whole scope, or <code>null</code> if the scope must be refreshed. The scope need not be refreshed if the bundle's
+     * transformed manifest has not changed in a way that affects scoping and the bundle contributes the same services to
+     * the scope.
+     */
+    private BundleManifest getIncrementalBundleManifest(StandardPlanInstallArtifact scopedAncestor, BundleManifest currentBundleManifest,
+        BundleManifest unscopedBundleManifest) {
+        BundleManifest incrementalBundleManifest = this.incrementalScopeRefresh.incrementalManifest(currentBundleManifest, unscopedBundleManifest);
+        if (incrementalBundleManifest == null) {
+            return null;
+        }
+
+        try {
+            return scopedAncestor.isScopeMemberServiceModelUnchanged(this) ? incrementalBundleManifest : null;
+        } catch (DeploymentException de) {
+            this.logger.debug("Unable to compare the service model of " + this + ", refreshing scope", de);
+            return null;
+        }
+    }
+
     private void startIfNecessary(boolean bundleStopped) throws DeploymentException {
         if (bundleStopped) {
             BlockingAbortableSignal signal = new BlockingAbortableSignal(true);
@@ -482,6 +558,29 @@ final class StandardBundleInstallArtifact extends AbstractInstallArtifact implem
         return false;
     }
 
+    private boolean isRefreshImpactWithinThreshold() {
+        Bundle bundle = getBundle();
+        if (bundle == null || !this.refreshImpactAnalyzer.isLimited()) {
+            return true;
+        }
+
+        List<Bundle> impact = this.refreshImpactAnalyzer.analyze(bundle);
+        if (!this.refreshImpactAnalyzer.exceedsBlastRadiusThreshold(impact)) {
+            return true;
+        }
+
+        StringBuilder affectedBundles = new StringBuilder();
+        for (Bundle affectedBundle : impact) {
+            if (affectedBundles.length() > 0) {
+                affectedBundles.append(", ");
+            }
+            affectedBundles.append(RefreshImpactAnalyzer.describe(affectedBundle));
+        }
+        this.eventLogger.log(BundleRefreshLogEvents.REFRESH_BLAST_RADIUS_EXCEEDED, getName(), getVersion(), impact.size(),
+            this.refreshImpactAnalyzer.getBlastRadiusThreshold(), affectedBundles);
+        return false;
+    }
+
     // TODO DAG - think what to do with shared subgraphs.
     // If this bundle belongs to a plan, run the subtree of any scoped plan containing the bundle through the refresh
     // subpipeline.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc. and others
+ * Copyright (c) 2008, 2012 VMware Inc. and others
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,7 +21,9 @@ import org.eclipse.virgo.util.common.GraphNode;
 
 /**
  * An implementation of {@link Transformer} that marks an {@link InstallArtifact} as having been user installed. This is
- * done by setting a property with a key of <code>user.installed</code> and a value of <code>true</code>.
+ * done by setting a property with a key of <code>user.installed</code> and a value of <code>true</code>. Only the root
+ * of an install graph is tagged: a member of a plan which is transformed on its own, for example when it is refreshed,
+ * was installed by its plan and not by the user.
  * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
@@ -37,7 +39,9 @@ public class UserInstalledTaggingTransformer implements Transformer {
      * {@inheritDoc}
      */
     public void transform(GraphNode<InstallArtifact> installGraph, InstallEnvironment installEnvironment) throws DeploymentException {
-        installGraph.getValue().setProperty(USER_INSTALLED, Boolean.TRUE.toString());
+        if (installGraph.getParents().isEmpty()) {
+            installGraph.getValue().setProperty(USER_INSTALLED, Boolean.TRUE.toString());
+        }
     }
 
 }
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.management;
+
+import javax.management.MXBean;
+
+/**
+ * <p>
+ * Defines the operations available on the exported control for analysing, without performing it, the impact of
+ * refreshing a bundle
+ * </p>
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Implementations of this class should be thread safe
+ *
+ */
+@MXBean
+public interface RefreshImpactAnalysis {
+
+    /**
+     * Returns the bundles that refreshing the given bundle in the user region would stop, rewire and restart,
+     * including the bundle itself. Each bundle is described by its id, symbolic name, version and state. The bundle is
+     * not refreshed.
+     * 
+     * @param bundleSymbolicName the symbolic name of the bundle
+     * @param bundleVersion the version of the bundle
+     * @return the descriptions of the affected bundles, in bundle id order
+     * @throws IllegalArgumentException if no such bundle is installed in the user region
+     */
+    public String[] analyzeBundleRefresh(String bundleSymbolicName, String bundleVersion);
+
+    /**
+     * Returns the maximum number of bundles a deployer refresh of a bundle may affect. Refreshes which would affect
+     * more bundles are rejected.
+     * 
+     * @return the blast radius threshold, or zero if refreshes are not limited
+     */
+    public int getBlastRadiusThreshold();
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.management.internal;
+
+import java.util.List;
+
+import org.eclipse.virgo.kernel.install.artifact.internal.bundle.RefreshImpactAnalyzer;
+import org.eclipse.virgo.kernel.management.RefreshImpactAnalysis;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+/**
+ * This class is an MBean reporting the impact of refreshing a bundle without refreshing it. Standard implementation of
+ * <code>RefreshImpactAnalysis</code>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * This class is thread safe
+ * 
+ */
+public class StandardRefreshImpactAnalysis implements RefreshImpactAnalysis {
+
+    private final RefreshImpactAnalyzer refreshImpactAnalyzer;
+
+    private final BundleContext userRegionBundleContext;
+
+    public StandardRefreshImpactAnalysis(RefreshImpactAnalyzer refreshImpactAnalyzer, BundleContext userRegionBundleContext) {
+        this.refreshImpactAnalyzer = refreshImpactAnalyzer;
+        this.userRegionBundleContext = userRegionBundleContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] analyzeBundleRefresh(String bundleSymbolicName, String bundleVersion) {
+        List<Bundle> impact = this.refreshImpactAnalyzer.analyze(findBundle(bundleSymbolicName, Version.parseVersion(bundleVersion)));
+        String[] descriptions = new String[impact.size()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = RefreshImpactAnalyzer.describe(impact.get(i));
+        }
+        return descriptions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getBlastRadiusThreshold() {
+        return this.refreshImpactAnalyzer.getBlastRadiusThreshold();
+    }
+
+    private Bundle findBundle(String bundleSymbolicName, Version bundleVersion) {
+        for (Bundle bundle : this.userRegionBundleContext.getBundles()) {
+            if (bundleSymbolicName.equals(bundle.getSymbolicName()) && bundleVersion.equals(bundle.getVersion())) {
+                return bundle;
+            }
+        }
+        throw new IllegalArgumentException(String.format("No bundle with symbolic name '%s' and version '%s' was found", bundleSymbolicName,
+            bundleVersion));
+    }
+}
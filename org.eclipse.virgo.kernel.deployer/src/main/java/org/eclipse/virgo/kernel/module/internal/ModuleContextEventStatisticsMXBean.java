@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.module.internal;
+
+import java.util.List;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the delivery of module context events to their listeners. It is registered as
+ * <code>&lt;domain&gt;:type=Statistics,name=ModuleContextEvents</code>.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Implementations <strong>must</strong> be threadsafe.
+ *
+ */
+@MXBean
+public interface ModuleContextEventStatisticsMXBean {
+
+    /**
+     * @return the delivery statistics of each listener currently being tracked, in no particular order
+     */
+    List<ListenerStatistics> getListenerStatistics();
+
+    /**
+     * The number of events delivered to a listener and the time it spent handling them.
+     */
+    interface ListenerStatistics {
+
+        /**
+         * @return a description of the listener
+         */
+        String getListener();
+
+        /**
+         * @return the number of events delivered to the listener
+         */
+        long getEventCount();
+
+        /**
+         * @return the total time, in nanoseconds, the listener spent handling events
+         */
+        long getTotalNanos();
+
+        /**
+         * @return the longest time, in nanoseconds, the listener spent handling a single event
+         */
+        long getMaxNanos();
+    }
+}
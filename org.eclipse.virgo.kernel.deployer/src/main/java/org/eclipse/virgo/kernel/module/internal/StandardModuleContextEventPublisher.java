@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,119 +11,298 @@
 
 package org.eclipse.virgo.kernel.module.internal;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.eclipse.virgo.nano.core.FatalKernelException;
 import org.eclipse.virgo.kernel.module.ModuleContextEvent;
 import org.eclipse.virgo.kernel.module.ModuleContextEventListener;
 import org.eclipse.virgo.kernel.module.ModuleContextEventPublisher;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceEvent;
-import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * {@link StandardModuleContextEventPublisher} is the default implementation of {@link ModuleContextEventPublisher}. It
- * maintains a collection of {@link ModuleContextEventListener ModuleContextEventListeners} and publishes events to
+ * tracks {@link ModuleContextEventListener ModuleContextEventListeners} in the service registry and publishes events to
  * those listeners. <p />
  * 
+ * The tracked listeners are held in an immutable snapshot which is replaced whenever a listener is added or removed, so
+ * publishing an event neither copies the listeners nor takes a lock. <p />
+ * 
+ * Events are delivered on the publishing thread unless the publisher is created for asynchronous delivery. In that
+ * case each listener has its own queue and thread, so a slow listener delays only its own events, and each listener
+ * still receives events in the order they were published. In either mode the number of events delivered to each
+ * listener and the time it spent handling them are recorded and published through
+ * {@link ModuleContextEventStatisticsMXBean}. <p />
+ * 
  * <strong>Concurrent Semantics</strong><br />
  * 
  * This class is thread safe.
  * 
  */
-final class StandardModuleContextEventPublisher implements ModuleContextEventPublisher {
-    
-    private static final String SERVICE_TYPE_PROPERTY_KEY = "objectclass";
-    
+final class StandardModuleContextEventPublisher implements ModuleContextEventPublisher, ModuleContextEventStatisticsMXBean {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
     private final Object monitor = new Object();
-    
-    private Set<ModuleContextEventListener> listeners = new HashSet<ModuleContextEventListener>();
 
     private final BundleContext bundleContext;
-    
-    @SuppressWarnings("unchecked")
+
+    private final boolean asynchronous;
+
+    private final ServiceTracker<ModuleContextEventListener, ListenerRegistration> listenerTracker;
+
+    private volatile List<ListenerRegistration> listeners = Collections.emptyList();
+
     StandardModuleContextEventPublisher(BundleContext bundleContext) {
-        synchronized (this.monitor) {
-            this.bundleContext = bundleContext;
-            try {
-                ServiceReference<ModuleContextEventListener>[] allServiceReferences = (ServiceReference<ModuleContextEventListener>[]) bundleContext.getAllServiceReferences(ModuleContextEventListener.class.getName(), null);
-                if (allServiceReferences != null) {
-                    for (ServiceReference<ModuleContextEventListener> serviceReference : allServiceReferences) {
-                        registerListener(serviceReference);
-                    }
-                }
-                bundleContext.addServiceListener(new ListenerListener(), "(" + SERVICE_TYPE_PROPERTY_KEY + "=" + ModuleContextEventListener.class.getName() + ")");
-            } catch (InvalidSyntaxException e) {
-                throw new FatalKernelException("Invalid filter", e);
+        this(bundleContext, false);
+    }
+
+    StandardModuleContextEventPublisher(BundleContext bundleContext, boolean asynchronous) {
+        this.bundleContext = bundleContext;
+        this.asynchronous = asynchronous;
+        this.listenerTracker = new ServiceTracker<ModuleContextEventListener, ListenerRegistration>(bundleContext,
+            ModuleContextEventListener.class, new ListenerTrackerCustomizer());
+        this.listenerTracker.open();
+    }
+
+    /**
+     * Stops tracking listeners. Events already queued for asynchronous delivery are still delivered.
+     */
+    public void close() {
+        this.listenerTracker.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onEvent(ModuleContextEvent moduleContextEvent) {
+        for (ListenerRegistration listener : this.listeners) {
+            if (this.asynchronous) {
+                listener.deliverAsynchronously(moduleContextEvent);
+            } else {
+                listener.deliver(moduleContextEvent);
             }
         }
     }
-    
+
     /**
-     * Register a listener.
-     * 
-     * @param serviceReference the listener service
+     * {@inheritDoc}
      */
-    private void registerListener(ServiceReference<ModuleContextEventListener> serviceReference) {
+    public List<ListenerStatistics> getListenerStatistics() {
+        List<ListenerStatistics> statistics = new ArrayList<ListenerStatistics>();
+        for (ListenerRegistration listener : this.listeners) {
+            statistics.add(listener.statistics);
+        }
+        return statistics;
+    }
+
+    private void addListener(ListenerRegistration listener) {
         synchronized (this.monitor) {
-            this.listeners.add((ModuleContextEventListener)this.bundleContext.getService(serviceReference));
+            List<ListenerRegistration> listeners = new ArrayList<ListenerRegistration>(this.listeners);
+            listeners.add(listener);
+            this.listeners = Collections.unmodifiableList(listeners);
         }
     }
-    
-    /**
-     * Deregisters a listener.
-     * 
-     * @param serviceReference the listener service
-     */
-    public void deregisterListener(ServiceReference<ModuleContextEventListener> serviceReference) {
+
+    private void removeListener(ListenerRegistration listener) {
         synchronized (this.monitor) {
-            this.listeners.remove((ModuleContextEventListener)this.bundleContext.getService(serviceReference));
-            this.bundleContext.ungetService(serviceReference);
+            List<ListenerRegistration> listeners = new ArrayList<ListenerRegistration>(this.listeners);
+            listeners.remove(listener);
+            this.listeners = Collections.unmodifiableList(listeners);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Maintains the snapshot of listeners as listener services are registered and unregistered.
      */
-    public void onEvent(ModuleContextEvent moduleContextEvent) {
-        // Publish event across a copy of the set of listeners to avoid making alien calls.
-        for (ModuleContextEventListener moduleContextEventListener : getListeners()) {
-            moduleContextEventListener.onEvent(moduleContextEvent);
+    private final class ListenerTrackerCustomizer implements ServiceTrackerCustomizer<ModuleContextEventListener, ListenerRegistration> {
+
+        /**
+         * {@inheritDoc}
+         */
+        public ListenerRegistration addingService(ServiceReference<ModuleContextEventListener> reference) {
+            ModuleContextEventListener listener = bundleContext.getService(reference);
+            if (listener == null) {
+                return null;
+            }
+            ListenerRegistration registration = new ListenerRegistration(listener);
+            addListener(registration);
+            return registration;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void modifiedService(ServiceReference<ModuleContextEventListener> reference, ListenerRegistration registration) {
+            // Nothing to do
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void removedService(ServiceReference<ModuleContextEventListener> reference, ListenerRegistration registration) {
+            removeListener(registration);
+            registration.shutdown();
+            bundleContext.ungetService(reference);
         }
     }
-    
-    private Set<ModuleContextEventListener> getListeners() {
-        Set<ModuleContextEventListener> l = new HashSet<ModuleContextEventListener>();
-        synchronized (this.monitor) {
-            l.addAll(this.listeners);
+
+    /**
+     * A tracked listener together with its delivery statistics and, when delivery is asynchronous, its executor.
+     */
+    private final class ListenerRegistration {
+
+        private final ModuleContextEventListener listener;
+
+        private final DeliveryStatistics statistics;
+
+        private final Object executorMonitor = new Object();
+
+        private ExecutorService executor;
+
+        private boolean shutdown;
+
+        private ListenerRegistration(ModuleContextEventListener listener) {
+            this.listener = listener;
+            this.statistics = new DeliveryStatistics(listener.toString());
+        }
+
+        private void deliver(ModuleContextEvent moduleContextEvent) {
+            long start = System.nanoTime();
+            try {
+                this.listener.onEvent(moduleContextEvent);
+            } finally {
+                this.statistics.record(System.nanoTime() - start);
+            }
+        }
+
+        private void deliverAsynchronously(final ModuleContextEvent moduleContextEvent) {
+            ExecutorService executor = getExecutor();
+            if (executor == null) {
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+
+                    public void run() {
+                        try {
+                            deliver(moduleContextEvent);
+                        } catch (RuntimeException e) {
+                            logger.error(String.format("Module context event listener '%s' failed to handle an event", listener), e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The listener has been unregistered
+            }
+        }
+
+        private ExecutorService getExecutor() {
+            synchronized (this.executorMonitor) {
+                if (this.executor == null && !this.shutdown) {
+                    this.executor = Executors.newSingleThreadExecutor(new ListenerThreadFactory(this.listener));
+                }
+                return this.executor;
+            }
+        }
+
+        private void shutdown() {
+            synchronized (this.executorMonitor) {
+                this.shutdown = true;
+                if (this.executor != null) {
+                    this.executor.shutdown();
+                }
+            }
+            logger.debug("Module context event listener '{}' handled {} events in {} ms, the slowest taking {} ms", new Object[] {
+                this.listener, this.statistics.getEventCount(), TimeUnit.NANOSECONDS.toMillis(this.statistics.getTotalNanos()),
+                TimeUnit.NANOSECONDS.toMillis(this.statistics.getMaxNanos()) });
         }
-        return l;
     }
 
     /**
-     * Listener which drives register and deregister when listeners are registered and deregistered, respectively.
+     * The number of events delivered to a listener and the time it spent handling them.
      */
-    private class ListenerListener implements ServiceListener {
-
-        @SuppressWarnings("unchecked")
-        public void serviceChanged(ServiceEvent event) {
-            synchronized (StandardModuleContextEventPublisher.this.monitor) {
-                switch (event.getType()) {
-                    case ServiceEvent.REGISTERED:
-                        registerListener((ServiceReference<ModuleContextEventListener>) event.getServiceReference());
-                        break;
-                    case ServiceEvent.UNREGISTERING:
-                        deregisterListener((ServiceReference<ModuleContextEventListener>) event.getServiceReference());
-                        break;
-                    default:
-                        break;
+    private static final class DeliveryStatistics implements ListenerStatistics {
+
+        private final String listener;
+
+        private final AtomicLong eventCount = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private DeliveryStatistics(String listener) {
+            this.listener = listener;
+        }
+
+        private void record(long nanos) {
+            this.eventCount.incrementAndGet();
+            this.totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = this.maxNanos.get())) {
+                if (this.maxNanos.compareAndSet(max, nanos)) {
+                    break;
                 }
             }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getListener() {
+            return this.listener;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getEventCount() {
+            return this.eventCount.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getTotalNanos() {
+            return this.totalNanos.get();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getMaxNanos() {
+            return this.maxNanos.get();
+        }
+    }
+
+    private static final class ListenerThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        private ListenerThreadFactory(ModuleContextEventListener listener) {
+            this.name = "module-context-events-" + listener.getClass().getSimpleName();
+        }
 
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.name);
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.easymock.IAnswer;
+import org.eclipse.virgo.kernel.artifact.fs.ArtifactFS;
+import org.eclipse.virgo.kernel.artifact.fs.internal.DirectoryArtifactFS;
+import org.eclipse.virgo.kernel.install.artifact.BundleInstallArtifact;
+import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.medic.test.eventlog.MockEventLogger;
+import org.eclipse.virgo.util.io.IOUtils;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+/**
+ */
+public class PlanScoperTests {
+
+    private final File bundleFile = new File("src/test/resources/org/eclipse/virgo/kernel/install/artifact/internal/scoped-member-bundle");
+
+    @Test
+    public void scopeDescribesServicesOfEachBundleMember() throws Exception {
+        BundleInstallArtifact bundle = createNiceMock(BundleInstallArtifact.class);
+        expect(bundle.getBundleManifest()).andReturn(readBundleManifest()).anyTimes();
+        // Like the deployer's own artifacts, return a new ArtifactFS on each call
+        expect(bundle.getArtifactFS()).andAnswer(new IAnswer<ArtifactFS>() {
+
+            public ArtifactFS answer() {
+                return new DirectoryArtifactFS(PlanScoperTests.this.bundleFile);
+            }
+        }).anyTimes();
+        replay(bundle);
+
+        PlanScoper planScoper = new PlanScoper(Arrays.<InstallArtifact> asList(bundle), "scoped-plan", new Version(1, 0, 0),
+            new StandardScopeServiceRepository(), new MockEventLogger());
+        Map<InstallArtifact, String> memberServiceModels = planScoper.scope();
+
+        assertEquals(1, memberServiceModels.size());
+        assertTrue(memberServiceModels.get(bundle).contains(Serializable.class.getName()));
+    }
+
+    private BundleManifest readBundleManifest() throws Exception {
+        FileReader reader = null;
+        try {
+            reader = new FileReader(new File(this.bundleFile, "META-INF/MANIFEST.MF"));
+            return BundleManifestFactory.createBundleManifest(reader);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+}
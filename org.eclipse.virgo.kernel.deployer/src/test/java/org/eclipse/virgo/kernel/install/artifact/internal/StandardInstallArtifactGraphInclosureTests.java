@@ -41,6 +41,7 @@ import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifactGraphFactory;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifactGraphInclosure;
 import org.eclipse.virgo.kernel.install.artifact.internal.bundle.BundleInstallArtifactGraphFactory;
+import org.eclipse.virgo.kernel.install.artifact.internal.bundle.RefreshImpactAnalyzer;
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironmentFactory;
 import org.eclipse.virgo.kernel.install.pipeline.Pipeline;
 import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
@@ -127,7 +128,7 @@ public class StandardInstallArtifactGraphInclosureTests {
 
         bundleContext.registerService(InstallArtifactGraphFactory.class.getName(), new BundleInstallArtifactGraphFactory(this.osgiFramework,
             bundleContext, refreshHelper, this.bundleStarter, this.tracingService, this.packageAdminUtil, userRegionBundleContext,
-            new MockEventLogger(), null, dag), null);
+            new MockEventLogger(), null, dag, new RefreshImpactAnalyzer(this.osgiFramework, 0)), null);
 
         this.installArtifactFactory = new StandardInstallArtifactGraphInclosure(this.artifactStorageFactory, bundleContext, new MockEventLogger());
 
@@ -170,7 +171,7 @@ public class StandardInstallArtifactGraphInclosureTests {
 
         bundleContext.registerService(InstallArtifactGraphFactory.class.getName(), new BundleInstallArtifactGraphFactory(this.osgiFramework,
             bundleContext, refreshHelper, this.bundleStarter, this.tracingService, this.packageAdminUtil, userRegionBundleContext,
-            new MockEventLogger(), null, dag), null);
+            new MockEventLogger(), null, dag, new RefreshImpactAnalyzer(this.osgiFramework, 0)), null);
 
         this.installArtifactFactory = new StandardInstallArtifactGraphInclosure(this.artifactStorageFactory, bundleContext, new MockEventLogger());
 
@@ -197,7 +198,7 @@ public class StandardInstallArtifactGraphInclosureTests {
 
         bundleContext.registerService(InstallArtifactGraphFactory.class.getName(), new BundleInstallArtifactGraphFactory(this.osgiFramework,
             bundleContext, refreshHelper, this.bundleStarter, this.tracingService, this.packageAdminUtil, userRegionBundleContext,
-            new MockEventLogger(), null, dag), null);
+            new MockEventLogger(), null, dag, new RefreshImpactAnalyzer(this.osgiFramework, 0)), null);
 
         this.installArtifactFactory = new StandardInstallArtifactGraphInclosure(this.artifactStorageFactory, bundleContext, new MockEventLogger());
 
@@ -228,7 +229,7 @@ public class StandardInstallArtifactGraphInclosureTests {
 
         bundleContext.registerService(InstallArtifactGraphFactory.class.getName(), new BundleInstallArtifactGraphFactory(this.osgiFramework,
             bundleContext, refreshHelper, this.bundleStarter, this.tracingService, this.packageAdminUtil, userRegionBundleContext,
-            new MockEventLogger(), null, dag), null);
+            new MockEventLogger(), null, dag, new RefreshImpactAnalyzer(this.osgiFramework, 0)), null);
 
         this.installArtifactFactory = new StandardInstallArtifactGraphInclosure(this.artifactStorageFactory, bundleContext, new MockEventLogger());
 
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.junit.Test;
+
+/**
+ */
+public class IncrementalScopeRefreshTests {
+
+    @Test
+    public void noBaselineRequiresScopeRefresh() {
+        IncrementalScopeRefresh incrementalScopeRefresh = new IncrementalScopeRefresh();
+
+        assertNull(incrementalScopeRefresh.incrementalManifest(scopedManifest(), unscopedManifest("a")));
+    }
+
+    @Test
+    public void unchangedManifestReusesScopedManifest() {
+        IncrementalScopeRefresh incrementalScopeRefresh = incrementalScopeRefresh(unscopedManifest("a"));
+
+        BundleManifest incrementalManifest = incrementalScopeRefresh.incrementalManifest(scopedManifest(), unscopedManifest("a"));
+
+        assertNotNull(incrementalManifest);
+        assertEquals("plan-1", incrementalManifest.getImportPackage().getImportedPackages().get(0).getAttributes().get("module_scope"));
+    }
+
+    @Test
+    public void changedDescriptiveHeaderIsAppliedToScopedManifest() {
+        IncrementalScopeRefresh incrementalScopeRefresh = incrementalScopeRefresh(unscopedManifest("a"));
+
+        BundleManifest newUnscopedManifest = unscopedManifest("a");
+        newUnscopedManifest.setHeader("Bundle-Name", "Renamed");
+        BundleManifest incrementalManifest = incrementalScopeRefresh.incrementalManifest(scopedManifest(), newUnscopedManifest);
+
+        assertNotNull(incrementalManifest);
+        assertEquals("Renamed", incrementalManifest.getHeader("Bundle-Name"));
+        assertEquals("plan-1", incrementalManifest.getImportPackage().getImportedPackages().get(0).getAttributes().get("module_scope"));
+    }
+
+    @Test
+    public void changedExportsRequireScopeRefresh() {
+        IncrementalScopeRefresh incrementalScopeRefresh = incrementalScopeRefresh(unscopedManifest("a"));
+
+        assertNull(incrementalScopeRefresh.incrementalManifest(scopedManifest(), unscopedManifest("a,c")));
+    }
+
+    @Test
+    public void changedImportsRequireScopeRefresh() {
+        IncrementalScopeRefresh incrementalScopeRefresh = incrementalScopeRefresh(unscopedManifest("a"));
+
+        BundleManifest newUnscopedManifest = unscopedManifest("a");
+        newUnscopedManifest.setHeader("Import-Package", "b,d");
+        assertNull(incrementalScopeRefresh.incrementalManifest(scopedManifest(), newUnscopedManifest));
+    }
+
+    @Test
+    public void rebaseChangesBaseline() {
+        IncrementalScopeRefresh incrementalScopeRefresh = incrementalScopeRefresh(unscopedManifest("a"));
+        incrementalScopeRefresh.rebase(unscopedManifest("a,c"));
+
+        assertNotNull(incrementalScopeRefresh.incrementalManifest(scopedManifest(), unscopedManifest("a,c")));
+        assertNull(incrementalScopeRefresh.incrementalManifest(scopedManifest(), unscopedManifest("a")));
+    }
+
+    private static IncrementalScopeRefresh incrementalScopeRefresh(BundleManifest baseline) {
+        IncrementalScopeRefresh incrementalScopeRefresh = new IncrementalScopeRefresh();
+        incrementalScopeRefresh.rebase(baseline);
+        return incrementalScopeRefresh;
+    }
+
+    private static BundleManifest unscopedManifest(String exports) {
+        BundleManifest bundleManifest = BundleManifestFactory.createBundleManifest();
+        bundleManifest.setBundleManifestVersion(2);
+        bundleManifest.setHeader("Bundle-SymbolicName", "bundle");
+        bundleManifest.setHeader("Bundle-Name", "Bundle");
+        bundleManifest.setHeader("Export-Package", exports);
+        bundleManifest.setHeader("Import-Package", "b");
+        return bundleManifest;
+    }
+
+    private static BundleManifest scopedManifest() {
+        BundleManifest bundleManifest = unscopedManifest("a");
+        bundleManifest.setHeader("Bundle-SymbolicName", "plan-1-bundle");
+        bundleManifest.setHeader("Import-Package", "b;version=\"[1.0.0,1.0.0]\";module_scope=\"plan-1\"");
+        return bundleManifest;
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class RefreshImpactAnalyzerTests {
+
+    private final OsgiFramework osgiFramework = createMock(OsgiFramework.class);
+
+    private final BundleContext bundleContext = createMock(BundleContext.class);
+
+    private final Bundle systemBundle = createMock(Bundle.class);
+
+    private final FrameworkWiring frameworkWiring = createMock(FrameworkWiring.class);
+
+    @Test
+    public void dependencyClosureInBundleIdOrder() {
+        Bundle refreshed = createBundle(7);
+        Bundle importer = createBundle(12);
+        Bundle transitiveImporter = createBundle(3);
+
+        expect(this.osgiFramework.getBundleContext()).andReturn(this.bundleContext);
+        expect(this.bundleContext.getBundle(0)).andReturn(this.systemBundle);
+        expect(this.systemBundle.adapt(FrameworkWiring.class)).andReturn(this.frameworkWiring);
+        expect(this.frameworkWiring.getDependencyClosure(Collections.singleton(refreshed))).andReturn(
+            Arrays.asList(importer, refreshed, transitiveImporter));
+        replay(this.osgiFramework, this.bundleContext, this.systemBundle, this.frameworkWiring);
+
+        List<Bundle> impact = new RefreshImpactAnalyzer(this.osgiFramework, 0).analyze(refreshed);
+
+        assertEquals(Arrays.asList(transitiveImporter, refreshed, importer), impact);
+        verify(this.osgiFramework, this.bundleContext, this.systemBundle, this.frameworkWiring);
+    }
+
+    @Test
+    public void unlimitedByDefault() {
+        RefreshImpactAnalyzer analyzer = new RefreshImpactAnalyzer(this.osgiFramework, 0);
+
+        assertFalse(analyzer.isLimited());
+        assertFalse(analyzer.exceedsBlastRadiusThreshold(Arrays.asList(createBundle(1), createBundle(2), createBundle(3))));
+    }
+
+    @Test
+    public void negativeThresholdIsUnlimited() {
+        RefreshImpactAnalyzer analyzer = new RefreshImpactAnalyzer(this.osgiFramework, -5);
+
+        assertEquals(0, analyzer.getBlastRadiusThreshold());
+        assertFalse(analyzer.isLimited());
+    }
+
+    @Test
+    public void thresholdExceeded() {
+        RefreshImpactAnalyzer analyzer = new RefreshImpactAnalyzer(this.osgiFramework, 2);
+
+        assertTrue(analyzer.isLimited());
+        assertFalse(analyzer.exceedsBlastRadiusThreshold(Arrays.asList(createBundle(1), createBundle(2))));
+        assertTrue(analyzer.exceedsBlastRadiusThreshold(Arrays.asList(createBundle(1), createBundle(2), createBundle(3))));
+    }
+
+    @Test
+    public void describe() {
+        Bundle bundle = createMock(Bundle.class);
+        expect(bundle.getBundleId()).andReturn(42L);
+        expect(bundle.getSymbolicName()).andReturn("a.b.c");
+        expect(bundle.getVersion()).andReturn(new Version(1, 2, 3));
+        expect(bundle.getState()).andReturn(Bundle.ACTIVE);
+        replay(bundle);
+
+        assertEquals("42 a.b.c 1.2.3 ACTIVE", RefreshImpactAnalyzer.describe(bundle));
+    }
+
+    private static Bundle createBundle(long bundleId) {
+        Bundle bundle = createMock(Bundle.class);
+        expect(bundle.getBundleId()).andReturn(bundleId).anyTimes();
+        replay(bundle);
+        return bundle;
+    }
+}
@@ -13,12 +13,14 @@
 package org.eclipse.virgo.kernel.install.artifact.internal.bundle;
 
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.isNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -26,23 +28,34 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
 
+import org.easymock.IAnswer;
+import org.eclipse.virgo.kernel.artifact.ArtifactSpecification;
 import org.eclipse.virgo.kernel.artifact.fs.ArtifactFS;
 import org.eclipse.virgo.kernel.artifact.fs.internal.DirectoryArtifactFS;
+import org.eclipse.virgo.kernel.artifact.plan.PlanDescriptor.Provisioning;
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentity;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactIdentityDeterminer;
 import org.eclipse.virgo.kernel.install.artifact.ArtifactStorage;
 import org.eclipse.virgo.kernel.install.artifact.BundleInstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
+import org.eclipse.virgo.kernel.install.artifact.ScopeServiceRepository;
 import org.eclipse.virgo.kernel.install.artifact.internal.ArtifactStateMonitor;
 import org.eclipse.virgo.kernel.install.artifact.internal.StandardArtifactStateMonitor;
+import org.eclipse.virgo.kernel.install.artifact.internal.StandardPlanInstallArtifact;
 import org.eclipse.virgo.kernel.install.artifact.internal.StubInstallArtifactRefreshHandler;
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
 import org.eclipse.virgo.medic.test.eventlog.MockEventLogger;
+import org.eclipse.virgo.nano.shim.scope.Scope;
+import org.eclipse.virgo.nano.shim.scope.ScopeFactory;
 import org.eclipse.virgo.test.stubs.framework.StubBundle;
 import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
 import org.eclipse.virgo.util.common.DirectedAcyclicGraph;
+import org.eclipse.virgo.util.common.GraphNode;
 import org.eclipse.virgo.util.common.ThreadSafeDirectedAcyclicGraph;
 import org.eclipse.virgo.util.io.IOUtils;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
@@ -50,6 +63,8 @@ import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.FrameworkWiring;
 
 /**
  */
@@ -67,15 +82,27 @@ public class StandardBundleInstallArtifactTests {
 
     private final ArtifactStateMonitor artifactStateMonitor = new StandardArtifactStateMonitor(this.bundleContext);
 
+    private final MockEventLogger eventLogger = new MockEventLogger();
+
     private BundleInstallArtifact createInstallArtifact(ArtifactStorage artifactStorage, ArtifactStateMonitor artifactStateMonitor)
         throws IOException {
+        return createInstallArtifact(this.bundleFile, artifactStorage, artifactStateMonitor);
+    }
+
+    private BundleInstallArtifact createInstallArtifact(File bundleFile, ArtifactStorage artifactStorage, ArtifactStateMonitor artifactStateMonitor)
+        throws IOException {
+        return createInstallArtifact(bundleFile, artifactStorage, artifactStateMonitor, new RefreshImpactAnalyzer(createMock(OsgiFramework.class), 0));
+    }
+
+    private BundleInstallArtifact createInstallArtifact(File bundleFile, ArtifactStorage artifactStorage, ArtifactStateMonitor artifactStateMonitor,
+        RefreshImpactAnalyzer refreshImpactAnalyzer) throws IOException {
         FileReader reader = null;
         try {
             reader = new FileReader(new File(bundleFile, "META-INF/MANIFEST.MF"));
             BundleManifest bundleManifest = BundleManifestFactory.createBundleManifest(reader);
             return new StandardBundleInstallArtifact(new ArtifactIdentity(ArtifactIdentityDeterminer.BUNDLE_TYPE,
                 bundleManifest.getBundleSymbolicName().getSymbolicName(), bundleManifest.getBundleVersion(), null), bundleManifest, artifactStorage,
-                bundleDriver, artifactStateMonitor, this.refreshHandler, null, new MockEventLogger(), identityDeterminer);
+                bundleDriver, artifactStateMonitor, this.refreshHandler, null, this.eventLogger, identityDeterminer, refreshImpactAnalyzer);
         } finally {
             IOUtils.closeQuietly(reader);
         }
@@ -133,6 +160,105 @@ public class StandardBundleInstallArtifactTests {
         this.refreshHandler.assertRefreshed(artifact);
     }
 
+    @Test
+    public void refreshExceedingBlastRadiusThresholdIsRejected() throws IOException, DeploymentException {
+        StubBundle bundle = new StubBundle(7L, "refreshed", new Version(1, 0, 0), "");
+        bundle.setState(Bundle.ACTIVE);
+        StubBundle importer = new StubBundle(12L, "importer", new Version(1, 0, 0), "");
+        StubBundle transitiveImporter = new StubBundle(3L, "transitive.importer", new Version(1, 0, 0), "");
+
+        OsgiFramework osgiFramework = createMock(OsgiFramework.class);
+        BundleContext systemBundleContext = createMock(BundleContext.class);
+        Bundle systemBundle = createMock(Bundle.class);
+        FrameworkWiring frameworkWiring = createMock(FrameworkWiring.class);
+        expect(osgiFramework.getBundleContext()).andReturn(systemBundleContext);
+        expect(systemBundleContext.getBundle(0)).andReturn(systemBundle);
+        expect(systemBundle.adapt(FrameworkWiring.class)).andReturn(frameworkWiring);
+        expect(frameworkWiring.getDependencyClosure(Collections.<Bundle> singleton(bundle))).andReturn(
+            Arrays.<Bundle> asList(importer, bundle, transitiveImporter));
+        replay(osgiFramework, systemBundleContext, systemBundle, frameworkWiring);
+
+        StandardBundleInstallArtifact artifact = (StandardBundleInstallArtifact) createInstallArtifact(this.bundleFile, createArtifactStorage(),
+            this.artifactStateMonitor, new RefreshImpactAnalyzer(osgiFramework, 2));
+
+        QuasiBundle quasiBundle = createMock(QuasiBundle.class);
+        expect(quasiBundle.getBundle()).andReturn(bundle).anyTimes();
+        replay(quasiBundle);
+        artifact.setQuasiBundle(quasiBundle);
+
+        ArtifactIdentity identity = new ArtifactIdentity(artifact.getType(), artifact.getName(), artifact.getVersion(), artifact.getScopeName());
+        expect(this.identityDeterminer.determineIdentity(isA(File.class), (String) isNull())).andReturn(identity);
+        replay(this.identityDeterminer, this.bundleDriver);
+
+        assertFalse(artifact.doRefresh());
+
+        assertTrue(this.eventLogger.isLogged("DE0072W"));
+        assertEquals(Bundle.ACTIVE, bundle.getState());
+        verify(osgiFramework, systemBundleContext, systemBundle, frameworkWiring, this.identityDeterminer, this.bundleDriver);
+    }
+
+    @Test
+    public void refreshScopedPlanMemberWithoutRefreshingScope() throws Exception {
+        final File scopedBundleFile = new File("src/test/resources/org/eclipse/virgo/kernel/install/artifact/internal/scoped-member-bundle");
+        // Like the deployer's own storage, return a new ArtifactFS on each call
+        ArtifactStorage artifactStorage = createNiceMock(ArtifactStorage.class);
+        expect(artifactStorage.getArtifactFS()).andAnswer(new IAnswer<ArtifactFS>() {
+
+            public ArtifactFS answer() {
+                return new DirectoryArtifactFS(scopedBundleFile);
+            }
+        }).anyTimes();
+        replay(artifactStorage);
+        StandardBundleInstallArtifact artifact = (StandardBundleInstallArtifact) createInstallArtifact(scopedBundleFile, artifactStorage,
+            this.artifactStateMonitor);
+
+        Scope scope = createMock(Scope.class);
+        expect(scope.getScopeName()).andReturn("scoped-plan-1").anyTimes();
+        ScopeFactory scopeFactory = createMock(ScopeFactory.class);
+        expect(scopeFactory.getApplicationScope("scoped-plan-1")).andReturn(scope);
+        ArtifactStorage planStorage = createNiceMock(ArtifactStorage.class);
+        ScopeServiceRepository scopeServiceRepository = createNiceMock(ScopeServiceRepository.class);
+        replay(scope, scopeFactory, planStorage, scopeServiceRepository);
+        StandardPlanInstallArtifact plan = new StandardPlanInstallArtifact(new ArtifactIdentity(ArtifactIdentityDeterminer.PLAN_TYPE,
+            "scoped-plan", new Version(1, 0, 0), null), false, true, Provisioning.AUTO, planStorage,
+            this.artifactStateMonitor, scopeServiceRepository, scopeFactory, new MockEventLogger(), this.refreshHandler, null,
+            Collections.<ArtifactSpecification> emptyList()) {
+        };
+
+        DirectedAcyclicGraph<InstallArtifact> dag = new ThreadSafeDirectedAcyclicGraph<InstallArtifact>();
+        GraphNode<InstallArtifact> planNode = dag.createRootNode(plan);
+        plan.setGraph(planNode);
+        GraphNode<InstallArtifact> bundleNode = dag.createRootNode(artifact);
+        artifact.setGraph(bundleNode);
+        planNode.addChild(bundleNode);
+
+        plan.scope();
+        assertTrue(plan.isScopeMemberServiceModelUnchanged(artifact));
+
+        QuasiBundle quasiBundle = createMock(QuasiBundle.class);
+        StubBundle bundle = new StubBundle();
+        bundle.setState(Bundle.INSTALLED);
+        expect(quasiBundle.getBundle()).andReturn(bundle).anyTimes();
+        replay(quasiBundle);
+        artifact.setQuasiBundle(quasiBundle);
+
+        ArtifactIdentity identity = new ArtifactIdentity(artifact.getType(), artifact.getName(), artifact.getVersion(), artifact.getScopeName());
+        expect(this.identityDeterminer.determineIdentity(isA(File.class), (String) isNull())).andReturn(identity).times(2);
+        expect(this.bundleDriver.update(isA(BundleManifest.class), isA(File.class))).andReturn(true).times(2);
+        replay(this.identityDeterminer, this.bundleDriver);
+
+        // The first refresh transforms the bundle on its own and refreshes the scope to establish a baseline
+        this.refreshHandler.setRefreshOutcome(artifact, true);
+        this.refreshHandler.setRefreshOutcome(plan, true);
+        assertTrue(artifact.refresh());
+        this.refreshHandler.assertRefreshed(plan);
+
+        // The second refresh must not refresh the scope, which would now fail
+        this.refreshHandler.setRefreshOutcome(plan, false);
+        assertTrue(artifact.refresh());
+        verify(scopeFactory, this.identityDeterminer, this.bundleDriver);
+    }
+
     @Test
     public void testDeploymentProperties() throws Exception {
         BundleInstallArtifact installArtifact = createInstallArtifact(createArtifactStorage(), artifactStateMonitor);
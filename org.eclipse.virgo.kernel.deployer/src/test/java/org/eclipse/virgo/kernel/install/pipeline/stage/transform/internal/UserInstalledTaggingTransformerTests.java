@@ -18,6 +18,9 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.eclipse.virgo.nano.deployer.api.core.DeploymentException;
 import org.eclipse.virgo.kernel.install.artifact.InstallArtifact;
 import org.eclipse.virgo.kernel.install.environment.InstallEnvironment;
@@ -35,6 +38,8 @@ public class UserInstalledTaggingTransformerTests {
         GraphNode<InstallArtifact> installGraph = createMock(GraphNode.class);
         InstallArtifact installArtifact = createMock(InstallArtifact.class);
 
+        List<GraphNode<InstallArtifact>> noParents = Collections.emptyList();
+        expect(installGraph.getParents()).andReturn(noParents);
         expect(installGraph.getValue()).andReturn(installArtifact);
         expect(installArtifact.setProperty(eq("user.installed"), eq("true"))).andReturn(null);
 
@@ -44,4 +49,21 @@ public class UserInstalledTaggingTransformerTests {
 
         verify(installEnvironment, installGraph, installArtifact);
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void planMemberIsNotTagged() throws DeploymentException {
+        InstallEnvironment installEnvironment = createMock(InstallEnvironment.class);
+        GraphNode<InstallArtifact> installGraph = createMock(GraphNode.class);
+        GraphNode<InstallArtifact> parent = createMock(GraphNode.class);
+        InstallArtifact installArtifact = createMock(InstallArtifact.class);
+
+        expect(installGraph.getParents()).andReturn(Collections.singletonList(parent));
+
+        replay(installEnvironment, installGraph, parent, installArtifact);
+
+        this.transformer.transform(installGraph, installEnvironment);
+
+        verify(installEnvironment, installGraph, parent, installArtifact);
+    }
 }
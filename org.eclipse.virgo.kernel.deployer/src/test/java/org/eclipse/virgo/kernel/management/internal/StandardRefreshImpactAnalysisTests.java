@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.management.internal;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.virgo.kernel.install.artifact.internal.bundle.RefreshImpactAnalyzer;
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class StandardRefreshImpactAnalysisTests {
+
+    private final OsgiFramework osgiFramework = createMock(OsgiFramework.class);
+
+    private final BundleContext systemBundleContext = createMock(BundleContext.class);
+
+    private final Bundle systemBundle = createMock(Bundle.class);
+
+    private final FrameworkWiring frameworkWiring = createMock(FrameworkWiring.class);
+
+    private final StubBundleContext userRegionBundleContext = new StubBundleContext();
+
+    private final StubBundle bundle = new StubBundle(7L, "a.b.c", new Version(1, 2, 3), "");
+
+    private final StubBundle otherVersion = new StubBundle(8L, "a.b.c", new Version(2, 0, 0), "");
+
+    private final StubBundle importer = new StubBundle(5L, "d.e.f", new Version(1, 0, 0), "");
+
+    {
+        this.bundle.setState(Bundle.ACTIVE);
+        this.importer.setState(Bundle.RESOLVED);
+        this.userRegionBundleContext.addInstalledBundle(this.otherVersion);
+        this.userRegionBundleContext.addInstalledBundle(this.bundle);
+        this.userRegionBundleContext.addInstalledBundle(this.importer);
+    }
+
+    @Test
+    public void impactOfBundleWithGivenNameAndVersion() {
+        expect(this.osgiFramework.getBundleContext()).andReturn(this.systemBundleContext);
+        expect(this.systemBundleContext.getBundle(0)).andReturn(this.systemBundle);
+        expect(this.systemBundle.adapt(FrameworkWiring.class)).andReturn(this.frameworkWiring);
+        expect(this.frameworkWiring.getDependencyClosure(Collections.<Bundle> singleton(this.bundle))).andReturn(
+            Arrays.<Bundle> asList(this.bundle, this.importer));
+        replay(this.osgiFramework, this.systemBundleContext, this.systemBundle, this.frameworkWiring);
+
+        String[] impact = createAnalysis(0).analyzeBundleRefresh("a.b.c", "1.2.3");
+
+        assertArrayEquals(new String[] { "5 d.e.f 1.0.0 RESOLVED", "7 a.b.c 1.2.3 ACTIVE" }, impact);
+        verify(this.osgiFramework, this.systemBundleContext, this.systemBundle, this.frameworkWiring);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersion() {
+        replay(this.osgiFramework);
+        createAnalysis(0).analyzeBundleRefresh("a.b.c", "3.0.0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSymbolicName() {
+        replay(this.osgiFramework);
+        createAnalysis(0).analyzeBundleRefresh("x.y.z", "1.2.3");
+    }
+
+    @Test
+    public void blastRadiusThreshold() {
+        assertEquals(0, createAnalysis(0).getBlastRadiusThreshold());
+        assertEquals(25, createAnalysis(25).getBlastRadiusThreshold());
+    }
+
+    private StandardRefreshImpactAnalysis createAnalysis(int blastRadiusThreshold) {
+        return new StandardRefreshImpactAnalysis(new RefreshImpactAnalyzer(this.osgiFramework, blastRadiusThreshold), this.userRegionBundleContext);
+    }
+}
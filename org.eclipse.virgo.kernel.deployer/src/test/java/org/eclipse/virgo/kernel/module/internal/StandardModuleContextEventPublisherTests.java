@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.module.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.virgo.kernel.module.ModuleContextEvent;
+import org.eclipse.virgo.kernel.module.ModuleContextEventListener;
+import org.eclipse.virgo.kernel.module.internal.ModuleContextEventStatisticsMXBean.ListenerStatistics;
+import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+import org.eclipse.virgo.test.stubs.support.TrueFilter;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.ServiceRegistration;
+
+public class StandardModuleContextEventPublisherTests {
+
+    private final StubBundleContext bundleContext = new StubBundleContext();
+    {
+        String filterString = "(objectClass=" + ModuleContextEventListener.class.getName() + ")";
+        this.bundleContext.addFilter(filterString, new TrueFilter(filterString));
+    }
+
+    private final ModuleContextEvent event = new ModuleContextEvent(null, null) {
+    };
+
+    private StandardModuleContextEventPublisher publisher;
+
+    @After
+    public void closePublisher() {
+        if (this.publisher != null) {
+            this.publisher.close();
+        }
+    }
+
+    @Test
+    public void eventsArePublishedToRegisteredListeners() {
+        RecordingListener existingListener = new RecordingListener();
+        this.bundleContext.registerService(ModuleContextEventListener.class, existingListener, null);
+        this.publisher = new StandardModuleContextEventPublisher(this.bundleContext);
+
+        RecordingListener laterListener = new RecordingListener();
+        ServiceRegistration<ModuleContextEventListener> registration = this.bundleContext.registerService(ModuleContextEventListener.class,
+            laterListener, null);
+
+        this.publisher.onEvent(this.event);
+        registration.unregister();
+        this.publisher.onEvent(this.event);
+
+        assertEquals(2, existingListener.events.size());
+        assertEquals(1, laterListener.events.size());
+    }
+
+    @Test
+    public void deliveriesAreRecorded() {
+        this.bundleContext.registerService(ModuleContextEventListener.class, new RecordingListener(), null);
+        this.publisher = new StandardModuleContextEventPublisher(this.bundleContext);
+
+        this.publisher.onEvent(this.event);
+        this.publisher.onEvent(this.event);
+
+        List<ListenerStatistics> statistics = this.publisher.getListenerStatistics();
+        assertEquals(1, statistics.size());
+        assertEquals(2, statistics.get(0).getEventCount());
+        assertTrue(statistics.get(0).getMaxNanos() <= statistics.get(0).getTotalNanos());
+    }
+
+    @Test
+    public void statisticsArePublishedAsMXBean() throws Exception {
+        this.bundleContext.registerService(ModuleContextEventListener.class, new RecordingListener(), null);
+        this.publisher = new StandardModuleContextEventPublisher(this.bundleContext);
+        this.publisher.onEvent(this.event);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("test:type=Statistics,name=ModuleContextEvents");
+        server.registerMBean(this.publisher, objectName);
+        try {
+            CompositeData[] statistics = (CompositeData[]) server.getAttribute(objectName, "ListenerStatistics");
+            assertEquals(1, statistics.length);
+            assertEquals(1L, statistics[0].get("eventCount"));
+        } finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void slowListenerDoesNotDelayOthersWhenAsynchronous() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        this.bundleContext.registerService(ModuleContextEventListener.class, new ModuleContextEventListener() {
+
+            public void onEvent(ModuleContextEvent moduleContextEvent) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        RecordingListener listener = new RecordingListener();
+        this.bundleContext.registerService(ModuleContextEventListener.class, listener, null);
+        this.publisher = new StandardModuleContextEventPublisher(this.bundleContext, true);
+
+        this.publisher.onEvent(this.event);
+
+        assertTrue(listener.delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(this.event, listener.events.get(0));
+        release.countDown();
+    }
+
+    private static final class RecordingListener implements ModuleContextEventListener {
+
+        private final List<ModuleContextEvent> events = new CopyOnWriteArrayList<ModuleContextEvent>();
+
+        private final CountDownLatch delivered = new CountDownLatch(1);
+
+        public void onEvent(ModuleContextEvent moduleContextEvent) {
+            this.events.add(moduleContextEvent);
+            this.delivered.countDown();
+        }
+    }
+}
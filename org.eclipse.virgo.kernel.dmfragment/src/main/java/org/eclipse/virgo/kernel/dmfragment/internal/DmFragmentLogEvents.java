@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.dmfragment.internal;
+
+import org.eclipse.virgo.medic.eventlog.Level;
+import org.eclipse.virgo.medic.eventlog.LogEvent;
+import org.eclipse.virgo.nano.serviceability.LogEventDelegate;
+
+/**
+ * Defines all the {@link LogEvent LogEvents} for the kernel Spring DM fragment.
+ *
+ * <strong>Concurrent Semantics</strong><br/>
+ *
+ * Implementation is immutable.
+ *
+ */
+public enum DmFragmentLogEvents implements LogEvent {
+
+    WEAVING_SETUP_COMPLETE(1, Level.INFO);
+
+    private static final String PREFIX = "DF";
+
+    private final LogEventDelegate delegate;
+
+    private DmFragmentLogEvents(int code, Level level) {
+        this.delegate = new LogEventDelegate(PREFIX, code, level);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getEventCode() {
+        return this.delegate.getEventCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Level getLevel() {
+        return this.delegate.getLevel();
+    }
+
+}
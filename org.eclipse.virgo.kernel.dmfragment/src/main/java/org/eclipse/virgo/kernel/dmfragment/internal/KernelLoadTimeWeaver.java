@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,35 +12,72 @@
 package org.eclipse.virgo.kernel.dmfragment.internal;
 
 import java.lang.instrument.ClassFileTransformer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.osgi.framework.Bundle;
-import org.osgi.framework.BundleContext;
-import org.osgi.framework.ServiceReference;
 import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.instrument.classloading.LoadTimeWeaver;
 import org.eclipse.gemini.blueprint.util.BundleDelegatingClassLoader;
 
 import org.eclipse.virgo.kernel.osgi.framework.InstrumentableClassLoader;
-import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.eclipse.virgo.kernel.osgi.framework.ThrowAwayReleasingClassLoader;
 
 /**
  * {@link LoadTimeWeaver} implementation that plugs into the {@link InstrumentableClassLoader
  * InstrumentableClassLoaders} created for all installed bundles.<p/>
  * 
+ * A single throw away class loader is created for the bundle's class loader, and so for the bundle generation, and is
+ * handed out to every caller during load-time weaving setup. It, and the state retained to support it, is released once
+ * the application context has been refreshed, as load-time weaving setup is complete by then, or when the application
+ * context is closed. State retained by the bundle's class loader is also released if it is a
+ * {@link ThrowAwayReleasingClassLoader}. The cost of the setup is reported in the event log when the application
+ * context is refreshed.<p/>
+ * 
  * <strong>Concurrent Semantics</strong><br />
  * 
  * Threadsafe.
  * 
  */
-final class KernelLoadTimeWeaver implements LoadTimeWeaver, BeanClassLoaderAware {
+// Note that this class must not implement ApplicationListener<ContextRefreshedEvent> since it needs to work with Spring
+// 2.5.x as well as Spring 3 and beyond.
+final class KernelLoadTimeWeaver implements LoadTimeWeaver, BeanClassLoaderAware, ApplicationContextAware, ApplicationListener<ApplicationEvent>,
+    DisposableBean {
+
+    private final LoadTimeWeavingSupport loadTimeWeavingSupport;
+
+    private final Object monitor = new Object();
+
+    private final AtomicInteger transformerCount = new AtomicInteger();
+
+    private final AtomicInteger throwAwayRequestCount = new AtomicInteger();
+
+    private final AtomicInteger throwAwayCreationCount = new AtomicInteger();
 
     private volatile InstrumentableClassLoader instrumentableClassLoader;
 
+    private volatile ApplicationContext applicationContext;
+
+    private volatile long setupStartNanos;
+
+    private ClassLoader throwAwayClassLoader; // protected by monitor
+
+    public KernelLoadTimeWeaver(LoadTimeWeavingSupport loadTimeWeavingSupport) {
+        this.loadTimeWeavingSupport = loadTimeWeavingSupport;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void addTransformer(ClassFileTransformer transformer) {
         this.instrumentableClassLoader.addClassFileTransformer(transformer);
+        this.transformerCount.incrementAndGet();
     }
 
     /**
@@ -52,21 +89,31 @@ final class KernelLoadTimeWeaver implements LoadTimeWeaver, BeanClassLoaderAware
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Each call returns the same throw away class loader until load-time weaving setup is complete.
      */
     public ClassLoader getThrowawayClassLoader() {
-        return this.instrumentableClassLoader.createThrowAway();
+        this.throwAwayRequestCount.incrementAndGet();
+        synchronized (this.monitor) {
+            if (this.throwAwayClassLoader == null) {
+                this.throwAwayClassLoader = this.instrumentableClassLoader.createThrowAway();
+                this.throwAwayCreationCount.incrementAndGet();
+            }
+            return this.throwAwayClassLoader;
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public void setBeanClassLoader(ClassLoader classLoader) {
+        this.setupStartNanos = System.nanoTime();
         InstrumentableClassLoader instrumentableClassLoader = null;
         if (classLoader instanceof InstrumentableClassLoader) {
             instrumentableClassLoader = (InstrumentableClassLoader) classLoader;
         } else if (classLoader instanceof BundleDelegatingClassLoader) {
             Bundle bundle = ((BundleDelegatingClassLoader) classLoader).getBundle();
-            ClassLoader bundleClassLoader = getBundleClassLoader(bundle);
+            ClassLoader bundleClassLoader = this.loadTimeWeavingSupport.getBundleClassLoader(bundle);
             if (bundleClassLoader instanceof InstrumentableClassLoader) {
                 instrumentableClassLoader = (InstrumentableClassLoader) bundleClassLoader;
             }
@@ -78,20 +125,55 @@ final class KernelLoadTimeWeaver implements LoadTimeWeaver, BeanClassLoaderAware
     }
 
     /**
-     * Gets the {@link ClassLoader} for the supplied {@link Bundle}.
-     * 
-     * @param bundle the <code>Bundle</code>.
-     * @return the <code>Bundles</code> <code>ClassLoader</code>.
+     * {@inheritDoc}
      */
-    private ClassLoader getBundleClassLoader(Bundle bundle) {
-        BundleContext bundleContext = bundle.getBundleContext();
-        ServiceReference<OsgiFramework> serviceReference = bundleContext.getServiceReference(OsgiFramework.class);
-        try {
-            OsgiFramework framework = bundleContext.getService(serviceReference);
-            return framework.getBundleClassLoader(bundle);
-        } finally {
-            bundleContext.ungetService(serviceReference);
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent && isOwnApplicationContext(((ContextRefreshedEvent) event).getApplicationContext())) {
+            releaseThrowAways();
+            reportWeavingSetup();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void destroy() {
+        releaseThrowAways();
+    }
+
+    /**
+     * Events published by child application contexts are also delivered to this listener, so only this weaver's own
+     * application context is treated as completing load-time weaving setup. If the application context is not known,
+     * every refresh is treated as this weaver's own.
+     */
+    private boolean isOwnApplicationContext(ApplicationContext refreshedApplicationContext) {
+        ApplicationContext localApplicationContext = this.applicationContext;
+        return localApplicationContext == null || localApplicationContext == refreshedApplicationContext;
+    }
+
+    private void releaseThrowAways() {
+        synchronized (this.monitor) {
+            this.throwAwayClassLoader = null;
+        }
+        InstrumentableClassLoader localInstrumentableClassLoader = this.instrumentableClassLoader;
+        if (localInstrumentableClassLoader instanceof ThrowAwayReleasingClassLoader) {
+            ((ThrowAwayReleasingClassLoader) localInstrumentableClassLoader).releaseThrowAways();
         }
     }
 
+    private void reportWeavingSetup() {
+        ApplicationContext localApplicationContext = this.applicationContext;
+        String applicationContextName = localApplicationContext == null ? String.valueOf(this.instrumentableClassLoader)
+            : localApplicationContext.getDisplayName();
+        long setupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.setupStartNanos);
+        this.loadTimeWeavingSupport.reportWeavingSetup(applicationContextName, setupMillis, this.transformerCount.get(),
+            this.throwAwayRequestCount.get(), this.throwAwayCreationCount.get());
+    }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,10 +25,17 @@ final class LoadTimeWeaverPostProcessor implements ModuleBeanFactoryPostProcesso
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final LoadTimeWeavingSupport loadTimeWeavingSupport;
+
+    public LoadTimeWeaverPostProcessor(LoadTimeWeavingSupport loadTimeWeavingSupport) {
+        this.loadTimeWeavingSupport = loadTimeWeavingSupport;
+    }
+
     public void postProcess(BundleContext bundleContext, ConfigurableListableBeanFactory beanFactory) {
         if (beanFactory.containsBean(LOAD_TIME_WEAVER_BEAN_NAME)) {
             AbstractBeanDefinition ltwBean = (AbstractBeanDefinition) beanFactory.getBeanDefinition(LOAD_TIME_WEAVER_BEAN_NAME);
             ltwBean.setBeanClass(KernelLoadTimeWeaver.class);
+            ltwBean.getConstructorArgumentValues().addGenericArgumentValue(this.loadTimeWeavingSupport);
             logger.info("Found load-time weaver bean for bundle '{}'. Switching to ServerLoadTimeWeaver.", bundleContext.getBundle());
         } else {
             logger.info("Load-time weaving not enabled for bundle '{}',", bundleContext.getBundle());
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.dmfragment.internal;
+
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * State shared by all {@link KernelLoadTimeWeaver KernelLoadTimeWeavers} for the lifetime of this fragment. The
+ * {@link OsgiFramework} service is tracked once rather than being looked up each time an application context is
+ * configured for load-time weaving.
+ * <p />
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * Thread-safe.
+ *
+ */
+final class LoadTimeWeavingSupport {
+
+    private final ServiceTracker<OsgiFramework, OsgiFramework> osgiFrameworkTracker;
+
+    private final EventLogger eventLogger;
+
+    public LoadTimeWeavingSupport(BundleContext bundleContext, EventLogger eventLogger) {
+        this.osgiFrameworkTracker = new ServiceTracker<OsgiFramework, OsgiFramework>(bundleContext, OsgiFramework.class, null);
+        this.osgiFrameworkTracker.open();
+        this.eventLogger = eventLogger;
+    }
+
+    /**
+     * Gets the {@link ClassLoader} for the supplied {@link Bundle}.
+     *
+     * @param bundle the <code>Bundle</code>.
+     * @return the <code>Bundles</code> <code>ClassLoader</code>.
+     * @throws IllegalStateException if the <code>OsgiFramework</code> service is not available.
+     */
+    ClassLoader getBundleClassLoader(Bundle bundle) {
+        OsgiFramework framework = this.osgiFrameworkTracker.getService();
+        if (framework == null) {
+            throw new IllegalStateException("OsgiFramework service is not available to load-time weave bundle '" + bundle + "'.");
+        }
+        return framework.getBundleClassLoader(bundle);
+    }
+
+    /**
+     * Reports the cost of setting up load-time weaving for an application context.
+     *
+     * @param applicationContextName the display name of the application context
+     * @param setupMillis the time from the load-time weaver being configured to the application context being refreshed
+     * @param transformerCount the number of class file transformers added
+     * @param throwAwayRequestCount the number of throw away class loaders requested
+     * @param throwAwayCreationCount the number of throw away class loaders created to satisfy those requests
+     */
+    void reportWeavingSetup(String applicationContextName, long setupMillis, int transformerCount, int throwAwayRequestCount,
+        int throwAwayCreationCount) {
+        this.eventLogger.log(DmFragmentLogEvents.WEAVING_SETUP_COMPLETE, applicationContextName, setupMillis, transformerCount,
+            throwAwayRequestCount, throwAwayCreationCount);
+    }
+
+    /**
+     * Stops tracking the <code>OsgiFramework</code> service.
+     */
+    public void close() {
+        this.osgiFrameworkTracker.close();
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.dmfragment.internal;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+import org.eclipse.virgo.kernel.osgi.framework.InstrumentableClassLoader;
+import org.eclipse.virgo.kernel.osgi.framework.OsgiFramework;
+import org.eclipse.virgo.kernel.osgi.framework.ThrowAwayReleasingClassLoader;
+import org.eclipse.virgo.medic.test.eventlog.LoggedEvent;
+import org.eclipse.virgo.medic.test.eventlog.MockEventLogger;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+import org.eclipse.virgo.test.stubs.support.TrueFilter;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+
+public class KernelLoadTimeWeaverTests {
+
+    private final StubBundleContext bundleContext = new StubBundleContext();
+    {
+        String filterString = "(objectClass=" + OsgiFramework.class.getName() + ")";
+        this.bundleContext.addFilter(filterString, new TrueFilter(filterString));
+    }
+
+    private final MockEventLogger eventLogger = new MockEventLogger();
+
+    private final LoadTimeWeavingSupport loadTimeWeavingSupport = new LoadTimeWeavingSupport(this.bundleContext, this.eventLogger);
+
+    private final StubInstrumentableClassLoader classLoader = new StubInstrumentableClassLoader();
+
+    private final StaticApplicationContext applicationContext = new StaticApplicationContext();
+
+    private final KernelLoadTimeWeaver loadTimeWeaver = new KernelLoadTimeWeaver(this.loadTimeWeavingSupport);
+    {
+        this.applicationContext.setDisplayName("test context");
+        this.loadTimeWeaver.setBeanClassLoader(this.classLoader);
+        this.loadTimeWeaver.setApplicationContext(this.applicationContext);
+    }
+
+    @After
+    public void closeLoadTimeWeavingSupport() {
+        this.loadTimeWeavingSupport.close();
+    }
+
+    @Test
+    public void throwAwayClassLoaderIsSharedUntilSetupIsComplete() {
+        ClassLoader throwAwayClassLoader = this.loadTimeWeaver.getThrowawayClassLoader();
+        assertSame(throwAwayClassLoader, this.loadTimeWeaver.getThrowawayClassLoader());
+        assertEquals(1, this.classLoader.throwAwayCreationCount);
+
+        this.loadTimeWeaver.onApplicationEvent(new ContextRefreshedEvent(this.applicationContext));
+        assertEquals(1, this.classLoader.releaseCount);
+
+        assertNotSame(throwAwayClassLoader, this.loadTimeWeaver.getThrowawayClassLoader());
+        assertEquals(2, this.classLoader.throwAwayCreationCount);
+    }
+
+    @Test
+    public void throwAwayClassLoaderIsReleasedOnDestroy() {
+        ClassLoader throwAwayClassLoader = this.loadTimeWeaver.getThrowawayClassLoader();
+
+        this.loadTimeWeaver.destroy();
+
+        assertEquals(1, this.classLoader.releaseCount);
+        assertNotSame(throwAwayClassLoader, this.loadTimeWeaver.getThrowawayClassLoader());
+        assertTrue(this.eventLogger.getLoggedEvents().isEmpty());
+    }
+
+    @Test
+    public void childApplicationContextRefreshIsIgnored() {
+        ClassLoader throwAwayClassLoader = this.loadTimeWeaver.getThrowawayClassLoader();
+
+        this.loadTimeWeaver.onApplicationEvent(new ContextRefreshedEvent(new StaticApplicationContext(this.applicationContext)));
+
+        assertSame(throwAwayClassLoader, this.loadTimeWeaver.getThrowawayClassLoader());
+        assertEquals(0, this.classLoader.releaseCount);
+        assertTrue(this.eventLogger.getLoggedEvents().isEmpty());
+    }
+
+    @Test
+    public void otherApplicationEventsAreIgnored() {
+        this.loadTimeWeaver.onApplicationEvent(new ContextClosedEvent(this.applicationContext));
+
+        assertEquals(0, this.classLoader.releaseCount);
+        assertTrue(this.eventLogger.getLoggedEvents().isEmpty());
+    }
+
+    @Test
+    public void weavingSetupIsReported() {
+        this.loadTimeWeaver.addTransformer(new StubClassFileTransformer());
+        this.loadTimeWeaver.addTransformer(new StubClassFileTransformer());
+        this.loadTimeWeaver.getThrowawayClassLoader();
+        this.loadTimeWeaver.getThrowawayClassLoader();
+        this.loadTimeWeaver.getThrowawayClassLoader();
+
+        this.loadTimeWeaver.onApplicationEvent(new ContextRefreshedEvent(this.applicationContext));
+
+        assertEquals(2, this.classLoader.transformerCount);
+        List<LoggedEvent> events = this.eventLogger.getEventsWithCodes("DF0001I");
+        assertEquals(1, events.size());
+        Object[] inserts = events.get(0).getInserts();
+        assertEquals(5, inserts.length);
+        assertEquals("test context", inserts[0]);
+        assertTrue((Long) inserts[1] >= 0);
+        assertArrayEquals(new Object[] { 2, 3, 1 }, new Object[] { inserts[2], inserts[3], inserts[4] });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void bundleClassLoaderRequiresOsgiFramework() {
+        this.loadTimeWeavingSupport.getBundleClassLoader(new StubBundle());
+    }
+
+    @Test
+    public void bundleClassLoaderIsObtainedFromOsgiFramework() {
+        StubBundle bundle = new StubBundle();
+        OsgiFramework osgiFramework = createMock(OsgiFramework.class);
+        expect(osgiFramework.getBundleClassLoader(bundle)).andReturn(this.classLoader);
+        replay(osgiFramework);
+        this.bundleContext.registerService(OsgiFramework.class, osgiFramework, null);
+
+        assertSame(this.classLoader, this.loadTimeWeavingSupport.getBundleClassLoader(bundle));
+        verify(osgiFramework);
+    }
+
+    @Test
+    public void classLoaderWithoutReleaseSupportIsNotReleased() {
+        InstrumentableClassLoader instrumentableClassLoader = createMock(InstrumentableClassLoader.class);
+        expect(instrumentableClassLoader.createThrowAway()).andReturn(this.classLoader).times(2);
+        replay(instrumentableClassLoader);
+        KernelLoadTimeWeaver loadTimeWeaver = new KernelLoadTimeWeaver(this.loadTimeWeavingSupport);
+        loadTimeWeaver.setBeanClassLoader(new InstrumentableDelegatingClassLoader(instrumentableClassLoader));
+
+        ClassLoader throwAwayClassLoader = loadTimeWeaver.getThrowawayClassLoader();
+        loadTimeWeaver.destroy();
+
+        assertSame(throwAwayClassLoader, loadTimeWeaver.getThrowawayClassLoader());
+        verify(instrumentableClassLoader);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nonInstrumentableClassLoaderIsRejected() {
+        new KernelLoadTimeWeaver(this.loadTimeWeavingSupport).setBeanClassLoader(new ClassLoader() {
+        });
+    }
+
+    private static final class StubInstrumentableClassLoader extends ClassLoader implements ThrowAwayReleasingClassLoader {
+
+        private volatile int transformerCount;
+
+        private volatile int throwAwayCreationCount;
+
+        private volatile int releaseCount;
+
+        public void addClassFileTransformer(ClassFileTransformer transformer) {
+            this.transformerCount++;
+        }
+
+        public ClassLoader createThrowAway() {
+            this.throwAwayCreationCount++;
+            return new ClassLoader(this) {
+            };
+        }
+
+        public void releaseThrowAways() {
+            this.releaseCount++;
+        }
+
+        public boolean isInstrumented() {
+            return this.transformerCount > 0;
+        }
+
+        public int getClassFileTransformerCount() {
+            return this.transformerCount;
+        }
+    }
+
+    private static final class InstrumentableDelegatingClassLoader extends ClassLoader implements InstrumentableClassLoader {
+
+        private final InstrumentableClassLoader delegate;
+
+        private InstrumentableDelegatingClassLoader(InstrumentableClassLoader delegate) {
+            this.delegate = delegate;
+        }
+
+        public void addClassFileTransformer(ClassFileTransformer transformer) {
+            this.delegate.addClassFileTransformer(transformer);
+        }
+
+        public ClassLoader createThrowAway() {
+            return this.delegate.createThrowAway();
+        }
+
+        public boolean isInstrumented() {
+            return this.delegate.isInstrumented();
+        }
+
+        public int getClassFileTransformerCount() {
+            return this.delegate.getClassFileTransformerCount();
+        }
+    }
+
+    private static final class StubClassFileTransformer implements ClassFileTransformer {
+
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+            return null;
+        }
+    }
+}
@@ -13,11 +13,8 @@ package org.eclipse.virgo.kernel.equinox.extensions.hooks;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.JarURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Enumeration;
-import java.util.jar.JarFile;
 
 import org.eclipse.osgi.baseadaptor.BaseData;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
@@ -28,6 +25,9 @@ import org.eclipse.osgi.baseadaptor.hooks.BundleFileWrapperFactoryHook;
  * A {@link BundleFileWrapperFactoryHook} implementation that wraps {@link BundleFile BundleFiles} to ensure that all
  * returned resource {@link URL URLs} have a <code>file:</code> protocol, not a <code>bundleresource:</code>
  * protocol as is the Equinox default.
+ * <p />
+ * Entries of archived bundles are checked against an index of the archive's entry names and read through a
+ * {@link JarFileHandlePool}, so resource lookups do not open the archive each time.
  * 
  * <strong>Concurrent Semantics</strong><br />
  * This class is <strong>thread-safe</strong>.
@@ -35,11 +35,24 @@ import org.eclipse.osgi.baseadaptor.hooks.BundleFileWrapperFactoryHook;
  */
 final class ExtendedBundleFileWrapperFactoryHook implements BundleFileWrapperFactoryHook {
 
+    private final JarFileHandlePool pool;
+
+    private final PooledJarURLStreamHandler urlStreamHandler;
+
+    ExtendedBundleFileWrapperFactoryHook() {
+        this(JarFileHandlePool.getInstance());
+    }
+
+    ExtendedBundleFileWrapperFactoryHook(JarFileHandlePool pool) {
+        this.pool = pool;
+        this.urlStreamHandler = new PooledJarURLStreamHandler(pool);
+    }
+
     /**
      * {@inheritDoc}
      */
     public BundleFile wrapBundleFile(BundleFile bundleFile, Object content, BaseData data, boolean base) throws IOException {
-        return new FileResourceEnforcingBundleFile(bundleFile);
+        return new FileResourceEnforcingBundleFile(bundleFile, this.pool, this.urlStreamHandler);
     }
 
     /**
@@ -54,17 +67,30 @@ final class ExtendedBundleFileWrapperFactoryHook implements BundleFileWrapperFac
 
         private final BundleFile bundleFile;
 
-        private FileResourceEnforcingBundleFile(BundleFile bundleFile) {
+        private final JarFileHandlePool pool;
+
+        private final PooledJarURLStreamHandler urlStreamHandler;
+
+        private FileResourceEnforcingBundleFile(BundleFile bundleFile, JarFileHandlePool pool, PooledJarURLStreamHandler urlStreamHandler) {
             this.bundleFile = bundleFile;
+            this.pool = pool;
+            this.urlStreamHandler = urlStreamHandler;
         }
 
         /**
-         * {@inheritDoc}
+         * Closes the encapsulated <code>BundleFile</code> and discards any pooled handle and entry index for its
+         * archive.
          */
         @Override
         public void close() throws IOException {
-            this.bundleFile.close();
-
+            try {
+                this.bundleFile.close();
+            } finally {
+                File baseFile = this.bundleFile.getBaseFile();
+                if (baseFile != null) {
+                    this.pool.discard(baseFile);
+                }
+            }
         }
 
         /**
@@ -158,44 +184,18 @@ final class ExtendedBundleFileWrapperFactoryHook implements BundleFileWrapperFac
 
         private URL getLocalURLForEntry(BundleEntry entry) {
             URL url = entry.getLocalURL();
-            URLConnection connection = null;
-            try {
-                connection = url.openConnection();
-                connection.setDefaultUseCaches(false);
-                connection.setUseCaches(false);
-            } catch (Exception e) {
-                
-            }
-            if (!"jar".equals(url.getProtocol()) || doesJarEntryReallyExist(connection)) {
+            File archive = PooledJarURLStreamHandler.getArchive(url);
+            if (archive == null) {
                 return url;
-            } else {
-                return null;
             }
-        }
-
-        private boolean doesJarEntryReallyExist(URLConnection connection) {
-            boolean entryExists = false;
-            JarFile jarFile = null;
+            String entryName = PooledJarURLStreamHandler.getEntryName(url);
             try {
-                if (connection != null && connection instanceof JarURLConnection) {
-                    JarURLConnection jarURLConnection = (JarURLConnection) connection;
-                    jarFile = jarURLConnection.getJarFile();
-                    String entryName = jarURLConnection.getEntryName();
-                    if (entryName != null && jarFile != null && jarFile.getEntry(entryName) != null) {
-                    	entryExists = true;
-                    }
+                if (entryName != null && this.pool.getEntryNames(archive).contains(entryName)) {
+                    return new URL(null, url.toExternalForm(), this.urlStreamHandler);
                 }
-            } catch (IOException ioe) {
-                entryExists = false;
-            } finally {
-            	if (jarFile != null) {
-            		try {
-            			jarFile.close();
-            		} catch (IOException ignored) {
-            		}
-            	}
+            } catch (IOException ignored) {
             }
-            return entryExists;
+            return null;
         }
     }
 }
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * A bounded pool of open {@link JarFile JarFiles}, together with an index of the entry names of each archive, used to
+ * serve bundle resources without opening and closing the same archive for every resource access.
+ * <p />
+ * 
+ * A handle is reference counted while in use, so an archive is never closed under a reader. When more than
+ * {@link #getMaximumOpenHandles()} archives are open, the least recently used archives that are not in use are
+ * closed. An archive's handle and index are discarded when the {@link org.eclipse.osgi.baseadaptor.bundlefile.BundleFile
+ * BundleFile} for it is closed, which happens when its bundle is updated, refreshed, or uninstalled.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread-safe.
+ * 
+ */
+public final class JarFileHandlePool implements JarFileHandlePoolStatisticsMXBean {
+
+    private static final int DEFAULT_MAXIMUM_OPEN_HANDLES = 64;
+
+    private static final JarFileHandlePool INSTANCE = new JarFileHandlePool(DEFAULT_MAXIMUM_OPEN_HANDLES);
+
+    private final Object monitor = new Object();
+
+    private final int maximumOpenHandles;
+
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<File, Handle>(16, 0.75f, true); // protected by monitor
+
+    private final ConcurrentMap<File, Set<String>> entryIndex = new ConcurrentHashMap<File, Set<String>>();
+
+    private int peakOpenHandles; // protected by monitor
+
+    private final AtomicLong handlesOpened = new AtomicLong();
+
+    private final AtomicLong handlesClosed = new AtomicLong();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong acquisitionHits = new AtomicLong();
+
+    JarFileHandlePool(int maximumOpenHandles) {
+        this.maximumOpenHandles = maximumOpenHandles;
+    }
+
+    public static JarFileHandlePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquires a handle on the supplied archive, opening it if necessary. The handle <strong>must</strong> be
+     * {@link #release released} once it is no longer in use.
+     * 
+     * @param archive the archive
+     * @return the handle
+     * @throws IOException if the archive cannot be opened
+     */
+    Handle acquire(File archive) throws IOException {
+        archive = archive.getAbsoluteFile();
+        this.acquisitions.incrementAndGet();
+        synchronized (this.monitor) {
+            Handle handle = this.handles.get(archive);
+            if (handle != null) {
+                this.acquisitionHits.incrementAndGet();
+                handle.references++;
+                return handle;
+            }
+        }
+
+        Handle newHandle = new Handle(archive, new JarFile(archive));
+        this.handlesOpened.incrementAndGet();
+
+        Handle handle;
+        synchronized (this.monitor) {
+            handle = this.handles.get(archive);
+            if (handle == null) {
+                handle = newHandle;
+                this.handles.put(archive, handle);
+                this.peakOpenHandles = Math.max(this.peakOpenHandles, this.handles.size());
+            }
+            handle.references++;
+            evictUnusedHandles();
+        }
+        if (handle != newHandle) {
+            closeJarFile(newHandle);
+        }
+        return handle;
+    }
+
+    /**
+     * Releases a handle previously {@link #acquire acquired}, closing its archive if it has been evicted or discarded
+     * and is no longer in use.
+     * 
+     * @param handle the handle
+     */
+    void release(Handle handle) {
+        boolean close;
+        synchronized (this.monitor) {
+            handle.references--;
+            close = handle.references == 0 && handle.discarded;
+            if (!close) {
+                evictUnusedHandles();
+            }
+        }
+        if (close) {
+            closeJarFile(handle);
+        }
+    }
+
+    /**
+     * Gets the names of the entries in the supplied archive. The names are read once and retained until the archive
+     * is {@link #discard discarded}.
+     * 
+     * @param archive the archive
+     * @return the entry names
+     * @throws IOException if the archive cannot be read
+     */
+    Set<String> getEntryNames(File archive) throws IOException {
+        archive = archive.getAbsoluteFile();
+        Set<String> entryNames = this.entryIndex.get(archive);
+        if (entryNames == null) {
+            Handle handle = acquire(archive);
+            try {
+                Set<String> names = new HashSet<String>();
+                Enumeration<? extends ZipEntry> entries = handle.getJarFile().entries();
+                while (entries.hasMoreElements()) {
+                    names.add(entries.nextElement().getName());
+                }
+                entryNames = Collections.unmodifiableSet(names);
+            } finally {
+                release(handle);
+            }
+            Set<String> existing = this.entryIndex.putIfAbsent(archive, entryNames);
+            if (existing != null) {
+                entryNames = existing;
+            }
+        }
+        return entryNames;
+    }
+
+    /**
+     * Discards the supplied archive's entry index and handle. The archive is closed immediately if it is not in use,
+     * otherwise as soon as it has been released by all of its users.
+     * 
+     * @param archive the archive
+     */
+    void discard(File archive) {
+        archive = archive.getAbsoluteFile();
+        this.entryIndex.remove(archive);
+        Handle handle;
+        synchronized (this.monitor) {
+            handle = this.handles.remove(archive);
+            if (handle == null) {
+                return;
+            }
+            handle.discarded = true;
+            if (handle.references > 0) {
+                return;
+            }
+        }
+        closeJarFile(handle);
+    }
+
+    private void evictUnusedHandles() {
+        // must be called with monitor held
+        Iterator<Handle> iterator = this.handles.values().iterator();
+        while (this.handles.size() > this.maximumOpenHandles && iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.references == 0) {
+                iterator.remove();
+                handle.discarded = true;
+                closeJarFile(handle);
+            }
+        }
+    }
+
+    private void closeJarFile(Handle handle) {
+        try {
+            handle.getJarFile().close();
+        } catch (IOException ignored) {
+        }
+        this.handlesClosed.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaximumOpenHandles() {
+        return this.maximumOpenHandles;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getOpenHandles() {
+        return (int) (this.handlesOpened.get() - this.handlesClosed.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getPeakOpenHandles() {
+        synchronized (this.monitor) {
+            return this.peakOpenHandles;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHandlesOpened() {
+        return this.handlesOpened.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHandlesClosed() {
+        return this.handlesClosed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAcquisitions() {
+        return this.acquisitions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAcquisitionHits() {
+        return this.acquisitionHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getIndexedArchives() {
+        return this.entryIndex.size();
+    }
+
+    /**
+     * A reference counted handle on an open archive.
+     */
+    static final class Handle {
+
+        private final File archive;
+
+        private final JarFile jarFile;
+
+        private int references; // protected by pool monitor
+
+        private boolean discarded; // protected by pool monitor
+
+        private Handle(File archive, JarFile jarFile) {
+            this.archive = archive;
+            this.jarFile = jarFile;
+        }
+
+        File getArchive() {
+            return this.archive;
+        }
+
+        JarFile getJarFile() {
+            return this.jarFile;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the file descriptor usage of the {@link JarFileHandlePool}.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be thread-safe.
+ * 
+ */
+@MXBean
+public interface JarFileHandlePoolStatisticsMXBean {
+
+    /**
+     * @return the maximum number of archives that the pool keeps open when they are not in use
+     */
+    int getMaximumOpenHandles();
+
+    /**
+     * @return the number of archives currently held open by the pool
+     */
+    int getOpenHandles();
+
+    /**
+     * @return the largest number of archives that have been held open by the pool at the same time
+     */
+    int getPeakOpenHandles();
+
+    /**
+     * @return the total number of times an archive has been opened
+     */
+    long getHandlesOpened();
+
+    /**
+     * @return the total number of times an archive has been closed
+     */
+    long getHandlesClosed();
+
+    /**
+     * @return the total number of times an archive handle has been requested
+     */
+    long getAcquisitions();
+
+    /**
+     * @return the number of archive handle requests that were satisfied by an already open archive
+     */
+    long getAcquisitionHits();
+
+    /**
+     * @return the number of archives whose entry names are currently indexed
+     */
+    int getIndexedArchives();
+}
@@ -13,13 +13,19 @@ package org.eclipse.virgo.kernel.equinox.extensions.hooks;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.osgi.framework.adaptor.BundleClassLoader;
 import org.eclipse.osgi.framework.adaptor.BundleData;
@@ -38,10 +44,13 @@ import org.osgi.service.packageadmin.PackageAdmin;
  * 
  * <p />
  * 
- * The list of a bundle's dependencies are cached to avoid determining the dependencies every time. A bundle's entry in
- * the cached is cleared whenever an <code>UNRESOLVED</code> event is received for the bundle. <code>UNRESOLVED</code>
- * events are fired both during uninstall and during {@link PackageAdmin#refreshPackages(Bundle[]) refreshPackages}
- * processing.
+ * The list of a bundle's dependencies are cached to avoid determining the dependencies every time, together with a
+ * bounded set of the names of resources known to be absent from all of those dependencies, so that repeated probes for
+ * optional resources neither search the dependencies nor inspect the caller's stack. A cache entry belongs to the
+ * {@link BundleClassLoader} it was created for, so a bundle that has been re-resolved with a new class loader never
+ * sees a previous generation's entry. A bundle's entry in the cache is also cleared whenever an
+ * <code>UNRESOLVED</code> event is received for the bundle. <code>UNRESOLVED</code> events are fired both during
+ * uninstall and during {@link PackageAdmin#refreshPackages(Bundle[]) refreshPackages} processing.
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -49,7 +58,7 @@ import org.osgi.service.packageadmin.PackageAdmin;
  * 
  */
 @SuppressWarnings("deprecation")
-public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelegateHook {
+public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelegateHook, MetaInfResourceLookupStatisticsMXBean {
 
     private static final String SPRINGDM_DELEGATED_NAMESPACE_HANDLER_RESOLVER_CLASS_NAME = "org.springframework.osgi.context.support.DelegatedNamespaceHandlerResolver";
 
@@ -59,6 +68,15 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
 
     private static final String BLUEPRINT_DELEGATED_ENTITY_RESOLVER_CLASS_NAME = "org.eclipse.gemini.blueprint.context.support.ChainedEntityResolver";
 
+    private static final Set<String> DELEGATED_RESOLVER_CLASS_NAMES = new HashSet<String>();
+
+    static {
+        DELEGATED_RESOLVER_CLASS_NAMES.add(SPRINGDM_DELEGATED_NAMESPACE_HANDLER_RESOLVER_CLASS_NAME);
+        DELEGATED_RESOLVER_CLASS_NAMES.add(SPRINGDM_DELEGATED_ENTITY_RESOLVER_CLASS_NAME);
+        DELEGATED_RESOLVER_CLASS_NAMES.add(BLUEPRINT_DELEGATED_NAMESPACE_HANDLER_RESOLVER_CLASS_NAME);
+        DELEGATED_RESOLVER_CLASS_NAMES.add(BLUEPRINT_DELEGATED_ENTITY_RESOLVER_CLASS_NAME);
+    }
+
     private static final String EXCLUDED_RESOURCE_MANIFEST = "MANIFEST.MF";
 
     private static final String EXCLUDED_RESOURCE_SPRING_DIR = "spring";
@@ -67,6 +85,8 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
 
     private static final String EXCLUDED_RESOURCE_SPRING_DIR_SUFFIX = ".xml";
 
+    private static final int MAX_ABSENT_RESOURCES_PER_BUNDLE = 256;
+
     private final BundleContext systemBundleContext;
 
     private final PackageAdmin packageAdmin;
@@ -75,12 +95,20 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
 
     private final Object SEARCH_IN_PROGRESS_MARKER = new Object();
 
-    private final Object monitor = new Object();
-
-    private final WeakHashMap<Bundle, Set<Bundle>> dependenciesCache = new WeakHashMap<Bundle, Set<Bundle>>();
+    private final ConcurrentMap<Bundle, DependencyCacheEntry> dependenciesCache = new ConcurrentHashMap<Bundle, DependencyCacheEntry>();
 
     private final BundleListener cacheClearingBundleListener = new CacheClearingBundleListener();
 
+    private final ExecutionStackAccessor executionStackAccessor = new ExecutionStackAccessor();
+
+    private final AtomicLong dependencyCacheHits = new AtomicLong();
+
+    private final AtomicLong dependencyCacheMisses = new AtomicLong();
+
+    private final AtomicLong absentResourceCacheHits = new AtomicLong();
+
+    private final AtomicLong callerStackInspections = new AtomicLong();
+
     /**
      * Create a new hook that will use the supplied <code>systemBundleContext</code> to lookup bundles, and the supplied
      * <code>packageAdmin</code> to determine a bundle's dependencies.
@@ -99,18 +127,23 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
 
     public void destroy() {
         this.systemBundleContext.removeBundleListener(this.cacheClearingBundleListener);
+        this.dependenciesCache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public URL postFindResource(String name, BundleClassLoader classLoader, BundleData data) throws FileNotFoundException {
-        if (this.resourceSearchInProgress.get() == null && isDelegatedResource(name)) {
+        if (this.resourceSearchInProgress.get() == null && isMetaInfResource(name)) {
+            DependencyCacheEntry cacheEntry = getDependencyCacheEntry(classLoader);
+            if (isKnownAbsent(cacheEntry, name) || isDelegatedResolverCall()) {
+                return null;
+            }
             try {
                 this.resourceSearchInProgress.set(SEARCH_IN_PROGRESS_MARKER);
 
-                Bundle[] bundles = getDependencyBundles(classLoader.getBundle());
-                for (Bundle dependency : bundles) {
+                boolean searchComplete = true;
+                for (Bundle dependency : cacheEntry.getDependencies()) {
                     try {
                         int state = dependency.getState();
                         if (state == Bundle.ACTIVE || state == Bundle.RESOLVED) {
@@ -119,13 +152,18 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
                                 return resource;
                             }
                         } else {
-                            removeDependency(classLoader.getBundle(), dependency);
+                            searchComplete = false;
+                            cacheEntry.removeDependency(dependency);
                         }
                     } catch (IllegalStateException ise) {
                         // Dependency now UNINSTALLED
-                        removeDependency(classLoader.getBundle(), dependency);
+                        searchComplete = false;
+                        cacheEntry.removeDependency(dependency);
                     }
                 }
+                if (searchComplete) {
+                    cacheEntry.addAbsentResource(name);
+                }
             } finally {
                 this.resourceSearchInProgress.set(null);
             }
@@ -138,29 +176,38 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
      * {@inheritDoc}
      */
     public Enumeration<URL> postFindResources(String name, BundleClassLoader classLoader, BundleData data) throws FileNotFoundException {
-        if (this.resourceSearchInProgress.get() == null && isDelegatedResource(name)) {
+        if (this.resourceSearchInProgress.get() == null && isMetaInfResource(name)) {
+            DependencyCacheEntry cacheEntry = getDependencyCacheEntry(classLoader);
+            if (isKnownAbsent(cacheEntry, name) || isDelegatedResolverCall()) {
+                return null;
+            }
             try {
                 this.resourceSearchInProgress.set(SEARCH_IN_PROGRESS_MARKER);
 
+                boolean searchComplete = true;
                 Set<URL> found = new HashSet<URL>();
-                Bundle[] bundles = getDependencyBundles(classLoader.getBundle());
-                for (Bundle dependency : bundles) {
+                for (Bundle dependency : cacheEntry.getDependencies()) {
                     try {
                         int state = dependency.getState();
                         if (state == Bundle.RESOLVED || state == Bundle.ACTIVE) {
                             addAll(found, dependency.getResources(name));
                         } else {
-                            removeDependency(classLoader.getBundle(), dependency);
+                            searchComplete = false;
+                            cacheEntry.removeDependency(dependency);
                         }
                     } catch (IOException ignored) {
+                        searchComplete = false;
                     } catch (IllegalStateException ise) {
                         // Dependency now UNINSTALLED
-                        removeDependency(classLoader.getBundle(), dependency);
+                        searchComplete = false;
+                        cacheEntry.removeDependency(dependency);
                     }
                 }
 
                 if (!found.isEmpty()) {
                     return new IteratorEnumerationAdaptor<URL>(found.iterator());
+                } else if (searchComplete) {
+                    cacheEntry.addAbsentResource(name);
                 }
             } finally {
                 this.resourceSearchInProgress.set(null);
@@ -170,8 +217,12 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
         return null;
     }
 
-    private boolean isDelegatedResource(String name) {
-        return isMetaInfResource(name) && !isDelegatedResolverCall();
+    private boolean isKnownAbsent(DependencyCacheEntry cacheEntry, String name) {
+        if (cacheEntry.isAbsentResource(name)) {
+            this.absentResourceCacheHits.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -194,41 +245,26 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
         return true;
     }
 
+    /**
+     * Queries whether the current thread is executing on behalf of a Spring DM or Blueprint delegated resolver. The
+     * stack is scanned from the innermost frame outwards, stopping at the first resolver found, and is only inspected
+     * once the cheaper checks have failed to answer the lookup.
+     */
     private boolean isDelegatedResolverCall() {
-        Class<?>[] stackTrace = new SecurityManagerExecutionStackAccessor().getExecutionStack();
-        return isSpringDmDelegatedResolverCall(stackTrace) || isBlueprintDelegatedResolverCall(stackTrace);
-    }
-
-    private static final class SecurityManagerExecutionStackAccessor extends SecurityManager {
-
-        public Class<?>[] getExecutionStack() {
-            Class<?>[] classes = super.getClassContext();
-            Class<?>[] executionStack = new Class<?>[classes.length - 1];
-
-            System.arraycopy(classes, 1, executionStack, 0, executionStack.length);
-
-            return executionStack;
+        this.callerStackInspections.incrementAndGet();
+        for (Class<?> clazz : this.executionStackAccessor.getExecutionStack()) {
+            if (DELEGATED_RESOLVER_CLASS_NAMES.contains(clazz.getName())) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private boolean isSpringDmDelegatedResolverCall(Class<?>[] stackTrace) {
-        return isDelegatedResolverCall(stackTrace, SPRINGDM_DELEGATED_NAMESPACE_HANDLER_RESOLVER_CLASS_NAME,
-            SPRINGDM_DELEGATED_ENTITY_RESOLVER_CLASS_NAME);
-    }
-
-    private boolean isBlueprintDelegatedResolverCall(Class<?>[] stackTrace) {
-        return isDelegatedResolverCall(stackTrace, BLUEPRINT_DELEGATED_NAMESPACE_HANDLER_RESOLVER_CLASS_NAME,
-            BLUEPRINT_DELEGATED_ENTITY_RESOLVER_CLASS_NAME);
-    }
+    private static final class ExecutionStackAccessor extends SecurityManager {
 
-    private boolean isDelegatedResolverCall(Class<?>[] stackTrace, String namespaceResolver, String entityResolver) {
-        for (Class<?> clazz : stackTrace) {
-            String className = clazz.getName();
-            if (namespaceResolver.equals(className) || entityResolver.equals(className)) {
-                return true;
-            }
+        public Class<?>[] getExecutionStack() {
+            return super.getClassContext();
         }
-        return false;
     }
 
     private void addAll(Collection<URL> target, Enumeration<URL> source) {
@@ -237,28 +273,23 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
         }
     }
 
-    private Bundle[] getDependencyBundles(Bundle bundle) {
-        synchronized (this.monitor) {
-            Set<Bundle> dependencies = this.dependenciesCache.get(bundle);
-            if (dependencies != null) {
-                return dependencies.toArray(new Bundle[dependencies.size()]);
-            }
-        }
-
-        Set<Bundle> dependencies = determineDependencies(bundle);
-        synchronized (this.monitor) {
-            this.dependenciesCache.put(bundle, dependencies);
-            return dependencies.toArray(new Bundle[dependencies.size()]);
+    private DependencyCacheEntry getDependencyCacheEntry(BundleClassLoader classLoader) {
+        Bundle bundle = classLoader.getBundle();
+        DependencyCacheEntry cacheEntry = this.dependenciesCache.get(bundle);
+        if (cacheEntry != null && cacheEntry.isFor(classLoader)) {
+            this.dependencyCacheHits.incrementAndGet();
+            return cacheEntry;
         }
-    }
-
-    private void removeDependency(Bundle bundle, Bundle dependency) {
-        synchronized (this.monitor) {
-            Set<Bundle> dependencies = this.dependenciesCache.get(bundle);
-            if (dependencies != null) {
-                dependencies.remove(dependency);
+        this.dependencyCacheMisses.incrementAndGet();
+        DependencyCacheEntry newCacheEntry = new DependencyCacheEntry(classLoader, determineDependencies(bundle));
+        if (cacheEntry == null) {
+            cacheEntry = this.dependenciesCache.putIfAbsent(bundle, newCacheEntry);
+            if (cacheEntry != null && cacheEntry.isFor(classLoader)) {
+                return cacheEntry;
             }
         }
+        this.dependenciesCache.put(bundle, newCacheEntry);
+        return newCacheEntry;
     }
 
     private Set<Bundle> determineDependencies(Bundle bundle) {
@@ -287,6 +318,104 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
         return this.packageAdmin.getExportedPackages(bundle);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getDependencyCacheHits() {
+        return this.dependencyCacheHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDependencyCacheMisses() {
+        return this.dependencyCacheMisses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDependencyCacheHitRatio() {
+        long hits = this.dependencyCacheHits.get();
+        return ratio(hits, hits + this.dependencyCacheMisses.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAbsentResourceCacheHits() {
+        return this.absentResourceCacheHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getAbsentResourceCacheHitRatio() {
+        return ratio(this.absentResourceCacheHits.get(), this.dependencyCacheHits.get() + this.dependencyCacheMisses.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCallerStackInspections() {
+        return this.callerStackInspections.get();
+    }
+
+    private static double ratio(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    /**
+     * The cached dependencies of one generation of a bundle, identified by its {@link BundleClassLoader}, and the
+     * names of the resources known to be absent from all of them.
+     */
+    private static final class DependencyCacheEntry {
+
+        private final WeakReference<BundleClassLoader> classLoader;
+
+        private final Set<Bundle> dependencies;
+
+        private final Map<String, Boolean> absentResources = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_ABSENT_RESOURCES_PER_BUNDLE;
+            }
+        };
+
+        private DependencyCacheEntry(BundleClassLoader classLoader, Set<Bundle> dependencies) {
+            this.classLoader = new WeakReference<BundleClassLoader>(classLoader);
+            this.dependencies = Collections.newSetFromMap(new ConcurrentHashMap<Bundle, Boolean>());
+            this.dependencies.addAll(dependencies);
+        }
+
+        private boolean isFor(BundleClassLoader candidate) {
+            return this.classLoader.get() == candidate;
+        }
+
+        private Set<Bundle> getDependencies() {
+            return this.dependencies;
+        }
+
+        private void removeDependency(Bundle dependency) {
+            this.dependencies.remove(dependency);
+        }
+
+        private boolean isAbsentResource(String name) {
+            synchronized (this.absentResources) {
+                return this.absentResources.get(name) != null;
+            }
+        }
+
+        private void addAbsentResource(String name) {
+            synchronized (this.absentResources) {
+                this.absentResources.put(name, Boolean.TRUE);
+            }
+        }
+    }
+
     private static class IteratorEnumerationAdaptor<T> implements Enumeration<T> {
 
         private final Iterator<T> iterator;
@@ -316,10 +445,9 @@ public class MetaInfResourceClassLoaderDelegateHook implements ClassLoaderDelega
          * {@inheritDoc}
          */
         public void bundleChanged(BundleEvent event) {
-            if (BundleEvent.UNRESOLVED == event.getType()) {
-                synchronized (monitor) {
-                    dependenciesCache.remove(event.getBundle());
-                }
+            int type = event.getType();
+            if (BundleEvent.UNRESOLVED == type || BundleEvent.UNINSTALLED == type) {
+                dependenciesCache.remove(event.getBundle());
             }
         }
     }
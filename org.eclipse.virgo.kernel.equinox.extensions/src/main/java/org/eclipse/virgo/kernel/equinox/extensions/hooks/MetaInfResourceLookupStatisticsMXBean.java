@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the <code>META-INF</code> resource lookups that {@link MetaInfResourceClassLoaderDelegateHook}
+ * propagates to a bundle's dependencies.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be thread-safe.
+ * 
+ */
+@MXBean
+public interface MetaInfResourceLookupStatisticsMXBean {
+
+    /**
+     * @return the number of lookups that found a bundle's dependencies in the cache
+     */
+    long getDependencyCacheHits();
+
+    /**
+     * @return the number of lookups that had to determine a bundle's dependencies
+     */
+    long getDependencyCacheMisses();
+
+    /**
+     * @return the ratio of dependency cache hits to lookups, or <code>0</code> if there have been none
+     */
+    double getDependencyCacheHitRatio();
+
+    /**
+     * @return the number of lookups that were answered by the cache of resources known to be absent
+     */
+    long getAbsentResourceCacheHits();
+
+    /**
+     * @return the ratio of absent resource cache hits to lookups, or <code>0</code> if there have been none
+     */
+    double getAbsentResourceCacheHitRatio();
+
+    /**
+     * @return the number of times the caller's stack was inspected for a delegated resolver
+     */
+    long getCallerStackInspections();
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * A {@link URLStreamHandler} for <code>jar:</code> URLs whose archive is a local file that reads entries through the
+ * {@link JarFileHandlePool} rather than opening the archive for each connection. URLs created with this handler have
+ * the same external form as those created with the JRE's handler.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread-safe.
+ * 
+ */
+final class PooledJarURLStreamHandler extends URLStreamHandler {
+
+    private static final String JAR_SEPARATOR = "!/";
+
+    private final JarFileHandlePool pool;
+
+    PooledJarURLStreamHandler(JarFileHandlePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        File archive = getArchive(url);
+        if (archive == null) {
+            return new URL(url.toExternalForm()).openConnection();
+        }
+        return new PooledJarURLConnection(url, archive, this.pool);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void parseURL(URL url, String spec, int start, int limit) {
+        setURL(url, "jar", "", -1, null, null, spec.substring(start, limit), null, null);
+    }
+
+    /**
+     * Returns the local archive file of the supplied <code>jar:</code> URL, or <code>null</code> if the URL does not
+     * refer to an entry in a local archive.
+     * 
+     * @param url the URL
+     * @return the archive file or <code>null</code>
+     */
+    static File getArchive(URL url) {
+        if (!"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        String file = url.getFile();
+        int separator = file.indexOf(JAR_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            URL archiveURL = new URL(file.substring(0, separator));
+            if (!"file".equals(archiveURL.getProtocol())) {
+                return null;
+            }
+            try {
+                return new File(archiveURL.toURI());
+            } catch (URISyntaxException e) {
+                // File.toURL does not escape, so fall back to the raw path
+                return new File(archiveURL.getPath());
+            } catch (IllegalArgumentException e) {
+                return new File(archiveURL.getPath());
+            }
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the entry name of the supplied <code>jar:</code> URL, or <code>null</code> if the URL refers to the
+     * archive as a whole.
+     * 
+     * @param url the URL
+     * @return the entry name or <code>null</code>
+     */
+    static String getEntryName(URL url) {
+        String file = url.getFile();
+        int separator = file.indexOf(JAR_SEPARATOR);
+        if (separator < 0 || separator + JAR_SEPARATOR.length() == file.length()) {
+            return null;
+        }
+        return file.substring(separator + JAR_SEPARATOR.length());
+    }
+
+    /**
+     * A {@link JarURLConnection} that reads its entry from a pooled archive handle. The handle is held only while an
+     * input stream obtained from the connection remains open. {@link #getJarFile()} never exposes a pooled handle.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * Not thread-safe, as is usual for {@link URLConnection URLConnections}.
+     * 
+     */
+    private static final class PooledJarURLConnection extends JarURLConnection {
+
+        private final File archive;
+
+        private final JarFileHandlePool pool;
+
+        private JarEntry jarEntry;
+
+        private PooledJarURLConnection(URL url, File archive, JarFileHandlePool pool) throws MalformedURLException {
+            super(url);
+            this.archive = archive;
+            this.pool = pool;
+            setUseCaches(false);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void connect() throws IOException {
+            if (!this.connected) {
+                String entryName = getEntryName();
+                if (entryName != null) {
+                    JarFileHandlePool.Handle handle = this.pool.acquire(this.archive);
+                    try {
+                        this.jarEntry = handle.getJarFile().getJarEntry(entryName);
+                    } finally {
+                        this.pool.release(handle);
+                    }
+                    if (this.jarEntry == null) {
+                        throw new FileNotFoundException("JAR entry " + entryName + " not found in " + this.archive);
+                    }
+                }
+                this.connected = true;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * The returned <code>JarFile</code> is opened for this connection and is not shared with the pool, so the caller
+         * owns it and is free to close it, as is usual when caching is disabled.
+         */
+        @Override
+        public JarFile getJarFile() throws IOException {
+            connect();
+            return new JarFile(this.archive);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public JarEntry getJarEntry() throws IOException {
+            connect();
+            return this.jarEntry;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (this.jarEntry == null) {
+                throw new IOException("no entry name specified");
+            }
+            final JarFileHandlePool.Handle handle = this.pool.acquire(this.archive);
+            InputStream in;
+            try {
+                in = handle.getJarFile().getInputStream(this.jarEntry);
+            } catch (IOException e) {
+                this.pool.release(handle);
+                throw e;
+            } catch (RuntimeException e) {
+                this.pool.release(handle);
+                throw e;
+            }
+            return new FilterInputStream(in) {
+
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (!this.closed) {
+                        this.closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            PooledJarURLConnection.this.pool.release(handle);
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getContentLength() {
+            try {
+                connect();
+            } catch (IOException e) {
+                return -1;
+            }
+            return this.jarEntry == null ? -1 : (int) this.jarEntry.getSize();
+        }
+    }
+}
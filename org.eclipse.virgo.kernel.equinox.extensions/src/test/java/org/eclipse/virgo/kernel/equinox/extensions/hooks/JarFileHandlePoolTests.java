@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class JarFileHandlePoolTests {
+
+    private final JarFileHandlePool pool = new JarFileHandlePool(2);
+
+    private final File[] archives = new File[3];
+
+    @Before
+    public void createArchives() throws IOException {
+        new File("build").mkdirs();
+        for (int i = 0; i < this.archives.length; i++) {
+            this.archives[i] = new File("build/pool-test-" + i + ".jar");
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(this.archives[i]));
+            try {
+                out.putNextEntry(new ZipEntry("META-INF/test.txt"));
+                out.write(("archive " + i).getBytes("UTF-8"));
+                out.closeEntry();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @Test
+    public void handleIsReused() throws IOException {
+        JarFileHandlePool.Handle first = this.pool.acquire(this.archives[0]);
+        this.pool.release(first);
+        JarFileHandlePool.Handle second = this.pool.acquire(this.archives[0]);
+        this.pool.release(second);
+
+        assertSame(first, second);
+        assertEquals(1, this.pool.getHandlesOpened());
+        assertEquals(2, this.pool.getAcquisitions());
+        assertEquals(1, this.pool.getAcquisitionHits());
+    }
+
+    @Test
+    public void unusedHandlesAreEvicted() throws IOException {
+        for (File archive : this.archives) {
+            this.pool.release(this.pool.acquire(archive));
+        }
+        assertEquals(3, this.pool.getHandlesOpened());
+        assertEquals(2, this.pool.getOpenHandles());
+    }
+
+    @Test
+    public void handleInUseIsNotClosed() throws IOException {
+        JarFileHandlePool.Handle handle = this.pool.acquire(this.archives[0]);
+        this.pool.discard(this.archives[0]);
+        assertEquals(1, this.pool.getOpenHandles());
+        assertTrue(handle.getJarFile().getEntry("META-INF/test.txt") != null);
+
+        this.pool.release(handle);
+        assertEquals(0, this.pool.getOpenHandles());
+    }
+
+    @Test
+    public void entryIndex() throws IOException {
+        Set<String> entryNames = this.pool.getEntryNames(this.archives[1]);
+        assertTrue(entryNames.contains("META-INF/test.txt"));
+        assertFalse(entryNames.contains("META-INF/absent.txt"));
+        assertEquals(1, this.pool.getIndexedArchives());
+
+        this.pool.discard(this.archives[1]);
+        assertEquals(0, this.pool.getIndexedArchives());
+        assertEquals(0, this.pool.getOpenHandles());
+    }
+
+    @Test
+    public void pooledUrl() throws IOException {
+        PooledJarURLStreamHandler handler = new PooledJarURLStreamHandler(this.pool);
+        String spec = "jar:" + this.archives[2].toURI().toURL() + "!/META-INF/test.txt";
+        URL url = new URL(null, spec, handler);
+        assertEquals(spec, url.toExternalForm());
+
+        InputStream in = url.openStream();
+        try {
+            byte[] buffer = new byte[64];
+            int read = in.read(buffer);
+            assertEquals("archive 2", new String(buffer, 0, read, "UTF-8"));
+        } finally {
+            in.close();
+        }
+        url.openStream().close();
+        assertEquals(1, this.pool.getHandlesOpened());
+
+        try {
+            new URL(null, "jar:" + this.archives[2].toURI().toURL() + "!/META-INF/absent.txt", handler).openStream();
+            fail("Missing entry should not be found");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+}
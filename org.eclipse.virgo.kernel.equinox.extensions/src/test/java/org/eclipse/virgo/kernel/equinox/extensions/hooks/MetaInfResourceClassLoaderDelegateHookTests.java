@@ -125,6 +125,45 @@ public class MetaInfResourceClassLoaderDelegateHookTests {
         assertTrue(results.contains(resourceUrlTwo));
     }
     
+    @Test
+    public void absentResourceIsRemembered() throws FileNotFoundException {
+        ExportedPackage exportedPackage = createMock(ExportedPackage.class);
+        expect(exportedPackage.getImportingBundles()).andReturn(new Bundle[] {this.principleBundle});
+        replay(exportedPackage);
+
+        hook.exportedPackages.put(this.installedBundleTwo, new ExportedPackage[] {exportedPackage});
+
+        assertNull(this.hook.postFindResource("META-INF/absent.resource", this.classLoader, null));
+        assertNull(this.hook.postFindResource("META-INF/absent.resource", this.classLoader, null));
+        assertNull(this.hook.postFindResources("META-INF/absent.resource", this.classLoader, null));
+
+        assertEquals(2, this.hook.getAbsentResourceCacheHits());
+        assertEquals(1, this.hook.getCallerStackInspections());
+        assertEquals(1, this.hook.getDependencyCacheMisses());
+        assertEquals(2, this.hook.getDependencyCacheHits());
+    }
+
+    @Test
+    public void newClassLoaderDoesNotSeePreviousGeneration() throws FileNotFoundException, MalformedURLException {
+        ExportedPackage exportedPackage = createMock(ExportedPackage.class);
+        expect(exportedPackage.getImportingBundles()).andReturn(new Bundle[] {this.principleBundle}).anyTimes();
+        replay(exportedPackage);
+
+        hook.exportedPackages.put(this.installedBundleTwo, new ExportedPackage[] {exportedPackage});
+
+        assertNull(this.hook.postFindResource("META-INF/the.resource", this.classLoader, null));
+
+        URL resourceUrl = new URL("file:/resource");
+        this.installedBundleTwo.addResource("META-INF/the.resource", resourceUrl);
+
+        BundleClassLoader refreshedClassLoader = createMock(BundleClassLoader.class);
+        expect(refreshedClassLoader.getBundle()).andReturn(this.principleBundle).anyTimes();
+        replay(refreshedClassLoader);
+
+        assertEquals(resourceUrl, this.hook.postFindResource("META-INF/the.resource", refreshedClassLoader, null));
+        assertEquals(2, this.hook.getDependencyCacheMisses());
+    }
+
     private Enumeration<URL> createEnumeration(URL url) {
         Vector<URL> vector = new Vector<URL>();
         vector.add(url);
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.equinox.extensions.hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class PooledJarURLStreamHandlerTests {
+
+    private static final String ENTRY_NAME = "META-INF/test.txt";
+
+    private final JarFileHandlePool pool = new JarFileHandlePool(1);
+
+    private final PooledJarURLStreamHandler handler = new PooledJarURLStreamHandler(this.pool);
+
+    private final File[] archives = new File[2];
+
+    @Before
+    public void createArchives() throws IOException {
+        new File("build").mkdirs();
+        for (int i = 0; i < this.archives.length; i++) {
+            this.archives[i] = new File("build/pooled-url-test-" + i + ".jar");
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(this.archives[i]));
+            try {
+                out.putNextEntry(new ZipEntry(ENTRY_NAME));
+                out.write(("archive " + i).getBytes("UTF-8"));
+                out.closeEntry();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @Test
+    public void closingReturnedJarFileDoesNotAffectPooledReads() throws IOException {
+        JarURLConnection first = openConnection(this.archives[0]);
+        JarFile jarFile = first.getJarFile();
+        assertEquals("archive 0", read(jarFile.getInputStream(first.getJarEntry())));
+        jarFile.close();
+
+        assertEquals("archive 0", read(openConnection(this.archives[0]).getInputStream()));
+        assertEquals("archive 0", read(openConnection(this.archives[0]).getInputStream()));
+    }
+
+    @Test
+    public void evictionDoesNotCloseReturnedJarFile() throws IOException {
+        JarURLConnection connection = openConnection(this.archives[0]);
+        JarFile jarFile = connection.getJarFile();
+        try {
+            assertEquals("archive 1", read(openConnection(this.archives[1]).getInputStream()));
+            assertEquals(1, this.pool.getOpenHandles());
+
+            assertEquals("archive 0", read(jarFile.getInputStream(connection.getJarEntry())));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    @Test
+    public void eachConnectionReturnsItsOwnJarFile() throws IOException {
+        JarFile first = openConnection(this.archives[0]).getJarFile();
+        JarFile second = openConnection(this.archives[0]).getJarFile();
+        try {
+            assertNotSame(first, second);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    private JarURLConnection openConnection(File archive) throws IOException {
+        URL url = new URL(null, "jar:" + archive.toURI().toURL() + "!/" + ENTRY_NAME, this.handler);
+        return (JarURLConnection) url.openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.model.internal.bundle;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.equinox.region.RegionDigraph;
+import org.eclipse.virgo.kernel.model.Artifact;
+import org.eclipse.virgo.kernel.model.internal.ArtifactRepositoryListener;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The graph of wiring dependencies between bundles in the runtime artifact model. A bundle depends on the bundles that
+ * provide its imported packages, its required bundles, and, for a fragment, its hosts.
+ * <p />
+ * The graph is maintained incrementally. A bundle's dependencies are read from its {@link BundleWiring} when it is
+ * resolved and discarded when it is unresolved or uninstalled. The bundle {@link Artifact}s are tracked as they are
+ * added to and removed from the {@link org.eclipse.virgo.kernel.model.RuntimeArtifactRepository
+ * RuntimeArtifactRepository}, so a native bundle artifact replaced by a deployer artifact is reflected. The dependents
+ * of each bundle are computed once and then served from the graph until its wiring or the artifacts it depends on
+ * change.
+ * <p />
+ * Wires added to a resolved bundle by dynamic imports are not seen until the bundle is next resolved.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Threadsafe
+ * 
+ */
+public final class BundleDependencyGraph implements SynchronousBundleListener, ArtifactRepositoryListener {
+
+    private static final int RESOLVED_STATES = Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Object monitor = new Object();
+
+    private final BundleContext kernelBundleContext;
+
+    private final RegionDigraph regionDigraph;
+
+    private final Map<Long, BundleNode> nodes = new HashMap<Long, BundleNode>();
+
+    private final Map<BundleKey, Long> bundleIds = new HashMap<BundleKey, Long>();
+
+    private final Map<BundleKey, Artifact> artifacts = new HashMap<BundleKey, Artifact>();
+
+    public BundleDependencyGraph(@NonNull BundleContext kernelBundleContext, @NonNull RegionDigraph regionDigraph) {
+        this.kernelBundleContext = kernelBundleContext;
+        this.regionDigraph = regionDigraph;
+    }
+
+    /**
+     * Registers this graph as a bundle listener and adds the dependencies of the bundles that are already resolved.
+     */
+    @PostConstruct
+    public void initialize() {
+        BundleContext systemBundleContext = getSystemBundleContext();
+        // Register with the system bundle context to see all bundles in all regions.
+        systemBundleContext.addBundleListener(this);
+        for (Bundle bundle : systemBundleContext.getBundles()) {
+            if ((bundle.getState() & RESOLVED_STATES) != 0) {
+                try {
+                    resolved(bundle);
+                } catch (RuntimeException e) {
+                    this.logger.error(String.format("Exception adding the dependencies of bundle '%s:%s'", bundle.getSymbolicName(),
+                        bundle.getVersion()), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters this graph as a bundle listener.
+     */
+    @PreDestroy
+    public void destroy() {
+        getSystemBundleContext().removeBundleListener(this);
+    }
+
+    private BundleContext getSystemBundleContext() {
+        return this.kernelBundleContext.getBundle(0L).getBundleContext();
+    }
+
+    /**
+     * Returns the bundle {@link Artifact}s which the given bundle artifact depends on.
+     * 
+     * @param artifact the bundle artifact
+     * @return an unmodifiable set of the artifacts it depends on, which is empty if the bundle is unknown or unresolved
+     */
+    public Set<Artifact> getDependents(Artifact artifact) {
+        synchronized (this.monitor) {
+            Long bundleId = this.bundleIds.get(BundleKey.of(artifact));
+            BundleNode node = bundleId == null ? null : this.nodes.get(bundleId);
+            if (node == null) {
+                return Collections.<Artifact> emptySet();
+            }
+            if (node.dependents == null) {
+                Set<Artifact> dependents = new HashSet<Artifact>();
+                for (Long providerId : node.providers) {
+                    BundleNode provider = this.nodes.get(providerId);
+                    Artifact providerArtifact = provider == null ? null : this.artifacts.get(provider.key);
+                    if (providerArtifact != null) {
+                        dependents.add(providerArtifact);
+                    }
+                }
+                node.dependents = Collections.unmodifiableSet(dependents);
+            }
+            return node.dependents;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+            case BundleEvent.RESOLVED:
+                resolved(bundle);
+                break;
+            case BundleEvent.UNRESOLVED:
+                unresolved(bundle.getBundleId());
+                break;
+            case BundleEvent.UNINSTALLED:
+                uninstalled(bundle.getBundleId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void resolved(Bundle bundle) {
+        BundleKey key = keyOf(bundle);
+        Map<Long, BundleKey> providers = new HashMap<Long, BundleKey>();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring != null) {
+            addProviders(providers, wiring.getRequiredWires(BundleRevision.PACKAGE_NAMESPACE));
+            addProviders(providers, wiring.getRequiredWires(BundleRevision.BUNDLE_NAMESPACE));
+            addProviders(providers, wiring.getRequiredWires(BundleRevision.HOST_NAMESPACE));
+        }
+
+        synchronized (this.monitor) {
+            BundleNode node = getNode(bundle.getBundleId(), key);
+            for (Map.Entry<Long, BundleKey> provider : providers.entrySet()) {
+                getNode(provider.getKey(), provider.getValue());
+            }
+            setProviders(node, providers.keySet());
+        }
+    }
+
+    private void addProviders(Map<Long, BundleKey> providers, List<BundleWire> wires) {
+        if (wires != null) {
+            for (BundleWire wire : wires) {
+                Bundle provider = wire.getProviderWiring().getBundle();
+                if (!providers.containsKey(provider.getBundleId())) {
+                    providers.put(provider.getBundleId(), keyOf(provider));
+                }
+            }
+        }
+    }
+
+    private BundleKey keyOf(Bundle bundle) {
+        Region region = this.regionDigraph.getRegion(bundle);
+        return new BundleKey(bundle.getSymbolicName(), bundle.getVersion(), region == null ? null : region.getName());
+    }
+
+    private void unresolved(long bundleId) {
+        synchronized (this.monitor) {
+            BundleNode node = this.nodes.get(bundleId);
+            if (node != null) {
+                setProviders(node, Collections.<Long> emptySet());
+            }
+        }
+    }
+
+    private void uninstalled(long bundleId) {
+        synchronized (this.monitor) {
+            BundleNode node = this.nodes.remove(bundleId);
+            if (node != null) {
+                setProviders(node, Collections.<Long> emptySet());
+                invalidateConsumers(node);
+                Long mappedId = this.bundleIds.get(node.key);
+                if (mappedId != null && mappedId.longValue() == bundleId) {
+                    this.bundleIds.remove(node.key);
+                }
+            }
+        }
+    }
+
+    private BundleNode getNode(long bundleId, BundleKey key) {
+        BundleNode node = this.nodes.get(bundleId);
+        if (node == null) {
+            node = new BundleNode(bundleId, key);
+            this.nodes.put(bundleId, node);
+        } else if (!node.key.equals(key)) {
+            // The bundle has been updated to a new symbolic name or version
+            Long mappedId = this.bundleIds.get(node.key);
+            if (mappedId != null && mappedId.longValue() == bundleId) {
+                this.bundleIds.remove(node.key);
+            }
+            node.key = key;
+            invalidateConsumers(node);
+        }
+        this.bundleIds.put(key, bundleId);
+        return node;
+    }
+
+    private void setProviders(BundleNode node, Set<Long> providers) {
+        for (Long providerId : node.providers) {
+            BundleNode provider = this.nodes.get(providerId);
+            if (provider != null) {
+                provider.consumers.remove(node.bundleId);
+            }
+        }
+        node.providers = new HashSet<Long>(providers);
+        for (Long providerId : node.providers) {
+            BundleNode provider = this.nodes.get(providerId);
+            if (provider != null) {
+                provider.consumers.add(node.bundleId);
+            }
+        }
+        node.dependents = null;
+    }
+
+    private void invalidateConsumers(BundleNode node) {
+        for (Long consumerId : node.consumers) {
+            BundleNode consumer = this.nodes.get(consumerId);
+            if (consumer != null) {
+                consumer.dependents = null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void added(Artifact artifact) {
+        if (NativeBundleArtifact.TYPE.equalsIgnoreCase(artifact.getType())) {
+            BundleKey key = BundleKey.of(artifact);
+            synchronized (this.monitor) {
+                this.artifacts.put(key, artifact);
+                invalidateConsumers(key);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removed(Artifact artifact) {
+        if (NativeBundleArtifact.TYPE.equalsIgnoreCase(artifact.getType())) {
+            BundleKey key = BundleKey.of(artifact);
+            synchronized (this.monitor) {
+                if (this.artifacts.remove(key) != null) {
+                    invalidateConsumers(key);
+                }
+            }
+        }
+    }
+
+    private void invalidateConsumers(BundleKey key) {
+        Long bundleId = this.bundleIds.get(key);
+        BundleNode node = bundleId == null ? null : this.nodes.get(bundleId);
+        if (node != null) {
+            invalidateConsumers(node);
+        }
+    }
+
+    /**
+     * A bundle in the graph, together with the bundles it depends on, the bundles that depend on it, and its computed
+     * dependent artifacts, which are <code>null</code> when they need recomputing.
+     */
+    private static final class BundleNode {
+
+        private final long bundleId;
+
+        private BundleKey key;
+
+        private Set<Long> providers = Collections.<Long> emptySet();
+
+        private final Set<Long> consumers = new HashSet<Long>();
+
+        private Set<Artifact> dependents;
+
+        private BundleNode(long bundleId, BundleKey key) {
+            this.bundleId = bundleId;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The symbolic name, version, and region name which identify a bundle artifact.
+     */
+    private static final class BundleKey {
+
+        private final String name;
+
+        private final Version version;
+
+        private final String regionName;
+
+        private BundleKey(String name, Version version, String regionName) {
+            this.name = name;
+            this.version = version;
+            this.regionName = regionName;
+        }
+
+        private static BundleKey of(Artifact artifact) {
+            Region region = artifact.getRegion();
+            return new BundleKey(artifact.getName(), artifact.getVersion(), region == null ? null : region.getName());
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((name == null) ? 0 : name.hashCode());
+            result = prime * result + ((regionName == null) ? 0 : regionName.hashCode());
+            result = prime * result + ((version == null) ? 0 : version.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof BundleKey))
+                return false;
+            BundleKey other = (BundleKey) obj;
+            if (name == null) {
+                if (other.name != null)
+                    return false;
+            } else if (!name.equals(other.name))
+                return false;
+            if (regionName == null) {
+                if (other.regionName != null)
+                    return false;
+            } else if (!regionName.equals(other.regionName))
+                return false;
+            if (version == null) {
+                if (other.version != null)
+                    return false;
+            } else if (!version.equals(other.version))
+                return false;
+            return true;
+        }
+    }
+}
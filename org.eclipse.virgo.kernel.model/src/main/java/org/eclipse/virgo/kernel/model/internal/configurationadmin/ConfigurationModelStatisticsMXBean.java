@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.model.internal.configurationadmin;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the statistics of the configurations in the runtime artifact model. It is registered as
+ * <code>org.eclipse.virgo.kernel:type=Statistics,name=ConfigurationModel</code>.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+@MXBean
+public interface ConfigurationModelStatisticsMXBean {
+
+    /**
+     * @return the number of configuration events that have not changed the runtime artifact model
+     */
+    long getSuppressedUpdates();
+}
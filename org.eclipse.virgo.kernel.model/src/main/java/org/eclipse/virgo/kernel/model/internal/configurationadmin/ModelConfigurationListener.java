@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,12 +11,20 @@
 
 package org.eclipse.virgo.kernel.model.internal.configurationadmin;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.virgo.kernel.model.Artifact;
 import org.eclipse.virgo.kernel.model.RuntimeArtifactRepository;
 import org.eclipse.equinox.region.Region;
 import org.eclipse.virgo.nano.serviceability.NonNull;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Version;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.ConfigurationEvent;
 import org.osgi.service.cm.ConfigurationListener;
@@ -29,6 +37,14 @@ import org.slf4j.LoggerFactory;
  * {@link ConfigurationEvent#CM_DELETED} events to add and remove respectively {@link Artifact}s from the
  * {@link RuntimeArtifactRepository}
  * <p />
+ * The listener indexes the {@link ConfigurationArtifact}s it has added by pid. A {@link ConfigurationArtifact} reads its
+ * {@link org.osgi.service.cm.Configuration Configuration} on demand, so an update to a configuration that is already in
+ * the repository leaves the repository untouched and is counted as a suppressed update.
+ * <p />
+ * When created with a non-zero coalescing window, events are processed on a background thread once the window has
+ * elapsed since the first event for a pid, and only the last event for the pid within the window takes effect. The
+ * events it supersedes are also counted as suppressed updates.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -37,8 +53,14 @@ import org.slf4j.LoggerFactory;
  */
 final class ModelConfigurationListener implements ConfigurationListener {
 
+    static final long DEFAULT_COALESCING_WINDOW = 100;
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final Object monitor = new Object();
+
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+
     private final RuntimeArtifactRepository artifactRepository;
 
     private final BundleContext bundleContext;
@@ -47,40 +69,167 @@ final class ModelConfigurationListener implements ConfigurationListener {
 
     private final Region independentRegion;
 
+    private final long coalescingWindow;
+
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, ConfigurationArtifact> artifacts = new HashMap<String, ConfigurationArtifact>();
+
+    private final Map<String, Integer> pendingEvents = new HashMap<String, Integer>();
+
+    private boolean destroyed;
+
     public ModelConfigurationListener(@NonNull RuntimeArtifactRepository artifactRepository, @NonNull BundleContext bundleContext, @NonNull ConfigurationAdmin configurationAdmin, @NonNull Region independentRegion) {
+        this(artifactRepository, bundleContext, configurationAdmin, independentRegion, 0);
+    }
+
+    public ModelConfigurationListener(@NonNull RuntimeArtifactRepository artifactRepository, @NonNull BundleContext bundleContext, @NonNull ConfigurationAdmin configurationAdmin, @NonNull Region independentRegion, long coalescingWindow) {
         this.artifactRepository = artifactRepository;
         this.bundleContext = bundleContext;
         this.configurationAdmin = configurationAdmin;
         this.independentRegion = independentRegion;
+        this.coalescingWindow = coalescingWindow;
+        this.executor = coalescingWindow > 0 ? Executors.newSingleThreadScheduledExecutor(new ListenerThreadFactory()) : null;
     }
 
     /**
      * {@inheritDoc}
      */
     public void configurationEvent(ConfigurationEvent event) {
-        if (ConfigurationEvent.CM_UPDATED == event.getType()) {
-            processUpdate(event);
-        } else if (ConfigurationEvent.CM_DELETED == event.getType()) {
-            processDelete(event);
+        int type = event.getType();
+        if (ConfigurationEvent.CM_UPDATED != type && ConfigurationEvent.CM_DELETED != type) {
+            return;
+        }
+
+        final String pid = event.getPid();
+        if (this.executor == null) {
+            process(pid, type);
+            return;
+        }
+
+        synchronized (this.monitor) {
+            if (this.destroyed) {
+                logger.debug("Ignoring event for configuration '{}' after the listener was destroyed", pid);
+                return;
+            }
+            if (this.pendingEvents.put(pid, type) != null) {
+                this.suppressedUpdates.incrementAndGet();
+                return;
+            }
+        }
+        try {
+            this.executor.schedule(new Runnable() {
+
+                public void run() {
+                    processPending(pid);
+                }
+            }, this.coalescingWindow, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The listener was destroyed after the event was recorded
+            synchronized (this.monitor) {
+                this.pendingEvents.remove(pid);
+            }
+            logger.debug("Ignoring event for configuration '{}' after the listener was destroyed", pid);
+        }
+    }
+
+    /**
+     * Adds a {@link ConfigurationArtifact} for the given pid to the repository unless one has already been added. The
+     * artifact is only indexed if the repository accepts it.
+     * 
+     * @param pid the pid of the configuration
+     */
+    void configurationUpdated(String pid) {
+        synchronized (this.monitor) {
+            if (this.artifacts.containsKey(pid)) {
+                this.suppressedUpdates.incrementAndGet();
+                logger.debug("Configuration '{}' already present in the model", pid);
+                return;
+            }
+            ConfigurationArtifact artifact = createArtifact(pid);
+            if (this.artifactRepository.add(artifact)) {
+                logger.info("Added configuration '{}' to the model", pid);
+                this.artifacts.put(pid, artifact);
+            } else {
+                this.suppressedUpdates.incrementAndGet();
+                logger.debug("Configuration '{}' not added to the model as the repository already contains it", pid);
+            }
         }
     }
 
-    private void processUpdate(ConfigurationEvent event) {
-        logger.info("Processing update event for '{}'", event.getPid());
-        this.artifactRepository.add(createArtifact(event));
+    /**
+     * Removes the {@link ConfigurationArtifact} for the given pid, if any, from the repository.
+     * 
+     * @param pid the pid of the configuration
+     */
+    void configurationDeleted(String pid) {
+        synchronized (this.monitor) {
+            ConfigurationArtifact artifact = this.artifacts.remove(pid);
+            if (artifact != null) {
+                logger.info("Removing configuration '{}' from the model", pid);
+                this.artifactRepository.remove(artifact);
+            }
+        }
     }
 
-    private void processDelete(ConfigurationEvent event) {
-        logger.info("Processing delete event for '{}'", event.getPid());
+    /**
+     * Returns the number of configuration events that did not change the repository, either because the configuration
+     * was already present or because a later event for the same pid superseded them.
+     * 
+     * @return the number of suppressed updates
+     */
+    long getSuppressedUpdates() {
+        return this.suppressedUpdates.get();
+    }
 
-        Artifact artifact = this.artifactRepository.getArtifact(ConfigurationArtifact.TYPE, event.getPid(), Version.emptyVersion, independentRegion);
-        if (artifact instanceof ConfigurationArtifact) {
-            this.artifactRepository.remove(ConfigurationArtifact.TYPE, event.getPid(), Version.emptyVersion, independentRegion);
+    /**
+     * Stops processing coalesced events. Events that are still pending are discarded, as are those that arrive later.
+     */
+    void destroy() {
+        synchronized (this.monitor) {
+            this.destroyed = true;
+            this.pendingEvents.clear();
+        }
+        if (this.executor != null) {
+            this.executor.shutdownNow();
         }
     }
 
-    private ConfigurationArtifact createArtifact(ConfigurationEvent event) {
-        return new ConfigurationArtifact(this.bundleContext, this.configurationAdmin, event.getPid(), independentRegion);
+    private void processPending(String pid) {
+        Integer type;
+        synchronized (this.monitor) {
+            type = this.pendingEvents.remove(pid);
+        }
+        if (type != null) {
+            try {
+                process(pid, type);
+            } catch (RuntimeException e) {
+                logger.error(String.format("Exception processing event for configuration '%s'", pid), e);
+            }
+        }
+    }
+
+    private void process(String pid, int type) {
+        if (ConfigurationEvent.CM_UPDATED == type) {
+            configurationUpdated(pid);
+        } else {
+            configurationDeleted(pid);
+        }
     }
 
+    private ConfigurationArtifact createArtifact(String pid) {
+        return new ConfigurationArtifact(this.bundleContext, this.configurationAdmin, pid, independentRegion);
+    }
+
+    private static final class ListenerThreadFactory implements ThreadFactory {
+
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "configuration-model-updates");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,9 +12,13 @@
 package org.eclipse.virgo.kernel.model.internal.configurationadmin;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.eclipse.equinox.region.Region;
 import org.eclipse.virgo.kernel.model.RuntimeArtifactRepository;
@@ -30,7 +34,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An initializer responsible for registering a {@link ModelConfigurationListener} and enumerating any existing
- * {@link Configuration} objects from {@link ConfigurationAdmin}
+ * {@link Configuration} objects from {@link ConfigurationAdmin}. The number of updates suppressed by the listener is
+ * published as a {@link ConfigurationModelStatisticsMXBean}.
  * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
@@ -39,10 +44,14 @@ import org.slf4j.LoggerFactory;
  * 
  * @see ModelConfigurationListener
  */
-public final class ModelConfigurationListenerInitializer {
+public final class ModelConfigurationListenerInitializer implements ConfigurationModelStatisticsMXBean {
+
+    private static final String STATISTICS_OBJECT_NAME = "org.eclipse.virgo.kernel:type=Statistics,name=ConfigurationModel";
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
     private final ServiceRegistrationTracker registrationTracker = new ServiceRegistrationTracker();
 
     private final RuntimeArtifactRepository artifactRepository;
@@ -53,6 +62,8 @@ public final class ModelConfigurationListenerInitializer {
 
     private final Region globalRegion;
 
+    private volatile ModelConfigurationListener configurationListener;
+
     public ModelConfigurationListenerInitializer(@NonNull RuntimeArtifactRepository artifactRepository, @NonNull BundleContext bundleContext, @NonNull ConfigurationAdmin configurationAdmin, @NonNull Region globalRegion) {
         this.artifactRepository = artifactRepository;
         this.bundleContext = bundleContext;
@@ -69,13 +80,16 @@ public final class ModelConfigurationListenerInitializer {
      */
     @PostConstruct
     public void initialize() throws IOException, InvalidSyntaxException {
-        ModelConfigurationListener configurationListener = new ModelConfigurationListener(artifactRepository, bundleContext, configurationAdmin, globalRegion);
+        ModelConfigurationListener configurationListener = new ModelConfigurationListener(artifactRepository, bundleContext, configurationAdmin,
+            globalRegion, ModelConfigurationListener.DEFAULT_COALESCING_WINDOW);
+        this.configurationListener = configurationListener;
         this.registrationTracker.track(this.bundleContext.registerService(ConfigurationListener.class.getCanonicalName(), configurationListener, null));
+        registerStatistics();
         Configuration[] configurations = this.configurationAdmin.listConfigurations(null);
         if (configurations != null) {
             for (Configuration configuration : configurations) {
                 try {
-                    this.artifactRepository.add(new ConfigurationArtifact(bundleContext, configurationAdmin, configuration.getPid(), globalRegion));
+                    configurationListener.configurationUpdated(configuration.getPid());
                 } catch (Exception e) {
                     logger.error(String.format("Exception adding configuration '%s' to the repository", configuration.getPid()), e);
                 }
@@ -84,10 +98,44 @@ public final class ModelConfigurationListenerInitializer {
     }
 
     /**
-     * Unregisters the listener from the service registry
+     * Unregisters the listener from the service registry and stops it processing events
      */
     @PreDestroy
     public void destroy() {
         this.registrationTracker.unregisterAll();
+        unregisterStatistics();
+        ModelConfigurationListener configurationListener = this.configurationListener;
+        if (configurationListener != null) {
+            configurationListener.destroy();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p />
+     * Zero is returned if the listener has not been initialized.
+     */
+    public long getSuppressedUpdates() {
+        ModelConfigurationListener configurationListener = this.configurationListener;
+        return configurationListener == null ? 0 : configurationListener.getSuppressedUpdates();
+    }
+
+    private void registerStatistics() {
+        try {
+            this.server.registerMBean(this, new ObjectName(STATISTICS_OBJECT_NAME));
+        } catch (JMException e) {
+            logger.error(String.format("Unable to register '%s'", STATISTICS_OBJECT_NAME), e);
+        }
+    }
+
+    private void unregisterStatistics() {
+        try {
+            ObjectName objectName = new ObjectName(STATISTICS_OBJECT_NAME);
+            if (this.server.isRegistered(objectName)) {
+                this.server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            // Swallow exception to allow others to proceed
+        }
     }
 }
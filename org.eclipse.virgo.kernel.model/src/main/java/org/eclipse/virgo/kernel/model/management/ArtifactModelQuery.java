@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.model.management;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * A bulk, read-only view of the runtime artifact model. Each query takes a snapshot of the model and returns the
+ * matching artifacts as {@link TabularData} in a single invocation, so that clients listing many artifacts need not
+ * create a proxy for, and make several calls against, each {@link ManageableArtifact}.
+ * <p />
+ * Every row holds the {@link #OBJECT_NAME}, {@link #TYPE}, {@link #NAME}, {@link #VERSION} and {@link #REGION} of an
+ * artifact and is indexed by {@link #OBJECT_NAME}. The {@link #STATE} and {@link #PROPERTIES} columns are optional and
+ * are only present when projected. Rows are ordered by name, then version, then region, then type, so that paging
+ * through the results with an offset and a limit is stable.
+ * <p />
+ * As the MXBean mapping rules do not allow {@link TabularData} to be returned, this interface is published as a standard
+ * MBean. Its results contain only open types, so any JMX client can read them. It is registered in the same domain as
+ * the {@link ManageableArtifact}s of the runtime artifact model, with the key properties {@link #OBJECT_NAME_PROPERTIES}.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations must be threadsafe
+ * 
+ */
+public interface ArtifactModelQuery {
+
+    /**
+     * The key properties of the {@link javax.management.ObjectName ObjectName} of the query, which follow the domain of
+     * the runtime artifact model
+     */
+    String OBJECT_NAME_PROPERTIES = "type=ArtifactModelQuery";
+
+    /**
+     * The column holding the {@link javax.management.ObjectName ObjectName} of the artifact's {@link ManageableArtifact}
+     */
+    String OBJECT_NAME = "objectName";
+
+    /**
+     * The column holding the artifact's type
+     */
+    String TYPE = "type";
+
+    /**
+     * The column holding the artifact's name
+     */
+    String NAME = "name";
+
+    /**
+     * The column holding the artifact's version
+     */
+    String VERSION = "version";
+
+    /**
+     * The column holding the name of the artifact's region
+     */
+    String REGION = "region";
+
+    /**
+     * The optional column holding the artifact's state
+     */
+    String STATE = "state";
+
+    /**
+     * The optional column holding the artifact's properties
+     */
+    String PROPERTIES = "properties";
+
+    /**
+     * Get all of the artifacts of a given type, including their state but not their properties.
+     * 
+     * @param type The type of artifacts to return
+     * @return The artifacts
+     */
+    TabularData getArtifacts(String type);
+
+    /**
+     * Query the artifacts in the runtime artifact model. A <code>null</code> or empty filter matches every artifact. The
+     * name filter may contain <code>*</code> wildcards, the others must match exactly, ignoring case in the case of the
+     * state filter.
+     * 
+     * @param type The type of artifacts to return
+     * @param nameFilter The names of the artifacts to return
+     * @param regionFilter The name of the region of the artifacts to return
+     * @param stateFilter The state of the artifacts to return
+     * @param offset The number of matching artifacts to skip
+     * @param limit The maximum number of artifacts to return, or zero or less to return all of them
+     * @param columns The optional columns to include in each row, or <code>null</code> for none of them
+     * @return The matching artifacts
+     * @throws IllegalArgumentException if an unknown column is requested
+     */
+    TabularData queryArtifacts(String type, String nameFilter, String regionFilter, String stateFilter, int offset, int limit, String[] columns);
+
+    /**
+     * Count the artifacts in the runtime artifact model that match the given filters, as interpreted by
+     * {@link #queryArtifacts(String, String, String, String, int, int, String[]) queryArtifacts}.
+     * 
+     * @param type The type of artifacts to count
+     * @param nameFilter The names of the artifacts to count
+     * @param regionFilter The name of the region of the artifacts to count
+     * @param stateFilter The state of the artifacts to count
+     * @return The number of matching artifacts
+     */
+    int countArtifacts(String type, String nameFilter, String regionFilter, String stateFilter);
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.model.management;
+
+import javax.management.ObjectName;
+
+/**
+ * Locates the {@link ManageableArtifact}s that the runtime artifact model has registered with the platform MBean server.
+ * Clients running in the same JVM as the runtime artifact model can use the located artifact directly rather than
+ * through an MBean proxy, avoiding the cost of JMX invocation and open type conversion.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations must be threadsafe
+ * 
+ */
+public interface ManageableArtifactLocator {
+
+    /**
+     * Get the {@link ManageableArtifact} registered under the given {@link ObjectName}
+     * 
+     * @param objectName The {@link ObjectName} of the artifact
+     * @return The {@link ManageableArtifact} or <code>null</code> if no artifact is registered under the name
+     */
+    ManageableArtifact getManageableArtifact(ObjectName objectName);
+}
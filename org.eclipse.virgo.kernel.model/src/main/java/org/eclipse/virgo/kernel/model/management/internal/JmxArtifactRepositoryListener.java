@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,6 +13,8 @@ package org.eclipse.virgo.kernel.model.management.internal;
 
 import java.lang.management.ManagementFactory;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
@@ -25,6 +27,8 @@ import org.eclipse.virgo.kernel.model.Artifact;
 import org.eclipse.virgo.kernel.model.BundleArtifact;
 import org.eclipse.virgo.kernel.model.CompositeArtifact;
 import org.eclipse.virgo.kernel.model.internal.ArtifactRepositoryListener;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.nano.serviceability.NonNull;
 import org.slf4j.Logger;
@@ -33,7 +37,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An implementation of {@link ArtifactRepositoryListener} that notices creation and deletion of {@link Artifact}s and
- * adds and removes respectively MBeans from the JMX MBeanServer
+ * adds and removes respectively MBeans from the JMX MBeanServer. The {@link ObjectName} of each artifact is computed
+ * once, when it is added, and reused when it is listed as another artifact's dependent. The registered MBeans can be
+ * located in-process through {@link ManageableArtifactLocator}.
  * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
@@ -41,32 +47,38 @@ import org.slf4j.LoggerFactory;
  * Threadsafe
  * 
  */
-public class JmxArtifactRepositoryListener implements ArtifactRepositoryListener {
+public class JmxArtifactRepositoryListener implements ArtifactRepositoryListener, ManageableArtifactLocator {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
 
-    private final RuntimeArtifactModelObjectNameCreator artifactObjectNameCreator;
+    private final PrecomputedArtifactObjectNameCreator artifactObjectNameCreator;
+
+    private final ConcurrentMap<ObjectName, ManageableArtifact> manageableArtifacts = new ConcurrentHashMap<ObjectName, ManageableArtifact>();
 
     public JmxArtifactRepositoryListener(@NonNull RuntimeArtifactModelObjectNameCreator artifactObjectNameCreator) {
-        this.artifactObjectNameCreator = artifactObjectNameCreator;
+        this.artifactObjectNameCreator = new PrecomputedArtifactObjectNameCreator(artifactObjectNameCreator);
     }
 
     /**
      * {@inheritDoc}
      */
     public void added(Artifact artifact) {
-        ObjectName objectName = getModelObjectName(artifact);
+        ObjectName objectName = this.artifactObjectNameCreator.precompute(artifact);
+
+        ManageableArtifact manageableArtifact;
+        if (artifact instanceof CompositeArtifact) {
+            manageableArtifact = new DelegatingManageableCompositeArtifact(this.artifactObjectNameCreator, (CompositeArtifact) artifact);
+        } else if (artifact instanceof BundleArtifact) {
+            manageableArtifact = new DelegatingManageableBundleArtifact(this.artifactObjectNameCreator, (BundleArtifact) artifact);
+        } else {
+            manageableArtifact = new DelegatingManageableArtifact(this.artifactObjectNameCreator, artifact);
+        }
 
         try {
-            if (artifact instanceof CompositeArtifact) {
-                this.server.registerMBean(new DelegatingManageableCompositeArtifact(this.artifactObjectNameCreator, (CompositeArtifact) artifact), objectName);
-            } else if (artifact instanceof BundleArtifact) {
-                this.server.registerMBean(new DelegatingManageableBundleArtifact(this.artifactObjectNameCreator, (BundleArtifact) artifact), objectName);
-            } else {
-                this.server.registerMBean(new DelegatingManageableArtifact(this.artifactObjectNameCreator, artifact), objectName);
-            }
+            this.server.registerMBean(manageableArtifact, objectName);
+            this.manageableArtifacts.put(objectName, manageableArtifact);
         } catch (InstanceAlreadyExistsException e) {
             logger.error(String.format("Unable to register '%s'", objectName.toString()), e);
         } catch (MBeanRegistrationException e) {
@@ -80,8 +92,9 @@ public class JmxArtifactRepositoryListener implements ArtifactRepositoryListener
      * {@inheritDoc}
      */
     public void removed(Artifact artifact) {
-        ObjectName objectName = getModelObjectName(artifact);
-        
+        ObjectName objectName = this.artifactObjectNameCreator.forget(artifact);
+        this.manageableArtifacts.remove(objectName);
+
         try {
             this.server.unregisterMBean(objectName);
         } catch (MBeanRegistrationException e) {
@@ -91,7 +104,15 @@ public class JmxArtifactRepositoryListener implements ArtifactRepositoryListener
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ManageableArtifact getManageableArtifact(ObjectName objectName) {
+        return this.manageableArtifacts.get(objectName);
+    }
+
     public void destroy() {
+        this.manageableArtifacts.clear();
         Set<ObjectName> objectNames = this.server.queryNames(this.artifactObjectNameCreator.createAllArtifactsQuery(), null);
         for (ObjectName objectName : objectNames) {
             try {
@@ -102,11 +123,6 @@ public class JmxArtifactRepositoryListener implements ArtifactRepositoryListener
                 // Swallow exception to allow others to proceed
             }
         }
-    }
-    
-    private ObjectName getModelObjectName(Artifact artifact){
-        ObjectName objectName;
-        objectName = this.artifactObjectNameCreator.createArtifactModel(artifact);
-        return objectName;
+        this.artifactObjectNameCreator.clear();
     }
 }
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.model.management.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.kernel.model.Artifact;
+import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
+import org.osgi.framework.Version;
+
+/**
+ * A {@link RuntimeArtifactModelObjectNameCreator} that remembers the {@link ObjectName} of each {@link Artifact} in the
+ * model, so that the names of an artifact's dependents are not rebuilt every time they are requested. All other
+ * methods delegate to another {@link RuntimeArtifactModelObjectNameCreator}.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Threadsafe
+ * 
+ */
+final class PrecomputedArtifactObjectNameCreator implements RuntimeArtifactModelObjectNameCreator {
+
+    private final RuntimeArtifactModelObjectNameCreator delegate;
+
+    private final ConcurrentMap<Artifact, ObjectName> objectNames = new ConcurrentHashMap<Artifact, ObjectName>();
+
+    PrecomputedArtifactObjectNameCreator(RuntimeArtifactModelObjectNameCreator delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Computes and remembers the name of an artifact which has been added to the model.
+     * 
+     * @param artifact the added artifact
+     * @return the artifact's name
+     */
+    ObjectName precompute(Artifact artifact) {
+        ObjectName objectName = this.delegate.createArtifactModel(artifact);
+        this.objectNames.put(artifact, objectName);
+        return objectName;
+    }
+
+    /**
+     * Forgets the name of an artifact which has been removed from the model.
+     * 
+     * @param artifact the removed artifact
+     * @return the artifact's name
+     */
+    ObjectName forget(Artifact artifact) {
+        ObjectName objectName = this.objectNames.remove(artifact);
+        return objectName == null ? this.delegate.createArtifactModel(artifact) : objectName;
+    }
+
+    /**
+     * Discards all remembered names.
+     */
+    void clear() {
+        this.objectNames.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName createArtifactModel(Artifact artifact) {
+        ObjectName objectName = this.objectNames.get(artifact);
+        return objectName == null ? this.delegate.createArtifactModel(artifact) : objectName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName createArtifactModel(String type, String name, Version version, Region region) {
+        return this.delegate.createArtifactModel(type, name, version, region);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName createAllArtifactsQuery() {
+        return this.delegate.createAllArtifactsQuery();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName createArtifactsOfTypeQuery(String type) {
+        return this.delegate.createArtifactsOfTypeQuery(type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName createArtifactVersionsQuery(String type, String name) {
+        return this.delegate.createArtifactVersionsQuery(type, name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName(ObjectName objectName) {
+        return this.delegate.getName(objectName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getVersion(ObjectName objectName) {
+        return this.delegate.getVersion(objectName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRegion(ObjectName objectName) {
+        return this.delegate.getRegion(objectName);
+    }
+}
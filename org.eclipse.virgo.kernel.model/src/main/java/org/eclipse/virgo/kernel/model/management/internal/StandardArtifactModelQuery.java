@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.model.management.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.kernel.model.Artifact;
+import org.eclipse.virgo.kernel.model.RuntimeArtifactRepository;
+import org.eclipse.virgo.kernel.model.management.ArtifactModelQuery;
+import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
+import org.eclipse.virgo.nano.serviceability.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The standard implementation of {@link ArtifactModelQuery}. Each query works against a snapshot of the
+ * {@link RuntimeArtifactRepository} and reads the {@link Artifact}s directly, so filtering, paging and projection cost
+ * nothing beyond the single JMX invocation that carries the query. An artifact's properties, which may be expensive to
+ * compute, are only read when they are projected.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Threadsafe
+ * 
+ */
+public final class StandardArtifactModelQuery implements ArtifactModelQuery {
+
+    private static final String[] IDENTITY_COLUMNS = { OBJECT_NAME, TYPE, NAME, VERSION, REGION };
+
+    private static final List<String> OPTIONAL_COLUMNS = Arrays.asList(STATE, PROPERTIES);
+
+    private static final String[] DEFAULT_COLUMNS = { STATE };
+
+    private static final String PROPERTY_KEY = "key";
+
+    private static final String PROPERTY_VALUE = "value";
+
+    private static final String WILDCARD = "*";
+
+    private static final Comparator<Artifact> ARTIFACT_ORDER = new ArtifactComparator();
+
+    private static final TabularType PROPERTIES_TYPE = createPropertiesType();
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final ConcurrentMap<Set<String>, TabularType> resultTypes = new ConcurrentHashMap<Set<String>, TabularType>();
+
+    private final RuntimeArtifactRepository artifactRepository;
+
+    private final RuntimeArtifactModelObjectNameCreator artifactObjectNameCreator;
+
+    public StandardArtifactModelQuery(@NonNull RuntimeArtifactRepository artifactRepository,
+        @NonNull RuntimeArtifactModelObjectNameCreator artifactObjectNameCreator) {
+        this.artifactRepository = artifactRepository;
+        this.artifactObjectNameCreator = artifactObjectNameCreator;
+    }
+
+    @PostConstruct
+    public void register() {
+        ObjectName objectName = createObjectName();
+        try {
+            this.server.registerMBean(new StandardMBean(this, ArtifactModelQuery.class), objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            logger.error(String.format("Unable to register '%s'", objectName.toString()), e);
+        } catch (MBeanRegistrationException e) {
+            logger.error(String.format("Unable to register '%s'", objectName.toString()), e);
+        } catch (NotCompliantMBeanException e) {
+            logger.error(String.format("Unable to register '%s'", objectName.toString()), e);
+        }
+    }
+
+    @PreDestroy
+    public void unregister() {
+        ObjectName objectName = createObjectName();
+        try {
+            this.server.unregisterMBean(objectName);
+        } catch (MBeanRegistrationException e) {
+            // Swallow exception to allow others to proceed
+        } catch (InstanceNotFoundException e) {
+            // Swallow exception to allow others to proceed
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TabularData getArtifacts(String type) {
+        return queryArtifacts(type, null, null, null, 0, 0, DEFAULT_COLUMNS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TabularData queryArtifacts(String type, String nameFilter, String regionFilter, String stateFilter, int offset, int limit,
+        String[] columns) {
+        Set<String> projection = getProjection(columns);
+        TabularType resultType = getResultType(projection);
+
+        List<Artifact> artifacts = findArtifacts(type, nameFilter, regionFilter, stateFilter);
+        Collections.sort(artifacts, ARTIFACT_ORDER);
+
+        int from = Math.min(Math.max(offset, 0), artifacts.size());
+        int to = limit > 0 ? Math.min(from + limit, artifacts.size()) : artifacts.size();
+
+        TabularDataSupport result = new TabularDataSupport(resultType, Math.max(to - from, 1), 0.75f);
+        for (Artifact artifact : artifacts.subList(from, to)) {
+            result.put(createRow(resultType.getRowType(), projection, artifact));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int countArtifacts(String type, String nameFilter, String regionFilter, String stateFilter) {
+        return findArtifacts(type, nameFilter, regionFilter, stateFilter).size();
+    }
+
+    private List<Artifact> findArtifacts(String type, String nameFilter, String regionFilter, String stateFilter) {
+        Pattern namePattern = isEmpty(nameFilter) ? null : createNamePattern(nameFilter);
+
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        for (Artifact artifact : this.artifactRepository.getArtifacts()) {
+            if (!isEmpty(type) && !type.equals(artifact.getType())) {
+                continue;
+            }
+            if (namePattern != null && !namePattern.matcher(artifact.getName()).matches()) {
+                continue;
+            }
+            if (!isEmpty(regionFilter) && !regionFilter.equals(getRegionName(artifact))) {
+                continue;
+            }
+            if (!isEmpty(stateFilter) && !stateFilter.equalsIgnoreCase(artifact.getState().toString())) {
+                continue;
+            }
+            artifacts.add(artifact);
+        }
+        return artifacts;
+    }
+
+    private CompositeData createRow(CompositeType rowType, Set<String> projection, Artifact artifact) {
+        Map<String, Object> items = new HashMap<String, Object>();
+        items.put(OBJECT_NAME, this.artifactObjectNameCreator.createArtifactModel(artifact).getCanonicalName());
+        items.put(TYPE, artifact.getType());
+        items.put(NAME, artifact.getName());
+        items.put(VERSION, artifact.getVersion().toString());
+        items.put(REGION, getRegionName(artifact));
+        if (projection.contains(STATE)) {
+            items.put(STATE, artifact.getState().toString());
+        }
+        if (projection.contains(PROPERTIES)) {
+            items.put(PROPERTIES, createProperties(artifact.getProperties()));
+        }
+        try {
+            return new CompositeDataSupport(rowType, items);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(String.format("Unable to describe artifact '%s'", artifact), e);
+        }
+    }
+
+    private static TabularData createProperties(Map<String, String> properties) {
+        TabularDataSupport result = new TabularDataSupport(PROPERTIES_TYPE);
+        for (Entry<String, String> property : properties.entrySet()) {
+            try {
+                result.put(new CompositeDataSupport(PROPERTIES_TYPE.getRowType(), new String[] { PROPERTY_KEY, PROPERTY_VALUE }, new Object[] {
+                    property.getKey(), property.getValue() }));
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(String.format("Unable to describe property '%s'", property.getKey()), e);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> getProjection(String[] columns) {
+        Set<String> projection = new LinkedHashSet<String>();
+        if (columns != null) {
+            for (String column : columns) {
+                if (OPTIONAL_COLUMNS.contains(column)) {
+                    projection.add(column);
+                } else if (!Arrays.asList(IDENTITY_COLUMNS).contains(column)) {
+                    throw new IllegalArgumentException(String.format("Unknown column '%s'", column));
+                }
+            }
+        }
+        return projection;
+    }
+
+    private TabularType getResultType(Set<String> projection) {
+        TabularType resultType = this.resultTypes.get(projection);
+        if (resultType == null) {
+            resultType = createResultType(projection);
+            TabularType existing = this.resultTypes.putIfAbsent(projection, resultType);
+            if (existing != null) {
+                resultType = existing;
+            }
+        }
+        return resultType;
+    }
+
+    private static TabularType createResultType(Set<String> projection) {
+        List<String> names = new ArrayList<String>(Arrays.asList(IDENTITY_COLUMNS));
+        List<OpenType<?>> types = new ArrayList<OpenType<?>>();
+        for (int i = 0; i < IDENTITY_COLUMNS.length; i++) {
+            types.add(SimpleType.STRING);
+        }
+        for (String column : OPTIONAL_COLUMNS) {
+            if (projection.contains(column)) {
+                names.add(column);
+                types.add(PROPERTIES.equals(column) ? PROPERTIES_TYPE : SimpleType.STRING);
+            }
+        }
+        String[] itemNames = names.toArray(new String[names.size()]);
+        try {
+            CompositeType rowType = new CompositeType("Artifact", "An artifact in the runtime artifact model", itemNames, itemNames,
+                types.toArray(new OpenType<?>[types.size()]));
+            return new TabularType("Artifacts", "Artifacts in the runtime artifact model", rowType, new String[] { OBJECT_NAME });
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to describe the runtime artifact model", e);
+        }
+    }
+
+    private static TabularType createPropertiesType() {
+        String[] itemNames = new String[] { PROPERTY_KEY, PROPERTY_VALUE };
+        try {
+            CompositeType rowType = new CompositeType("Property", "An artifact property", itemNames, itemNames, new OpenType<?>[] {
+                SimpleType.STRING, SimpleType.STRING });
+            return new TabularType("Properties", "Artifact properties", rowType, new String[] { PROPERTY_KEY });
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to describe artifact properties", e);
+        }
+    }
+
+    private ObjectName createObjectName() {
+        String domain = this.artifactObjectNameCreator.createAllArtifactsQuery().getDomain();
+        try {
+            return new ObjectName(domain + ":" + OBJECT_NAME_PROPERTIES);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(String.format("Unable to create the object name of the artifact model query in domain '%s'",
+                domain), e);
+        }
+    }
+
+    private static Pattern createNamePattern(String nameFilter) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int wildcard;
+        while ((wildcard = nameFilter.indexOf(WILDCARD, start)) != -1) {
+            regex.append(Pattern.quote(nameFilter.substring(start, wildcard))).append(".*");
+            start = wildcard + WILDCARD.length();
+        }
+        regex.append(Pattern.quote(nameFilter.substring(start)));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static String getRegionName(Artifact artifact) {
+        Region region = artifact.getRegion();
+        return region == null ? "" : region.getName();
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static final class ArtifactComparator implements Comparator<Artifact> {
+
+        /**
+         * {@inheritDoc}
+         */
+        public int compare(Artifact artifact1, Artifact artifact2) {
+            int value = artifact1.getName().compareTo(artifact2.getName());
+            if (value == 0) {
+                value = artifact1.getVersion().compareTo(artifact2.getVersion());
+            }
+            if (value == 0) {
+                value = getRegionName(artifact1).compareTo(getRegionName(artifact2));
+            }
+            if (value == 0) {
+                value = artifact1.getType().compareTo(artifact2.getType());
+            }
+            return value;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,33 +14,27 @@ package org.eclipse.virgo.kernel.model.internal.bundle;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
-import static org.easymock.EasyMock.reset;
-import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import org.eclipse.equinox.region.Region;
 import org.eclipse.equinox.region.RegionDigraph;
 import org.eclipse.virgo.kernel.model.Artifact;
 import org.eclipse.virgo.kernel.model.BundleArtifact;
-import org.eclipse.virgo.kernel.model.RuntimeArtifactRepository;
-import org.eclipse.virgo.kernel.model.StubArtifactRepository;
 import org.eclipse.virgo.kernel.model.StubCompositeArtifact;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiExportPackage;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiImportPackage;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiRequiredBundle;
 import org.eclipse.virgo.nano.serviceability.Assert.FatalAssertionException;
-import org.junit.Before;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.region.StubRegion;
 import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
 
 public class BundleDependencyDeterminerTests {
 
@@ -52,236 +46,104 @@ public class BundleDependencyDeterminerTests {
 
     private static final String EXPORTING_BUNDLE_NAME = "exportingBundle";
 
-    private static final String HOST_BUNDLE_NAME = "hostBundle";
-
-    private static final String REQUIRED_BUNDLE_NAME = "requiredBundle";
-
-    private static final String REGION_A_NAME = "regionA-name";
-
-    private static final String REGION_B_NAME = "regionB-name";
-
-    private static final long BUNDLE_1_ID = 10l;
-
-    private static final long BUNDLE_2_ID = 100l;
+    private static final long BUNDLE_ID = 10l;
 
     private static final long EXPORTING_BUNDLE_ID = 2l;
 
-    private static final long HOST_BUNDLE_ID = 3l;
-
-    private static final long REQUIRED_BUNDLE_ID = 4l;
-
-    private final QuasiFrameworkFactory quasiFrameworkFactory = createMock(QuasiFrameworkFactory.class);
-
-    private final RuntimeArtifactRepository artifactRepository = new StubArtifactRepository();
-
     private final RegionDigraph regionDigraph = createMock(RegionDigraph.class);
 
-    private final Region regionA = createMock(Region.class);
-
-    private final Region regionB = createMock(Region.class);
+    private final Region regionA = new StubRegion("regionA-name", null);
 
-    private final BundleDependencyDeterminer determiner = new BundleDependencyDeterminer(quasiFrameworkFactory, artifactRepository, regionDigraph);
+    private final Region regionB = new StubRegion("regionB-name", null);
 
-    private QuasiBundle bundle1;
+    private final BundleDependencyGraph dependencyGraph = new BundleDependencyGraph(new StubBundle().getBundleContext(), this.regionDigraph);
 
-    private QuasiBundle bundle2;
-
-    @Before
-    public void setUp() {
-        reset(quasiFrameworkFactory, regionDigraph);
-    }
-
-    @Test(expected = FatalAssertionException.class)
-    public void nullFactory() {
-        new BundleDependencyDeterminer(null, artifactRepository, regionDigraph);
-    }
+    private final BundleDependencyDeterminer determiner = new BundleDependencyDeterminer(this.dependencyGraph);
 
     @Test(expected = FatalAssertionException.class)
-    public void nullRepository() {
-        new BundleDependencyDeterminer(quasiFrameworkFactory, null, regionDigraph);
+    public void nullGraph() {
+        new BundleDependencyDeterminer(null);
     }
 
-    @Test(expected = FatalAssertionException.class)
-    public void nullRegionDigraph() {
-        new BundleDependencyDeterminer(quasiFrameworkFactory, artifactRepository, null);
+    @Test
+    public void notABundle() {
+        Set<Artifact> dependents = this.determiner.getDependents(new StubCompositeArtifact("bar", "foo", regionB));
+        assertEquals(Collections.<Artifact> emptySet(), dependents);
     }
 
     @Test
     public void unknownBundle() {
-        QuasiFramework framework = createMock(QuasiFramework.class);
-        replay(quasiFrameworkFactory, regionDigraph, framework);
+        BundleArtifact bundleArtifact = createMockBundleArtifact(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionA);
+        replay(bundleArtifact);
 
-        Set<Artifact> dependents = this.determiner.getDependents(new StubCompositeArtifact("bar", "foo", regionB));
+        Set<Artifact> dependents = this.determiner.getDependents(bundleArtifact);
         assertEquals(Collections.<Artifact> emptySet(), dependents);
-
-        verify(quasiFrameworkFactory, regionDigraph, framework);
     }
 
     @Test
     public void bundleFromDifferentRegion() {
-        setTestBundleExpectations();
-        QuasiFramework framework = createMock(QuasiFramework.class);
-        expect(quasiFrameworkFactory.create()).andReturn(framework);
-        expect(framework.getBundles()).andReturn(getTestBundleSet());
-
-        expect(bundle2.getHosts()).andReturn(null).anyTimes();
-        expect(bundle2.getRequiredBundles()).andReturn(null).anyTimes();
-
-        expect(regionDigraph.getRegion(BUNDLE_1_ID)).andReturn(regionA);
-        expect(regionDigraph.getRegion(BUNDLE_2_ID)).andReturn(regionB);
-        expect(regionB.getName()).andReturn(REGION_B_NAME).anyTimes();
-
-        expect(bundle2.getImportPackages()).andReturn(new ArrayList<QuasiImportPackage>());
+        Bundle bundle = createMockBundle(TEST_BUNDLE_NAME, BUNDLE_ID, regionA);
+        expectWiring(bundle, null);
+        replay(bundle, regionDigraph);
+        this.dependencyGraph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
 
         BundleArtifact bundleArtifact = createMockBundleArtifact(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionB);
-
-        replay(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionB);
+        replay(bundleArtifact);
 
         Set<Artifact> dependents = this.determiner.getDependents(bundleArtifact);
         assertEquals(Collections.<Artifact> emptySet(), dependents);
-
-        verify(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionB);
-    }
-
-    private void setTestBundleExpectations() {
-        this.bundle1 = createMockQuasiBundle(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, BUNDLE_1_ID);
-        this.bundle2 = createMockQuasiBundle(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, BUNDLE_2_ID);
-    }
-
-    private static QuasiBundle createMockQuasiBundle(String bundleSymbolicName, Version bundleVersion, long bundleId) {
-        QuasiBundle quasiBundle = createMock(QuasiBundle.class);
-        expect(quasiBundle.getSymbolicName()).andReturn(bundleSymbolicName).anyTimes();
-        expect(quasiBundle.getVersion()).andReturn(bundleVersion).anyTimes();
-        expect(quasiBundle.getBundleId()).andReturn(bundleId).anyTimes();
-        return quasiBundle;
-    }
-
-    private static BundleArtifact createMockBundleArtifact(String bundleSymbolicName, Version bundleVersion, Region region) {
-        BundleArtifact bundleArtifact = createMock(BundleArtifact.class);
-        expect(bundleArtifact.getType()).andReturn(BUNDLE_TYPE).anyTimes();
-        expect(bundleArtifact.getName()).andReturn(bundleSymbolicName).anyTimes();
-        expect(bundleArtifact.getVersion()).andReturn(bundleVersion).anyTimes();
-        expect(bundleArtifact.getRegion()).andReturn(region).anyTimes();
-        return bundleArtifact;
     }
 
     @Test
     public void bundleWithImport() {
-        setTestBundleExpectations();
-        QuasiFramework framework = createMock(QuasiFramework.class);
-        expect(quasiFrameworkFactory.create()).andReturn(framework);
-        expect(framework.getBundles()).andReturn(getTestBundleSet());
-
-        QuasiImportPackage importedPackage = createMock(QuasiImportPackage.class);
-        QuasiExportPackage provider = createMock(QuasiExportPackage.class);
-        QuasiBundle exporter = createMockQuasiBundle(EXPORTING_BUNDLE_NAME, TEST_BUNDLE_VERSION, EXPORTING_BUNDLE_ID);
-        expect(provider.getExportingBundle()).andReturn(exporter);
-        expect(importedPackage.getProvider()).andReturn(provider);
-        ArrayList<QuasiImportPackage> b = new ArrayList<QuasiImportPackage>();
-        b.add(importedPackage);
-        expect(bundle1.getImportPackages()).andReturn(b);
-        expect(bundle1.getHosts()).andReturn(new ArrayList<QuasiBundle>());
-        expect(bundle1.getRequiredBundles()).andReturn(new ArrayList<QuasiRequiredBundle>());
-
-        expect(regionDigraph.getRegion(BUNDLE_1_ID)).andReturn(regionA);
-        expect(regionDigraph.getRegion(EXPORTING_BUNDLE_ID)).andReturn(regionB);
-        expect(regionA.getName()).andReturn(REGION_A_NAME).anyTimes();
-        expect(regionB.getName()).andReturn(REGION_B_NAME).anyTimes();
+        Bundle bundle = createMockBundle(TEST_BUNDLE_NAME, BUNDLE_ID, regionA);
+        Bundle exporter = createMockBundle(EXPORTING_BUNDLE_NAME, EXPORTING_BUNDLE_ID, regionB);
+        BundleWiring exporterWiring = createMock(BundleWiring.class);
+        expect(exporterWiring.getBundle()).andReturn(exporter).anyTimes();
+        BundleWire wire = createMock(BundleWire.class);
+        expect(wire.getProviderWiring()).andReturn(exporterWiring).anyTimes();
+        expectWiring(bundle, wire);
+        replay(bundle, exporter, exporterWiring, wire, regionDigraph);
 
         BundleArtifact bundleArtifact = createMockBundleArtifact(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionA);
         BundleArtifact exporterArtifact = createMockBundleArtifact(EXPORTING_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionB);
+        replay(bundleArtifact, exporterArtifact);
 
-        this.artifactRepository.add(exporterArtifact);
-
-        replay(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, importedPackage, provider,
-            exporter, exporterArtifact);
+        this.dependencyGraph.added(exporterArtifact);
+        this.dependencyGraph.added(bundleArtifact);
+        this.dependencyGraph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
 
         Set<Artifact> dependents = this.determiner.getDependents(bundleArtifact);
         Set<Artifact> expected = new HashSet<Artifact>();
         expected.add(exporterArtifact);
         assertEquals(expected, dependents);
-
-        verify(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, importedPackage, provider,
-            exporter, exporterArtifact);
     }
 
-    @Test
-    public void bundleWithHost() {
-        setTestBundleExpectations();
-        QuasiFramework framework = createMock(QuasiFramework.class);
-        expect(quasiFrameworkFactory.create()).andReturn(framework);
-        expect(framework.getBundles()).andReturn(getTestBundleSet());
-
-        expect(bundle1.getImportPackages()).andReturn(new ArrayList<QuasiImportPackage>());
-        ArrayList<QuasiBundle> b = new ArrayList<QuasiBundle>();
-        QuasiBundle host = createMockQuasiBundle(HOST_BUNDLE_NAME, TEST_BUNDLE_VERSION, HOST_BUNDLE_ID);
-        b.add(host);
-        expect(bundle1.getHosts()).andReturn(b);
-        expect(bundle1.getRequiredBundles()).andReturn(new ArrayList<QuasiRequiredBundle>());
-
-        expect(regionDigraph.getRegion(BUNDLE_1_ID)).andReturn(regionA);
-        expect(regionDigraph.getRegion(HOST_BUNDLE_ID)).andReturn(regionB);
-        expect(regionA.getName()).andReturn(REGION_A_NAME).anyTimes();
-        expect(regionB.getName()).andReturn(REGION_B_NAME).anyTimes();
-
-        BundleArtifact bundleArtifact = createMockBundleArtifact(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionA);
-        BundleArtifact hostArtifact = createMockBundleArtifact(HOST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionB);
-
-        this.artifactRepository.add(hostArtifact);
-
-        replay(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, host, hostArtifact);
-
-        Set<Artifact> dependents = this.determiner.getDependents(bundleArtifact);
-        Set<Artifact> expected = new HashSet<Artifact>();
-        expected.add(hostArtifact);
-        assertEquals(expected, dependents);
-
-        verify(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, host, hostArtifact);
+    private Bundle createMockBundle(String bundleSymbolicName, long bundleId, Region region) {
+        Bundle bundle = createMock(Bundle.class);
+        expect(bundle.getSymbolicName()).andReturn(bundleSymbolicName).anyTimes();
+        expect(bundle.getVersion()).andReturn(TEST_BUNDLE_VERSION).anyTimes();
+        expect(bundle.getBundleId()).andReturn(bundleId).anyTimes();
+        expect(this.regionDigraph.getRegion(bundle)).andReturn(region).anyTimes();
+        return bundle;
     }
 
-    @Test
-    public void bundleRequiringAnotherBundle() {
-        setTestBundleExpectations();
-        QuasiFramework framework = createMock(QuasiFramework.class);
-        expect(quasiFrameworkFactory.create()).andReturn(framework);
-        expect(framework.getBundles()).andReturn(getTestBundleSet());
-
-        expect(bundle1.getImportPackages()).andReturn(new ArrayList<QuasiImportPackage>());
-        ArrayList<QuasiRequiredBundle> b = new ArrayList<QuasiRequiredBundle>();
-        QuasiBundle required = createMockQuasiBundle(REQUIRED_BUNDLE_NAME, TEST_BUNDLE_VERSION, REQUIRED_BUNDLE_ID);
-        expect(bundle1.getHosts()).andReturn(new ArrayList<QuasiBundle>());
-        QuasiRequiredBundle requiredBundle = createMock(QuasiRequiredBundle.class);
-        expect(requiredBundle.getProvider()).andReturn(required);
-        b.add(requiredBundle);
-        expect(bundle1.getRequiredBundles()).andReturn(b);
-
-        expect(regionDigraph.getRegion(BUNDLE_1_ID)).andReturn(regionA);
-        expect(regionDigraph.getRegion(REQUIRED_BUNDLE_ID)).andReturn(regionB);
-        expect(regionA.getName()).andReturn(REGION_A_NAME).anyTimes();
-        expect(regionB.getName()).andReturn(REGION_B_NAME).anyTimes();
-
-        BundleArtifact bundleArtifact = createMockBundleArtifact(TEST_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionA);
-        BundleArtifact requiredArtifact = createMockBundleArtifact(REQUIRED_BUNDLE_NAME, TEST_BUNDLE_VERSION, regionB);
-
-        this.artifactRepository.add(requiredArtifact);
-
-        replay(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, requiredBundle, required,
-            requiredArtifact);
-
-        Set<Artifact> dependents = this.determiner.getDependents(bundleArtifact);
-        Set<Artifact> expected = new HashSet<Artifact>();
-        expected.add(requiredArtifact);
-        assertEquals(expected, dependents);
-
-        verify(bundleArtifact, quasiFrameworkFactory, regionDigraph, framework, bundle1, bundle2, regionA, regionB, requiredBundle, required,
-            requiredArtifact);
+    private static void expectWiring(Bundle bundle, BundleWire packageWire) {
+        BundleWiring wiring = createMock(BundleWiring.class);
+        expect(wiring.getRequiredWires(BundleRevision.PACKAGE_NAMESPACE)).andReturn(
+            packageWire == null ? Collections.<BundleWire> emptyList() : Collections.singletonList(packageWire)).anyTimes();
+        expect(wiring.getRequiredWires(BundleRevision.BUNDLE_NAMESPACE)).andReturn(Collections.<BundleWire> emptyList()).anyTimes();
+        expect(wiring.getRequiredWires(BundleRevision.HOST_NAMESPACE)).andReturn(Collections.<BundleWire> emptyList()).anyTimes();
+        expect(bundle.adapt(BundleWiring.class)).andReturn(wiring).anyTimes();
+        replay(wiring);
     }
 
-    private List<QuasiBundle> getTestBundleSet() {
-        List<QuasiBundle> bundles = new ArrayList<QuasiBundle>();
-        bundles.add(bundle1);
-        bundles.add(bundle2);
-        return bundles;
+    private static BundleArtifact createMockBundleArtifact(String bundleSymbolicName, Version bundleVersion, Region region) {
+        BundleArtifact bundleArtifact = createMock(BundleArtifact.class);
+        expect(bundleArtifact.getType()).andReturn(BUNDLE_TYPE).anyTimes();
+        expect(bundleArtifact.getName()).andReturn(bundleSymbolicName).anyTimes();
+        expect(bundleArtifact.getVersion()).andReturn(bundleVersion).anyTimes();
+        expect(bundleArtifact.getRegion()).andReturn(region).anyTimes();
+        return bundleArtifact;
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.model.internal.bundle;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.equinox.region.RegionDigraph;
+import org.eclipse.virgo.kernel.model.Artifact;
+import org.eclipse.virgo.kernel.model.BundleArtifact;
+import org.eclipse.virgo.nano.serviceability.Assert.FatalAssertionException;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.region.StubRegion;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class BundleDependencyGraphTests {
+
+    private final BundleContext bundleContext = new StubBundle().getBundleContext();
+
+    private final RegionDigraph regionDigraph = createMock(RegionDigraph.class);
+
+    private final Region region = new StubRegion("test-region", null);
+
+    private final List<Object> mocks = new ArrayList<Object>();
+
+    private final BundleDependencyGraph graph = new BundleDependencyGraph(this.bundleContext, this.regionDigraph);
+
+    @Test(expected = FatalAssertionException.class)
+    public void nullBundleContext() {
+        new BundleDependencyGraph(null, this.regionDigraph);
+    }
+
+    @Test(expected = FatalAssertionException.class)
+    public void nullRegionDigraph() {
+        new BundleDependencyGraph(this.bundleContext, null);
+    }
+
+    @Test
+    public void unknownBundle() {
+        assertEquals(Collections.<Artifact> emptySet(), this.graph.getDependents(createArtifact("unknown")));
+    }
+
+    @Test
+    public void importedPackageProvider() {
+        Bundle exporter = createBundle(2, "exporter");
+        Bundle importer = createBundle(1, "importer");
+        expectWiring(importer, wires(exporter), wires(), wires());
+        replayMocks();
+
+        Artifact exporterArtifact = createArtifact("exporter");
+        Artifact importerArtifact = createArtifact("importer");
+        this.graph.added(exporterArtifact);
+        this.graph.added(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, importer));
+
+        assertEquals(setOf(exporterArtifact), this.graph.getDependents(importerArtifact));
+    }
+
+    @Test
+    public void requiredBundleAndHost() {
+        Bundle required = createBundle(2, "required");
+        Bundle host = createBundle(3, "host");
+        Bundle fragment = createBundle(1, "fragment");
+        expectWiring(fragment, wires(), wires(required), wires(host));
+        replayMocks();
+
+        Artifact requiredArtifact = createArtifact("required");
+        Artifact hostArtifact = createArtifact("host");
+        Artifact fragmentArtifact = createArtifact("fragment");
+        this.graph.added(requiredArtifact);
+        this.graph.added(hostArtifact);
+        this.graph.added(fragmentArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, fragment));
+
+        assertEquals(setOf(requiredArtifact, hostArtifact), this.graph.getDependents(fragmentArtifact));
+    }
+
+    @Test
+    public void dependentsAreServedFromTheGraph() {
+        Bundle exporter = createBundle(2, "exporter");
+        Bundle importer = createBundle(1, "importer");
+        expectWiring(importer, wires(exporter), wires(), wires());
+        replayMocks();
+
+        Artifact importerArtifact = createArtifact("importer");
+        this.graph.added(createArtifact("exporter"));
+        this.graph.added(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, importer));
+
+        assertSame(this.graph.getDependents(importerArtifact), this.graph.getDependents(importerArtifact));
+    }
+
+    @Test
+    public void unresolvedBundleHasNoDependents() {
+        Bundle exporter = createBundle(2, "exporter");
+        Bundle importer = createBundle(1, "importer");
+        expectWiring(importer, wires(exporter), wires(), wires());
+        replayMocks();
+
+        Artifact importerArtifact = createArtifact("importer");
+        this.graph.added(createArtifact("exporter"));
+        this.graph.added(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, importer));
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.UNRESOLVED, importer));
+
+        assertEquals(Collections.<Artifact> emptySet(), this.graph.getDependents(importerArtifact));
+    }
+
+    @Test
+    public void uninstalledProviderIsNotADependent() {
+        Bundle exporter = createBundle(2, "exporter");
+        Bundle importer = createBundle(1, "importer");
+        expectWiring(importer, wires(exporter), wires(), wires());
+        replayMocks();
+
+        Artifact importerArtifact = createArtifact("importer");
+        this.graph.added(createArtifact("exporter"));
+        this.graph.added(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, importer));
+        this.graph.getDependents(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, exporter));
+
+        assertEquals(Collections.<Artifact> emptySet(), this.graph.getDependents(importerArtifact));
+    }
+
+    @Test
+    public void replacedArtifactIsADependent() {
+        Bundle exporter = createBundle(2, "exporter");
+        Bundle importer = createBundle(1, "importer");
+        expectWiring(importer, wires(exporter), wires(), wires());
+        replayMocks();
+
+        Artifact nativeExporterArtifact = createArtifact("exporter");
+        Artifact deployerExporterArtifact = createArtifact("exporter");
+        Artifact importerArtifact = createArtifact("importer");
+        this.graph.added(nativeExporterArtifact);
+        this.graph.added(importerArtifact);
+        this.graph.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, importer));
+        assertEquals(setOf(nativeExporterArtifact), this.graph.getDependents(importerArtifact));
+
+        this.graph.removed(nativeExporterArtifact);
+        this.graph.added(deployerExporterArtifact);
+
+        assertEquals(setOf(deployerExporterArtifact), this.graph.getDependents(importerArtifact));
+    }
+
+    private Bundle createBundle(long bundleId, String symbolicName) {
+        Bundle bundle = createMock(Bundle.class);
+        expect(bundle.getBundleId()).andReturn(bundleId).anyTimes();
+        expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        expect(bundle.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+        expect(this.regionDigraph.getRegion(bundle)).andReturn(this.region).anyTimes();
+        this.mocks.add(bundle);
+        return bundle;
+    }
+
+    private void expectWiring(Bundle bundle, List<BundleWire> packageWires, List<BundleWire> bundleWires, List<BundleWire> hostWires) {
+        BundleWiring wiring = createMock(BundleWiring.class);
+        expect(wiring.getRequiredWires(BundleRevision.PACKAGE_NAMESPACE)).andReturn(packageWires).anyTimes();
+        expect(wiring.getRequiredWires(BundleRevision.BUNDLE_NAMESPACE)).andReturn(bundleWires).anyTimes();
+        expect(wiring.getRequiredWires(BundleRevision.HOST_NAMESPACE)).andReturn(hostWires).anyTimes();
+        expect(bundle.adapt(BundleWiring.class)).andReturn(wiring).anyTimes();
+        this.mocks.add(wiring);
+    }
+
+    private List<BundleWire> wires(Bundle... providers) {
+        List<BundleWire> wires = new ArrayList<BundleWire>();
+        for (Bundle provider : providers) {
+            BundleWiring providerWiring = createMock(BundleWiring.class);
+            expect(providerWiring.getBundle()).andReturn(provider).anyTimes();
+            BundleWire wire = createMock(BundleWire.class);
+            expect(wire.getProviderWiring()).andReturn(providerWiring).anyTimes();
+            this.mocks.add(providerWiring);
+            this.mocks.add(wire);
+            wires.add(wire);
+        }
+        return wires;
+    }
+
+    private Artifact createArtifact(String name) {
+        BundleArtifact artifact = createMock(BundleArtifact.class);
+        expect(artifact.getType()).andReturn(NativeBundleArtifact.TYPE).anyTimes();
+        expect(artifact.getName()).andReturn(name).anyTimes();
+        expect(artifact.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+        expect(artifact.getRegion()).andReturn(this.region).anyTimes();
+        replay(artifact);
+        return artifact;
+    }
+
+    private void replayMocks() {
+        this.mocks.add(this.regionDigraph);
+        replay(this.mocks.toArray());
+    }
+
+    private static Set<Artifact> setOf(Artifact... artifacts) {
+        return new HashSet<Artifact>(Arrays.asList(artifacts));
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,9 +12,15 @@
 package org.eclipse.virgo.kernel.model.internal.configurationadmin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
 import org.junit.Test;
 import org.osgi.framework.InvalidSyntaxException;
 
@@ -44,6 +50,11 @@ public class ModelConfigurationListenerInitializerTests {
 
     private final ModelConfigurationListenerInitializer initializer = new ModelConfigurationListenerInitializer(artifactRepository, bundleContext, configurationAdmin, region);
 
+    @After
+    public void tearDown() {
+        this.initializer.destroy();
+    }
+
     @Test(expected = FatalAssertionException.class)
     public void nullArtifactRepository() {
         new ModelConfigurationListenerInitializer(null, bundleContext, configurationAdmin, region);
@@ -80,4 +91,17 @@ public class ModelConfigurationListenerInitializerTests {
         this.initializer.destroy();
         assertEquals(0, this.bundleContext.getServiceRegistrations().size());
     }
+
+    @Test
+    public void suppressedUpdatesArePublished() throws Exception {
+        this.configurationAdmin.createConfiguration("test-pid").addProperty("key", "value");
+        this.initializer.initialize();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("org.eclipse.virgo.kernel:type=Statistics,name=ConfigurationModel");
+        assertEquals(0L, server.getAttribute(objectName, "SuppressedUpdates"));
+
+        this.initializer.destroy();
+        assertFalse(server.isRegistered(objectName));
+    }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,13 @@
 package org.eclipse.virgo.kernel.model.internal.configurationadmin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.virgo.kernel.model.Artifact;
 import org.eclipse.virgo.kernel.model.StubArtifactRepository;
 import org.eclipse.virgo.kernel.model.internal.DependencyDeterminer;
 import org.eclipse.virgo.nano.serviceability.Assert.FatalAssertionException;
@@ -79,6 +85,64 @@ public class ModelConfigurationListenerTests {
         ConfigurationEvent event2 = new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test");
         this.listener.configurationEvent(event2);
         assertEquals(1, this.artifactRepository.getArtifacts().size());
+        assertEquals(1, this.listener.getSuppressedUpdates());
+    }
+
+    @Test
+    public void updatedInPlace() {
+        this.listener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+        Artifact artifact = this.artifactRepository.getArtifacts().iterator().next();
+        this.listener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+        assertSame(artifact, this.artifactRepository.getArtifacts().iterator().next());
+    }
+
+    @Test
+    public void rejectedArtifactIsNotIndexed() {
+        RecordingArtifactRepository recordingRepository = new RecordingArtifactRepository(0);
+        ModelConfigurationListener recordingListener = new ModelConfigurationListener(recordingRepository, bundleContext, configurationAdmin, region);
+
+        recordingRepository.rejectAdditions = true;
+        recordingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+        assertEquals(0, recordingRepository.getArtifacts().size());
+        assertEquals(1, recordingListener.getSuppressedUpdates());
+
+        recordingRepository.rejectAdditions = false;
+        recordingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+        assertEquals(1, recordingRepository.getArtifacts().size());
+        assertEquals(1, recordingListener.getSuppressedUpdates());
+    }
+
+    @Test
+    public void coalesced() throws InterruptedException {
+        RecordingArtifactRepository recordingRepository = new RecordingArtifactRepository(1);
+        ModelConfigurationListener coalescingListener = new ModelConfigurationListener(recordingRepository, bundleContext, configurationAdmin, region, 50);
+        try {
+            coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+            coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+            coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_DELETED, null, "test"));
+            coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "other"));
+            assertEquals(2, coalescingListener.getSuppressedUpdates());
+
+            // Events are processed in order on a single thread, so once "other" is added "test" has been processed
+            assertTrue(recordingRepository.additions.await(5, TimeUnit.SECONDS));
+            assertEquals(1, recordingRepository.getArtifacts().size());
+            assertEquals("other", recordingRepository.getArtifacts().iterator().next().getName());
+        } finally {
+            coalescingListener.destroy();
+        }
+    }
+
+    @Test
+    public void eventAfterDestroyIsDiscarded() {
+        ModelConfigurationListener coalescingListener = new ModelConfigurationListener(artifactRepository, bundleContext, configurationAdmin, region, 10);
+        coalescingListener.destroy();
+
+        // Events after destruction are discarded without being scheduled, so there is nothing to wait for
+        coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+        coalescingListener.configurationEvent(new ConfigurationEvent(this.reference, ConfigurationEvent.CM_UPDATED, null, "test"));
+
+        assertEquals(0, coalescingListener.getSuppressedUpdates());
+        assertEquals(0, this.artifactRepository.getArtifacts().size());
     }
 
     @Test
@@ -102,4 +166,25 @@ public class ModelConfigurationListenerTests {
         ConfigurationEvent event = new ConfigurationEvent(this.reference, 3, null, "test");
         this.listener.configurationEvent(event);
     }
+
+    private static final class RecordingArtifactRepository extends StubArtifactRepository {
+
+        private final CountDownLatch additions;
+
+        private volatile boolean rejectAdditions;
+
+        private RecordingArtifactRepository(int expectedAdditions) {
+            this.additions = new CountDownLatch(expectedAdditions);
+        }
+
+        @Override
+        public boolean add(Artifact artifact) {
+            if (this.rejectAdditions) {
+                return false;
+            }
+            boolean added = super.add(artifact);
+            this.additions.countDown();
+            return added;
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,6 +17,8 @@ import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.management.ManagementFactory;
 
@@ -26,6 +28,7 @@ import javax.management.ObjectName;
 
 import org.eclipse.virgo.kernel.model.Artifact;
 import org.eclipse.virgo.kernel.model.StubCompositeArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableCompositeArtifact;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.kernel.model.management.internal.JmxArtifactRepositoryListener;
 import org.eclipse.virgo.nano.serviceability.Assert.FatalAssertionException;
@@ -68,4 +71,31 @@ public class JmxArtifactRepositoryListenerTests {
         verify(creator);
     }
 
+    @Test
+    public void removedUsesPrecomputedName() throws MalformedObjectNameException, NullPointerException {
+        expect(this.creator.createArtifactModel(isA(Artifact.class))).andReturn(new ObjectName("test:key=1"));
+        replay(creator);
+
+        StubCompositeArtifact artifact = new StubCompositeArtifact();
+        this.listener.added(artifact);
+        int initial = this.server.getMBeanCount();
+        this.listener.removed(artifact);
+        assertEquals(initial - 1, (int) this.server.getMBeanCount());
+        verify(creator);
+    }
+
+    @Test
+    public void locatesRegisteredArtifacts() throws MalformedObjectNameException, NullPointerException {
+        ObjectName objectName = new ObjectName("test:key=1");
+        expect(this.creator.createArtifactModel(isA(Artifact.class))).andReturn(objectName);
+        replay(creator);
+
+        StubCompositeArtifact artifact = new StubCompositeArtifact();
+        this.listener.added(artifact);
+        assertTrue(this.listener.getManageableArtifact(objectName) instanceof ManageableCompositeArtifact);
+        this.listener.removed(artifact);
+        assertNull(this.listener.getManageableArtifact(objectName));
+        verify(creator);
+    }
+
 }
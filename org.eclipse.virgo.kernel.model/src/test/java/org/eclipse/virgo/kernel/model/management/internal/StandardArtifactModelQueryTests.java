@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.model.management.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.kernel.model.ArtifactState;
+import org.eclipse.virgo.kernel.model.StubArtifactRepository;
+import org.eclipse.virgo.kernel.model.StubCompositeArtifact;
+import org.eclipse.virgo.kernel.model.management.ArtifactModelQuery;
+import org.eclipse.virgo.nano.serviceability.Assert.FatalAssertionException;
+import org.eclipse.virgo.test.stubs.region.StubRegion;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class StandardArtifactModelQueryTests {
+
+    private final StubArtifactRepository artifactRepository = new StubArtifactRepository();
+
+    private final DefaultRuntimeArtifactModelObjectNameCreator objectNameCreator = new DefaultRuntimeArtifactModelObjectNameCreator("test");
+
+    private final StandardArtifactModelQuery query = new StandardArtifactModelQuery(this.artifactRepository, this.objectNameCreator);
+
+    private final Region region = new StubRegion("test-region", null);
+
+    @Before
+    public void artifacts() {
+        this.artifactRepository.add(new QueryableArtifact("bundle", "b", "2.0.0", this.region, ArtifactState.RESOLVED));
+        this.artifactRepository.add(new QueryableArtifact("bundle", "a", "1.0.0", this.region, ArtifactState.ACTIVE));
+        this.artifactRepository.add(new QueryableArtifact("bundle", "b", "1.0.0", this.region, ArtifactState.ACTIVE));
+        this.artifactRepository.add(new QueryableArtifact("bundle", "c", "1.0.0", new StubRegion("other-region", null), ArtifactState.ACTIVE));
+        this.artifactRepository.add(new QueryableArtifact("plan", "a", "1.0.0", this.region, ArtifactState.ACTIVE));
+    }
+
+    @Test(expected = FatalAssertionException.class)
+    public void nullRepository() {
+        new StandardArtifactModelQuery(null, this.objectNameCreator);
+    }
+
+    @Test(expected = FatalAssertionException.class)
+    public void nullCreator() {
+        new StandardArtifactModelQuery(this.artifactRepository, null);
+    }
+
+    @Test
+    public void registeredInDomainOfArtifactModel() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("test:type=ArtifactModelQuery");
+
+        this.query.register();
+        try {
+            assertTrue(server.isRegistered(objectName));
+        } finally {
+            this.query.unregister();
+        }
+        assertFalse(server.isRegistered(objectName));
+    }
+
+    @Test
+    public void artifactsOfType() throws Exception {
+        TabularData artifacts = this.query.getArtifacts("bundle");
+
+        assertEquals(4, artifacts.size());
+        assertTrue(artifacts.getTabularType().getRowType().containsKey(ArtifactModelQuery.STATE));
+        assertFalse(artifacts.getTabularType().getRowType().containsKey(ArtifactModelQuery.PROPERTIES));
+
+        List<String> rows = new ArrayList<String>();
+        for (Object row : artifacts.values()) {
+            CompositeData artifact = (CompositeData) row;
+            rows.add(artifact.get(ArtifactModelQuery.NAME) + ":" + artifact.get(ArtifactModelQuery.VERSION) + ":" + artifact.get(ArtifactModelQuery.STATE));
+        }
+        assertEquals(Arrays.asList("a:1.0.0:ACTIVE", "b:1.0.0:ACTIVE", "b:2.0.0:RESOLVED", "c:1.0.0:ACTIVE"), rows);
+    }
+
+    @Test
+    public void objectNameOfArtifact() throws Exception {
+        CompositeData artifact = firstRow(this.query.queryArtifacts("plan", null, null, null, 0, 0, null));
+
+        assertEquals(this.objectNameCreator.createArtifactModel("plan", "a", new Version("1.0.0"), this.region),
+            new ObjectName((String) artifact.get(ArtifactModelQuery.OBJECT_NAME)));
+        assertEquals("test-region", artifact.get(ArtifactModelQuery.REGION));
+        assertFalse(artifact.getCompositeType().containsKey(ArtifactModelQuery.STATE));
+    }
+
+    @Test
+    public void filters() {
+        assertEquals(5, this.query.countArtifacts(null, null, null, null));
+        assertEquals(2, this.query.countArtifacts("bundle", "b", null, null));
+        assertEquals(1, this.query.countArtifacts("bundle", "*b*", null, "active"));
+        assertEquals(4, this.query.countArtifacts("bundle", "*", null, null));
+        assertEquals(1, this.query.countArtifacts(null, null, "other-region", null));
+        assertEquals(0, this.query.countArtifacts("bundle", "a.", null, null));
+    }
+
+    @Test
+    public void paging() {
+        TabularData page = this.query.queryArtifacts("bundle", null, null, null, 1, 2, null);
+        assertEquals(2, page.size());
+
+        List<String> names = new ArrayList<String>();
+        for (Object row : page.values()) {
+            names.add((String) ((CompositeData) row).get(ArtifactModelQuery.NAME));
+        }
+        assertEquals(Arrays.asList("b", "b"), names);
+
+        assertTrue(this.query.queryArtifacts("bundle", null, null, null, 10, 2, null).isEmpty());
+    }
+
+    @Test
+    public void pagingOrdersArtifactsOfDifferentTypesByType() {
+        TabularData first = this.query.queryArtifacts(null, "a", null, null, 0, 1, null);
+        TabularData second = this.query.queryArtifacts(null, "a", null, null, 1, 1, null);
+
+        assertEquals("bundle", firstRow(first).get(ArtifactModelQuery.TYPE));
+        assertEquals("plan", firstRow(second).get(ArtifactModelQuery.TYPE));
+    }
+
+    @Test
+    public void properties() {
+        CompositeData artifact = firstRow(this.query.queryArtifacts("plan", null, null, null, 0, 0, new String[] { ArtifactModelQuery.PROPERTIES }));
+
+        TabularData properties = (TabularData) artifact.get(ArtifactModelQuery.PROPERTIES);
+        assertEquals(1, properties.size());
+        assertEquals("value", properties.get(new Object[] { "key" }).get("value"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownColumn() {
+        this.query.queryArtifacts("bundle", null, null, null, 0, 0, new String[] { "dependents" });
+    }
+
+    private static CompositeData firstRow(TabularData tabularData) {
+        return (CompositeData) tabularData.values().iterator().next();
+    }
+
+    private static final class QueryableArtifact extends StubCompositeArtifact {
+
+        private final Version version;
+
+        private final ArtifactState state;
+
+        private QueryableArtifact(String type, String name, String version, Region region, ArtifactState state) {
+            super(type, name, region);
+            this.version = new Version(version);
+            this.state = state;
+        }
+
+        @Override
+        public Version getVersion() {
+            return this.version;
+        }
+
+        @Override
+        public ArtifactState getState() {
+            return this.state;
+        }
+
+        @Override
+        public Map<String, String> getProperties() {
+            return Collections.singletonMap("key", "value");
+        }
+    }
+}
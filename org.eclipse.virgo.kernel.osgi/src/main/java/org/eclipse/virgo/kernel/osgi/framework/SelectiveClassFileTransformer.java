@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.osgi.framework;
+
+import java.lang.instrument.ClassFileTransformer;
+
+/**
+ * A {@link ClassFileTransformer} that declares up front which packages it is interested in, allowing an
+ * {@link InstrumentableClassLoader} to skip it for classes in any other package without calling
+ * {@link ClassFileTransformer#transform transform}.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+public interface SelectiveClassFileTransformer extends ClassFileTransformer {
+
+    /**
+     * Queries whether this transformer may transform classes in the supplied package.
+     * 
+     * @param packageName the fully-qualified, dot-separated name of the package, or the empty string for the default
+     *        package
+     * @return <code>false</code> if this transformer will never transform classes in the package, otherwise
+     *         <code>true</code>.
+     */
+    boolean transformsPackage(String packageName);
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.osgi.framework;
+
+/**
+ * An {@link InstrumentableClassLoader} that retains state to speed up the creation and use of its
+ * {@link #createThrowAway() throw away ClassLoaders} and can be told when that state is no longer needed. Callers
+ * should check for this interface rather than assume every <code>InstrumentableClassLoader</code> implements it.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+public interface ThrowAwayReleasingClassLoader extends InstrumentableClassLoader {
+
+    /**
+     * Releases any state retained to speed up the creation and use of {@link #createThrowAway() throw away
+     * ClassLoaders}, typically once load-time weaving setup has completed. Throw away <code>ClassLoaders</code> that
+     * are still in use remain usable but may be slower.
+     */
+    void releaseThrowAways();
+}
@@ -12,7 +12,11 @@
 package org.eclipse.virgo.kernel.services.concurrent;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.virgo.nano.shim.serviceability.TracingService;
 
@@ -24,16 +28,23 @@ import org.eclipse.virgo.nano.shim.serviceability.TracingService;
  * 
  * <strong>Concurrent Semantics</strong><br/>
  * 
- * Threadsafe.
+ * Threadsafe. Statistics are gathered with atomic counters and lock-free histograms, so that no lock is taken on the
+ * task submission or execution paths.
  * 
  */
 final class ExecutorServiceDelegate {
 
     private final ApplicationNameAccessor accessor;
 
-    private final Object monitor = new Object();
+    private final LatencyHistogram executionLatency = new LatencyHistogram();
 
-    private long totalExecutionTime;
+    private final LatencyHistogram queueWaitLatency = new LatencyHistogram();
+
+    private final AtomicInteger runningTaskCount = new AtomicInteger();
+
+    private final AtomicLong rejectedTaskCount = new AtomicLong();
+
+    private final AtomicLong saturationCount = new AtomicLong();
 
     public ExecutorServiceDelegate(TracingService tracingService) {
         this.accessor = new ApplicationNameAccessor(tracingService);
@@ -46,9 +57,8 @@ final class ExecutorServiceDelegate {
      * @see ThreadPoolExecutor#getCompletedTaskCount()
      */
     public long getAverageExecutionTime(long completedTaskCount) {
-        synchronized (this.monitor) {
-            return completedTaskCount == 0 ? this.totalExecutionTime : this.totalExecutionTime / completedTaskCount;
-        }
+        long totalExecutionTime = getExecutionTime();
+        return completedTaskCount == 0 ? totalExecutionTime : totalExecutionTime / completedTaskCount;
     }
 
     /**
@@ -58,21 +68,76 @@ final class ExecutorServiceDelegate {
      * @see ThreadPoolExecutor#getCompletedTaskCount()
      */
     public long getExecutionTime() {
-        synchronized (this.monitor) {
-            return this.totalExecutionTime;
-        }
+        return TimeUnit.NANOSECONDS.toMillis(this.executionLatency.getTotal());
+    }
+
+    /**
+     * Gets a summary of the time tasks have spent executing.
+     * 
+     * @return the execution latency summary.
+     */
+    public LatencySummary getExecutionLatency() {
+        return this.executionLatency.summarise();
+    }
+
+    /**
+     * Gets a summary of the time tasks have spent waiting between submission and the start of their execution.
+     * 
+     * @return the queue wait latency summary.
+     */
+    public LatencySummary getQueueWaitLatency() {
+        return this.queueWaitLatency.summarise();
+    }
+
+    /**
+     * Gets the number of tasks that have been rejected.
+     * 
+     * @return the rejected task count.
+     */
+    public long getRejectedTaskCount() {
+        return this.rejectedTaskCount.get();
+    }
+
+    /**
+     * Gets the number of tasks that were submitted while every thread of the pool was busy.
+     * 
+     * @return the saturation count.
+     */
+    public long getSaturationCount() {
+        return this.saturationCount.get();
     }
 
     /**
      * Creates a {@link Runnable} wrapper that gathers execution statistics for the supplied {@link Runnable}.
      * 
      * @param delegate the <code>Runnable</code> to gather the statistics for.
+     * @param poolCapacity the number of threads that the pool can run tasks on.
      * @return the wrapper.
      */
-    public Runnable decorate(Runnable delegate) {
+    public Runnable decorate(Runnable delegate, int poolCapacity) {
+        if (this.runningTaskCount.get() >= poolCapacity) {
+            this.saturationCount.incrementAndGet();
+        }
         return new KernelRunnable(delegate);
     }
 
+    /**
+     * Creates a {@link RejectedExecutionHandler} that counts rejected tasks before passing them to the supplied
+     * handler.
+     * 
+     * @param handler the handler to pass rejected tasks to.
+     * @return the counting handler.
+     */
+    public RejectedExecutionHandler countRejections(final RejectedExecutionHandler handler) {
+        return new RejectedExecutionHandler() {
+
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                ExecutorServiceDelegate.this.rejectedTaskCount.incrementAndGet();
+                handler.rejectedExecution(r, executor);
+            }
+        };
+    }
+
     /**
      * Simple {@link Runnable} that tracks execution statistics for another, wrapped <code>Runnable</code> instance.
      * <p/>
@@ -88,29 +153,32 @@ final class ExecutorServiceDelegate {
 
         private final String applicationName;
 
+        private final long submissionTime;
+
         /**
          * @param delegate
          */
         public KernelRunnable(Runnable delegate) {
             this.delegate = delegate;
             this.applicationName = accessor.getCurrentApplicationName();
+            this.submissionTime = System.nanoTime();
         }
 
         /**
          * {@inheritDoc}
          */
         public void run() {
-            long timeBefore = System.currentTimeMillis();
+            ExecutorServiceDelegate outer = ExecutorServiceDelegate.this;
+            long timeBefore = System.nanoTime();
+            outer.queueWaitLatency.record(timeBefore - this.submissionTime);
+            outer.runningTaskCount.incrementAndGet();
             accessor.setCurrentApplicationName(this.applicationName);
             try {
                 this.delegate.run();
             } finally {
                 accessor.setCurrentApplicationName(null);
-                ExecutorServiceDelegate outer = ExecutorServiceDelegate.this;
-                long time = System.currentTimeMillis() - timeBefore;
-                synchronized (outer.monitor) {
-                    outer.totalExecutionTime += time;
-                }
+                outer.runningTaskCount.decrementAndGet();
+                outer.executionLatency.record(System.nanoTime() - timeBefore);
             }
         }
     }
@@ -38,6 +38,34 @@ public interface ExecutorServiceStatistics {
      */
     long getExecutionTime();
 
+    /**
+     * Gets a summary of the time tasks have spent executing, in microseconds.
+     * 
+     * @return the execution latency summary.
+     */
+    LatencySummary getExecutionLatency();
+
+    /**
+     * Gets a summary of the time tasks have spent queued before starting to execute, in microseconds.
+     * 
+     * @return the queue wait latency summary.
+     */
+    LatencySummary getQueueWaitLatency();
+
+    /**
+     * Gets the number of tasks that have been rejected.
+     * 
+     * @return the rejected task count.
+     */
+    long getRejectedTaskCount();
+
+    /**
+     * Gets the number of tasks that were submitted while every thread of the pool was busy.
+     * 
+     * @return the saturation count.
+     */
+    long getSaturationCount();
+
     /**
      * Gets the number of active tasks.
      * 
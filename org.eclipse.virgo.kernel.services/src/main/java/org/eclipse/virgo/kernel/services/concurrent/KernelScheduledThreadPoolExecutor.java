@@ -57,9 +57,13 @@ public final class KernelScheduledThreadPoolExecutor extends ScheduledThreadPool
      * @see ScheduledThreadPoolExecutor#ScheduledThreadPoolExecutor(int, RejectedExecutionHandler)
      */
     public KernelScheduledThreadPoolExecutor(int corePoolSize, String poolName, TracingService tracingService, RejectedExecutionHandler handler) {
-        super(corePoolSize, createThreadFactory(poolName), determineHandler(handler));
+        this(corePoolSize, poolName, new ExecutorServiceDelegate(tracingService), handler);
+    }
+
+    private KernelScheduledThreadPoolExecutor(int corePoolSize, String poolName, ExecutorServiceDelegate delegate, RejectedExecutionHandler handler) {
+        super(corePoolSize, createThreadFactory(poolName), delegate.countRejections(determineHandler(handler)));
         this.poolName = poolName;
-        this.delegate = new ExecutorServiceDelegate(tracingService);
+        this.delegate = delegate;
     }
 
     /**
@@ -67,7 +71,8 @@ public final class KernelScheduledThreadPoolExecutor extends ScheduledThreadPool
      */
     @Override
     public void execute(Runnable command) {
-        super.execute(this.delegate.decorate(command));
+        // a scheduled pool never grows beyond its core size
+        super.execute(this.delegate.decorate(command, getCorePoolSize()));
     }
 
     /**
@@ -90,6 +95,34 @@ public final class KernelScheduledThreadPoolExecutor extends ScheduledThreadPool
         return this.delegate.getExecutionTime();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getExecutionLatency() {
+        return this.delegate.getExecutionLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getQueueWaitLatency() {
+        return this.delegate.getQueueWaitLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRejectedTaskCount() {
+        return this.delegate.getRejectedTaskCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSaturationCount() {
+        return this.delegate.getSaturationCount();
+    }
+
     /**
      * Get the unique name of the Pool used in this executor service
      * 
@@ -69,9 +69,15 @@ public final class KernelThreadPoolExecutor extends ThreadPoolExecutor implement
      */
     public KernelThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue,
         String poolName, TracingService tracingService, RejectedExecutionHandler handler) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, createThreadFactory(poolName), determineHandler(handler));
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, poolName, new ExecutorServiceDelegate(tracingService), handler);
+    }
+
+    private KernelThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue,
+        String poolName, ExecutorServiceDelegate delegate, RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, createThreadFactory(poolName),
+            delegate.countRejections(determineHandler(handler)));
         this.poolName = poolName;
-        this.delegate = new ExecutorServiceDelegate(tracingService);
+        this.delegate = delegate;
     }
 
     /**
@@ -79,7 +85,7 @@ public final class KernelThreadPoolExecutor extends ThreadPoolExecutor implement
      */
     @Override
     public void execute(Runnable command) {
-        Runnable decorated = this.delegate.decorate(command);
+        Runnable decorated = this.delegate.decorate(command, getMaximumPoolSize());
         super.execute(decorated);
     }
 
@@ -103,6 +109,34 @@ public final class KernelThreadPoolExecutor extends ThreadPoolExecutor implement
         return this.delegate.getExecutionTime();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getExecutionLatency() {
+        return this.delegate.getExecutionLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getQueueWaitLatency() {
+        return this.delegate.getQueueWaitLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRejectedTaskCount() {
+        return this.delegate.getRejectedTaskCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSaturationCount() {
+        return this.delegate.getSaturationCount();
+    }
+
     /**
      * Get the unique name of the Pool used in this executor service
      * 
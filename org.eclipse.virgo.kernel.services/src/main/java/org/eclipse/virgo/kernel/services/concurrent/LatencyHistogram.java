@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of nanosecond latencies with buckets whose width grows with their magnitude, so that every recorded value
+ * is reported to within 12.5% of its true value regardless of scale.
+ * <p/>
+ * Each power of two range is divided into {@value #SUB_BUCKET_COUNT} linear sub-buckets. Values below
+ * {@value #SUB_BUCKET_COUNT} nanoseconds have a bucket each.
+ * 
+ * <strong>Concurrent Semantics</strong><br/>
+ * 
+ * Threadsafe and lock-free. Recording a value takes a small, constant number of atomic operations. Summaries taken
+ * while values are being recorded are consistent estimates rather than exact snapshots.
+ * 
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the supplied latency. Negative values are recorded as zero.
+     * 
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.buckets.incrementAndGet(bucketIndex(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = this.max.get())) {
+            if (this.max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return the sum of the values recorded in nanoseconds
+     */
+    long getTotal() {
+        return this.total.get();
+    }
+
+    /**
+     * @return the largest value recorded in nanoseconds
+     */
+    long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Estimates the value below which the supplied fraction of recorded values fall.
+     * 
+     * @param fraction the fraction, between 0 and 1
+     * @return the estimated value in nanoseconds, or 0 if no values have been recorded
+     */
+    long getValueAtFraction(double fraction) {
+        long[] counts = new long[BUCKET_COUNT];
+        long recorded = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.buckets.get(i);
+            recorded += counts[i];
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Creates a {@link LatencySummary} of the values recorded so far, with latencies in microseconds.
+     * 
+     * @return the summary
+     */
+    LatencySummary summarise() {
+        long recorded = getCount();
+        return new LatencySummary(recorded, recorded == 0 ? 0 : toMicros(getTotal() / recorded), toMicros(getValueAtFraction(0.5)),
+            toMicros(getValueAtFraction(0.9)), toMicros(getValueAtFraction(0.99)), toMicros(getValueAtFraction(0.999)), toMicros(getMax()));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowerBound = (SUB_BUCKET_COUNT + subBucket) * width;
+        return lowerBound + width - 1;
+    }
+}
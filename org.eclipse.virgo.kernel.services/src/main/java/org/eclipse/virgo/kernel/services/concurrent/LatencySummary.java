@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A summary of a latency distribution, with all latencies in microseconds. Percentiles are estimates to within 12.5%.
+ * <p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Immutable and therefore threadsafe.
+ * 
+ */
+public final class LatencySummary {
+
+    private final long count;
+
+    private final long mean;
+
+    private final long median;
+
+    private final long percentile90;
+
+    private final long percentile99;
+
+    private final long percentile999;
+
+    private final long max;
+
+    @ConstructorProperties({ "count", "mean", "median", "percentile90", "percentile99", "percentile999", "max" })
+    public LatencySummary(long count, long mean, long median, long percentile90, long percentile99, long percentile999, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.median = median;
+        this.percentile90 = percentile90;
+        this.percentile99 = percentile99;
+        this.percentile999 = percentile999;
+        this.max = max;
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the mean latency
+     */
+    public long getMean() {
+        return this.mean;
+    }
+
+    /**
+     * @return the 50th percentile latency
+     */
+    public long getMedian() {
+        return this.median;
+    }
+
+    /**
+     * @return the 90th percentile latency
+     */
+    public long getPercentile90() {
+        return this.percentile90;
+    }
+
+    /**
+     * @return the 99th percentile latency
+     */
+    public long getPercentile99() {
+        return this.percentile99;
+    }
+
+    /**
+     * @return the 99.9th percentile latency
+     */
+    public long getPercentile999() {
+        return this.percentile999;
+    }
+
+    /**
+     * @return the largest latency recorded
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "count=" + this.count + ", mean=" + this.mean + "us, p50=" + this.median + "us, p90=" + this.percentile90 + "us, p99="
+            + this.percentile99 + "us, p99.9=" + this.percentile999 + "us, max=" + this.max + "us";
+    }
+}
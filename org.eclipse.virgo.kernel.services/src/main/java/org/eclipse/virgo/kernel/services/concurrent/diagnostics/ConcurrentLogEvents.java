@@ -24,7 +24,8 @@ import org.eclipse.virgo.medic.eventlog.LogEvent;
  */
 public enum ConcurrentLogEvents implements LogEvent {
 
-    DEADLOCK_DETECTED(0, Level.ERROR);
+    DEADLOCK_DETECTED(0, Level.ERROR), //
+    LOCK_CONTENTION_DETECTED(1, Level.WARNING);
 
     private static final String PREFIX = "CC";
     
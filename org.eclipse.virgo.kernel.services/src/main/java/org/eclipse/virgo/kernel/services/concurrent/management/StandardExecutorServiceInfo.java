@@ -18,6 +18,7 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.virgo.kernel.services.concurrent.ExecutorServiceInfo;
 import org.eclipse.virgo.kernel.services.concurrent.ExecutorServiceStatistics;
+import org.eclipse.virgo.kernel.services.concurrent.LatencySummary;
 
 
 /**
@@ -58,6 +59,38 @@ public class StandardExecutorServiceInfo implements ExecutorServiceInfo {
         return executorService == null ? -1 : executorService.getExecutionTime();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getExecutionLatency() {
+        ExecutorServiceStatistics executorService = this.managedExecutorService.get();
+        return executorService == null ? null : executorService.getExecutionLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LatencySummary getQueueWaitLatency() {
+        ExecutorServiceStatistics executorService = this.managedExecutorService.get();
+        return executorService == null ? null : executorService.getQueueWaitLatency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRejectedTaskCount() {
+        ExecutorServiceStatistics executorService = this.managedExecutorService.get();
+        return executorService == null ? -1 : executorService.getRejectedTaskCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSaturationCount() {
+        ExecutorServiceStatistics executorService = this.managedExecutorService.get();
+        return executorService == null ? -1 : executorService.getSaturationCount();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent.monitor;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Describes a lock, either an object monitor or an ownable synchronizer, that threads have been observed waiting for.
+ * <p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Immutable and therefore threadsafe.
+ * 
+ */
+public final class ContendedLock {
+
+    private final String lockName;
+
+    private final String ownerThreadName;
+
+    private final String ownerStack;
+
+    private final String[] waiterStacks;
+
+    private final long estimatedWaitTime;
+
+    private final long contendedSamples;
+
+    @ConstructorProperties({ "lockName", "ownerThreadName", "ownerStack", "waiterStacks", "estimatedWaitTime", "contendedSamples" })
+    public ContendedLock(String lockName, String ownerThreadName, String ownerStack, String[] waiterStacks, long estimatedWaitTime,
+        long contendedSamples) {
+        this.lockName = lockName;
+        this.ownerThreadName = ownerThreadName;
+        this.ownerStack = ownerStack;
+        this.waiterStacks = waiterStacks.clone();
+        this.estimatedWaitTime = estimatedWaitTime;
+        this.contendedSamples = contendedSamples;
+    }
+
+    /**
+     * @return the name of the lock, comprising its class name and identity hash code
+     */
+    public String getLockName() {
+        return this.lockName;
+    }
+
+    /**
+     * @return the name of the thread that owned the lock when it was last sampled, or <code>null</code> if unknown
+     */
+    public String getOwnerThreadName() {
+        return this.ownerThreadName;
+    }
+
+    /**
+     * @return the stack of the owning thread when the lock was last sampled
+     */
+    public String getOwnerStack() {
+        return this.ownerStack;
+    }
+
+    /**
+     * @return the stacks of the threads that were waiting for the lock when it was last sampled
+     */
+    public String[] getWaiterStacks() {
+        return this.waiterStacks.clone();
+    }
+
+    /**
+     * @return an estimate, in milliseconds, of the total time threads have spent waiting for the lock
+     */
+    public long getEstimatedWaitTime() {
+        return this.estimatedWaitTime;
+    }
+
+    /**
+     * @return the number of samples in which threads were waiting for the lock
+     */
+    public long getContendedSamples() {
+        return this.contendedSamples;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.lockName + " owned by '" + this.ownerThreadName + "' with " + this.waiterStacks.length + " waiting threads, estimated wait "
+            + this.estimatedWaitTime + "ms";
+    }
+}
@@ -22,7 +22,10 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * Analyses any deadlocks present in the VM and creates a description of the cycles.
+ * Analyses any deadlocks present in the VM and creates a description of the cycles. Where the VM supports it, cycles
+ * involving ownable synchronizers, such as {@link java.util.concurrent.locks.ReentrantLock ReentrantLocks} and
+ * {@link java.util.concurrent.locks.ReentrantReadWriteLock ReentrantReadWriteLocks}, are found as well as cycles of
+ * object monitors.
  * <p/>
  * 
  * <strong>Concurrent Semantics</strong><br />
@@ -48,7 +51,8 @@ public class DeadlockAnalyser {
      * @return the deadlocks; never <code>null</code>.
      */
     public Deadlock[] findDeadlocks() {
-        long[] deadlockedThreads = this.threadBean.findMonitorDeadlockedThreads();
+        long[] deadlockedThreads = this.threadBean.isSynchronizerUsageSupported() ? this.threadBean.findDeadlockedThreads()
+            : this.threadBean.findMonitorDeadlockedThreads();
         if (deadlockedThreads == null || deadlockedThreads.length == 0) {
             return NULL_RESULT;
         }
@@ -117,8 +121,7 @@ public class DeadlockAnalyser {
         Set<LinkedHashSet<ThreadInfo>> deadlockChain = new HashSet<LinkedHashSet<ThreadInfo>>();
         Set<Long> knownDeadlockedThreads = threadInfoMap.keySet();
         for (ThreadInfo threadInfo : allThreads) {
-            State state = threadInfo.getThreadState();
-            if (state == State.BLOCKED && !knownDeadlockedThreads.contains(threadInfo.getThreadId())) {
+            if (threadInfo != null && isWaitingForLock(threadInfo) && !knownDeadlockedThreads.contains(threadInfo.getThreadId())) {
                 for (LinkedHashSet<ThreadInfo> cycle : cycles) {
                     if (cycle.contains(threadInfoMap.get(threadInfo.getLockOwnerId()))) {
                         LinkedHashSet<ThreadInfo> chain = new LinkedHashSet<ThreadInfo>();
@@ -135,6 +138,18 @@ public class DeadlockAnalyser {
         return deadlockChain;
     }
 
+    /**
+     * Determines whether the thread described by the supplied {@link ThreadInfo} is blocked on an object monitor or
+     * parked waiting for an ownable synchronizer that another thread owns.
+     * 
+     * @param threadInfo the <code>ThreadInfo</code>.
+     * @return <code>true</code> if the thread is waiting for a lock that is owned.
+     */
+    static boolean isWaitingForLock(ThreadInfo threadInfo) {
+        State state = threadInfo.getThreadState();
+        return (state == State.BLOCKED || state == State.WAITING || state == State.TIMED_WAITING) && threadInfo.getLockOwnerId() != -1;
+    }
+
     /**
      * Creates a mapping of <code>ThreadId +> ThreadInfo</code> for the deadlocked threads.
      * 
@@ -142,11 +157,14 @@ public class DeadlockAnalyser {
      * @return the mapping.
      */
     private Map<Long, ThreadInfo> createThreadInfoMap(long[] threadIds) {
-        ThreadInfo[] threadInfos = this.threadBean.getThreadInfo(threadIds);
+        boolean synchronizers = this.threadBean.isSynchronizerUsageSupported();
+        ThreadInfo[] threadInfos = this.threadBean.getThreadInfo(threadIds, this.threadBean.isObjectMonitorUsageSupported(), synchronizers);
 
         Map<Long, ThreadInfo> threadInfoMap = new HashMap<Long, ThreadInfo>();
         for (ThreadInfo threadInfo : threadInfos) {
-            threadInfoMap.put(threadInfo.getThreadId(), threadInfo);
+            if (threadInfo != null) {
+                threadInfoMap.put(threadInfo.getThreadId(), threadInfo);
+            }
         }
         return threadInfoMap;
     }
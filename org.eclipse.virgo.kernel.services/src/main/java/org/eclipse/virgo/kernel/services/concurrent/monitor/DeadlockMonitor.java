@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,59 +11,101 @@
 
 package org.eclipse.virgo.kernel.services.concurrent.monitor;
 
+import java.lang.management.ManagementFactory;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.eclipse.virgo.kernel.services.concurrent.diagnostics.ConcurrentLogEvents;
 import org.eclipse.virgo.kernel.services.concurrent.monitor.DeadlockAnalyser.Deadlock;
 import org.eclipse.virgo.medic.dump.DumpGenerator;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.util.math.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Monitors all running {@link Thread Threads} and triggers a dump when a deadlock is detected.
+ * Monitors all running {@link Thread Threads}, triggering a dump when a deadlock is detected and reporting locks that
+ * remain contended across several samples.
  * <p/>
+ * While no locks are contended the monitor samples every {@value #MAXIMUM_PERIOD} seconds. When contention is seen the
+ * interval drops to {@value #MINIMUM_PERIOD} second and then doubles with each uncontended sample. The most contended
+ * locks, deadlocks, and sampling state are exposed through a {@link LockHealthMXBean}.
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
  * Threadsafe.
  * 
  */
-final class DeadlockMonitor {
+final class DeadlockMonitor implements LockHealthMXBean {
+
+    private static final int MAXIMUM_PERIOD = 10;
 
-    private static final int PERIOD = 10;
+    private static final int MINIMUM_PERIOD = 1;
 
     private static final TimeUnit UNIT = TimeUnit.SECONDS;
 
+    private static final int CONTENTION_REPORT_SAMPLES = 3;
+
+    private static final int TOP_CONTENDED_LOCKS = 5;
+
+    private static final String OBJECT_NAME_PATTERN = "%s:type=Statistics,name=LockHealth";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
     private final ScheduledExecutorService executorService;
 
     private final DumpGenerator dumpGenerator;
 
     private final EventLogger eventLogger;
 
+    private final String managementDomain;
+
+    private final DeadlockMonitorTask task;
+
+    private final AtomicLong deadlocksDetected = new AtomicLong();
+
     private volatile ScheduledFuture<?> future;
 
+    private volatile long samplingInterval = UNIT.toMillis(MAXIMUM_PERIOD);
+
+    private volatile String[] deadlocks = new String[0];
+
+    private volatile ContendedLock[] topContendedLocks = new ContendedLock[0];
+
+    private volatile long sampleCount;
+
+    private volatile ObjectName objectName;
+
     /**
      * Creates a new <code>DeadlockMonitor</code>.
      * 
      * @param executorService the <code>ScheduledExecutorService</code>
      * @param dumpGenerator the @{link {@link DumpGenerator} to trigger a dump.
      * @param eventLogger 
+     * @param managementDomain the domain in which to export the {@link LockHealthMXBean}.
      */
-    public DeadlockMonitor(ScheduledExecutorService executorService, DumpGenerator dumpGenerator, EventLogger eventLogger) {
+    public DeadlockMonitor(ScheduledExecutorService executorService, DumpGenerator dumpGenerator, EventLogger eventLogger, String managementDomain) {
         this.executorService = executorService;
         this.dumpGenerator = dumpGenerator;
         this.eventLogger = eventLogger;
+        this.managementDomain = managementDomain;
+        this.task = new DeadlockMonitorTask();
     }
 
     /**
      * Starts the deadlock monitor.
      */
     public void start() {
-        this.future = this.executorService.scheduleAtFixedRate(new DeadlockMonitorTask(this.dumpGenerator, this.eventLogger), PERIOD, PERIOD, UNIT);
+        registerMBean();
+        schedule(this.samplingInterval);
     }
 
     /**
@@ -77,54 +119,153 @@ final class DeadlockMonitor {
         if (this.future != null) {
             this.future.cancel(true);
         }
+        unregisterMBean();
+    }
+
+    private void schedule(long delayMillis) {
+        if (!this.executorService.isShutdown()) {
+            this.future = this.executorService.schedule(this.task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(String.format(OBJECT_NAME_PATTERN, this.managementDomain));
+            server.registerMBean(this, name);
+            this.objectName = name;
+        } catch (JMException e) {
+            this.logger.warn("Unable to register lock health monitor for management", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        ObjectName name = this.objectName;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                this.logger.warn(String.format("Unable to unregister lock health monitor %s from management", name), e);
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getDeadlocks() {
+        return this.deadlocks.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDeadlocksDetected() {
+        return this.deadlocksDetected.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ContendedLock[] getTopContendedLocks() {
+        return this.topContendedLocks.clone();
     }
 
     /**
-     * Task for monitoring threads for deadlocks.
+     * {@inheritDoc}
+     */
+    public long getSamplingInterval() {
+        return this.samplingInterval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Task for monitoring threads for deadlocks and lock contention. Each run schedules the next.
      * <p/>
      */
-    private static class DeadlockMonitorTask implements Runnable {
+    private final class DeadlockMonitorTask implements Runnable {
 
         private final DeadlockAnalyser analyser = new DeadlockAnalyser();
 
-        private final EventLogger eventLogger;
+        private final LockContentionSampler sampler = new LockContentionSampler();
 
         private final Set<Deadlock> lastSeenDeadlocks = new HashSet<Deadlock>();
 
-        private final Object monitor = new Object();
-
-        private final DumpGenerator dumpGenerator;
+        private final Set<String> reportedLocks = new HashSet<String>();
 
-        /**
-         * Creates a new <code>DeadlockMonitorTask</code>.
-         * 
-         * @param dumpGenerator the {@link DumpGenerator} to use.
-         * @param eventLogger 
-         */
-        public DeadlockMonitorTask(DumpGenerator dumpGenerator, EventLogger eventLogger) {
-            this.dumpGenerator = dumpGenerator;
-            this.eventLogger = eventLogger;
-        }
+        private final Object monitor = new Object();
 
         /**
          * {@inheritDoc}
          */
         public void run() {
-            synchronized (this.monitor) {
-                Deadlock[] deadlocks = this.analyser.findDeadlocks();
-                if (deadlocks != null && deadlocks.length > 0) {
-                    Set<Deadlock> asSet = Sets.asSet(deadlocks);
-                    if (!asSet.equals(this.lastSeenDeadlocks)) {
-                        this.eventLogger.log(ConcurrentLogEvents.DEADLOCK_DETECTED);
-                        this.dumpGenerator.generateDump("deadlock");
-                        this.lastSeenDeadlocks.clear();
-                        this.lastSeenDeadlocks.addAll(asSet);
+            DeadlockMonitor outer = DeadlockMonitor.this;
+            long nextInterval;
+            try {
+                synchronized (this.monitor) {
+                    checkForDeadlocks();
+                    boolean contended = sampleContention(outer.samplingInterval);
+                    nextInterval = contended ? UNIT.toMillis(MINIMUM_PERIOD) : Math.min(outer.samplingInterval * 2, UNIT.toMillis(MAXIMUM_PERIOD));
+                }
+            } catch (RuntimeException e) {
+                outer.logger.error("Lock health monitoring failed", e);
+                nextInterval = UNIT.toMillis(MAXIMUM_PERIOD);
+            }
+            outer.samplingInterval = nextInterval;
+            outer.schedule(nextInterval);
+        }
+
+        private void checkForDeadlocks() {
+            Deadlock[] deadlocks = this.analyser.findDeadlocks();
+            if (deadlocks != null && deadlocks.length > 0) {
+                Set<Deadlock> asSet = Sets.asSet(deadlocks);
+                if (!asSet.equals(this.lastSeenDeadlocks)) {
+                    DeadlockMonitor.this.eventLogger.log(ConcurrentLogEvents.DEADLOCK_DETECTED);
+                    DeadlockMonitor.this.dumpGenerator.generateDump("deadlock");
+                    for (Deadlock deadlock : asSet) {
+                        if (!this.lastSeenDeadlocks.contains(deadlock)) {
+                            DeadlockMonitor.this.deadlocksDetected.incrementAndGet();
+                        }
                     }
-                } else {
                     this.lastSeenDeadlocks.clear();
+                    this.lastSeenDeadlocks.addAll(asSet);
                 }
+            } else {
+                this.lastSeenDeadlocks.clear();
+            }
+            String[] descriptions = new String[deadlocks == null ? 0 : deadlocks.length];
+            for (int i = 0; i < descriptions.length; i++) {
+                descriptions[i] = deadlocks[i].toString();
             }
+            DeadlockMonitor.this.deadlocks = descriptions;
         }
 
+        private boolean sampleContention(long elapsedMillis) {
+            Set<String> contendedLocks = this.sampler.sample(elapsedMillis);
+            DeadlockMonitor.this.sampleCount = this.sampler.getSampleCount();
+            this.reportedLocks.retainAll(contendedLocks);
+            if (contendedLocks.isEmpty()) {
+                DeadlockMonitor.this.topContendedLocks = new ContendedLock[0];
+                return false;
+            }
+
+            ContendedLock[] top = this.sampler.describeTopContendedLocks(TOP_CONTENDED_LOCKS);
+            DeadlockMonitor.this.topContendedLocks = top;
+            for (ContendedLock lock : top) {
+                if (this.sampler.getConsecutiveContendedSamples(lock.getLockName()) >= CONTENTION_REPORT_SAMPLES
+                    && this.reportedLocks.add(lock.getLockName())) {
+                    DeadlockMonitor.this.eventLogger.log(ConcurrentLogEvents.LOCK_CONTENTION_DETECTED, lock.getLockName(),
+                        lock.getOwnerThreadName(), lock.getWaiterStacks().length, lock.getEstimatedWaitTime());
+                }
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Samples the threads of the VM to find locks, both object monitors and ownable synchronizers, that threads are waiting
+ * for, and estimates the time spent waiting for each lock as the number of waiters seen in each sample multiplied by
+ * the time since the previous sample.
+ * <p/>
+ * A sample takes a single stack-less snapshot of all threads. Stacks are only captured when the most contended locks
+ * are {@link #describeTopContendedLocks(int) described}.
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Not threadsafe. Callers must ensure that only one thread uses a sampler at a time.
+ * 
+ */
+final class LockContentionSampler {
+
+    private static final int MAXIMUM_TRACKED_LOCKS = 128;
+
+    private static final int STACK_DEPTH = 16;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, LockStatistics> lockStatistics = new HashMap<String, LockStatistics>();
+
+    private long sampleCount;
+
+    /**
+     * Takes a sample of the threads in the VM.
+     * 
+     * @param elapsedMillis the time since the previous sample
+     * @return the names of the locks that had waiting threads
+     */
+    Set<String> sample(long elapsedMillis) {
+        this.sampleCount++;
+        Map<String, List<ThreadInfo>> waitersByLock = new HashMap<String, List<ThreadInfo>>();
+        for (ThreadInfo threadInfo : this.threadBean.getThreadInfo(this.threadBean.getAllThreadIds())) {
+            if (threadInfo != null && DeadlockAnalyser.isWaitingForLock(threadInfo)) {
+                List<ThreadInfo> waiters = waitersByLock.get(threadInfo.getLockName());
+                if (waiters == null) {
+                    waiters = new ArrayList<ThreadInfo>();
+                    waitersByLock.put(threadInfo.getLockName(), waiters);
+                }
+                waiters.add(threadInfo);
+            }
+        }
+
+        for (Map.Entry<String, List<ThreadInfo>> entry : waitersByLock.entrySet()) {
+            LockStatistics statistics = this.lockStatistics.get(entry.getKey());
+            if (statistics == null) {
+                statistics = new LockStatistics(entry.getKey());
+                this.lockStatistics.put(entry.getKey(), statistics);
+            }
+            List<ThreadInfo> waiters = entry.getValue();
+            statistics.record(waiters, elapsedMillis);
+        }
+        pruneLockStatistics();
+        return waitersByLock.keySet();
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Gets the number of consecutive samples, up to and including the latest, in which threads were waiting for the
+     * named lock.
+     * 
+     * @param lockName the name of the lock
+     * @return the number of consecutive contended samples
+     */
+    int getConsecutiveContendedSamples(String lockName) {
+        LockStatistics statistics = this.lockStatistics.get(lockName);
+        return statistics == null || statistics.lastContendedSample != this.sampleCount ? 0 : statistics.consecutiveSamples;
+    }
+
+    /**
+     * Describes the locks with the greatest estimated wait time that were contended in the latest sample, capturing the
+     * current stacks of their owning and waiting threads.
+     * 
+     * @param limit the maximum number of locks to describe
+     * @return the descriptions, most contended first
+     */
+    ContendedLock[] describeTopContendedLocks(int limit) {
+        List<LockStatistics> contended = new ArrayList<LockStatistics>();
+        for (LockStatistics statistics : this.lockStatistics.values()) {
+            if (statistics.lastContendedSample == this.sampleCount) {
+                contended.add(statistics);
+            }
+        }
+        Collections.sort(contended, MOST_CONTENDED_FIRST);
+        List<LockStatistics> top = contended.subList(0, Math.min(limit, contended.size()));
+
+        Set<Long> threadIds = new HashSet<Long>();
+        for (LockStatistics statistics : top) {
+            threadIds.add(statistics.ownerId);
+            for (long waiterId : statistics.currentWaiterIds) {
+                threadIds.add(waiterId);
+            }
+        }
+        Map<Long, ThreadInfo> stacks = getThreadInfoWithStacks(threadIds);
+
+        ContendedLock[] descriptions = new ContendedLock[top.size()];
+        for (int i = 0; i < descriptions.length; i++) {
+            LockStatistics statistics = top.get(i);
+            String[] waiterStacks = new String[statistics.currentWaiterIds.length];
+            for (int w = 0; w < waiterStacks.length; w++) {
+                waiterStacks[w] = formatStack(stacks.get(statistics.currentWaiterIds[w]));
+            }
+            descriptions[i] = new ContendedLock(statistics.lockName, statistics.ownerName, formatStack(stacks.get(statistics.ownerId)),
+                waiterStacks, statistics.estimatedWaitMillis, statistics.contendedSamples);
+        }
+        return descriptions;
+    }
+
+    private Map<Long, ThreadInfo> getThreadInfoWithStacks(Set<Long> threadIds) {
+        long[] ids = new long[threadIds.size()];
+        int index = 0;
+        for (Long threadId : threadIds) {
+            ids[index++] = threadId;
+        }
+        Map<Long, ThreadInfo> threadInfos = new HashMap<Long, ThreadInfo>();
+        for (ThreadInfo threadInfo : this.threadBean.getThreadInfo(ids, STACK_DEPTH)) {
+            if (threadInfo != null) {
+                threadInfos.put(threadInfo.getThreadId(), threadInfo);
+            }
+        }
+        return threadInfos;
+    }
+
+    private static String formatStack(ThreadInfo threadInfo) {
+        if (threadInfo == null) {
+            return "";
+        }
+        StringBuilder stack = new StringBuilder();
+        stack.append('"').append(threadInfo.getThreadName()).append("\" ").append(threadInfo.getThreadState());
+        for (StackTraceElement element : threadInfo.getStackTrace()) {
+            stack.append("\n\tat ").append(element);
+        }
+        return stack.toString();
+    }
+
+    private void pruneLockStatistics() {
+        if (this.lockStatistics.size() > MAXIMUM_TRACKED_LOCKS) {
+            List<LockStatistics> all = new ArrayList<LockStatistics>(this.lockStatistics.values());
+            Collections.sort(all, MOST_CONTENDED_FIRST);
+            Iterator<LockStatistics> leastContended = all.subList(MAXIMUM_TRACKED_LOCKS / 2, all.size()).iterator();
+            while (leastContended.hasNext()) {
+                this.lockStatistics.remove(leastContended.next().lockName);
+            }
+        }
+    }
+
+    private static final Comparator<LockStatistics> MOST_CONTENDED_FIRST = new Comparator<LockStatistics>() {
+
+        public int compare(LockStatistics a, LockStatistics b) {
+            return a.estimatedWaitMillis < b.estimatedWaitMillis ? 1 : (a.estimatedWaitMillis == b.estimatedWaitMillis ? 0 : -1);
+        }
+    };
+
+    /**
+     * Contention statistics for a single lock.
+     */
+    private final class LockStatistics {
+
+        private final String lockName;
+
+        private long estimatedWaitMillis;
+
+        private long contendedSamples;
+
+        private long lastContendedSample;
+
+        private int consecutiveSamples;
+
+        private long ownerId;
+
+        private String ownerName;
+
+        private long[] currentWaiterIds = new long[0];
+
+        private LockStatistics(String lockName) {
+            this.lockName = lockName;
+        }
+
+        private void record(List<ThreadInfo> waiters, long elapsedMillis) {
+            long sample = LockContentionSampler.this.sampleCount;
+            this.consecutiveSamples = this.lastContendedSample == sample - 1 ? this.consecutiveSamples + 1 : 1;
+            this.lastContendedSample = sample;
+            this.contendedSamples++;
+            this.estimatedWaitMillis += waiters.size() * elapsedMillis;
+            this.ownerId = waiters.get(0).getLockOwnerId();
+            this.ownerName = waiters.get(0).getLockOwnerName();
+            this.currentWaiterIds = new long[waiters.size()];
+            for (int i = 0; i < this.currentWaiterIds.length; i++) {
+                this.currentWaiterIds[i] = waiters.get(i).getThreadId();
+            }
+        }
+    }
+}
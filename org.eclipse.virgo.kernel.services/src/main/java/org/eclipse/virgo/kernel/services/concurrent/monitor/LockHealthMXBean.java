@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent.monitor;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the deadlocks and lock contention observed by the kernel's lock monitor.
+ * <p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+@MXBean
+public interface LockHealthMXBean {
+
+    /**
+     * @return descriptions of the deadlocks present when the monitor last sampled
+     */
+    String[] getDeadlocks();
+
+    /**
+     * @return the number of distinct deadlocks that have been detected
+     */
+    long getDeadlocksDetected();
+
+    /**
+     * @return the most contended locks, most contended first, with the stacks of their owning and waiting threads
+     */
+    ContendedLock[] getTopContendedLocks();
+
+    /**
+     * @return the current interval between samples in milliseconds
+     */
+    long getSamplingInterval();
+
+    /**
+     * @return the number of samples taken
+     */
+    long getSampleCount();
+}
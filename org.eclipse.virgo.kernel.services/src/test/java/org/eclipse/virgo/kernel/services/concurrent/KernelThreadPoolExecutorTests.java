@@ -13,10 +13,13 @@ package org.eclipse.virgo.kernel.services.concurrent;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.virgo.kernel.services.concurrent.KernelThreadPoolExecutor;
@@ -73,6 +76,44 @@ public class KernelThreadPoolExecutorTests extends AbstractExecutorTests {
         assertEquals(1, executor.getCompletedTaskCount());
         assertTrue(executor.getAverageExecutionTime() > 0);
         assertTrue(executor.getExecutionTime() > 0);
+        assertEquals(1, executor.getExecutionLatency().getCount());
+        assertTrue(executor.getExecutionLatency().getPercentile99() >= 300000);
+        assertEquals(1, executor.getQueueWaitLatency().getCount());
+    }
+
+    @Test
+    public void rejectionAndSaturationCounted() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        KernelThreadPoolExecutor executor = new KernelThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1),
+            "RejectingPool", this.tracingService);
+        Runnable blocker = new Runnable() {
+
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.execute(blocker);
+        started.await();
+        executor.execute(blocker);
+        try {
+            executor.execute(blocker);
+            fail("Execution should have been rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+        release.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+
+        assertEquals(1, executor.getRejectedTaskCount());
+        assertEquals(2, executor.getSaturationCount());
+        assertEquals(2, executor.getQueueWaitLatency().getCount());
     }
 
     @Test
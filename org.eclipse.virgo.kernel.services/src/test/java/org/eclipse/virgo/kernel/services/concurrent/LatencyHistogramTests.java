@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ */
+public class LatencyHistogramTests {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertWithin(500000, histogram.getValueAtFraction(0.5));
+        assertWithin(990000, histogram.getValueAtFraction(0.99));
+        assertEquals(1000000, histogram.getValueAtFraction(1.0));
+
+        LatencySummary summary = histogram.summarise();
+        assertEquals(1000, summary.getCount());
+        assertEquals(500, summary.getMean());
+        assertEquals(1000, summary.getMax());
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencySummary summary = new LatencyHistogram().summarise();
+        assertEquals(0, summary.getCount());
+        assertEquals(0, summary.getPercentile99());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 12.5% of " + expected, actual >= expected && actual <= expected + expected / 8);
+    }
+}
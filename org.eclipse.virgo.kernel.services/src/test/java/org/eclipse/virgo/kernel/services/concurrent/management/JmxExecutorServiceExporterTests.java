@@ -23,6 +23,7 @@ import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 
 import org.eclipse.virgo.kernel.services.concurrent.ExecutorServiceStatistics;
+import org.eclipse.virgo.kernel.services.concurrent.LatencySummary;
 import org.eclipse.virgo.kernel.services.concurrent.management.JmxExecutorServiceExporter;
 import org.junit.Test;
 
@@ -41,6 +42,7 @@ public class JmxExecutorServiceExporterTests {
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
         ObjectInstance instance = getInstance(server);
         assertNotNull(instance);
+        assertNotNull(server.getAttribute(instance.getObjectName(), "ExecutionLatency"));
         
         exporter.destroy();
         try {
@@ -78,6 +80,34 @@ public class JmxExecutorServiceExporterTests {
             return 0;
         }
 
+        /** 
+         * {@inheritDoc}
+         */
+        public LatencySummary getExecutionLatency() {
+            return new LatencySummary(0, 0, 0, 0, 0, 0, 0);
+        }
+
+        /** 
+         * {@inheritDoc}
+         */
+        public LatencySummary getQueueWaitLatency() {
+            return new LatencySummary(0, 0, 0, 0, 0, 0, 0);
+        }
+
+        /** 
+         * {@inheritDoc}
+         */
+        public long getRejectedTaskCount() {
+            return 0;
+        }
+
+        /** 
+         * {@inheritDoc}
+         */
+        public long getSaturationCount() {
+            return 0;
+        }
+
         /** 
          * {@inheritDoc}
          */
@@ -15,6 +15,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.eclipse.virgo.kernel.services.concurrent.monitor.DeadlockAnalyser;
 import org.eclipse.virgo.kernel.services.concurrent.monitor.DeadlockAnalyser.Deadlock;
 import org.junit.Test;
@@ -57,4 +61,42 @@ public class DeadlockAnalyserTests {
         assertTrue(seen4);
     }
 
+    @Test public void reentrantLockDeadlocks() throws InterruptedException {
+        DeadlockAnalyser da = new DeadlockAnalyser();
+        int before = da.findDeadlocks().length;
+
+        final ReentrantLock first = new ReentrantLock();
+        final ReentrantLock second = new ReentrantLock();
+        final CountDownLatch latch = new CountDownLatch(2);
+        startLocking(first, second, latch);
+        startLocking(second, first, latch);
+
+        Deadlock[] deadlocks = da.findDeadlocks();
+        for (int i = 0; i < 100 && deadlocks.length == before; i++) {
+            Thread.sleep(30);
+            deadlocks = da.findDeadlocks();
+        }
+        assertEquals(before + 1, deadlocks.length);
+    }
+
+    private static void startLocking(final Lock held, final Lock wanted, final CountDownLatch latch) {
+        Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                held.lock();
+                try {
+                    latch.countDown();
+                    latch.await();
+                    wanted.lock();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    held.unlock();
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
 }
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.services.concurrent.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+/**
+ */
+public class LockContentionSamplerTests {
+
+    @Test
+    public void contendedLockIsReported() throws InterruptedException {
+        final ReentrantLock lock = new ReentrantLock();
+        lock.lock();
+        Thread[] waiters = new Thread[3];
+        try {
+            for (int i = 0; i < waiters.length; i++) {
+                waiters[i] = new Thread(new Runnable() {
+
+                    public void run() {
+                        lock.lock();
+                        lock.unlock();
+                    }
+                }, "waiter-" + i);
+                waiters[i].start();
+            }
+            while (lock.getQueueLength() < waiters.length) {
+                Thread.sleep(10);
+            }
+
+            LockContentionSampler sampler = new LockContentionSampler();
+            sampler.sample(100);
+            sampler.sample(100);
+            ContendedLock[] top = sampler.describeTopContendedLocks(5);
+
+            ContendedLock contended = null;
+            for (ContendedLock candidate : top) {
+                if (Thread.currentThread().getName().equals(candidate.getOwnerThreadName())) {
+                    contended = candidate;
+                }
+            }
+            assertTrue(contended != null);
+            assertEquals(3, contended.getWaiterStacks().length);
+            assertEquals(600, contended.getEstimatedWaitTime());
+            assertEquals(2, sampler.getConsecutiveContendedSamples(contended.getLockName()));
+            assertTrue(contended.getOwnerStack().contains("contendedLockIsReported"));
+        } finally {
+            lock.unlock();
+        }
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+    }
+}
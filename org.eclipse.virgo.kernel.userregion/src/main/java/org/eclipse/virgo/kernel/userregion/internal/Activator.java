@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -19,7 +19,9 @@ import java.io.IOException;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.equinox.region.RegionDigraph;
@@ -39,23 +41,29 @@ import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
 import org.eclipse.virgo.kernel.services.work.WorkArea;
 import org.eclipse.virgo.nano.shim.scope.ScopeFactory;
 import org.eclipse.virgo.kernel.userregion.internal.dump.StandardDumpExtractor;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.ClassFileTransformationStatistics;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.EquinoxHookRegistrar;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.EquinoxOsgiFramework;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.StandardPackageAdminUtil;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.TransformedManifestCache;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.TransformedManifestProvidingBundleFileWrapper;
+import org.eclipse.virgo.kernel.userregion.internal.importexpansion.ImportExpansionCache;
 import org.eclipse.virgo.kernel.userregion.internal.importexpansion.ImportExpansionHandler;
 import org.eclipse.virgo.kernel.userregion.internal.management.StateDumpMXBeanExporter;
+import org.eclipse.virgo.kernel.userregion.internal.management.StatisticsMXBeanExporter;
 import org.eclipse.virgo.kernel.userregion.internal.quasi.ResolutionFailureDetective;
 import org.eclipse.virgo.kernel.userregion.internal.quasi.StandardQuasiFrameworkFactory;
 import org.eclipse.virgo.kernel.userregion.internal.quasi.StandardResolutionFailureDetective;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.medic.eventlog.EventLoggerFactory;
+import org.eclipse.virgo.kernel.equinox.extensions.hooks.JarFileHandlePool;
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.MetaInfResourceClassLoaderDelegateHook;
 import org.eclipse.virgo.repository.Repository;
 import org.eclipse.virgo.util.osgi.ServiceRegistrationTracker;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.event.EventAdmin;
@@ -86,11 +94,15 @@ public class Activator implements BundleActivator {
 
     private static final String KERNEL_REGION_CONFIGURATION_PID = "org.eclipse.virgo.kernel";
 
+    private static final String TRANSFORMED_MANIFEST_CACHE_DIRECTORY = "transformed-manifests";
+
     private final ServiceRegistrationTracker registrationTracker = new ServiceRegistrationTracker();
 
     private volatile EquinoxHookRegistrar hookRegistrar;
 
     private StateDumpMXBeanExporter stateDumpMBeanExorter;
+
+    private final List<StatisticsMXBeanExporter> statisticsMBeanExporters = new CopyOnWriteArrayList<StatisticsMXBeanExporter>();
     
     private ConsoleConfigurationConvertor consoleConfigurationConvertor = null;
 
@@ -112,7 +124,8 @@ public class Activator implements BundleActivator {
         ImportExpansionHandler importExpansionHandler = createImportExpansionHandler(context, packageAdmin, repository, eventLogger);
         this.registrationTracker.track(context.registerService(ImportExpander.class.getName(), importExpansionHandler, null));
 
-        TransformedManifestProvidingBundleFileWrapper bundleTransformerHandler = createBundleTransformationHandler(importExpansionHandler);
+        TransformedManifestProvidingBundleFileWrapper bundleTransformerHandler = createBundleTransformationHandler(context, importExpansionHandler,
+            workArea);
 
         OsgiFramework osgiFramework = createOsgiFramework(context, packageAdmin, bundleTransformerHandler);
         this.registrationTracker.track(context.registerService(OsgiFramework.class.getName(), osgiFramework, null));
@@ -182,12 +195,19 @@ public class Activator implements BundleActivator {
         return new StandardQuasiFrameworkFactory(bundleContext, detective, repository, bundleTransformerHandler, regionDigraph, dumpExtractor);
     }
 
-    private TransformedManifestProvidingBundleFileWrapper createBundleTransformationHandler(ImportExpansionHandler importExpander) {
-        return new TransformedManifestProvidingBundleFileWrapper(importExpander);
+    private TransformedManifestProvidingBundleFileWrapper createBundleTransformationHandler(BundleContext context,
+        ImportExpansionHandler importExpander, WorkArea workArea) {
+        TransformedManifestCache transformedManifestCache = new TransformedManifestCache(
+            workArea.getWorkDirectory().newChild(TRANSFORMED_MANIFEST_CACHE_DIRECTORY).createDirectory().toFile(),
+            importExpander.getExpansionIdentity());
+        context.addBundleListener(transformedManifestCache);
+        context.addServiceListener(transformedManifestCache, "(" + Constants.OBJECTCLASS + "=" + Repository.class.getName() + ")");
+        exportStatistics("TransformedManifest", transformedManifestCache);
+        return new TransformedManifestProvidingBundleFileWrapper(importExpander, transformedManifestCache);
     }
 
     private ImportExpansionHandler createImportExpansionHandler(BundleContext context, PackageAdmin packageAdmin, Repository repository,
-        EventLogger eventLogger) {
+        EventLogger eventLogger) throws InvalidSyntaxException {
 
         Set<String> packagesExportedBySystemBundle = new HashSet<String>(30);
         ExportedPackage[] exportedPackages = packageAdmin.getExportedPackages(context.getBundle(SYSTEM_BUNDLE_ID));
@@ -196,13 +216,26 @@ public class Activator implements BundleActivator {
             packagesExportedBySystemBundle.add(exportedPackage.getName());
         }
 
-        return new ImportExpansionHandler(repository, context, packagesExportedBySystemBundle, eventLogger);
+        ImportExpansionCache importExpansionCache = new ImportExpansionCache();
+        context.addBundleListener(importExpansionCache);
+        context.addServiceListener(importExpansionCache, "(" + Constants.OBJECTCLASS + "=" + Repository.class.getName() + ")");
+        exportStatistics("ImportExpansion", importExpansionCache);
+
+        return new ImportExpansionHandler(repository, context, packagesExportedBySystemBundle, eventLogger, importExpansionCache);
     }
 
     private EquinoxHookRegistrar createHookRegistrar(BundleContext context, PackageAdmin packageAdmin,
         TransformedManifestProvidingBundleFileWrapper bundleFileWrapper) {
         MetaInfResourceClassLoaderDelegateHook hook = new MetaInfResourceClassLoaderDelegateHook(context, packageAdmin);
-        return new EquinoxHookRegistrar(bundleFileWrapper, hook);
+        exportStatistics("MetaInfResourceLookup", hook);
+        ClassFileTransformationStatistics transformationStatistics = new ClassFileTransformationStatistics();
+        exportStatistics("ClassFileTransformation", transformationStatistics);
+        exportStatistics("JarFileHandles", JarFileHandlePool.getInstance());
+        return new EquinoxHookRegistrar(bundleFileWrapper, hook, transformationStatistics);
+    }
+
+    private void exportStatistics(String name, Object statisticsMXBean) {
+        this.statisticsMBeanExporters.add(new StatisticsMXBeanExporter(name, statisticsMXBean));
     }
 
     private PackageAdminUtil createPackageAdminUtil(BundleContext context) {
@@ -250,6 +283,11 @@ public class Activator implements BundleActivator {
             this.stateDumpMBeanExorter = null;
         }
 
+        for (StatisticsMXBeanExporter statisticsMBeanExporter : this.statisticsMBeanExporters) {
+            statisticsMBeanExporter.close();
+        }
+        this.statisticsMBeanExporters.clear();
+
         EquinoxHookRegistrar hookRegistrar = this.hookRegistrar;
         if (hookRegistrar != null) {
             hookRegistrar.destroy();
@@ -280,6 +318,7 @@ public class Activator implements BundleActivator {
                 ScopeServiceRepository scopeServiceRepository = getPotentiallyDelayedService(context, ScopeServiceRepository.class);
 
                 ServiceScopingStrategy serviceScopingStrategy = new ServiceScopingStrategy(scopeFactory, scopeServiceRepository);
+                context.addBundleListener(serviceScopingStrategy);
 
                 ServiceScopingRegistryHook serviceScopingRegistryHook = new ServiceScopingRegistryHook(serviceScopingStrategy);
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -49,12 +49,14 @@ final class ServiceScopingRegistryHook implements FindHook, EventHook {
 	@SuppressWarnings("rawtypes")
 	public void event(ServiceEvent event, Collection contexts) {
 		ServiceReference ref = event.getServiceReference();
+		this.serviceScopingStrategy.serviceChanging(event);
 		for (Iterator iterator = contexts.iterator(); iterator.hasNext();) {
 			BundleContext context = (BundleContext) iterator.next();
 			if (!this.serviceScopingStrategy.isPotentiallyVisible(ref, context)) {
 				iterator.remove();
 			}
 		}
+		this.serviceScopingStrategy.serviceChanged(event);
 	}
 
 }
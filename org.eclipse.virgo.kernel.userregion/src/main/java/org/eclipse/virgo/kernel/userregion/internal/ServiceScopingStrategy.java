@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,13 +14,19 @@ package org.eclipse.virgo.kernel.userregion.internal;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.virgo.nano.shim.scope.Scope;
 import org.eclipse.virgo.nano.shim.scope.ScopeFactory;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,13 +36,18 @@ import org.eclipse.virgo.kernel.install.artifact.ScopeServiceRepository;
  * {@link ServiceScopingStrategy} encapsulates the service scoping algorithms used by {@link ServiceScopingRegistryHook}
  * .
  * <p />
+ * The scope of each service registration and of each bundle is determined once and cached. A service's scope is
+ * discarded when the service is modified, as reported by {@link #serviceChanging(ServiceEvent)}, or unregistered, as
+ * reported by {@link #serviceChanged(ServiceEvent)}. The scope of a service which has already been unregistered is
+ * never cached. A bundle's scope is discarded when the bundle is updated or uninstalled.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
  * Thread safe.
  * 
  */
-final class ServiceScopingStrategy {
+final class ServiceScopingStrategy implements SynchronousBundleListener {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -44,6 +55,16 @@ final class ServiceScopingStrategy {
 
     private ScopeServiceRepository scopeServiceRepository;
 
+    private final ConcurrentMap<ServiceReference<?>, Scope> serviceScopes = new ConcurrentHashMap<ServiceReference<?>, Scope>();
+
+    private final ConcurrentMap<Bundle, BundleScope> bundleScopes = new ConcurrentHashMap<Bundle, BundleScope>();
+
+    /**
+     * Incremented whenever a service scope is discarded so that a scope determined concurrently with the discard is not
+     * cached.
+     */
+    private final AtomicLong serviceScopeGeneration = new AtomicLong();
+
     public ServiceScopingStrategy(ScopeFactory scopeFactory, ScopeServiceRepository scopeServiceRepository) {
         this.scopeFactory = scopeFactory;
         this.scopeServiceRepository = scopeServiceRepository;
@@ -62,7 +83,7 @@ final class ServiceScopingStrategy {
         boolean matchesScope = true;
         Scope serviceScope = getServiceScope(serviceReference);
         if (serviceScope != null && !serviceScope.isGlobal()) {
-            Scope bundleScope = this.scopeFactory.getBundleScope(consumingBundleContext.getBundle());
+            Scope bundleScope = getBundleScope(consumingBundleContext.getBundle());
             if (!bundleScope.equals(serviceScope)) {
                 matchesScope = false;
             }
@@ -163,7 +184,13 @@ final class ServiceScopingStrategy {
     }
 
     private Scope getBundleScope(Bundle consumer) {
-        return this.scopeFactory.getBundleScope(consumer);
+        long lastModified = consumer.getLastModified();
+        BundleScope bundleScope = this.bundleScopes.get(consumer);
+        if (bundleScope == null || bundleScope.lastModified != lastModified) {
+            bundleScope = new BundleScope(this.scopeFactory.getBundleScope(consumer), lastModified);
+            this.bundleScopes.put(consumer, bundleScope);
+        }
+        return bundleScope.scope;
     }
 
     private boolean scopeHasMatchingService(Scope scope, String name, String filter) {
@@ -176,10 +203,76 @@ final class ServiceScopingStrategy {
     }
 
     private Scope getServiceScope(ServiceReference<?> ref) {
-        try {
-            return this.scopeFactory.getServiceScope(ref);
-        } catch (IllegalStateException ise) {
-            return null;
+        Scope serviceScope = this.serviceScopes.get(ref);
+        if (serviceScope == null) {
+            long generation = this.serviceScopeGeneration.get();
+            try {
+                serviceScope = this.scopeFactory.getServiceScope(ref);
+            } catch (IllegalStateException ise) {
+                return null;
+            }
+            if (serviceScope != null && ref.getBundle() != null) {
+                this.serviceScopes.putIfAbsent(ref, serviceScope);
+                if (generation != this.serviceScopeGeneration.get() || ref.getBundle() == null) {
+                    this.serviceScopes.remove(ref, serviceScope);
+                }
+            }
+        }
+        return serviceScope;
+    }
+
+    /**
+     * Discards the cached scope of the service in the given event if the service has been modified. This must be called
+     * before the event is delivered so that the event is scoped using the service's modified properties.
+     * 
+     * @param event the <code>ServiceEvent</code> which is about to be delivered
+     */
+    void serviceChanging(ServiceEvent event) {
+        int type = event.getType();
+        if (type == ServiceEvent.MODIFIED || type == ServiceEvent.MODIFIED_ENDMATCH) {
+            discardServiceScope(event.getServiceReference());
+        }
+    }
+
+    /**
+     * Discards the cached scope of the service in the given event if the service is being unregistered. This must be
+     * called after the event has been scoped so that the scope is not cached again while the event is delivered.
+     * 
+     * @param event the <code>ServiceEvent</code> which has been scoped
+     */
+    void serviceChanged(ServiceEvent event) {
+        if (event.getType() == ServiceEvent.UNREGISTERING) {
+            discardServiceScope(event.getServiceReference());
+        }
+    }
+
+    private void discardServiceScope(ServiceReference<?> ref) {
+        this.serviceScopeGeneration.incrementAndGet();
+        this.serviceScopes.remove(ref);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        int type = event.getType();
+        if (type == BundleEvent.UNINSTALLED || type == BundleEvent.UPDATED) {
+            this.bundleScopes.remove(event.getBundle());
+        }
+    }
+
+    /**
+     * The scope of a bundle together with the last modification time of the bundle when its scope was determined.
+     */
+    private static final class BundleScope {
+
+        private final Scope scope;
+
+        private final long lastModified;
+
+        private BundleScope(Scope scope, long lastModified) {
+            this.scope = scope;
+            this.lastModified = lastModified;
         }
     }
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,21 +12,49 @@
 package org.eclipse.virgo.kernel.userregion.internal.dump;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import org.eclipse.virgo.kernel.services.work.WorkArea;
 import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
 import org.eclipse.virgo.util.io.FileSystemUtils;
-import org.eclipse.virgo.util.io.PathReference;
-import org.eclipse.virgo.util.io.ZipUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>
  * DumpStateExtractor can extract the OSGi state from a dump directory and place it in a staging location for use by
  * clients of this class. It can also locate the region digraph dump in a dump directory.
  * </p>
+ * <p>
+ * The state dump zip file is read through its central directory and only the entries of the state are streamed to
+ * disk. Each dump is extracted into its own staging directory, named after the absolute path of its zip file and the
+ * time that file was last modified, so different dumps can be extracted concurrently and a dump that has already been
+ * extracted is not extracted again. Staging directories belong to this extractor: clients read them but must not modify
+ * them. At most a fixed number of extractions are kept and the least recently used is discarded to make room for a new
+ * one. Whenever a dump is extracted, the staging directories of dumps that have since been modified or deleted, and any
+ * left over from an earlier run, are removed. The number of reads, bytes and time taken are recorded for each dump
+ * file.
+ * </p>
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
@@ -35,13 +63,47 @@ import org.eclipse.virgo.util.io.ZipUtils;
  */
 public final class StandardDumpExtractor implements DumpExtractor {
 
+    private static final String STATE_DIRECTORY_NAME = "state";
+
+    private static final String STATE_ENTRY_PREFIX = STATE_DIRECTORY_NAME + "/";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int DEFAULT_MAXIMUM_EXTRACTIONS = 4;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Object monitor = new Object();
+
     private final File stagingDir;
 
+    private final int maximumExtractions;
+
+    private final LinkedHashMap<String, Extraction> extractions = new LinkedHashMap<String, Extraction>(16, 0.75f, true);
+
+    private final ConcurrentMap<String, DumpFileStatistics> statistics = new ConcurrentHashMap<String, DumpFileStatistics>();
+
     /**
      * @param workArea to extract dumps to
      */
     public StandardDumpExtractor(WorkArea workArea) {
-        this.stagingDir = workArea.getWorkDirectory().newChild("extracted-state-dumps").createDirectory().toFile();
+        this(workArea.getWorkDirectory().newChild("extracted-state-dumps").createDirectory().toFile());
+    }
+
+    StandardDumpExtractor(File stagingDir) {
+        this(stagingDir, DEFAULT_MAXIMUM_EXTRACTIONS);
+    }
+
+    StandardDumpExtractor(File stagingDir, int maximumExtractions) {
+        if (maximumExtractions < 1) {
+            throw new IllegalArgumentException("Maximum number of state dump extractions must be at least 1");
+        }
+        this.stagingDir = stagingDir;
+        this.maximumExtractions = maximumExtractions;
     }
 
     /**
@@ -49,8 +111,54 @@ public final class StandardDumpExtractor implements DumpExtractor {
      */
     public File getStateDump(File dump) throws ZipException, IOException {
         File stateDumpZipFile = getDumpFile(dump, STATE_DUMP_FILE_NAME);
+        String key = stateDumpZipFile.getAbsolutePath();
+        long lastModified = stateDumpZipFile.lastModified();
+
+        List<Extraction> discarded = new ArrayList<Extraction>();
+        boolean created = false;
+        Extraction extraction;
+        synchronized (this.monitor) {
+            extraction = this.extractions.get(key);
+            if (extraction == null || extraction.lastModified != lastModified) {
+                if (extraction != null) {
+                    discarded.add(extraction);
+                }
+                extraction = new Extraction(stateDumpZipFile, lastModified);
+                this.extractions.put(key, extraction);
+                Iterator<Extraction> eldest = this.extractions.values().iterator();
+                while (this.extractions.size() > this.maximumExtractions) {
+                    discarded.add(eldest.next());
+                    eldest.remove();
+                }
+                created = true;
+            }
+        }
+        for (Extraction discardedExtraction : discarded) {
+            discardedExtraction.discard();
+        }
+        if (created) {
+            pruneStagingDirectory();
+        }
+        return extraction.getStateDirectory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public File getRegionDigraphDump(File dump) throws IOException {
+        File regionDigraphFile = getDumpFile(dump, REGION_DIGRAPH_FILE_NAME);
+        getStatistics(REGION_DIGRAPH_FILE_NAME).record(regionDigraphFile.length(), 0);
+        return regionDigraphFile;
+    }
 
-        return unzip(stateDumpZipFile);
+    /**
+     * Returns the read statistics of each dump file, such as the state dump and the region digraph dump, that this
+     * extractor has read.
+     * 
+     * @return the statistics, one per dump file name
+     */
+    public List<DumpFileStatistics> getDumpFileStatistics() {
+        return new ArrayList<DumpFileStatistics>(this.statistics.values());
     }
 
     private File getDumpFile(File dumpDirectory, final String fileName) throws IOException {
@@ -70,14 +178,233 @@ public final class StandardDumpExtractor implements DumpExtractor {
         return dumpFiles[0];
     }
 
-    private File unzip(File stateDumpZipFile) throws IOException {
-        PathReference zipFile = new PathReference(stateDumpZipFile);
-        PathReference dest = new PathReference(this.stagingDir);
-        return new File(ZipUtils.unzipTo(zipFile, dest).toFile(), "state");
+    /**
+     * Discards the extractions of dumps that no longer exist and deletes any staging directory that does not belong to a
+     * current extraction.
+     */
+    private void pruneStagingDirectory() {
+        // List the staging directory first: an extraction is registered before anything is written for it
+        String[] names = FileSystemUtils.list(this.stagingDir);
+        Set<String> referencedNames = new HashSet<String>();
+        List<Extraction> discarded = new ArrayList<Extraction>();
+        synchronized (this.monitor) {
+            Iterator<Extraction> iterator = this.extractions.values().iterator();
+            while (iterator.hasNext()) {
+                Extraction extraction = iterator.next();
+                if (!extraction.stateDumpZipFile.isFile()) {
+                    iterator.remove();
+                    discarded.add(extraction);
+                } else {
+                    referencedNames.add(extraction.destination.getName());
+                    referencedNames.add(getPartialDestination(extraction.destination).getName());
+                }
+            }
+        }
+        for (Extraction extraction : discarded) {
+            extraction.discard();
+        }
+        for (String name : names) {
+            if (!referencedNames.contains(name)) {
+                this.logger.debug("Removing unreferenced state dump staging directory '{}'", name);
+                FileSystemUtils.deleteRecursively(new File(this.stagingDir, name));
+            }
+        }
     }
 
-    public File getRegionDigraphDump(File dump) throws IOException {
-        return getDumpFile(dump, REGION_DIGRAPH_FILE_NAME);
+    private DumpFileStatistics getStatistics(String fileName) {
+        DumpFileStatistics fileStatistics = this.statistics.get(fileName);
+        if (fileStatistics == null) {
+            DumpFileStatistics newStatistics = new DumpFileStatistics(fileName);
+            fileStatistics = this.statistics.putIfAbsent(fileName, newStatistics);
+            if (fileStatistics == null) {
+                fileStatistics = newStatistics;
+            }
+        }
+        return fileStatistics;
     }
 
+    private File extractState(File stateDumpZipFile, File destination) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int entries = 0;
+
+        File partialDestination = getPartialDestination(destination);
+        FileSystemUtils.deleteRecursively(partialDestination);
+        ZipFile zipFile = new ZipFile(stateDumpZipFile);
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (!zipEntry.isDirectory() && zipEntry.getName().startsWith(STATE_ENTRY_PREFIX)) {
+                    File target = new File(partialDestination, zipEntry.getName());
+                    if (!target.getCanonicalPath().startsWith(partialDestination.getCanonicalPath() + File.separator)) {
+                        throw new ZipException(String.format("Entry '%s' of '%s' lies outside the state dump", zipEntry.getName(),
+                            stateDumpZipFile));
+                    }
+                    bytes += copy(zipFile, zipEntry, target);
+                    entries++;
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        File stateDirectory = new File(partialDestination, STATE_DIRECTORY_NAME);
+        if (!stateDirectory.isDirectory()) {
+            FileSystemUtils.deleteRecursively(partialDestination);
+            throw new ZipException(String.format("State dump '%s' contains no '%s' directory", stateDumpZipFile, STATE_DIRECTORY_NAME));
+        }
+        FileSystemUtils.deleteRecursively(destination);
+        if (!partialDestination.renameTo(destination)) {
+            FileSystemUtils.deleteRecursively(partialDestination);
+            throw new IOException(String.format("Unable to move extracted state dump to '%s'", destination));
+        }
+
+        long nanos = System.nanoTime() - start;
+        getStatistics(STATE_DUMP_FILE_NAME).record(bytes, nanos);
+        this.logger.debug("Extracted {} state entries ({} bytes) from '{}' in {} ms", new Object[] { entries, bytes, stateDumpZipFile,
+            nanos / 1000000 });
+        return new File(destination, STATE_DIRECTORY_NAME);
+    }
+
+    /**
+     * Returns the name of the staging directory of the given version of a state dump zip file. The name is derived from
+     * the absolute path of the file, so dumps in different directories with the same name do not share a staging
+     * directory.
+     */
+    private static String getStagingName(File stateDumpZipFile, long lastModified) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            byte[] hash = digest.digest(stateDumpZipFile.getAbsolutePath().getBytes("UTF-8"));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+            }
+            return new String(hex) + "-" + lastModified;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    private static File getPartialDestination(File destination) {
+        return new File(destination.getParentFile(), destination.getName() + ".partial");
+    }
+
+    private static long copy(ZipFile zipFile, ZipEntry zipEntry, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory '%s'", parent));
+        }
+        long bytes = 0;
+        InputStream in = zipFile.getInputStream(zipEntry);
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    bytes += read;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * The extraction of a particular version of a state dump zip file, performed on first request.
+     */
+    private final class Extraction {
+
+        private final File stateDumpZipFile;
+
+        private final long lastModified;
+
+        private final File destination;
+
+        private File stateDirectory;
+
+        private Extraction(File stateDumpZipFile, long lastModified) {
+            this.stateDumpZipFile = stateDumpZipFile;
+            this.lastModified = lastModified;
+            this.destination = new File(StandardDumpExtractor.this.stagingDir, getStagingName(stateDumpZipFile, lastModified));
+        }
+
+        private synchronized File getStateDirectory() throws IOException {
+            if (this.stateDirectory == null || !this.stateDirectory.isDirectory()) {
+                this.stateDirectory = extractState(this.stateDumpZipFile, this.destination);
+            } else {
+                getStatistics(STATE_DUMP_FILE_NAME).record(0, 0);
+            }
+            return this.stateDirectory;
+        }
+
+        private synchronized void discard() {
+            if (this.stateDirectory != null) {
+                FileSystemUtils.deleteRecursively(this.destination);
+                this.stateDirectory = null;
+            }
+        }
+    }
+
+    /**
+     * Read statistics of a single dump file.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * Thread safe.
+     */
+    public static final class DumpFileStatistics {
+
+        private final String fileName;
+
+        private final AtomicLong reads = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private DumpFileStatistics(String fileName) {
+            this.fileName = fileName;
+        }
+
+        private void record(long bytesRead, long nanosTaken) {
+            this.reads.incrementAndGet();
+            this.bytes.addAndGet(bytesRead);
+            this.nanos.addAndGet(nanosTaken);
+        }
+
+        public String getFileName() {
+            return this.fileName;
+        }
+
+        /**
+         * @return the number of times the dump file was requested, including requests served from an earlier extraction
+         */
+        public long getReads() {
+            return this.reads.get();
+        }
+
+        /**
+         * @return the total number of bytes read from the dump file
+         */
+        public long getBytes() {
+            return this.bytes.get();
+        }
+
+        /**
+         * @return the total time, in nanoseconds, spent reading the dump file
+         */
+        public long getNanos() {
+            return this.nanos.get();
+        }
+    }
 }
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.virgo.kernel.osgi.framework.SelectiveClassFileTransformer;
+
+/**
+ * The ordered set of {@link ClassFileTransformer ClassFileTransformers} registered with a
+ * {@link KernelBundleClassLoader}, together with the logic to apply them to a class.
+ * <p/>
+ * Transformers that are {@link SelectiveClassFileTransformer selective} are skipped for packages that they do not
+ * transform.
+ * <p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Threadsafe.
+ * 
+ */
+final class ClassFileTransformationPipeline {
+
+    private final CopyOnWriteArrayList<ClassFileTransformer> transformers = new CopyOnWriteArrayList<ClassFileTransformer>();
+
+    private final ClassFileTransformationStatistics statistics;
+
+    /**
+     * @param statistics the statistics to update
+     */
+    ClassFileTransformationPipeline(ClassFileTransformationStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Adds the supplied transformer to the end of the pipeline, unless it is already present.
+     * 
+     * @param transformer the transformer to add
+     * @return <code>true</code> if the transformer was added, <code>false</code> if it was already present
+     */
+    boolean add(ClassFileTransformer transformer) {
+        return this.transformers.addIfAbsent(transformer);
+    }
+
+    int size() {
+        return this.transformers.size();
+    }
+
+    /**
+     * Applies the pipeline's transformers to the supplied class bytes.
+     * 
+     * @param loader the defining class loader
+     * @param className the dot-separated name of the class
+     * @param domain the protection domain of the class
+     * @param classBytes the original class bytes
+     * @return the transformed bytes, which are <code>classBytes</code> if no transformer changed the class
+     * @throws IllegalClassFormatException if a transformer rejects the class bytes
+     */
+    byte[] transform(ClassLoader loader, String className, ProtectionDomain domain, byte[] classBytes) throws IllegalClassFormatException {
+        List<ClassFileTransformer> applicableTransformers = getApplicableTransformers(getPackageName(className));
+        if (applicableTransformers.isEmpty()) {
+            return classBytes;
+        }
+
+        String internalName = className.replace('.', '/');
+        byte[] transformedBytes = classBytes;
+        for (ClassFileTransformer transformer : applicableTransformers) {
+            long start = System.nanoTime();
+            byte[] transform = transformer.transform(loader, internalName, null, domain, transformedBytes);
+            this.statistics.transformed(transformer, System.nanoTime() - start);
+            if (transform != null) {
+                transformedBytes = transform;
+            }
+        }
+        return transformedBytes;
+    }
+
+    private List<ClassFileTransformer> getApplicableTransformers(String packageName) {
+        List<ClassFileTransformer> applicableTransformers = new ArrayList<ClassFileTransformer>(this.transformers.size());
+        for (ClassFileTransformer transformer : this.transformers) {
+            if (transformer instanceof SelectiveClassFileTransformer && !((SelectiveClassFileTransformer) transformer).transformsPackage(packageName)) {
+                this.statistics.skipped(transformer);
+            } else {
+                applicableTransformers.add(transformer);
+            }
+        }
+        return applicableTransformers;
+    }
+
+    private static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot == -1 ? "" : className.substring(0, lastDot);
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records statistics about the class file transformation performed by {@link KernelBundleClassLoader
+ * KernelBundleClassLoaders}. A single instance is shared by every class loader created by a
+ * {@link KernelClassLoaderCreator}.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Threadsafe.
+ * 
+ */
+public final class ClassFileTransformationStatistics implements ClassFileTransformationStatisticsMXBean {
+
+    private final ConcurrentMap<String, TransformerStatistics> transformerStatistics = new ConcurrentHashMap<String, TransformerStatistics>();
+
+    void transformed(ClassFileTransformer transformer, long durationNanos) {
+        TransformerStatistics statistics = getTransformerStatistics(transformer);
+        statistics.count.incrementAndGet();
+        statistics.nanos.addAndGet(durationNanos);
+    }
+
+    void skipped(ClassFileTransformer transformer) {
+        getTransformerStatistics(transformer).skipped.incrementAndGet();
+    }
+
+    private TransformerStatistics getTransformerStatistics(ClassFileTransformer transformer) {
+        String key = transformer.getClass().getName();
+        TransformerStatistics statistics = this.transformerStatistics.get(key);
+        if (statistics == null) {
+            statistics = new TransformerStatistics();
+            TransformerStatistics existing = this.transformerStatistics.putIfAbsent(key, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getTransformationTimes() {
+        Map<String, Long> times = new HashMap<String, Long>();
+        for (Map.Entry<String, TransformerStatistics> entry : this.transformerStatistics.entrySet()) {
+            times.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().nanos.get()));
+        }
+        return times;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getTransformationCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, TransformerStatistics> entry : this.transformerStatistics.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count.get());
+        }
+        return counts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getSkippedTransformationCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, TransformerStatistics> entry : this.transformerStatistics.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().skipped.get());
+        }
+        return counts;
+    }
+
+    private static final class TransformerStatistics {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private final AtomicLong skipped = new AtomicLong();
+    }
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import java.util.Map;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the load-time class file transformation performed by {@link KernelBundleClassLoader
+ * KernelBundleClassLoaders}.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+@MXBean
+public interface ClassFileTransformationStatisticsMXBean {
+
+    /**
+     * @return the total time, in milliseconds, spent in each transformer, keyed by transformer type
+     */
+    Map<String, Long> getTransformationTimes();
+
+    /**
+     * @return the number of classes passed to each transformer, keyed by transformer type
+     */
+    Map<String, Long> getTransformationCounts();
+
+    /**
+     * @return the number of times each transformer was skipped because it does not transform the class's package,
+     *         keyed by transformer type
+     */
+    Map<String, Long> getSkippedTransformationCounts();
+}
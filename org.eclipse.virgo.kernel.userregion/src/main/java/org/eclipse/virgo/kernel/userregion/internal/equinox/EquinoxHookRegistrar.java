@@ -11,9 +11,8 @@
 
 package org.eclipse.virgo.kernel.userregion.internal.equinox;
 
-import org.eclipse.osgi.framework.adaptor.ClassLoaderDelegateHook;
-
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.BundleFileClosingBundleFileWrapperFactoryHook;
+import org.eclipse.virgo.kernel.equinox.extensions.hooks.MetaInfResourceClassLoaderDelegateHook;
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.PluggableBundleFileWrapperFactoryHook;
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.PluggableClassLoadingHook;
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.PluggableDelegatingClassLoaderDelegateHook;
@@ -31,16 +30,21 @@ public final class EquinoxHookRegistrar  {
 
     private final TransformedManifestProvidingBundleFileWrapper bundleFileWrapper;
     
-    private final ClassLoaderDelegateHook metaInfResourceClassLoaderDelegateHook;
+    private final MetaInfResourceClassLoaderDelegateHook metaInfResourceClassLoaderDelegateHook;
+
+    private final ClassFileTransformationStatistics transformationStatistics;
 
-    public EquinoxHookRegistrar(TransformedManifestProvidingBundleFileWrapper bundleFileWrapper, ClassLoaderDelegateHook metaInfResourceClassLoaderDelegateHook) {
+    public EquinoxHookRegistrar(TransformedManifestProvidingBundleFileWrapper bundleFileWrapper, MetaInfResourceClassLoaderDelegateHook metaInfResourceClassLoaderDelegateHook,
+        ClassFileTransformationStatistics transformationStatistics) {
         this.bundleFileWrapper = bundleFileWrapper;
         this.metaInfResourceClassLoaderDelegateHook = metaInfResourceClassLoaderDelegateHook;
+        this.transformationStatistics = transformationStatistics;
     }
 
     public void init() {
-        PluggableClassLoadingHook.getInstance().setClassLoaderCreator(new KernelClassLoaderCreator());
+        PluggableClassLoadingHook.getInstance().setClassLoaderCreator(new KernelClassLoaderCreator(this.transformationStatistics));
         PluggableBundleFileWrapperFactoryHook.getInstance().setBundleFileWrapper(this.bundleFileWrapper);
+        this.metaInfResourceClassLoaderDelegateHook.init();
         PluggableDelegatingClassLoaderDelegateHook.getInstance().addDelegate(this.metaInfResourceClassLoaderDelegateHook);
     }
     
@@ -48,6 +52,7 @@ public final class EquinoxHookRegistrar  {
         PluggableClassLoadingHook.getInstance().setClassLoaderCreator(null);
         PluggableBundleFileWrapperFactoryHook.getInstance().setBundleFileWrapper(null);
         PluggableDelegatingClassLoaderDelegateHook.getInstance().removeDelegate(this.metaInfResourceClassLoaderDelegateHook);
+        this.metaInfResourceClassLoaderDelegateHook.destroy();
         BundleFileClosingBundleFileWrapperFactoryHook.getInstance().cleanup();
     }
 }
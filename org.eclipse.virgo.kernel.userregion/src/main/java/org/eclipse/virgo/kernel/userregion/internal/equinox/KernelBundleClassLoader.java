@@ -47,8 +47,8 @@ import org.slf4j.LoggerFactory;
 
 import org.eclipse.virgo.kernel.osgi.framework.ExtendedClassNotFoundException;
 import org.eclipse.virgo.kernel.osgi.framework.ExtendedNoClassDefFoundError;
-import org.eclipse.virgo.kernel.osgi.framework.InstrumentableClassLoader;
 import org.eclipse.virgo.kernel.osgi.framework.OsgiFrameworkUtils;
+import org.eclipse.virgo.kernel.osgi.framework.ThrowAwayReleasingClassLoader;
 
 /**
  * Extension to {@link DefaultClassLoader} that adds instrumentation support.
@@ -59,7 +59,7 @@ import org.eclipse.virgo.kernel.osgi.framework.OsgiFrameworkUtils;
  * As threadsafe as <code>DefaultClassLoader</code>.
  * 
  */
-public final class KernelBundleClassLoader extends DefaultClassLoader implements InstrumentableClassLoader {
+public final class KernelBundleClassLoader extends DefaultClassLoader implements ThrowAwayReleasingClassLoader {
 
     static {
         try {
@@ -75,9 +75,11 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
     private static final String HEADER_INSTRUMENT_PACKAGE = "Instrument-Package";
 
+    private static final byte[] CLASS_NOT_FOUND = new byte[0];
+
     private static final Logger LOGGER = LoggerFactory.getLogger(KernelBundleClassLoader.class);
 
-    private final List<ClassFileTransformer> classFileTransformers = new CopyOnWriteArrayList<ClassFileTransformer>();
+    private final ClassFileTransformationPipeline transformationPipeline;
 
     private final String[] instrumentedPackages;
 
@@ -89,6 +91,14 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
     private final Object monitor = new Object();
 
+    private final Object throwAwayMonitor = new Object();
+
+    private final ConcurrentMap<String, byte[]> throwAwayClassBytes = new ConcurrentHashMap<String, byte[]>();
+
+    private ClasspathManager throwAwayClasspathManager; // protected by throwAwayMonitor
+
+    private Bundle[] throwAwayDependencyBundles; // protected by throwAwayMonitor
+
     private volatile boolean instrumented;
 
     /**
@@ -99,10 +109,13 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
      * @param domain the domain for this ClassLoader</code>
      * @param bundledata the bundledata for this ClassLoader</code>
      * @param classpath the classpath for this ClassLoader</code>
+     * @param transformationStatistics the statistics to update when transforming classes
      */
-    KernelBundleClassLoader(ClassLoader parent, ClassLoaderDelegate delegate, ProtectionDomain domain, BaseData bundledata, String[] classpath) {
+    KernelBundleClassLoader(ClassLoader parent, ClassLoaderDelegate delegate, ProtectionDomain domain, BaseData bundledata, String[] classpath,
+        ClassFileTransformationStatistics transformationStatistics) {
         super(parent, delegate, domain, bundledata, classpath);
         this.classpath = classpath;
+        this.transformationPipeline = new ClassFileTransformationPipeline(transformationStatistics);
         this.bundleScope = OsgiFrameworkUtils.getScopeName(bundledata.getBundle());
         this.instrumentedPackages = findInstrumentedPackages(bundledata.getBundle());
     }
@@ -112,11 +125,8 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
      */
     public void addClassFileTransformer(ClassFileTransformer transformer) {
         this.instrumented = true;
-        synchronized (this.classFileTransformers) {
-            if (this.classFileTransformers.contains(transformer)) {
-                return;
-            }
-            this.classFileTransformers.add(transformer);
+        if (!this.transformationPipeline.add(transformer)) {
+            return;
         }
         Bundle[] bundles = getDependencyBundles(false);
         for (Bundle bundle : bundles) {
@@ -164,7 +174,7 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
      * {@inheritDoc}
      */
     public int getClassFileTransformerCount() {
-        return this.classFileTransformers.size();
+        return this.transformationPipeline.size();
     }
 
     /**
@@ -215,18 +225,82 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * All throw away class loaders created by this <code>ClassLoader</code> share an index of class bytes read from
+     * this bundle and a view of this bundle's dependencies, both of which are retained until
+     * {@link #releaseThrowAways()} is called or this <code>ClassLoader</code> is closed.
      */
     public ThrowAwayClassLoader createThrowAway() {
-        final ClasspathManager manager = new ClasspathManager(this.manager.getBaseData(), this.classpath, this);
-        manager.initialize();
         return AccessController.doPrivileged(new PrivilegedAction<ThrowAwayClassLoader>() {
 
             public ThrowAwayClassLoader run() {
-                return new ThrowAwayClassLoader(manager);
+                return new ThrowAwayClassLoader();
             }
         });
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void releaseThrowAways() {
+        synchronized (this.throwAwayMonitor) {
+            this.throwAwayClasspathManager = null;
+            this.throwAwayDependencyBundles = null;
+            this.throwAwayClassBytes.clear();
+        }
+    }
+
+    /**
+     * Gets the bytes of the named class from this bundle for definition by a throw away class loader. The bytes are
+     * read once and shared by all throw away class loaders until {@link #releaseThrowAways()} is called.
+     * 
+     * @param name the name of the class
+     * @return the class bytes, or <code>null</code> if the class is not present in this bundle
+     */
+    private byte[] getThrowAwayClassBytes(String name) {
+        byte[] bytes = this.throwAwayClassBytes.get(name);
+        if (bytes == null) {
+            bytes = readThrowAwayClassBytes(name);
+            byte[] existing = this.throwAwayClassBytes.putIfAbsent(name, bytes);
+            if (existing != null) {
+                bytes = existing;
+            }
+        }
+        return bytes == CLASS_NOT_FOUND ? null : bytes;
+    }
+
+    private byte[] readThrowAwayClassBytes(String name) {
+        BundleEntry entry = getThrowAwayClasspathManager().findLocalEntry(name.replace('.', '/').concat(".class"));
+        if (entry != null) {
+            try {
+                return entry.getBytes();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to read bytes of class '" + name + "' for throw away class loader of " + this, e);
+            }
+        }
+        return CLASS_NOT_FOUND;
+    }
+
+    private ClasspathManager getThrowAwayClasspathManager() {
+        synchronized (this.throwAwayMonitor) {
+            if (this.throwAwayClasspathManager == null) {
+                ClasspathManager throwAwayManager = new ClasspathManager(this.manager.getBaseData(), this.classpath, this);
+                throwAwayManager.initialize();
+                this.throwAwayClasspathManager = throwAwayManager;
+            }
+            return this.throwAwayClasspathManager;
+        }
+    }
+
+    private Bundle[] getThrowAwayDependencyBundles() {
+        synchronized (this.throwAwayMonitor) {
+            if (this.throwAwayDependencyBundles == null) {
+                this.throwAwayDependencyBundles = getDependencyBundles(false);
+            }
+            return this.throwAwayDependencyBundles;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -235,16 +309,10 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
         byte[] transformedBytes = classbytes;
         if (shouldInstrument(name)) {
-            for (ClassFileTransformer transformer : this.classFileTransformers) {
-                try {
-                    String transformName = name.replaceAll("\\.", "/");
-                    byte[] transform = transformer.transform(this, transformName, null, this.domain, transformedBytes);
-                    if (transform != null) {
-                        transformedBytes = transform;
-                    }
-                } catch (IllegalClassFormatException e) {
-                    throw new ClassFormatError("Error reading class from bundle entry '" + entry.getName() + "'. " + e.getMessage());
-                }
+            try {
+                transformedBytes = this.transformationPipeline.transform(this, name, this.domain, classbytes);
+            } catch (IllegalClassFormatException e) {
+                throw new ClassFormatError("Error reading class from bundle entry '" + entry.getName() + "'. " + e.getMessage());
             }
         }
         try {
@@ -270,6 +338,7 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
     @Override
     public void close() {
+        releaseThrowAways();
         clearJdbcDrivers();
     }
 
@@ -365,6 +434,11 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
      * Throwaway classloader for OSGi bundles.
      * <p/>
      * 
+     * Classes from the enclosing bundle are defined from the bytes shared by the enclosing
+     * <code>KernelBundleClassLoader</code>. Classes from each dependency bundle are defined by a single throw away
+     * class loader of that dependency, created on first use and retained for the lifetime of this class loader.
+     * <p/>
+     * 
      * <strong>Concurrent Semantics</strong><br />
      * 
      * As threadsafe as {@link ClassLoader}.
@@ -374,13 +448,9 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
 
         private final ConcurrentMap<String, Class<?>> loadedClasses = new ConcurrentHashMap<String, Class<?>>();
 
-        private final ClasspathManager manager;
+        private final ConcurrentMap<KernelBundleClassLoader, ThrowAwayClassLoader> dependencyThrowAways = new ConcurrentHashMap<KernelBundleClassLoader, ThrowAwayClassLoader>();
 
-        /**
-         * @param manager
-         */
-        private ThrowAwayClassLoader(ClasspathManager manager) {
-            this.manager = manager;
+        private ThrowAwayClassLoader() {
         }
 
         /**
@@ -419,23 +489,18 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
          * @param traverseDependencies should dependency bundles be checked for the class.
          */
         Class<?> findClassInternal(String name, boolean traverseDependencies) {
-            String path = name.replaceAll("\\.", "/").concat(".class");
-
-            BundleEntry entry = this.manager.findLocalEntry(path);
-            if (entry == null) {
+            byte[] bytes = getThrowAwayClassBytes(name);
+            if (bytes == null) {
                 if (traverseDependencies) {
                     return findClassFromImport(name);
                 } else {
                     return null;
                 }
             }
-            byte[] bytes;
-            try {
-                bytes = entry.getBytes();
-            } catch (IOException e) {
-                bytes = null;
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                return cls != null ? cls : defineClass(name, bytes, 0, bytes.length);
             }
-            return bytes == null ? null : defineClass(name, bytes, 0, bytes.length);
         }
 
         /**
@@ -445,7 +510,7 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
          * @return the located <code>Class</code>, or <code>null</code> if no <code>Class</code> can be found.
          */
         private Class<?> findClassFromImport(String name) {
-            Bundle[] deps = getDependencyBundles(false);
+            Bundle[] deps = getThrowAwayDependencyBundles();
             for (Bundle dep : deps) {
                 ClassLoader depClassLoader = getBundleClassLoader(dep);
                 if (depClassLoader instanceof KernelBundleClassLoader) {
@@ -454,7 +519,7 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
                     if (loadedClass != null) {
                         return loadedClass;
                     }
-                    ThrowAwayClassLoader throwAway = pbcl.createThrowAway();
+                    ThrowAwayClassLoader throwAway = getDependencyThrowAway(pbcl);
                     Class<?> cls = throwAway.findClassInternal(name, false);
                     if (cls != null) {
                         return cls;
@@ -465,6 +530,18 @@ public final class KernelBundleClassLoader extends DefaultClassLoader implements
             return null;
         }
 
+        private ThrowAwayClassLoader getDependencyThrowAway(KernelBundleClassLoader dependencyClassLoader) {
+            ThrowAwayClassLoader throwAway = this.dependencyThrowAways.get(dependencyClassLoader);
+            if (throwAway == null) {
+                throwAway = dependencyClassLoader.createThrowAway();
+                ThrowAwayClassLoader existing = this.dependencyThrowAways.putIfAbsent(dependencyClassLoader, throwAway);
+                if (existing != null) {
+                    throwAway = existing;
+                }
+            }
+            return throwAway;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -33,6 +33,24 @@ import org.eclipse.virgo.kernel.equinox.extensions.hooks.ClassLoaderCreator;
  */
 final class KernelClassLoaderCreator implements ClassLoaderCreator {
 
+    private final ClassFileTransformationStatistics transformationStatistics;
+
+    /**
+     * Creates a new <code>KernelClassLoaderCreator</code> whose class loaders record statistics privately.
+     */
+    KernelClassLoaderCreator() {
+        this(new ClassFileTransformationStatistics());
+    }
+
+    /**
+     * Creates a new <code>KernelClassLoaderCreator</code> whose class loaders share the supplied statistics.
+     * 
+     * @param transformationStatistics the statistics to update when transforming classes
+     */
+    KernelClassLoaderCreator(ClassFileTransformationStatistics transformationStatistics) {
+        this.transformationStatistics = transformationStatistics;
+    }
+
     /**
      * Creates a {@link KernelBundleClassLoader} in place of the standard Equinox {@link DefaultClassLoader}.
      */
@@ -40,7 +58,7 @@ final class KernelClassLoaderCreator implements ClassLoaderCreator {
         final BaseData data, final String[] bundleclasspath) {
         return AccessController.doPrivileged(new PrivilegedAction<BaseClassLoader>() {
             public BaseClassLoader run() {
-                return new KernelBundleClassLoader(parent, delegate, domain, data, bundleclasspath);
+                return new KernelBundleClassLoader(parent, delegate, domain, data, bundleclasspath, transformationStatistics);
             }
         });
     }
@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of transformed manifests for {@link TransformedManifestProvidingBundleFileWrapper}, keyed by a digest
+ * of the original manifest bytes and the identity of the import expansion configuration.
+ * <p/>
+ * The transformed manifest of a bundle with no <code>Import-Bundle</code> or <code>Import-Library</code> header depends
+ * only on the key, so it is persisted in the cache directory and served across restarts. The transformed manifest of a
+ * bundle with either header also depends on the installed bundles and on the contents of the repository. Like the
+ * lookups in the import expansion cache, it is held in memory for at most {@value #REPOSITORY_ENTRY_LIFETIME_SECONDS}
+ * seconds and is discarded when a bundle is installed, updated, or uninstalled, or when the repository service is
+ * modified or unregistered.
+ * <p/>
+ * At most {@value #DEFAULT_MAXIMUM_ENTRIES} entries are kept by default. The least recently used entry, together with
+ * any persisted copy of it, is discarded to make room for a new one. Failures to read or write the cache directory are
+ * logged and otherwise ignored: the cache is purely an optimisation.
+ * <p/>
+ * Register the cache as a bundle listener and as a service listener for the repository service to receive
+ * invalidation events.
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ * This class is <strong>thread-safe</strong>.
+ *
+ */
+public final class TransformedManifestCache implements SynchronousBundleListener, ServiceListener, TransformedManifestCacheStatisticsMXBean {
+
+    private static final long REPOSITORY_ENTRY_LIFETIME_SECONDS = 5;
+
+    private static final int DEFAULT_MAXIMUM_ENTRIES = 1024;
+
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private static final String ENTRY_SUFFIX = ".MF";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Object monitor = new Object();
+
+    private final File directory;
+
+    private final String expansionIdentity;
+
+    private final int maximumEntries;
+
+    private final long repositoryEntryLifetimeNanos;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a cache which persists entries in the supplied directory.
+     *
+     * @param directory the directory in which to persist entries
+     * @param expansionIdentity the identity of the import expansion configuration
+     */
+    public TransformedManifestCache(File directory, String expansionIdentity) {
+        this(directory, expansionIdentity, DEFAULT_MAXIMUM_ENTRIES, TimeUnit.SECONDS.toNanos(REPOSITORY_ENTRY_LIFETIME_SECONDS));
+    }
+
+    TransformedManifestCache(File directory, String expansionIdentity, int maximumEntries, long repositoryEntryLifetimeNanos) {
+        this.directory = directory;
+        this.expansionIdentity = expansionIdentity;
+        this.maximumEntries = maximumEntries;
+        this.repositoryEntryLifetimeNanos = repositoryEntryLifetimeNanos;
+        indexPersistedEntries();
+    }
+
+    /**
+     * Gets the key of the transformed manifest of the supplied original manifest.
+     *
+     * @param originalManifest the bytes of the original manifest
+     * @return the key
+     */
+    String getKey(byte[] originalManifest) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            digest.update(originalManifest);
+            digest.update((byte) 0);
+            digest.update(this.expansionIdentity.getBytes(UTF_8));
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", nsae);
+        }
+    }
+
+    /**
+     * Gets the cached transformed manifest with the supplied key.
+     *
+     * @param key the {@link #getKey(byte[]) key} of the transformed manifest
+     * @return the bytes of the transformed manifest, or <code>null</code> if there is no cached transformed manifest
+     */
+    byte[] get(String key) {
+        Entry entry;
+        synchronized (this.monitor) {
+            entry = this.entries.get(key);
+            if (entry != null && entry.expiry <= System.nanoTime()) {
+                this.entries.remove(key);
+                entry = null;
+            }
+        }
+
+        byte[] transformedManifest = null;
+        if (entry != null) {
+            transformedManifest = entry.transformedManifest;
+            if (transformedManifest == null) {
+                transformedManifest = readPersistedEntry(key, entry);
+            }
+        }
+
+        if (transformedManifest != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return transformedManifest;
+    }
+
+    /**
+     * Caches a transformed manifest. A transformed manifest which depended on the installed bundles or the repository is
+     * discarded if the cache has been invalidated since the supplied generation was obtained.
+     *
+     * @param key the {@link #getKey(byte[]) key} of the transformed manifest
+     * @param transformedManifest the bytes of the transformed manifest
+     * @param repositoryDependent whether the transformation depended on the installed bundles or the repository
+     * @param generation the {@link #getGeneration() generation} obtained before the transformation began
+     */
+    void put(String key, byte[] transformedManifest, boolean repositoryDependent, long generation) {
+        Entry entry;
+        if (repositoryDependent) {
+            entry = new Entry(transformedManifest, System.nanoTime() + this.repositoryEntryLifetimeNanos, false);
+        } else {
+            entry = new Entry(transformedManifest, NO_EXPIRY, writePersistedEntry(key, transformedManifest));
+        }
+
+        List<String> evictedKeys;
+        synchronized (this.monitor) {
+            if (repositoryDependent && this.invalidations.get() != generation) {
+                return;
+            }
+            this.entries.put(key, entry);
+            evictedKeys = evictLeastRecentlyUsed();
+        }
+        deletePersistedEntries(evictedKeys);
+    }
+
+    /**
+     * Gets the current generation of the cache, which changes whenever the cache is invalidated. Obtain the generation
+     * before performing a transformation whose result is to be cached.
+     *
+     * @return the generation
+     */
+    long getGeneration() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        int type = event.getType();
+        if (type == BundleEvent.INSTALLED || type == BundleEvent.UPDATED || type == BundleEvent.UNINSTALLED) {
+            discardRepositoryDependentEntries();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void serviceChanged(ServiceEvent event) {
+        int type = event.getType();
+        if (type == ServiceEvent.MODIFIED || type == ServiceEvent.UNREGISTERING) {
+            discardRepositoryDependentEntries();
+        }
+    }
+
+    private void discardRepositoryDependentEntries() {
+        synchronized (this.monitor) {
+            this.invalidations.incrementAndGet();
+            Iterator<Entry> iterator = this.entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().persisted) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        List<String> keys;
+        synchronized (this.monitor) {
+            this.invalidations.incrementAndGet();
+            keys = new ArrayList<String>(this.entries.keySet());
+            this.entries.clear();
+        }
+        deletePersistedEntries(keys);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long hitCount = this.hits.get();
+        long lookups = hitCount + this.misses.get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSize() {
+        synchronized (this.monitor) {
+            return this.entries.size();
+        }
+    }
+
+    private List<String> evictLeastRecentlyUsed() {
+        List<String> evictedKeys = new ArrayList<String>();
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.entries.size() > this.maximumEntries && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getValue().persisted) {
+                evictedKeys.add(eldest.getKey());
+            }
+            iterator.remove();
+        }
+        return evictedKeys;
+    }
+
+    /**
+     * Indexes the entries persisted by a previous run, least recently used first, discarding any beyond the maximum.
+     * Their contents are read when they are first looked up.
+     */
+    private void indexPersistedEntries() {
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+
+        List<String> evictedKeys;
+        synchronized (this.monitor) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    this.entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), new Entry(null, NO_EXPIRY, true));
+                }
+            }
+            evictedKeys = evictLeastRecentlyUsed();
+        }
+        deletePersistedEntries(evictedKeys);
+    }
+
+    private byte[] readPersistedEntry(String key, Entry entry) {
+        File file = getPersistedEntryFile(key);
+        try {
+            byte[] transformedManifest = Files.readAllBytes(file.toPath());
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                this.logger.debug("Unable to record use of transformed manifest '{}'", file);
+            }
+            synchronized (this.monitor) {
+                if (this.entries.get(key) == entry) {
+                    this.entries.put(key, new Entry(transformedManifest, NO_EXPIRY, true));
+                }
+            }
+            return transformedManifest;
+        } catch (IOException ioe) {
+            this.logger.warn("Unable to read transformed manifest '" + file + "'", ioe);
+            synchronized (this.monitor) {
+                if (this.entries.get(key) == entry) {
+                    this.entries.remove(key);
+                }
+            }
+            return null;
+        }
+    }
+
+    private boolean writePersistedEntry(String key, byte[] transformedManifest) {
+        File file = getPersistedEntryFile(key);
+        File partFile = new File(this.directory, key + ".part");
+        try {
+            Files.write(partFile.toPath(), transformedManifest);
+            if (partFile.renameTo(file)) {
+                return true;
+            }
+            this.logger.warn("Unable to rename transformed manifest '{}' to '{}'", partFile, file);
+        } catch (IOException ioe) {
+            this.logger.warn("Unable to write transformed manifest '" + file + "'", ioe);
+        }
+        deleteFile(partFile);
+        return false;
+    }
+
+    private void deletePersistedEntries(List<String> keys) {
+        for (String key : keys) {
+            deleteFile(getPersistedEntryFile(key));
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            this.logger.warn("Unable to delete transformed manifest '{}'", file);
+        }
+    }
+
+    private File getPersistedEntryFile(String key) {
+        return new File(this.directory, key + ENTRY_SUFFIX);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * A cached transformed manifest. The bytes of a persisted entry indexed from a previous run are <code>null</code>
+     * until the entry is first looked up.
+     */
+    private static final class Entry {
+
+        private final byte[] transformedManifest;
+
+        private final long expiry;
+
+        private final boolean persisted;
+
+        private Entry(byte[] transformedManifest, long expiry, boolean persisted) {
+            this.transformedManifest = transformedManifest;
+            this.expiry = expiry;
+            this.persisted = persisted;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the {@link TransformedManifestCache}.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+@MXBean
+public interface TransformedManifestCacheStatisticsMXBean {
+
+    /**
+     * @return the number of transformed manifests that were served from the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of transformed manifests that were not found in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the ratio of hits to lookups, or <code>0</code> if there have been none
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of times the cache has been invalidated
+     */
+    long getInvalidations();
+
+    /**
+     * @return the number of entries in the cache
+     */
+    int getSize();
+
+    /**
+     * Discards all cached transformed manifests, including persisted ones.
+     */
+    void clear();
+}
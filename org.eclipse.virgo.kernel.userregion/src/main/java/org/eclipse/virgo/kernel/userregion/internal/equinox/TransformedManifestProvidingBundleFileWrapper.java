@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -40,6 +40,9 @@ import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
  * A <code>BundleFileWrapper</code> implementation that wraps {@link BundleFile BundleFiles} and replaces the manifest in the
  * <code>BundleFile</code> will one that has been transformed in memory.
  * <p />
+ * If a {@link TransformedManifestCache} is supplied, manifests which are not transformed by a pushed
+ * {@link ManifestTransformer} are served from the cache when possible, without being parsed or expanded.
+ * <p />
  *
  * <strong>Concurrent Semantics</strong><br />
  * Thread-safe.
@@ -51,9 +54,22 @@ public class TransformedManifestProvidingBundleFileWrapper implements BundleFile
     
     private final ThreadLocal<Stack<ManifestTransformer>> manifestTransformer;
     
+    private final TransformedManifestCache transformedManifestCache;
+    
     public TransformedManifestProvidingBundleFileWrapper(ImportExpander importExpander) {
+        this(importExpander, null);
+    }
+    
+    /**
+     * Creates a <code>TransformedManifestProvidingBundleFileWrapper</code> that caches transformed manifests in the
+     * supplied cache.
+     * 
+     * @param transformedManifestCache the cache, or <code>null</code> if transformed manifests are not to be cached
+     */
+    public TransformedManifestProvidingBundleFileWrapper(ImportExpander importExpander, TransformedManifestCache transformedManifestCache) {
         this.manifestTransformer = new ManifestTransformerStackThreadLocal();
         this.importExpander = importExpander;
+        this.transformedManifestCache = transformedManifestCache;
     }
 
     /** 
@@ -140,17 +156,37 @@ public class TransformedManifestProvidingBundleFileWrapper implements BundleFile
                             manifestTransformer = null;
                         }
                                               
-                        BundleManifest originalManifest;
+                        byte[] originalManifestBytes = readManifestBytes(entry);
                         
-                        if (entry != null) {
-                            try (InputStreamReader manifestReader = new InputStreamReader(entry.getInputStream(), UTF_8)) {
-                                originalManifest = BundleManifestFactory.createBundleManifest(manifestReader);
-                            } catch (IOException ioe) {
-                                throw new RuntimeException(ioe);
+                        // A pushed transformer is arbitrary code which cannot be keyed on, so its output is not cached
+                        TransformedManifestCache cache = null;
+                        
+                        if (manifestTransformer == null) {
+                            cache = TransformedManifestProvidingBundleFileWrapper.this.transformedManifestCache;
+                        }
+                        String key = null;
+                        
+                        if (cache != null) {
+                            key = cache.getKey(originalManifestBytes);
+                            byte[] cachedManifestBytes = cache.get(key);
+                            if (cachedManifestBytes != null) {
+                                this.manifestEntry = new TransformedManifestBundleEntry(cachedManifestBytes);
+                                return this.manifestEntry;
                             }
-                        } else {
-                            originalManifest = BundleManifestFactory.createBundleManifest();
-                        } 
+                        }
+                        
+                        long generation = cache == null ? 0 : cache.getGeneration();
+                        
+                        BundleManifest originalManifest;
+                        
+                        try (InputStreamReader manifestReader = new InputStreamReader(new ByteArrayInputStream(originalManifestBytes), UTF_8)) {
+                            originalManifest = BundleManifestFactory.createBundleManifest(manifestReader);
+                        } catch (IOException ioe) {
+                            throw new RuntimeException(ioe);
+                        }
+                        
+                        boolean repositoryDependent = !originalManifest.getImportBundle().getImportedBundles().isEmpty()
+                            || !originalManifest.getImportLibrary().getImportedLibraries().isEmpty();
                         
                         BundleManifest transformedManifest = originalManifest;
                         
@@ -164,11 +200,19 @@ public class TransformedManifestProvidingBundleFileWrapper implements BundleFile
                             throw new RuntimeException(utsde);
                         }
                         
+                        byte[] transformedManifestBytes;
+                        
                         try {
-                            this.manifestEntry = new TransformedManifestBundleEntry(transformedManifest);
+                            transformedManifestBytes = toBytes(transformedManifest);
                         } catch (IOException e) {
                             throw new RuntimeException(e);
-                        }                
+                        }
+                        
+                        if (cache != null) {
+                            cache.put(key, transformedManifestBytes, repositoryDependent, generation);
+                        }
+                        
+                        this.manifestEntry = new TransformedManifestBundleEntry(transformedManifestBytes);
                     }
                 }
                 
@@ -178,6 +222,23 @@ public class TransformedManifestProvidingBundleFileWrapper implements BundleFile
             }
         }
 
+        private byte[] readManifestBytes(BundleEntry entry) {
+            if (entry == null) {
+                return new byte[0];
+            }
+            try (InputStream in = entry.getInputStream()) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    baos.write(buffer, 0, read);
+                }
+                return baos.toByteArray();
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -232,17 +293,22 @@ public class TransformedManifestProvidingBundleFileWrapper implements BundleFile
         }
     }
     
+    private static byte[] toBytes(BundleManifest transformedManifest) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStreamWriter writer = new OutputStreamWriter(baos, UTF_8);
+        transformedManifest.write(writer);
+        writer.flush();
+        return baos.toByteArray();
+    }
+    
     private static class TransformedManifestBundleEntry extends BundleEntry {
         
         private final byte[] manifestBytes;
         
         private final long time;
         
-        private TransformedManifestBundleEntry(BundleManifest transformedManifest) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            transformedManifest.write(new OutputStreamWriter(baos, UTF_8));
-            
-            this.manifestBytes = baos.toByteArray();
+        private TransformedManifestBundleEntry(byte[] manifestBytes) {
+            this.manifestBytes = manifestBytes;
             
             time = System.currentTimeMillis();
         }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,12 +12,18 @@
 package org.eclipse.virgo.kernel.userregion.internal.equinox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.ExportPackageDescription;
@@ -26,11 +32,19 @@ import org.eclipse.osgi.service.resolver.ResolverError;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.osgi.service.resolver.VersionConstraint;
 import org.osgi.framework.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.eclipse.virgo.util.math.Sets;
 
 /**
  * Utility class for analysing uses failures in a given bundle.
+ * <p/>
+ * The exports of a {@link State} are indexed by package name once per state and the uses constraint closure of each
+ * candidate export is memoized for as long as the state is unchanged, so analysing several uses failures in the same
+ * state does not repeatedly scan every bundle. Analysis stops once {@link #getMaxConflicts() enough} conflicts have
+ * been found or when its time or size budget is exhausted, in which case the conflicts found so far are returned and
+ * the analysis is reported as incomplete.
  * 
  * <strong>Concurrent Semantics</strong><br/>
  * thread-safe
@@ -38,13 +52,64 @@ import org.eclipse.virgo.util.math.Sets;
  */
 public final class UsesAnalyser {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(UsesAnalyser.class);
+
+    private static final long DEFAULT_TIME_BUDGET_MILLIS = 5000;
+
+    private static final int DEFAULT_VISIT_BUDGET = 200000;
+
+    private static final int DEFAULT_MAX_CONFLICTS = 100;
+
+    private final long timeBudgetMillis;
+
+    private final int visitBudget;
+
+    private final int maxConflicts;
+
+    private volatile StateIndex stateIndex;
+
+    public UsesAnalyser() {
+        this(DEFAULT_TIME_BUDGET_MILLIS, DEFAULT_VISIT_BUDGET, DEFAULT_MAX_CONFLICTS);
+    }
+
+    /**
+     * Creates a <code>UsesAnalyser</code> with the given budget for each analysis.
+     * 
+     * @param timeBudgetMillis the maximum time, in milliseconds, to spend analysing a single uses failure
+     * @param visitBudget the maximum number of exports to visit when analysing a single uses failure
+     * @param maxConflicts the number of conflicts after which analysis of a single uses failure stops
+     */
+    public UsesAnalyser(long timeBudgetMillis, int visitBudget, int maxConflicts) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.visitBudget = visitBudget;
+        this.maxConflicts = maxConflicts;
+    }
+
+    public int getMaxConflicts() {
+        return this.maxConflicts;
+    }
+
     public AnalysedUsesConflict[] getUsesConflicts(State state, ResolverError usesError) {
+        return analyseUsesConflicts(state, usesError).getConflicts();
+    }
+
+    /**
+     * Analyses the given uses failure within the analyser's budget.
+     * 
+     * @param state the <code>State</code> in which resolution failed
+     * @param usesError the uses failure
+     * @return the conflicts found and whether the analysis was complete
+     */
+    public UsesConflictAnalysis analyseUsesConflicts(State state, ResolverError usesError) {
         VersionConstraint constraint = usesError.getUnsatisfiedConstraint();
 
         List<AnalysedUsesConflict> analysedUsesConflicts = new ArrayList<AnalysedUsesConflict>();
+        Budget budget = new Budget(this.timeBudgetMillis, this.visitBudget);
+        boolean truncated = false;
 
         if (constraint instanceof ImportPackageSpecification) {
             ImportPackageSpecification rootImport = (ImportPackageSpecification) constraint;
+            StateIndex index = getStateIndex(state);
 
             /*
              * Compute the exports visible from the failed bundle except via rootImport. This is the exports matching
@@ -52,26 +117,56 @@ public final class UsesAnalyser {
              * uses constraint closure of an export is those packages which are visible through transitive uses starting
              * with the export.
              */
-            PackageSources visiblePackages = generateExportPackagesVisibleInFailedBundle(state, rootImport);
+            PackageSources visiblePackages = generateExportPackagesVisibleInFailedBundle(index, rootImport, budget);
 
             /*
              * For each resolved export that satisfies rootImport, compute the uses constraint closure of the export and
              * add any that conflict with visiblePackages to the resultant set of uses conflicts.
              */
-            for (ExportPackageDescription exportPackage : getResolvedCandidateExports(state, rootImport)) {
-                PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(state, exportPackage);
+            for (ExportPackageDescription exportPackage : index.getResolvedCandidateExports(rootImport)) {
+                if (isAnalysisOver(analysedUsesConflicts, budget)) {
+                    truncated = true;
+                    break;
+                }
+                PackageSources usedPackages = getExportPackagesUsedViaExportPackage(index, exportPackage, budget);
                 analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
             }
 
             if (analysedUsesConflicts.isEmpty()) {
                 // Be more aggressive by exploring unresolved exports that satisfy rootImport.
-                for (ExportPackageDescription exportPackage : getUnresolvedCandidateExports(state, rootImport)) {
-                    PackageSources usedPackages = generateExportPackagesUsedViaExportPackage(state, exportPackage);
+                for (ExportPackageDescription exportPackage : index.getUnresolvedCandidateExports(rootImport)) {
+                    if (isAnalysisOver(analysedUsesConflicts, budget)) {
+                        truncated = true;
+                        break;
+                    }
+                    PackageSources usedPackages = getExportPackagesUsedViaExportPackage(index, exportPackage, budget);
                     analysedUsesConflicts.addAll(findConflictingExports(usedPackages, visiblePackages));
                 }
             }
         }
-        return analysedUsesConflicts.toArray(new AnalysedUsesConflict[analysedUsesConflicts.size()]);
+
+        if (analysedUsesConflicts.size() > this.maxConflicts) {
+            analysedUsesConflicts = analysedUsesConflicts.subList(0, this.maxConflicts);
+            truncated = true;
+        }
+        boolean complete = !budget.isExhausted() && !truncated;
+        if (budget.isExhausted()) {
+            LOGGER.warn("Analysis of uses constraint violation '{}' exceeded its budget and is incomplete", constraint);
+        }
+        return new UsesConflictAnalysis(analysedUsesConflicts.toArray(new AnalysedUsesConflict[analysedUsesConflicts.size()]), complete);
+    }
+
+    private boolean isAnalysisOver(List<AnalysedUsesConflict> analysedUsesConflicts, Budget budget) {
+        return budget.isExhausted() || analysedUsesConflicts.size() >= this.maxConflicts;
+    }
+
+    private StateIndex getStateIndex(State state) {
+        StateIndex index = this.stateIndex;
+        if (index == null || !index.isIndexOf(state)) {
+            index = new StateIndex(state);
+            this.stateIndex = index;
+        }
+        return index;
     }
 
     public ResolverError[] getUsesResolverErrors(State state, BundleDescription bundle) {
@@ -115,18 +210,28 @@ public final class UsesAnalyser {
         return false;
     }
 
-    private PackageSources generateExportPackagesUsedViaExportPackage(State state, ExportPackageDescription exportPackage) {
-        PackageSources usedPackages = constructEmptyPackageSources();
-        Set<String> knownPackages = new HashSet<String>();
-
-        addUsedImportedPackages(state, usedPackages, exportPackage, exportPackage, knownPackages);
+    /**
+     * Returns the uses constraint closure of the given export, memoized in the given index. A closure which was cut
+     * short by the budget is not memoized.
+     */
+    private PackageSources getExportPackagesUsedViaExportPackage(StateIndex index, ExportPackageDescription exportPackage, Budget budget) {
+        PackageSources usedPackages = index.usesClosures.get(exportPackage);
+        if (usedPackages == null) {
+            usedPackages = constructEmptyPackageSources();
+            Set<String> knownPackages = new HashSet<String>();
+
+            addUsedImportedPackages(index, usedPackages, exportPackage, exportPackage, knownPackages, budget);
+            if (!budget.isExhausted()) {
+                index.usesClosures.putIfAbsent(exportPackage, usedPackages);
+            }
+        }
         return usedPackages;
     }
 
-    private PackageSources generateExportPackagesVisibleInFailedBundle(State state, ImportPackageSpecification rootImport) {
-        PackageSources visiblePackages = getOtherImportedPackages(state, rootImport);
+    private PackageSources generateExportPackagesVisibleInFailedBundle(StateIndex index, ImportPackageSpecification rootImport, Budget budget) {
+        PackageSources visiblePackages = getOtherImportedPackages(index, rootImport);
 
-        visiblePackages.putAll(computeUsesClosure(state, visiblePackages));
+        visiblePackages.putAll(computeUsesClosure(index, visiblePackages, budget));
 
         BundleDescription failedBundle = rootImport.getBundle();
         visiblePackages.putAll(getExportedPackages(failedBundle));
@@ -134,7 +239,7 @@ public final class UsesAnalyser {
         return visiblePackages;
     }
 
-    private PackageSources computeUsesClosure(State state, PackageSources packages) {
+    private PackageSources computeUsesClosure(StateIndex index, PackageSources packages, Budget budget) {
         // Compute all the exports visible through transitive uses from directPackages
         PackageSources additionalPackages = constructEmptyPackageSources();
         Set<Entry<String, Set<SourcedPackage>>> keys = packages.entrySet();
@@ -144,92 +249,42 @@ public final class UsesAnalyser {
         for (Entry<String, Set<SourcedPackage>> key : keys) {
             for (SourcedPackage sp : key.getValue()) {
                 ExportPackageDescription source = sp.getSource();
-                addUsedImportedPackages(state, additionalPackages, source, source, knownPackages);
+                addUsedImportedPackages(index, additionalPackages, source, source, knownPackages, budget);
             }
         }
         return additionalPackages;
     }
 
-    private ExportPackageDescription[] getResolvedCandidateExports(State state, ImportPackageSpecification rootImport) {
-        List<ExportPackageDescription> exports = new ArrayList<ExportPackageDescription>();
-
-        BundleDescription[] bundles = state.getResolvedBundles();
-        if (bundles != null) {
-            for (BundleDescription bundle : bundles) {
-                for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
-                    if (rootImport.isSatisfiedBy(exportPackage)) {
-                        exports.add(exportPackage);
-                    }
-                }
-            }
-        }
-
-        return exports.toArray(new ExportPackageDescription[exports.size()]);
-    }
-
-    private ExportPackageDescription[] getUnresolvedCandidateExports(State state, ImportPackageSpecification rootImport) {
-        List<ExportPackageDescription> exports = new ArrayList<ExportPackageDescription>();
-
-        BundleDescription[] resolvedBundles = state.getResolvedBundles();
-
-        BundleDescription[] bundles = state.getBundles();
-        if (bundles != null) {
-            for (BundleDescription bundle : bundles) {
-                if (notInArray(bundle, resolvedBundles)) {
-                    for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
-                        if (rootImport.isSatisfiedBy(exportPackage)) {
-                            exports.add(exportPackage);
-                        }
-                    }
-                }
-            }
-        }
-
-        return exports.toArray(new ExportPackageDescription[exports.size()]);
-    }
-
-    private static final boolean notInArray(BundleDescription bundle, BundleDescription[] resolvedBundles) {
-        if (resolvedBundles == null)
-            return true;
-        for (BundleDescription b : resolvedBundles) {
-            if (b == bundle) {
-                return false;
-            }
+    private void addUsedImportedPackages(StateIndex index, PackageSources packages, ExportPackageDescription exportPackage,
+        ExportPackageDescription topDependency, Set<String> knownPackages, Budget budget) {
+        if (!budget.visit()) {
+            return;
         }
-        return true;
-    }
-
-    private void addUsedImportedPackages(State state, PackageSources packages, ExportPackageDescription exportPackage,
-        ExportPackageDescription topDependency, Set<String> knownPackages) {
         String[] packageNames = (String[]) exportPackage.getDirective(Constants.USES_DIRECTIVE);
         if (packageNames != null) {
-            BundleDescription bundle = exportPackage.getExporter();
-
-            ExportPackageDescription[] allExports = bundle.getExportPackages();
-            ImportPackageSpecification[] allImports = bundle.getImportPackages();
-            ExportPackageDescription[] allResolvedImports = bundle.getResolvedImports();
+            BundlePackages bundle = index.getBundlePackages(exportPackage.getExporter());
 
             for (String packageName : packageNames) {
-                ExportPackageDescription localExport = findExportPackageDescriptionInArray(allExports, packageName);
+                ExportPackageDescription localExport = bundle.exports.get(packageName);
                 if (null != localExport) {
                     packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localExport));
                 }
 
                 if (!knownPackages.contains(packageName)) {
-                    ExportPackageDescription localResolvedImport = findExportPackageDescriptionInArray(allResolvedImports, packageName);
+                    ExportPackageDescription localResolvedImport = bundle.resolvedImports.get(packageName);
                     if (null != localResolvedImport) {
                         knownPackages.add(packageName);
                         packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, localResolvedImport));
-                        addUsedImportedPackages(state, packages, localResolvedImport, topDependency, knownPackages);
+                        addUsedImportedPackages(index, packages, localResolvedImport, topDependency, knownPackages, budget);
                     } else {
-                        ImportPackageSpecification anImport = findImportPackageSpecificationInArray(allImports, packageName);
+                        ImportPackageSpecification anImport = bundle.imports.get(packageName);
                         if (anImport != null) {
-                            ExportPackageDescription[] matchingExports = getCandidateExports(state, anImport);
+                            ExportPackageDescription[] matchingExports = index.getCandidateExports(anImport);
                             if (matchingExports.length != 0) {
                                 knownPackages.add(packageName);
                                 for (ExportPackageDescription matchingExport : matchingExports) {
                                     packages.addPackageSource(packageName, new UsedBySourcedPackage(topDependency, matchingExport));
-                                    addUsedImportedPackages(state, packages, matchingExport, topDependency, knownPackages);
+                                    addUsedImportedPackages(index, packages, matchingExport, topDependency, knownPackages, budget);
                                 }
                             }
                         }
@@ -239,25 +294,7 @@ public final class UsesAnalyser {
         }
     }
 
-    private static final ImportPackageSpecification findImportPackageSpecificationInArray(ImportPackageSpecification[] allImports, String packageName) {
-        for (ImportPackageSpecification ips : allImports) {
-            if (packageName.equals(ips.getName())) {
-                return ips;
-            }
-        }
-        return null;
-    }
-
-    private static final ExportPackageDescription findExportPackageDescriptionInArray(ExportPackageDescription[] allExports, String packageName) {
-        for (ExportPackageDescription epd : allExports) {
-            if (packageName.equals(epd.getName())) {
-                return epd;
-            }
-        }
-        return null;
-    }
-
-    private PackageSources getOtherImportedPackages(State state, ImportPackageSpecification rootImport) {
+    private PackageSources getOtherImportedPackages(StateIndex index, ImportPackageSpecification rootImport) {
         BundleDescription bundle = rootImport.getBundle();
 
         PackageSources packages = constructEmptyPackageSources();
@@ -266,7 +303,7 @@ public final class UsesAnalyser {
         for (ImportPackageSpecification importSpecification : importSpecifications) {
             if (rootImport != importSpecification) {
                 if (!Constants.RESOLUTION_OPTIONAL.equals(importSpecification.getDirective(Constants.RESOLUTION_DIRECTIVE))) {
-                    ExportPackageDescription[] exportPackages = getCandidateExports(state, importSpecification);
+                    ExportPackageDescription[] exportPackages = index.getCandidateExports(importSpecification);
                     for (ExportPackageDescription exportPackage : exportPackages) {
                         packages.addPackageSource(exportPackage.getName(), new ImportedSourcedPackage(rootImport, exportPackage));
                     }
@@ -276,13 +313,6 @@ public final class UsesAnalyser {
         return packages;
     }
 
-    private ExportPackageDescription[] getCandidateExports(State state, ImportPackageSpecification importSpecification) {
-        ExportPackageDescription[] pkgs = getResolvedCandidateExports(state, importSpecification);
-        if (pkgs.length == 0)
-            pkgs = getUnresolvedCandidateExports(state, importSpecification);
-        return pkgs;
-    }
-
     private PackageSources getExportedPackages(BundleDescription bundle) {
         ExportPackageDescription[] packageArray = bundle.getExportPackages();
         PackageSources packages = constructEmptyPackageSources();
@@ -293,6 +323,219 @@ public final class UsesAnalyser {
         return packages;
     }
 
+    /**
+     * The outcome of analysing a uses failure.
+     */
+    public static final class UsesConflictAnalysis {
+
+        private final AnalysedUsesConflict[] conflicts;
+
+        private final boolean complete;
+
+        private UsesConflictAnalysis(AnalysedUsesConflict[] conflicts, boolean complete) {
+            this.conflicts = conflicts;
+            this.complete = complete;
+        }
+
+        public AnalysedUsesConflict[] getConflicts() {
+            return this.conflicts.clone();
+        }
+
+        /**
+         * Returns <code>false</code> if analysis stopped before all conflicts were found, either because enough
+         * conflicts were found or because the analysis budget was exhausted.
+         * 
+         * @return whether the analysis was complete
+         */
+        public boolean isComplete() {
+            return this.complete;
+        }
+    }
+
+    /**
+     * The time and the number of export visits remaining for a single analysis.
+     * <p/>
+     * <strong>Concurrent Semantics</strong><br/>
+     * not thread-safe
+     */
+    private static final class Budget {
+
+        private static final int TIME_CHECK_INTERVAL = 256;
+
+        private final long deadline;
+
+        private int remainingVisits;
+
+        private boolean exhausted;
+
+        private Budget(long timeBudgetMillis, int visitBudget) {
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+            this.remainingVisits = visitBudget;
+        }
+
+        /**
+         * Records a visit and returns <code>false</code> if the budget is exhausted.
+         */
+        private boolean visit() {
+            if (this.exhausted) {
+                return false;
+            }
+            this.remainingVisits--;
+            if (this.remainingVisits < 0 || (this.remainingVisits % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - this.deadline > 0)) {
+                this.exhausted = true;
+            }
+            return !this.exhausted;
+        }
+
+        private boolean isExhausted() {
+            return this.exhausted;
+        }
+    }
+
+    /**
+     * An index of the exports of a {@link State}, built in a single pass over the state's bundles, together with the
+     * uses constraint closures computed while the state is unchanged.
+     * <p/>
+     * <strong>Concurrent Semantics</strong><br/>
+     * thread-safe
+     */
+    private static final class StateIndex {
+
+        private final State state;
+
+        private final long timeStamp;
+
+        private final Map<String, List<ExportPackageDescription>> resolvedExports = new LinkedHashMap<String, List<ExportPackageDescription>>();
+
+        private final Map<String, List<ExportPackageDescription>> unresolvedExports = new LinkedHashMap<String, List<ExportPackageDescription>>();
+
+        private final ConcurrentMap<BundleDescription, BundlePackages> bundlePackages = new ConcurrentHashMap<BundleDescription, BundlePackages>();
+
+        private final ConcurrentMap<ExportPackageDescription, PackageSources> usesClosures = new ConcurrentHashMap<ExportPackageDescription, PackageSources>();
+
+        private StateIndex(State state) {
+            this.state = state;
+            this.timeStamp = state.getTimeStamp();
+
+            Set<BundleDescription> resolvedBundles = Collections.newSetFromMap(new IdentityHashMap<BundleDescription, Boolean>());
+            BundleDescription[] bundles = state.getResolvedBundles();
+            if (bundles != null) {
+                for (BundleDescription bundle : bundles) {
+                    resolvedBundles.add(bundle);
+                    index(this.resolvedExports, bundle);
+                }
+            }
+
+            bundles = state.getBundles();
+            if (bundles != null) {
+                for (BundleDescription bundle : bundles) {
+                    if (!resolvedBundles.contains(bundle)) {
+                        index(this.unresolvedExports, bundle);
+                    }
+                }
+            }
+        }
+
+        private static void index(Map<String, List<ExportPackageDescription>> exports, BundleDescription bundle) {
+            for (ExportPackageDescription exportPackage : bundle.getExportPackages()) {
+                List<ExportPackageDescription> exporters = exports.get(exportPackage.getName());
+                if (exporters == null) {
+                    exporters = new ArrayList<ExportPackageDescription>(1);
+                    exports.put(exportPackage.getName(), exporters);
+                }
+                exporters.add(exportPackage);
+            }
+        }
+
+        private boolean isIndexOf(State state) {
+            return this.state == state && this.timeStamp == state.getTimeStamp();
+        }
+
+        private ExportPackageDescription[] getCandidateExports(ImportPackageSpecification importSpecification) {
+            ExportPackageDescription[] pkgs = getResolvedCandidateExports(importSpecification);
+            if (pkgs.length == 0)
+                pkgs = getUnresolvedCandidateExports(importSpecification);
+            return pkgs;
+        }
+
+        private ExportPackageDescription[] getResolvedCandidateExports(ImportPackageSpecification importSpecification) {
+            return getCandidateExports(this.resolvedExports, importSpecification);
+        }
+
+        private ExportPackageDescription[] getUnresolvedCandidateExports(ImportPackageSpecification importSpecification) {
+            return getCandidateExports(this.unresolvedExports, importSpecification);
+        }
+
+        private static ExportPackageDescription[] getCandidateExports(Map<String, List<ExportPackageDescription>> exports,
+            ImportPackageSpecification importSpecification) {
+            List<ExportPackageDescription> candidates = new ArrayList<ExportPackageDescription>();
+            String packageName = importSpecification.getName();
+            if (packageName == null || packageName.indexOf('*') >= 0) {
+                // Wildcard dynamic imports may match exports of any package.
+                for (List<ExportPackageDescription> exporters : exports.values()) {
+                    addSatisfyingExports(candidates, exporters, importSpecification);
+                }
+            } else {
+                List<ExportPackageDescription> exporters = exports.get(packageName);
+                if (exporters != null) {
+                    addSatisfyingExports(candidates, exporters, importSpecification);
+                }
+            }
+            return candidates.toArray(new ExportPackageDescription[candidates.size()]);
+        }
+
+        private static void addSatisfyingExports(List<ExportPackageDescription> candidates, List<ExportPackageDescription> exporters,
+            ImportPackageSpecification importSpecification) {
+            for (ExportPackageDescription exportPackage : exporters) {
+                if (importSpecification.isSatisfiedBy(exportPackage)) {
+                    candidates.add(exportPackage);
+                }
+            }
+        }
+
+        private BundlePackages getBundlePackages(BundleDescription bundle) {
+            BundlePackages packages = this.bundlePackages.get(bundle);
+            if (packages == null) {
+                packages = new BundlePackages(bundle);
+                this.bundlePackages.putIfAbsent(bundle, packages);
+            }
+            return packages;
+        }
+    }
+
+    /**
+     * The exports, resolved imports, and import specifications of a bundle, keyed by package name. Where a bundle
+     * has more than one for a package name, the first is used.
+     */
+    private static final class BundlePackages {
+
+        private final Map<String, ExportPackageDescription> exports;
+
+        private final Map<String, ExportPackageDescription> resolvedImports;
+
+        private final Map<String, ImportPackageSpecification> imports = new HashMap<String, ImportPackageSpecification>();
+
+        private BundlePackages(BundleDescription bundle) {
+            this.exports = byName(bundle.getExportPackages());
+            this.resolvedImports = byName(bundle.getResolvedImports());
+            for (ImportPackageSpecification importSpecification : bundle.getImportPackages()) {
+                if (!this.imports.containsKey(importSpecification.getName())) {
+                    this.imports.put(importSpecification.getName(), importSpecification);
+                }
+            }
+        }
+
+        private static Map<String, ExportPackageDescription> byName(ExportPackageDescription[] exportPackages) {
+            Map<String, ExportPackageDescription> byName = new HashMap<String, ExportPackageDescription>();
+            for (ExportPackageDescription exportPackage : exportPackages) {
+                if (!byName.containsKey(exportPackage.getName())) {
+                    byName.put(exportPackage.getName(), exportPackage);
+                }
+            }
+            return byName;
+        }
+    }
+
     private final static String stringOf(ExportPackageDescription source) {
         BundleDescription bundle = source.getSupplier();
         StringBuilder sb = new StringBuilder("'");
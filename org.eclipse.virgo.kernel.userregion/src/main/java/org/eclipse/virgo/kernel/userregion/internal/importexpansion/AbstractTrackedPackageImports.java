@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,14 +12,18 @@
 package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.virgo.kernel.osgi.framework.ImportMergeException;
 
 import org.eclipse.virgo.nano.serviceability.Assert;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.eclipse.virgo.util.osgi.manifest.ImportPackage;
 import org.eclipse.virgo.util.osgi.manifest.VersionRange;
 import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
 import org.eclipse.virgo.util.osgi.manifest.Resolution;
@@ -27,10 +31,18 @@ import org.eclipse.virgo.util.osgi.manifest.Resolution;
 /**
  * {@link AbstractTrackedPackageImports} provides the general implementations of {@link TrackedPackageImports}.
  * <p />
+ * The merged package imports, the sources merged so far, and any merge failure are held together in an immutable
+ * {@link State} which is replaced as a whole on each merge. A published state, and every {@link ImportedPackage} it
+ * refers to, is never modified, so a merge can share unchanged package imports with the states it was built from and
+ * readers never need to lock. Package imports are copied into the state when an instance is created and when a merge
+ * changes them, and are handed out without copying.
+ * <p />
  * 
  * <strong>Concurrent Semantics</strong><br />
  * 
- * This class is thread safe.
+ * This class is thread safe. Merges are applied with compare-and-set on the current state and are retried if another
+ * merge into the same instance wins the race. No monitors are held, so concurrent merges of overlapping instances
+ * cannot deadlock.
  * 
  */
 abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
@@ -43,20 +55,7 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
 
     private static final String BUNDLE_VERSION_ATTRIBUTE_NAME = "bundle-version";
 
-    private static final Object tieMonitor = new Object(); // locking for hash clashes in isEquivalent
-
-    private final Object monitor = new Object();
-
-    /**
-     * The current merged package imports are held as a map of package name to {@link ImportedPackage}. Each package
-     * import contains one and only one imported package name which corresponds to the package name used to index the
-     * package import in the map. The map is valid if and only if mergeException is <code>null</code>.
-     */
-    protected final Map<String, ImportedPackage> mergedPackageImports = new HashMap<String, ImportedPackage>();
-
-    private ImportMergeException mergeException = null;
-
-    protected final List<TrackedPackageImports> sources = new ArrayList<TrackedPackageImports>();
+    private final AtomicReference<State> state;
 
     /**
      * Construct an {@link AbstractTrackedPackageImports} from the given package imports.
@@ -64,47 +63,100 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * @param initialPackageImports a map of package name to {@link ImportedPackage}
      */
     AbstractTrackedPackageImports(Map<String, ImportedPackage> packageImports) {
-        this.mergedPackageImports.putAll(packageImports);
+        this.state = new AtomicReference<State>(new State(snapshotOf(packageImports), null, null));
     }
 
     /**
      * {@inheritDoc}
      */
     public void merge(TrackedPackageImports importsToMerge) throws ImportMergeException {
-        synchronized (this.monitor) {
-            checkMergeException();
+        Map<String, ImportedPackage> packageImportsToMerge = getPackageImports(importsToMerge);
+        while (true) {
+            State currentState = this.state.get();
+            currentState.checkMergeException();
+
+            // Add the new imports before merging so they are included in any diagnostics.
+            Sources sources = new Sources(importsToMerge, currentState.sources);
+            State mergedState;
+            ImportMergeException mergeException = null;
             try {
-                // Add the new imports before merging so they are included in any diagnostics.
-                sources.add(importsToMerge);
-                doMerge(importsToMerge);
+                mergedState = new State(doMerge(currentState.packageImports, packageImportsToMerge, sources), sources, null);
             } catch (ImportMergeException e) {
-                this.mergeException = e;
-                throw e;
+                mergedState = new State(currentState.packageImports, sources, e);
+                mergeException = e;
+            }
+
+            if (this.state.compareAndSet(currentState, mergedState)) {
+                if (mergeException != null) {
+                    throw mergeException;
+                }
+                return;
             }
         }
     }
 
     /**
-     * Merge the given package imports into this collection of package imports. If there is a conflict, issue
-     * diagnostics and throw {@link ImportMergeException}.
+     * Get the current package imports of the given {@link TrackedPackageImports}. If there has been a conflict, throw
+     * {@link ImportMergeException}.
+     * 
+     * @param trackedPackageImports the package imports to be read
+     * @return an immutable map of package name to {@link ImportedPackage}
+     * @throws ImportMergeException thrown if and only if there has been a conflict
+     */
+    private static Map<String, ImportedPackage> getPackageImports(TrackedPackageImports trackedPackageImports) throws ImportMergeException {
+        if (trackedPackageImports instanceof AbstractTrackedPackageImports) {
+            State otherState = ((AbstractTrackedPackageImports) trackedPackageImports).state.get();
+            otherState.checkMergeException();
+            return otherState.packageImports;
+        }
+        return snapshotOf(convertImportedPackageListToMap(trackedPackageImports.getMergedImports()));
+    }
+
+    /**
+     * Merge the given package imports into the given current package imports and return the result. If there is a
+     * conflict, issue diagnostics and throw {@link ImportMergeException}.
      * <p />
-     * Pre-condition: the monitor is held and the current merged imports have no conflicts.
+     * Neither input map is modified. Package imports which the merge does not change are shared with the result.
      * 
-     * @param importsToMerge
+     * @param currentPackageImports the current, conflict free, package imports
+     * @param packageImportsToMerge the package imports to be merged in
+     * @param sources the sources to use in diagnostics
+     * @return an immutable map of the merged package imports
      * @throws ImportMergeException
      */
-    private void doMerge(TrackedPackageImports importsToMerge) throws ImportMergeException {
-        List<ImportedPackage> mergedImportsToMerge = importsToMerge.getMergedImports();
-        for (ImportedPackage packageImportToMerge : mergedImportsToMerge) {
+    private Map<String, ImportedPackage> doMerge(Map<String, ImportedPackage> currentPackageImports,
+        Map<String, ImportedPackage> packageImportsToMerge, Sources sources) throws ImportMergeException {
+        if (packageImportsToMerge.isEmpty() || packageImportsToMerge == currentPackageImports) {
+            return currentPackageImports;
+        }
+        if (currentPackageImports.isEmpty()) {
+            return packageImportsToMerge;
+        }
+
+        Map<String, ImportedPackage> mergedPackageImports = null;
+        ImportPackage copies = null;
+        for (ImportedPackage packageImportToMerge : packageImportsToMerge.values()) {
             String pkg = packageImportToMerge.getPackageName();
-            ImportedPackage mergedPackageImport = this.mergedPackageImports.get(pkg);
-            if (mergedPackageImport == null) {
-                this.mergedPackageImports.put(pkg, packageImportToMerge);
+            ImportedPackage currentPackageImport = currentPackageImports.get(pkg);
+            ImportedPackage mergedPackageImport;
+            if (currentPackageImport == null) {
+                mergedPackageImport = packageImportToMerge;
+            } else if (currentPackageImport == packageImportToMerge || currentPackageImport.equals(packageImportToMerge)) {
+                continue;
             } else {
-                mergePackageImport(mergedPackageImport, packageImportToMerge);
+                if (copies == null) {
+                    copies = createImportPackage();
+                }
+                mergedPackageImport = copyInto(copies, currentPackageImport);
+                mergePackageImport(mergedPackageImport, packageImportToMerge, sources);
+            }
+            if (mergedPackageImports == null) {
+                mergedPackageImports = new HashMap<String, ImportedPackage>(currentPackageImports);
             }
+            mergedPackageImports.put(pkg, mergedPackageImport);
         }
 
+        return mergedPackageImports == null ? currentPackageImports : Collections.unmodifiableMap(mergedPackageImports);
     }
 
     /**
@@ -113,10 +165,12 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * 
      * @param targetPackageImport the package import to be merged and updated
      * @param sourceImportToMerge the package import to be merged in
+     * @param sources the sources to use in diagnostics
      * @throws ImportMergeException thrown if there is a merge clash
      */
-    private void mergePackageImport(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge) throws ImportMergeException {
-        mergeAttributes(targetPackageImport, sourceImportToMerge);
+    private void mergePackageImport(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge, Sources sources)
+        throws ImportMergeException {
+        mergeAttributes(targetPackageImport, sourceImportToMerge, sources);
         mergeDirectives(targetPackageImport, sourceImportToMerge);
 
     }
@@ -127,9 +181,11 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * 
      * @param targetPackageImport the package import to be merged and updated
      * @param sourceImportToMerge the package import to be merged in
+     * @param sources the sources to use in diagnostics
      * @throws ImportMergeException thrown if there is a merge clash
      */
-    private void mergeAttributes(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge) throws ImportMergeException {
+    private void mergeAttributes(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge, Sources sources)
+        throws ImportMergeException {
         Map<String, String> targetAttributes = targetPackageImport.getAttributes();
         Map<String, String> sourceAttributes = sourceImportToMerge.getAttributes();
 
@@ -141,7 +197,7 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
                 String targetAttributeValue = targetAttributes.get(sourceAttributeName);
                 if (targetAttributeValue != null) {
                     if (!targetAttributeValue.equals(sourceAttributeValue)) {
-                        throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport),
+                        throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport, sources),
                             "conflicting values '" + sourceAttributeValue + "', '" + targetAttributeValue + "' of attribute '" + sourceAttributeName
                             + "'");
                     }
@@ -151,9 +207,9 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
             }
         }
         
-        mergeVersionRanges(targetPackageImport, sourceImportToMerge);
+        mergeVersionRanges(targetPackageImport, sourceImportToMerge, sources);
 
-        mergeBundleVersionRanges(targetPackageImport, sourceImportToMerge);
+        mergeBundleVersionRanges(targetPackageImport, sourceImportToMerge, sources);
     }
 
     /**
@@ -162,9 +218,11 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * 
      * @param targetPackageImport the package import to be merged and updated
      * @param sourceAttributes
+     * @param sources the sources to use in diagnostics
      * @throws ImportMergeException
      */
-    private void mergeVersionRanges(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge) throws ImportMergeException {
+    private void mergeVersionRanges(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge, Sources sources)
+        throws ImportMergeException {
         Map<String, String> sourceAttributes = sourceImportToMerge.getAttributes();
         VersionRange sourceVersionRange = getVersionRange(sourceAttributes);
         if (sourceVersionRange != null) {
@@ -176,7 +234,7 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
             } else {
                 mergedVersionRange = VersionRange.intersection(sourceVersionRange, targetVersionRange);
                 if (mergedVersionRange.isEmpty()) {
-                    throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport),
+                    throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport, sources),
                         "disjoint package version ranges");
                 }
             }
@@ -204,9 +262,11 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * 
      * @param targetPackageImport the package import to be merged and updated
      * @param sourceAttributes
+     * @param sources the sources to use in diagnostics
      * @throws ImportMergeException
      */
-    private void mergeBundleVersionRanges(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge) throws ImportMergeException {
+    private void mergeBundleVersionRanges(ImportedPackage targetPackageImport, ImportedPackage sourceImportToMerge, Sources sources)
+        throws ImportMergeException {
         VersionRange sourceVersionRange = sourceImportToMerge.getBundleVersion();
 
         // Map<String, String> targetAttributes = targetPackageImport.getAttributes();
@@ -217,7 +277,7 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
         } else {
             mergedVersionRange = VersionRange.intersection(sourceVersionRange, targetVersionRange);
             if (mergedVersionRange.isEmpty()) {
-                throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport),
+                throw new ImportMergeException(targetPackageImport.getPackageName(), getPackageSources(targetPackageImport, sources),
                     "disjoint bundle version ranges " + sourceVersionRange.toString() + " and " + targetVersionRange.toString());
             }
         }
@@ -253,61 +313,59 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
      * the root cause of a conflicting merge.
      * 
      * @param pkg the package whose sources are required
+     * @param sources the sources merged so far, including any merge in progress
      * @return a string describing the given package's sources
      */
-    private String getPackageSources(ImportedPackage packageImport) {
-        return getSources(packageImport.getPackageName());
+    private String getPackageSources(ImportedPackage packageImport, Sources sources) {
+        return getSources(packageImport.getPackageName(), sources);
     }
 
     /**
      * {@inheritDoc}
      */
     public String getSources(String pkg) {
-        synchronized (this.monitor) {
-            StringBuilder sourcesDescription = new StringBuilder();
-            boolean first = true;
-            String source = getSource(pkg);
-            if (source != null) {
-                sourcesDescription.append(source);
-                first = false;
-            }
-            for (TrackedPackageImports trackedPackageImports : this.sources) {
-                String sources = trackedPackageImports.getSources(pkg);
-                if (sources != null) {
-                    if (!first) {
-                        sourcesDescription.append(SOURCE_SEPARATOR);
-                    }
-                    sourcesDescription.append(sources);
-                    first = false;
-                }
-            }
-            return first ? null : sourcesDescription.toString();
-        }
+        return getSources(pkg, this.state.get().sources);
     }
 
     /**
-     * {@inheritDoc}
+     * Get a string describing the sources of the given package in this collection, given the sources merged so far.
+     * Return <code>null</code> if there are no sources in this collection.
+     * 
+     * @param pkg the name of the package whose sources are required
+     * @param sources the sources merged so far, most recent first
+     * @return a description of the sources or <code>null</code> if there are no sources
      */
-    public final List<ImportedPackage> getMergedImports() throws ImportMergeException {
-        synchronized (this.monitor) {
-            checkMergeException();
-            List<ImportedPackage> mergedImports = new ArrayList<ImportedPackage>();
-            for (ImportedPackage packageImport : this.mergedPackageImports.values()) {
-                mergedImports.add(packageImport);
+    String getSources(String pkg, Sources sources) {
+        StringBuilder sourcesDescription = new StringBuilder();
+        boolean first = true;
+        String source = getSource(pkg);
+        if (source != null) {
+            sourcesDescription.append(source);
+            first = false;
+        }
+        for (TrackedPackageImports trackedPackageImports : Sources.inMergeOrder(sources)) {
+            String trackedSources = trackedPackageImports.getSources(pkg);
+            if (trackedSources != null) {
+                if (!first) {
+                    sourcesDescription.append(SOURCE_SEPARATOR);
+                }
+                sourcesDescription.append(trackedSources);
+                first = false;
             }
-            return mergedImports;
         }
+        return first ? null : sourcesDescription.toString();
     }
 
     /**
-     * If a merge failure has occurred, re-throw the {@link ImportMergeException}.
-     * 
-     * @throws ImportMergeException
+     * {@inheritDoc}
+     * <p />
+     * The returned package imports are shared with this collection and must not be modified. Use
+     * {@link #copyInto(ImportPackage, ImportedPackage)} to add modifiable copies to a bundle manifest.
      */
-    private void checkMergeException() throws ImportMergeException {
-        if (this.mergeException != null) {
-            throw this.mergeException;
-        }
+    public final List<ImportedPackage> getMergedImports() throws ImportMergeException {
+        State currentState = this.state.get();
+        currentState.checkMergeException();
+        return new ArrayList<ImportedPackage>(currentState.packageImports.values());
     }
 
     /**
@@ -327,13 +385,55 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
         return initialPackageImports;
     }
 
+    /**
+     * Take an immutable snapshot of the given map of package imports. The package imports are copied so that later
+     * changes to the originals, for example by further manifest processing, cannot leak into published state.
+     * 
+     * @param packageImports a map of package name to {@link ImportedPackage}
+     * @return an immutable copy of the given map
+     */
+    private static Map<String, ImportedPackage> snapshotOf(Map<String, ImportedPackage> packageImports) {
+        if (packageImports.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        ImportPackage copies = createImportPackage();
+        Map<String, ImportedPackage> snapshot = new HashMap<String, ImportedPackage>(packageImports.size() * 2);
+        for (Entry<String, ImportedPackage> entry : packageImports.entrySet()) {
+            snapshot.put(entry.getKey(), copyInto(copies, entry.getValue()));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Create an empty, detached Import-Package header to hold copies of package imports. Copies made together share
+     * one header rather than each creating a bundle manifest.
+     * 
+     * @return an empty <code>ImportPackage</code>
+     */
+    private static ImportPackage createImportPackage() {
+        return BundleManifestFactory.createBundleManifest().getImportPackage();
+    }
+
+    /**
+     * Add a copy of the given package import, with the same attributes and directives, to the given Import-Package
+     * header.
+     * 
+     * @param importPackage the header to add the copy to
+     * @param importedPackage the package import to copy
+     * @return the copy of the given package import
+     */
+    static ImportedPackage copyInto(ImportPackage importPackage, ImportedPackage importedPackage) {
+        ImportedPackage copy = importPackage.addImportedPackage(importedPackage.getPackageName());
+        copy.getAttributes().putAll(importedPackage.getAttributes());
+        copy.getDirectives().putAll(importedPackage.getDirectives());
+        return copy;
+    }
+
     /**
      * {@inheritDoc}
      */
     public boolean isEmpty() {
-        synchronized (this.monitor) {
-            return this.mergedPackageImports.isEmpty();
-        }
+        return this.state.get().packageImports.isEmpty();
     }
 
     /**
@@ -347,30 +447,91 @@ abstract class AbstractTrackedPackageImports implements TrackedPackageImports {
         Assert.isInstanceOf(AbstractTrackedPackageImports.class, otherTrackedPackageImports,
             "otherTrackedPackageImports must be of type AbstractTrackedPackageImports");
         AbstractTrackedPackageImports otherAbstractTrackedPackageImports = (AbstractTrackedPackageImports) otherTrackedPackageImports;
-        // Lock the object monitors in a predictable order to avoid deadlocks.
-        // Use hash to determine ordering, and tieMonitor (static monitor) when hashes coincide.
-        int thisHash = System.identityHashCode(this);
-        int otherHash = System.identityHashCode(otherTrackedPackageImports);
-        if (thisHash > otherHash) {
-            synchronized (this.monitor) {
-                synchronized (otherAbstractTrackedPackageImports.monitor) {
-                    return this.mergedPackageImports.equals(otherAbstractTrackedPackageImports.mergedPackageImports);
-                }
+        return this.state.get().packageImports.equals(otherAbstractTrackedPackageImports.state.get().packageImports);
+    }
+
+    /**
+     * An immutable snapshot of a {@link AbstractTrackedPackageImports}. The package imports are valid if and only if
+     * <code>mergeException</code> is <code>null</code>.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * This class is immutable and therefore thread safe.
+     * 
+     */
+    private static final class State {
+
+        /**
+         * A map of package name to {@link ImportedPackage}. Each package import contains one and only one imported
+         * package name which corresponds to the package name used to index the package import in the map.
+         */
+        private final Map<String, ImportedPackage> packageImports;
+
+        private final Sources sources;
+
+        private final ImportMergeException mergeException;
+
+        private State(Map<String, ImportedPackage> packageImports, Sources sources, ImportMergeException mergeException) {
+            this.packageImports = packageImports;
+            this.sources = sources;
+            this.mergeException = mergeException;
+        }
+
+        /**
+         * If a merge failure has occurred, re-throw the {@link ImportMergeException}.
+         * 
+         * @throws ImportMergeException
+         */
+        private void checkMergeException() throws ImportMergeException {
+            if (this.mergeException != null) {
+                throw this.mergeException;
             }
-        } else if (thisHash < otherHash) {
-            synchronized (otherAbstractTrackedPackageImports.monitor) {
-                synchronized (this.monitor) {
-                    return this.mergedPackageImports.equals(otherAbstractTrackedPackageImports.mergedPackageImports);
-                }
+        }
+    }
+
+    /**
+     * A persistent list of the {@link TrackedPackageImports} merged into a collection, most recent first. Appending a
+     * source shares the whole of the existing list.
+     * <p />
+     * 
+     * <strong>Concurrent Semantics</strong><br />
+     * 
+     * This class is immutable and therefore thread safe.
+     * 
+     */
+    static final class Sources {
+
+        private final TrackedPackageImports head;
+
+        private final Sources tail;
+
+        private final int size;
+
+        private Sources(TrackedPackageImports head, Sources tail) {
+            this.head = head;
+            this.tail = tail;
+            this.size = tail == null ? 1 : tail.size + 1;
+        }
+
+        /**
+         * Return the given sources in the order in which they were merged.
+         * 
+         * @param sources the sources, possibly <code>null</code>
+         * @return the sources, least recent first
+         */
+        private static List<TrackedPackageImports> inMergeOrder(Sources sources) {
+            if (sources == null) {
+                return Collections.emptyList();
             }
-        } else {
-            synchronized (tieMonitor) {
-                synchronized (otherAbstractTrackedPackageImports.monitor) {
-                    synchronized (this.monitor) {
-                        return this.mergedPackageImports.equals(otherAbstractTrackedPackageImports.mergedPackageImports);
-                    }
-                }
+            TrackedPackageImports[] ordered = new TrackedPackageImports[sources.size];
+            int index = ordered.length;
+            for (Sources current = sources; current != null; current = current.tail) {
+                ordered[--index] = current.head;
             }
+            List<TrackedPackageImports> result = new ArrayList<TrackedPackageImports>(ordered.length);
+            Collections.addAll(result, ordered);
+            return result;
         }
     }
 
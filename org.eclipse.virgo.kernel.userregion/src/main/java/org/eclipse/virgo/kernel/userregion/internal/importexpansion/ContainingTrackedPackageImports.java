@@ -47,8 +47,8 @@ final class ContainingTrackedPackageImports extends AdditionalTrackedPackageImpo
      * {@inheritDoc}
      */
     @Override
-    public String getSources(String pkg) {
-        return this.containingSource + "(" + super.getSources(pkg) + ")";
+    String getSources(String pkg, Sources sources) {
+        return this.containingSource + "(" + super.getSources(pkg, sources) + ")";
     }
 
     /**
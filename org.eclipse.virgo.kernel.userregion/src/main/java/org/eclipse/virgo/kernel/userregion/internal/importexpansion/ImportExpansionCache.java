@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.SynchronousBundleListener;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.math.OrderedPair;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * A cache of the bundle and library lookups performed by {@link ImportExpansionHandler} when expanding
+ * <code>Import-Bundle</code> and <code>Import-Library</code> headers, keyed by symbolic name and version range.
+ * <p/>
+ * Bundles found among the installed bundles are cached until a bundle is installed, updated, or uninstalled. Bundles
+ * and libraries found in the repository are cached for at most {@value #REPOSITORY_ENTRY_LIFETIME_SECONDS} seconds,
+ * matching the default interval at which watched repositories check for changes, and are discarded when the repository
+ * service is modified or unregistered. Failed lookups are never cached.
+ * <p/>
+ * Register the cache as a bundle listener and as a service listener for the repository service to receive
+ * invalidation events. The cache belongs to the region whose bundle context it listens to.
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * This class is <strong>thread-safe</strong>.
+ * 
+ */
+public final class ImportExpansionCache implements SynchronousBundleListener, ServiceListener, ImportExpansionCacheStatisticsMXBean {
+
+    private static final long REPOSITORY_ENTRY_LIFETIME_SECONDS = 5;
+
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final ConcurrentMap<Key, Entry<OrderedPair<BundleManifest, Boolean>>> bundles = new ConcurrentHashMap<Key, Entry<OrderedPair<BundleManifest, Boolean>>>();
+
+    private final ConcurrentMap<Key, Entry<ArtifactDescriptor>> libraries = new ConcurrentHashMap<Key, Entry<ArtifactDescriptor>>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Gets the cached result of looking up the bundle with the supplied symbolic name and version range.
+     * 
+     * @return the manifest of the bundle paired with whether it requires diagnosis, or <code>null</code> if there is no
+     *         cached result
+     */
+    OrderedPair<BundleManifest, Boolean> getBundle(String symbolicName, VersionRange versionRange) {
+        return get(this.bundles, new Key(symbolicName, versionRange));
+    }
+
+    /**
+     * Caches the result of looking up a bundle. The result is discarded if the cache has been invalidated since the
+     * supplied generation was obtained.
+     * 
+     * @param fromRepository whether the bundle was found in the repository rather than among the installed bundles
+     * @param generation the {@link #getGeneration() generation} obtained before the lookup began
+     */
+    void putBundle(String symbolicName, VersionRange versionRange, OrderedPair<BundleManifest, Boolean> bundle, boolean fromRepository,
+        long generation) {
+        put(this.bundles, new Key(symbolicName, versionRange), new Entry<OrderedPair<BundleManifest, Boolean>>(bundle, expiry(fromRepository)),
+            generation);
+    }
+
+    /**
+     * Gets the cached result of looking up the library with the supplied symbolic name and version range in the
+     * repository.
+     * 
+     * @return the library's artifact descriptor, or <code>null</code> if there is no cached result
+     */
+    ArtifactDescriptor getLibrary(String symbolicName, VersionRange versionRange) {
+        return get(this.libraries, new Key(symbolicName, versionRange));
+    }
+
+    /**
+     * Caches the result of looking up a library in the repository. The result is discarded if the cache has been
+     * invalidated since the supplied generation was obtained.
+     * 
+     * @param generation the {@link #getGeneration() generation} obtained before the lookup began
+     */
+    void putLibrary(String symbolicName, VersionRange versionRange, ArtifactDescriptor library, long generation) {
+        put(this.libraries, new Key(symbolicName, versionRange), new Entry<ArtifactDescriptor>(library, expiry(true)), generation);
+    }
+
+    /**
+     * Gets the current generation of the cache, which changes whenever the cache is invalidated. Obtain the generation
+     * before performing a lookup whose result is to be cached.
+     * 
+     * @return the generation
+     */
+    long getGeneration() {
+        return this.invalidations.get();
+    }
+
+    private <T> void put(ConcurrentMap<Key, Entry<T>> cache, Key key, Entry<T> entry, long generation) {
+        if (this.invalidations.get() == generation) {
+            cache.put(key, entry);
+            if (this.invalidations.get() != generation) {
+                cache.remove(key, entry);
+            }
+        }
+    }
+
+    private <T> T get(ConcurrentMap<Key, Entry<T>> cache, Key key) {
+        Entry<T> entry = cache.get(key);
+        if (entry != null) {
+            if (entry.expiry > System.nanoTime()) {
+                this.hits.incrementAndGet();
+                return entry.value;
+            }
+            cache.remove(key, entry);
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    private static long expiry(boolean fromRepository) {
+        return fromRepository ? System.nanoTime() + TimeUnit.SECONDS.toNanos(REPOSITORY_ENTRY_LIFETIME_SECONDS) : NO_EXPIRY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bundleChanged(BundleEvent event) {
+        int type = event.getType();
+        if (type == BundleEvent.INSTALLED || type == BundleEvent.UPDATED || type == BundleEvent.UNINSTALLED) {
+            this.bundles.clear();
+            this.invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void serviceChanged(ServiceEvent event) {
+        int type = event.getType();
+        if (type == ServiceEvent.MODIFIED || type == ServiceEvent.UNREGISTERING) {
+            clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        this.bundles.clear();
+        this.libraries.clear();
+        this.invalidations.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long hitCount = this.hits.get();
+        long lookups = hitCount + this.misses.get();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSize() {
+        return this.bundles.size() + this.libraries.size();
+    }
+
+    private static final class Entry<T> {
+
+        private final T value;
+
+        private final long expiry;
+
+        private Entry(T value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    private static final class Key {
+
+        private final String symbolicName;
+
+        private final String versionRange;
+
+        private Key(String symbolicName, VersionRange versionRange) {
+            this.symbolicName = symbolicName;
+            this.versionRange = versionRange.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.symbolicName.hashCode() + this.versionRange.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.symbolicName.equals(other.symbolicName) && this.versionRange.equals(other.versionRange);
+        }
+    }
+}
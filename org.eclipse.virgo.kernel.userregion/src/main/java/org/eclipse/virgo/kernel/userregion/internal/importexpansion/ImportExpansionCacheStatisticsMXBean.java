@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import javax.management.MXBean;
+
+/**
+ * Management view of the {@link ImportExpansionCache}.<p/>
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Implementations <strong>must</strong> be threadsafe.
+ * 
+ */
+@MXBean
+public interface ImportExpansionCacheStatisticsMXBean {
+
+    /**
+     * @return the number of bundle and library lookups that were satisfied from the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of bundle and library lookups that were not satisfied from the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the ratio of hits to lookups, or <code>0</code> if there have been none
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of times the cache has been invalidated
+     */
+    long getInvalidations();
+
+    /**
+     * @return the number of entries in the cache
+     */
+    int getSize();
+
+    /**
+     * Discards all cached lookups.
+     */
+    void clear();
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.eclipse.osgi.framework.internal.core.BundleRepository;
 import org.osgi.framework.Bundle;
@@ -47,6 +48,7 @@ import org.eclipse.virgo.util.osgi.manifest.BundleSymbolicName;
 import org.eclipse.virgo.util.osgi.manifest.ExportedPackage;
 import org.eclipse.virgo.util.osgi.manifest.ImportedBundle;
 import org.eclipse.virgo.util.osgi.manifest.ImportedLibrary;
+import org.eclipse.virgo.util.osgi.manifest.ImportPackage;
 import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
 import org.eclipse.virgo.util.osgi.manifest.Resolution;
 
@@ -55,6 +57,10 @@ import org.eclipse.virgo.util.osgi.manifest.Resolution;
  * bundle manifest into <code>Import-Package</code> header entries.
  * <p/>
  * 
+ * Bundle and library lookups may be cached in an {@link ImportExpansionCache}, so that applications importing the same
+ * bundles and libraries through many bundles resolve each of them once.
+ * <p/>
+ * 
  * <strong>Concurrent Semantics</strong><br />
  * This class is <strong>thread-safe</strong>.
  * 
@@ -83,16 +89,44 @@ public final class ImportExpansionHandler implements ImportExpander {
 
     private final EventLogger eventLogger;
 
+    private final ImportExpansionCache cache;
+
     public ImportExpansionHandler(Repository repository, Set<String> packagesExportedBySystemBundle, EventLogger eventLogger) {
         this(repository, null, packagesExportedBySystemBundle, eventLogger);
     }
 
     public ImportExpansionHandler(Repository repository, BundleContext bundleContext, Set<String> packagesExportedBySystemBundle,
         EventLogger eventLogger) {
+        this(repository, bundleContext, packagesExportedBySystemBundle, eventLogger, null);
+    }
+
+    /**
+     * Creates an <code>ImportExpansionHandler</code> that caches bundle and library lookups in the supplied cache.
+     * 
+     * @param cache the lookup cache, or <code>null</code> if lookups are not to be cached
+     */
+    public ImportExpansionHandler(Repository repository, BundleContext bundleContext, Set<String> packagesExportedBySystemBundle,
+        EventLogger eventLogger, ImportExpansionCache cache) {
         this.repository = repository;
         this.bundleContext = bundleContext;
         this.packagesExportedBySystemBundle = packagesExportedBySystemBundle;
         this.eventLogger = eventLogger;
+        this.cache = cache;
+    }
+
+    /**
+     * Describes the configuration which influences import expansion, other than the installed bundles and the contents
+     * of the repository: the packages exported by the system bundle and the repository in use.
+     * 
+     * @return a description of the expansion configuration
+     */
+    public String getExpansionIdentity() {
+        String repositoryName = this.repository == null ? null : this.repository.getName();
+        StringBuilder identity = new StringBuilder(String.valueOf(repositoryName));
+        for (String packageName : new TreeSet<String>(this.packagesExportedBySystemBundle)) {
+            identity.append(',').append(packageName);
+        }
+        return identity.toString();
     }
 
     /**
@@ -465,8 +499,12 @@ public final class ImportExpansionHandler implements ImportExpander {
      * @param bundleTrackedPackageImports the <code>TrackedPackageImports</code> containing the merged imports
      */
     private void setMergedImports(BundleManifest bundleManifest, TrackedPackageImports bundleTrackedPackageImports) {
-        bundleManifest.getImportPackage().getImportedPackages().clear();
-        bundleManifest.getImportPackage().getImportedPackages().addAll(bundleTrackedPackageImports.getMergedImports());
+        List<ImportedPackage> mergedImports = bundleTrackedPackageImports.getMergedImports();
+        ImportPackage importPackage = bundleManifest.getImportPackage();
+        importPackage.getImportedPackages().clear();
+        for (ImportedPackage mergedImport : mergedImports) {
+            AbstractTrackedPackageImports.copyInto(importPackage, mergedImport);
+        }
     }
 
     /**
@@ -487,6 +525,14 @@ public final class ImportExpansionHandler implements ImportExpander {
 
         // prefer bundles from the supplied list
         BundleManifest bundleManifest = findMatchingManifest(bundleSymbolicName, versionRange, additionalManifests);
+        if (bundleManifest == null && this.cache != null) {
+            OrderedPair<BundleManifest, Boolean> cached = this.cache.getBundle(bundleSymbolicName, versionRange);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long generation = this.cache == null ? 0 : this.cache.getGeneration();
+        boolean fromRepository = false;
 
         if (bundleManifest == null && this.bundleContext != null) {
             Bundle[] installedBundles = this.bundleContext.getBundles();
@@ -505,6 +551,7 @@ public final class ImportExpansionHandler implements ImportExpander {
             ArtifactDescriptor artefact = findArtifactDescriptorForBundle(bundleSymbolicName, versionRange);
             if (artefact != null) {
                 diagnose = true;
+                fromRepository = true;
                 bundleManifest = BundleManifestFactory.createBundleManifest(BundleBridge.convertToDictionary(artefact));
             }
         }
@@ -516,7 +563,12 @@ public final class ImportExpansionHandler implements ImportExpander {
             this.logger.info("Could not find definition for bundle with symbolic name '{}' and version range '{}'", bundleSymbolicName, versionRange);
         }
 
-        return new OrderedPair<BundleManifest, Boolean>(bundleManifest, diagnose);
+        OrderedPair<BundleManifest, Boolean> result = new OrderedPair<BundleManifest, Boolean>(bundleManifest, diagnose);
+        if (diagnose && this.cache != null) {
+            // only bundles found among the installed bundles or in the repository are cached
+            this.cache.putBundle(bundleSymbolicName, versionRange, result, fromRepository, generation);
+        }
+        return result;
     }
 
     /**
@@ -547,7 +599,18 @@ public final class ImportExpansionHandler implements ImportExpander {
     }
 
     private ArtifactDescriptor findArtifactDescriptorForLibrary(String librarySymbolicName, VersionRange versionRange) {
-        return this.repository.get(LibraryDefinition.LIBRARY_TYPE, librarySymbolicName, versionRange);
+        if (this.cache == null) {
+            return this.repository.get(LibraryDefinition.LIBRARY_TYPE, librarySymbolicName, versionRange);
+        }
+        ArtifactDescriptor library = this.cache.getLibrary(librarySymbolicName, versionRange);
+        if (library == null) {
+            long generation = this.cache.getGeneration();
+            library = this.repository.get(LibraryDefinition.LIBRARY_TYPE, librarySymbolicName, versionRange);
+            if (library != null) {
+                this.cache.putLibrary(librarySymbolicName, versionRange, library, generation);
+            }
+        }
+        return library;
     }
 
     /**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -63,6 +63,8 @@ public interface TrackedPackageImports {
 
     /**
      * Get the merged package imports. If there has been a conflict, throw {@link ImportMergeException}.
+     * <p />
+     * The returned package imports may be shared with this collection and must not be modified.
      * 
      * @return the merged package imports
      * @throws ImportMergeException thrown if and only if there has been a conflict
@@ -19,40 +19,45 @@ import java.util.zip.ZipException;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
-import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
+import org.eclipse.virgo.kernel.userregion.internal.management.StateDumpCache.LoadedDump;
 
 /**
  *   
  * MBean that allows for the exploration of state dumps using the QuasiFramework
+ * <p />
+ * Each dump is extracted and loaded once and then served from a bounded cache until it is modified or evicted, and its
+ * unresolved bundle failures are diagnosed once.
  */
 public class JMXQuasiStateDump implements StateDumpMXBean {
-	
-	private final QuasiFrameworkFactory quasiFrameworkFactory;
+
+	private static final int DEFAULT_CACHED_DUMPS = 4;
+
+	private final StateDumpCache stateDumpCache;
 
 	public JMXQuasiStateDump(QuasiFrameworkFactory quasiFrameworkFactory) {
-		this.quasiFrameworkFactory = quasiFrameworkFactory;
+		this(quasiFrameworkFactory, DEFAULT_CACHED_DUMPS);
+	}
+
+	public JMXQuasiStateDump(QuasiFrameworkFactory quasiFrameworkFactory, int cachedDumps) {
+		this.stateDumpCache = new StateDumpCache(quasiFrameworkFactory, cachedDumps);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public JMXQuasiResolutionFailure[] getUnresolvedBundleFailures(String dumpFile) {
-		QuasiFramework quasiFramework = this.getQuasiFramework(dumpFile);
-		List<JMXQuasiResolutionFailure> fails = new ArrayList<JMXQuasiResolutionFailure>();
-		List<QuasiBundle> bundles = quasiFramework.getBundles();
-		for (QuasiBundle quasiBundle : bundles) {
-			if(!quasiBundle.isResolved()){
-				List<QuasiResolutionFailure> diagnoses = quasiFramework.diagnose(quasiBundle.getBundleId());
-				if(diagnoses != null){
-					for (QuasiResolutionFailure quasiResolutionFailure : diagnoses) {
-						if(quasiResolutionFailure != null){
-							fails.add(new JMXQuasiResolutionFailure(quasiResolutionFailure));
-						}
-					}
-				}
-			}
+		try {
+			JMXQuasiResolutionFailure[] unresolvedBundleFailures;
+			do {
+				// A dump discarded by a concurrent request is never loaded again, so retry with its replacement
+				unresolvedBundleFailures = this.getDump(dumpFile).getUnresolvedBundleFailures();
+			} while (unresolvedBundleFailures == null);
+			return unresolvedBundleFailures;
+		} catch (ZipException e) {
+			throw new RuntimeException("Unable to extract the state dump: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading the state dump: " + e.getMessage(), e);
 		}
-		return fails.toArray(new JMXQuasiResolutionFailure[fails.size()]);
 	}
 
 	/**
@@ -80,16 +85,31 @@ public class JMXQuasiStateDump implements StateDumpMXBean {
 		return new JMXQuasiBundle(quasiBundle);
 	}
 
+	/**
+	 * Discards all cached state dumps.
+	 */
+	public void clearCache() {
+		this.stateDumpCache.clear();
+	}
+
 	private QuasiFramework getQuasiFramework(String dumpFile){
+		try {
+			QuasiFramework quasiFramework;
+			do {
+				quasiFramework = this.getDump(dumpFile).getQuasiFramework();
+			} while (quasiFramework == null);
+			return quasiFramework;
+		} catch (ZipException e) {
+			throw new RuntimeException("Unable to extract the state dump: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading the state dump: " + e.getMessage(), e);
+		}
+	}
+
+	private LoadedDump getDump(String dumpFile){
 		File dumpDir = new File(dumpFile);
 		if(dumpDir.exists() && dumpDir.isDirectory()){
-			try {
-				return this.quasiFrameworkFactory.create(dumpDir);
-			} catch (ZipException e) {
-				throw new RuntimeException("Unable to extract the state dump: " + e.getMessage(), e);
-			} catch (IOException e) {
-				throw new RuntimeException("Error reading the state dump: " + e.getMessage(), e);
-			}
+			return this.stateDumpCache.getDump(dumpDir);
 		}
 		throw new RuntimeException("Not a valid dump directory: " + dumpFile);
 	}
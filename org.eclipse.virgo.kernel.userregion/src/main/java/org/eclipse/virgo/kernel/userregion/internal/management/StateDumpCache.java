@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.management;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.ZipException;
+
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiResolutionFailure;
+import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
+
+/**
+ * A bounded cache of the {@link QuasiFramework}s created from state dumps, keyed by dump directory and the time the
+ * dump was last modified. The least recently used dump is discarded when the cache is full. The resolution failures of
+ * a dump are diagnosed once, on first request.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread safe.
+ * 
+ */
+final class StateDumpCache {
+
+	private final Object monitor = new Object();
+
+	private final QuasiFrameworkFactory quasiFrameworkFactory;
+
+	private final int capacity;
+
+	private final LinkedHashMap<String, LoadedDump> dumps = new LinkedHashMap<String, LoadedDump>(16, 0.75f, true);
+
+	StateDumpCache(QuasiFrameworkFactory quasiFrameworkFactory, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("State dump cache capacity must be at least 1");
+		}
+		this.quasiFrameworkFactory = quasiFrameworkFactory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the loaded dump for the given dump directory, replacing any cached dump that has since been modified.
+	 * 
+	 * @param dumpDir the dump directory
+	 * @return the <code>LoadedDump</code>
+	 */
+	LoadedDump getDump(File dumpDir) {
+		String key = dumpDir.getAbsolutePath();
+		long lastModified = lastModified(dumpDir);
+		List<LoadedDump> discarded = new ArrayList<LoadedDump>();
+		LoadedDump dump;
+		synchronized (this.monitor) {
+			dump = this.dumps.get(key);
+			if (dump == null || dump.lastModified != lastModified) {
+				if (dump != null) {
+					discarded.add(dump);
+				}
+				dump = new LoadedDump(dumpDir, lastModified);
+				this.dumps.put(key, dump);
+				Iterator<Entry<String, LoadedDump>> eldest = this.dumps.entrySet().iterator();
+				while (this.dumps.size() > this.capacity) {
+					discarded.add(eldest.next().getValue());
+					eldest.remove();
+				}
+			}
+		}
+		for (LoadedDump discardedDump : discarded) {
+			discardedDump.destroy();
+		}
+		return dump;
+	}
+
+	int size() {
+		synchronized (this.monitor) {
+			return this.dumps.size();
+		}
+	}
+
+	/**
+	 * Discards all cached dumps.
+	 */
+	void clear() {
+		List<LoadedDump> discarded;
+		synchronized (this.monitor) {
+			discarded = new ArrayList<LoadedDump>(this.dumps.values());
+			this.dumps.clear();
+		}
+		for (LoadedDump discardedDump : discarded) {
+			discardedDump.destroy();
+		}
+	}
+
+	private static long lastModified(File dumpDir) {
+		return Math.max(dumpDir.lastModified(), new File(dumpDir, DumpExtractor.STATE_DUMP_FILE_NAME).lastModified());
+	}
+
+	/**
+	 * A state dump which is loaded into a {@link QuasiFramework} on first use. Once the dump has been discarded from the
+	 * cache it is destroyed and is never loaded again, so a caller holding a discarded dump must fetch a fresh one from
+	 * the cache.
+	 */
+	final class LoadedDump {
+
+		private final File dumpDir;
+
+		private final long lastModified;
+
+		// Each version of a dump is extracted to its own staging directory, so only loads of the same dump are serialised
+		private final Object loadMonitor = new Object();
+
+		private boolean destroyed;
+
+		private QuasiFramework quasiFramework;
+
+		private JMXQuasiResolutionFailure[] unresolvedBundleFailures;
+
+		private LoadedDump(File dumpDir, long lastModified) {
+			this.dumpDir = dumpDir;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Returns the <code>QuasiFramework</code> of this dump, loading it if necessary.
+		 * 
+		 * @return the <code>QuasiFramework</code>, or <code>null</code> if this dump has been discarded from the cache
+		 * @throws ZipException if the dump cannot be extracted
+		 * @throws IOException if the dump cannot be read
+		 */
+		QuasiFramework getQuasiFramework() throws ZipException, IOException {
+			synchronized (this.loadMonitor) {
+				if (this.destroyed) {
+					return null;
+				}
+				if (this.quasiFramework == null) {
+					this.quasiFramework = StateDumpCache.this.quasiFrameworkFactory.create(this.dumpDir);
+				}
+				return this.quasiFramework;
+			}
+		}
+
+		/**
+		 * Returns the resolution failures of this dump, diagnosing them on first request.
+		 * 
+		 * @return the resolution failures, or <code>null</code> if this dump has been discarded from the cache
+		 * @throws ZipException if the dump cannot be extracted
+		 * @throws IOException if the dump cannot be read
+		 */
+		JMXQuasiResolutionFailure[] getUnresolvedBundleFailures() throws ZipException, IOException {
+			synchronized (this.loadMonitor) {
+				QuasiFramework framework = getQuasiFramework();
+				if (framework == null) {
+					return null;
+				}
+				if (this.unresolvedBundleFailures == null) {
+					this.unresolvedBundleFailures = diagnose(framework);
+				}
+				return this.unresolvedBundleFailures.clone();
+			}
+		}
+
+		private JMXQuasiResolutionFailure[] diagnose(QuasiFramework framework) {
+			List<JMXQuasiResolutionFailure> fails = new ArrayList<JMXQuasiResolutionFailure>();
+			for (QuasiBundle quasiBundle : framework.getBundles()) {
+				if (!quasiBundle.isResolved()) {
+					List<QuasiResolutionFailure> diagnoses = framework.diagnose(quasiBundle.getBundleId());
+					if (diagnoses != null) {
+						for (QuasiResolutionFailure quasiResolutionFailure : diagnoses) {
+							if (quasiResolutionFailure != null) {
+								fails.add(new JMXQuasiResolutionFailure(quasiResolutionFailure));
+							}
+						}
+					}
+				}
+			}
+			return fails.toArray(new JMXQuasiResolutionFailure[fails.size()]);
+		}
+
+		private void destroy() {
+			QuasiFramework framework;
+			synchronized (this.loadMonitor) {
+				this.destroyed = true;
+				framework = this.quasiFramework;
+				this.quasiFramework = null;
+			}
+			if (framework != null) {
+				framework.destroy();
+			}
+		}
+	}
+}
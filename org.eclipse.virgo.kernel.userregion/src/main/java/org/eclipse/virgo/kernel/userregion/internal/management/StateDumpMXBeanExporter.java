@@ -33,14 +33,17 @@ public class StateDumpMXBeanExporter {
 
 	private ObjectInstance registeredMBean;
 
+	private final JMXQuasiStateDump stateDump;
+
     /**
      * 
      * @param serverHome
      */
 	public StateDumpMXBeanExporter(QuasiFrameworkFactory quasiFrameworkFactory) {
+		this.stateDump = new JMXQuasiStateDump(quasiFrameworkFactory);
 		try {
 			ObjectName dumpMBeanName = new ObjectName(String.format("%s:type=Medic,name=StateDumpInspector", DOMAIN));
-			registeredMBean = this.server.registerMBean(new JMXQuasiStateDump(quasiFrameworkFactory), dumpMBeanName);
+			registeredMBean = this.server.registerMBean(this.stateDump, dumpMBeanName);
 		} catch (Exception e) {
 			logger.error("Unable to register the DumpInspectorMBean", e);
 		} 
@@ -59,5 +62,6 @@ public class StateDumpMXBeanExporter {
 				logger.error("Unable to unregister MBean", e);
 			} 
 		}
+		this.stateDump.clearCache();
 	}
 }
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.management;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports an MXBean that publishes user region statistics under
+ * <code>org.eclipse.virgo.kernel:type=Statistics,name=&lt;name&gt;</code>.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread-safe.
+ * 
+ */
+public final class StatisticsMXBeanExporter {
+
+    private static final String DOMAIN = "org.eclipse.virgo.kernel";
+
+    private final Logger logger = LoggerFactory.getLogger(StatisticsMXBeanExporter.class);
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private volatile ObjectInstance registeredMBean;
+
+    /**
+     * @param name the value of the <code>name</code> key of the MXBean's <code>ObjectName</code>
+     * @param mxBean the MXBean to export
+     */
+    public StatisticsMXBeanExporter(String name, Object mxBean) {
+        try {
+            ObjectName objectName = new ObjectName(String.format("%s:type=Statistics,name=%s", DOMAIN, name));
+            this.registeredMBean = this.server.registerMBean(mxBean, objectName);
+        } catch (Exception e) {
+            logger.error("Unable to register the " + name + " statistics MBean", e);
+        }
+    }
+
+    /**
+     * Unregisters the exported MXBean, if it was successfully registered.
+     */
+    public void close() {
+        ObjectInstance localRegisteredMBean = this.registeredMBean;
+        if (localRegisteredMBean != null) {
+            try {
+                this.server.unregisterMBean(localRegisteredMBean.getObjectName());
+                this.registeredMBean = null;
+            } catch (Exception e) {
+                logger.error("Unable to unregister MBean", e);
+            }
+        }
+    }
+}
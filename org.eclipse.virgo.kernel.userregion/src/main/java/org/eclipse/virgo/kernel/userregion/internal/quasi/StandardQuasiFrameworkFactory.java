@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,11 +32,8 @@ import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
 import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.TransformedManifestProvidingBundleFileWrapper;
 import org.eclipse.virgo.repository.Repository;
-import org.eclipse.virgo.util.io.FileSystemUtils;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * {@link StandardQuasiFrameworkFactory} is the default implementation of {@link QuasiFrameworkFactory}.
@@ -49,8 +46,6 @@ import org.slf4j.LoggerFactory;
  */
 public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactory {
 
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
-
     private final BundleContext bundleContext;
 
     private final PlatformAdmin platformAdmin;
@@ -141,29 +136,15 @@ public final class StandardQuasiFrameworkFactory implements QuasiFrameworkFactor
         return state;
     }
 
-    private State readStateDump(File outdir) {
-        State state = null;
+    private State readStateDump(File stateDirectory) {
+        State state;
 
+        // The state directory belongs to the dump extractor, which reuses it for later loads of the same dump
         try {
             StateObjectFactory sof = this.platformAdmin.getFactory();
-            state = sof.readState(outdir);
+            state = sof.readState(stateDirectory);
         } catch (IOException e) {
             throw new RuntimeException("Unable to read resolver state", e);
-        } finally {
-            try { // delete all state files written to this directory
-                if (outdir.isDirectory()) {
-                    for (String filename : FileSystemUtils.list(outdir)) {
-                        File file = new File(outdir, filename);
-                        if (!file.delete()) {
-                            this.logger.warn("Temporary file '{}' not deleted", file.getAbsolutePath());
-                        }
-                    }
-                }
-            } finally {
-                if (!outdir.delete() && outdir.exists()) {
-                    this.logger.warn("Temporary state directory '{}' was not removed after use.", outdir.getAbsolutePath());
-                }
-            }
         }
 
         if (state.getResolver() == null) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,6 +29,7 @@ import org.eclipse.osgi.service.resolver.VersionConstraint;
 import org.eclipse.osgi.service.resolver.VersionRange;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser.AnalysedUsesConflict;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser.UsesConflictAnalysis;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 
@@ -241,14 +242,22 @@ public final class StandardResolutionFailureDetective implements ResolutionFailu
         sb.append("Uses violation: <").append(unsatisfiedConstraint).append("> in bundle <").append(bundle).append("[").append(bundle.getBundleId()).append(
             "]").append(">\n");
 
-        AnalysedUsesConflict[] usesConflicts = this.usesAnalyser.getUsesConflicts(state, resolverError);
-        if (usesConflicts == null || usesConflicts.length == 0) {
+        UsesConflictAnalysis usesConflictAnalysis = this.usesAnalyser.analyseUsesConflicts(state, resolverError);
+        AnalysedUsesConflict[] usesConflicts = usesConflictAnalysis.getConflicts();
+        if (usesConflicts.length == 0) {
             indent(sb, 3);
             sb.append(" Resolver reported uses conflict for import");
             formatConstraintAttributes(sb, unsatisfiedConstraint);
         } else {
             formatConflictsFound(sb, usesConflicts);
         }
+        if (!usesConflictAnalysis.isComplete()) {
+            if (sb.charAt(sb.length() - 1) != '\n') {
+                sb.append("\n");
+            }
+            indent(sb, 3);
+            sb.append("Analysis stopped early; further conflicts may exist.\n");
+        }
     }
 
     private void formatMissingConstraintWithAttributes(ResolverError resolverError, StringBuilder sb, VersionConstraint unsatisfiedConstraint) {
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.userregion.internal;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+
+import org.eclipse.virgo.kernel.install.artifact.ScopeServiceRepository;
+import org.eclipse.virgo.nano.shim.scope.Scope;
+import org.eclipse.virgo.nano.shim.scope.ScopeFactory;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
+
+/**
+ * Scopes the result of <code>getServiceReferences</code> for consumers in each of {@value #SCOPE_COUNT} scoped
+ * applications which between them publish {@value #SERVICE_COUNT} services.
+ */
+public class ServiceScopingStrategyMultipleScopesTests {
+
+    private static final int SCOPE_COUNT = 4;
+
+    private static final int SERVICE_COUNT = 40;
+
+    private static final int LOOKUPS_PER_CONSUMER = 3;
+
+    private static final String CLASS_NAME = "Class";
+
+    @Test
+    public void consumersSeeOnlyTheServicesOfTheirScope() throws Exception {
+        final Map<ServiceReference<?>, Scope> serviceScopes = new HashMap<ServiceReference<?>, Scope>();
+        final AtomicInteger serviceScopeDeterminations = new AtomicInteger();
+
+        List<Scope> scopes = new ArrayList<Scope>();
+        for (int s = 0; s < SCOPE_COUNT; s++) {
+            Scope scope = createMock(Scope.class);
+            expect(scope.isGlobal()).andReturn(false).anyTimes();
+            expect(scope.getScopeName()).andReturn("application-" + s).anyTimes();
+            replay(scope);
+            scopes.add(scope);
+        }
+
+        List<ServiceReference<?>> serviceReferences = new ArrayList<ServiceReference<?>>();
+        for (int r = 0; r < SERVICE_COUNT; r++) {
+            ServiceReference<?> serviceReference = createMock(ServiceReference.class);
+            expect(serviceReference.getBundle()).andReturn(new StubBundle()).anyTimes();
+            replay(serviceReference);
+            serviceReferences.add(serviceReference);
+            serviceScopes.put(serviceReference, scopes.get(r % SCOPE_COUNT));
+        }
+
+        ScopeFactory scopeFactory = createMock(ScopeFactory.class);
+        expect(scopeFactory.getServiceScope(isA(ServiceReference.class))).andAnswer(new IAnswer<Scope>() {
+
+            public Scope answer() throws Throwable {
+                serviceScopeDeterminations.incrementAndGet();
+                return serviceScopes.get(EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+
+        List<StubBundleContext> consumers = new ArrayList<StubBundleContext>();
+        for (int s = 0; s < SCOPE_COUNT; s++) {
+            StubBundleContext consumer = new StubBundleContext();
+            expect(scopeFactory.getBundleScope(eq(consumer.getBundle()))).andReturn(scopes.get(s)).anyTimes();
+            consumers.add(consumer);
+        }
+
+        ScopeServiceRepository scopeServiceRepository = createMock(ScopeServiceRepository.class);
+        expect(scopeServiceRepository.scopeHasMatchingService(isA(String.class), eq(CLASS_NAME), (String) anyObject())).andReturn(true).anyTimes();
+        replay(scopeFactory, scopeServiceRepository);
+
+        ServiceScopingStrategy serviceScopingStrategy = new ServiceScopingStrategy(scopeFactory, scopeServiceRepository);
+
+        for (int l = 0; l < LOOKUPS_PER_CONSUMER; l++) {
+            for (int s = 0; s < SCOPE_COUNT; s++) {
+                HashSet<ServiceReference<?>> references = new HashSet<ServiceReference<?>>(serviceReferences);
+                serviceScopingStrategy.scopeReferences(references, consumers.get(s), CLASS_NAME, null);
+                Assert.assertEquals(SERVICE_COUNT / SCOPE_COUNT, references.size());
+                for (ServiceReference<?> reference : references) {
+                    Assert.assertSame(scopes.get(s), serviceScopes.get(reference));
+                }
+            }
+        }
+
+        // Each service's scope is determined once and then reused for every lookup
+        Assert.assertEquals(SERVICE_COUNT, serviceScopeDeterminations.get());
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,16 +16,22 @@ import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
 
 import org.eclipse.virgo.kernel.install.artifact.ScopeServiceRepository;
@@ -33,6 +39,7 @@ import org.eclipse.virgo.kernel.install.artifact.ScopeServiceRepository;
 import org.eclipse.virgo.nano.shim.scope.Scope;
 import org.eclipse.virgo.nano.shim.scope.ScopeFactory;
 import org.eclipse.virgo.kernel.userregion.internal.ServiceScopingStrategy;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
 import org.eclipse.virgo.test.stubs.framework.StubBundleContext;
 
 /**
@@ -87,6 +94,7 @@ public class ServiceScopingStrategyTests {
 
     private void setUpScopedServiceReference() {
         this.scopedServiceReference = createMock(ServiceReference.class);
+        expect(this.scopedServiceReference.getBundle()).andReturn(new StubBundle()).anyTimes();
         expect(this.scopeFactory.getServiceScope(eq(this.scopedServiceReference))).andReturn(this.appScope).anyTimes();
     }
 
@@ -97,6 +105,7 @@ public class ServiceScopingStrategyTests {
 
     private void setUpUnscopedServiceReference() {
         this.unscopedServiceReference = createMock(ServiceReference.class);
+        expect(this.unscopedServiceReference.getBundle()).andReturn(new StubBundle()).anyTimes();
         expect(this.scopeFactory.getServiceScope(eq(this.unscopedServiceReference))).andReturn(this.globalScope).anyTimes();
     }
 
@@ -225,6 +234,70 @@ public class ServiceScopingStrategyTests {
         verify(this.scopeFactory, this.scopeServiceRepository, this.unscopedServiceReference);
     }
     
+    @Test
+    public void testServiceScopeIsCachedUntilServiceIsUnregistered() {
+        this.scopedServiceReference = createMock(ServiceReference.class);
+        expect(this.scopedServiceReference.getBundle()).andReturn(new StubBundle()).anyTimes();
+        expect(this.scopeFactory.getServiceScope(eq(this.scopedServiceReference))).andReturn(this.appScope).times(2);
+        setUpScopedBundleContext();
+        replay(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+        this.serviceScopingStrategy.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, this.scopedServiceReference));
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+
+        verify(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+    }
+
+    @Test
+    public void testUnregisteredServiceScopeIsNotCached() {
+        this.scopedServiceReference = createMock(ServiceReference.class);
+        expect(this.scopedServiceReference.getBundle()).andReturn(null).anyTimes();
+        expect(this.scopeFactory.getServiceScope(eq(this.scopedServiceReference))).andReturn(this.appScope).times(2);
+        setUpScopedBundleContext();
+        replay(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+
+        verify(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+    }
+
+    @Test
+    public void testModifiedServiceEventIsScopedWithModifiedScope() {
+        this.unscopedServiceReference = createMock(ServiceReference.class);
+        expect(this.unscopedServiceReference.getBundle()).andReturn(new StubBundle()).anyTimes();
+        expect(this.scopeFactory.getServiceScope(eq(this.unscopedServiceReference))).andReturn(this.appScope).andReturn(this.globalScope);
+        setUpUnscopedBundleContext();
+        replay(this.scopeFactory, this.scopeServiceRepository, this.unscopedServiceReference);
+
+        assertFalse(this.serviceScopingStrategy.isPotentiallyVisible(this.unscopedServiceReference, this.unscopedBundleContext));
+
+        List<BundleContext> contexts = new ArrayList<BundleContext>();
+        contexts.add(this.unscopedBundleContext);
+        new ServiceScopingRegistryHook(this.serviceScopingStrategy).event(new ServiceEvent(ServiceEvent.MODIFIED, this.unscopedServiceReference),
+            contexts);
+        assertEquals(1, contexts.size());
+
+        verify(this.scopeFactory, this.scopeServiceRepository, this.unscopedServiceReference);
+    }
+
+    @Test
+    public void testBundleScopeIsCachedUntilBundleIsUpdated() {
+        setUpScopedServiceReference();
+        this.scopedBundleContext = new StubBundleContext();
+        expect(this.scopeFactory.getBundleScope(eq(this.scopedBundleContext.getBundle()))).andReturn(this.appScope).times(2);
+        replay(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+        this.serviceScopingStrategy.bundleChanged(new BundleEvent(BundleEvent.UPDATED, this.scopedBundleContext.getBundle()));
+        assertTrue(this.serviceScopingStrategy.isPotentiallyVisible(this.scopedServiceReference, this.scopedBundleContext));
+
+        verify(this.scopeFactory, this.scopeServiceRepository, this.scopedServiceReference);
+    }
+
     /**
      * This test uses a collection that does not support addition in order to place the
      * same constraints on the implementation as the service registry find hook.
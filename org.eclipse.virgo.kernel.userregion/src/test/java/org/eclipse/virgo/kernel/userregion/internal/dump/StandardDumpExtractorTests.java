@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.userregion.internal.dump;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
+import org.eclipse.virgo.kernel.userregion.internal.dump.StandardDumpExtractor.DumpFileStatistics;
+import org.eclipse.virgo.util.io.FileSystemUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StandardDumpExtractorTests {
+
+    private static final byte[] STATE_CONTENT = "state".getBytes();
+
+    private File root;
+
+    private File dumpDir;
+
+    private File stagingDir;
+
+    private StandardDumpExtractor dumpExtractor;
+
+    @Before
+    public void createDump() throws IOException {
+        this.root = new File("build", "dump-extractor-tests");
+        FileSystemUtils.deleteRecursively(this.root);
+        this.dumpDir = new File(this.root, "dump-1");
+        assertTrue(this.dumpDir.mkdirs());
+        this.stagingDir = new File(this.root, "staging");
+        assertTrue(this.stagingDir.mkdirs());
+        this.dumpExtractor = new StandardDumpExtractor(this.stagingDir);
+    }
+
+    @After
+    public void deleteDump() {
+        FileSystemUtils.deleteRecursively(this.root);
+    }
+
+    @Test
+    public void onlyStateEntriesAreExtracted() throws IOException {
+        writeStateDump("state/.state", "state/.lazy", "other/large.bin");
+
+        File stateDir = this.dumpExtractor.getStateDump(this.dumpDir);
+
+        assertEquals("state", stateDir.getName());
+        assertArrayEquals(STATE_CONTENT, read(new File(stateDir, ".state")));
+        assertTrue(new File(stateDir, ".lazy").isFile());
+        assertFalse(new File(stateDir.getParentFile(), "other").exists());
+    }
+
+    @Test
+    public void extractionIsReusedUntilTheDumpChanges() throws IOException {
+        File stateDumpZipFile = writeStateDump("state/.state");
+
+        File first = this.dumpExtractor.getStateDump(this.dumpDir);
+        File second = this.dumpExtractor.getStateDump(this.dumpDir);
+        assertEquals(first, second);
+
+        assertTrue(stateDumpZipFile.setLastModified(stateDumpZipFile.lastModified() - 10000));
+        File third = this.dumpExtractor.getStateDump(this.dumpDir);
+        assertFalse(first.equals(third));
+        assertFalse(first.exists());
+        assertTrue(new File(third, ".state").isFile());
+
+        DumpFileStatistics statistics = getStatistics(DumpExtractor.STATE_DUMP_FILE_NAME);
+        assertEquals(3, statistics.getReads());
+        assertEquals(2 * STATE_CONTENT.length, statistics.getBytes());
+    }
+
+    @Test
+    public void removedExtractionIsExtractedAgain() throws IOException {
+        writeStateDump("state/.state");
+
+        File first = this.dumpExtractor.getStateDump(this.dumpDir);
+        assertTrue(FileSystemUtils.deleteRecursively(first.getParentFile()));
+        File second = this.dumpExtractor.getStateDump(this.dumpDir);
+
+        assertEquals(first, second);
+        assertTrue(new File(second, ".state").isFile());
+    }
+
+    @Test
+    public void unreferencedStagingDirectoriesArePruned() throws IOException {
+        File leftover = new File(this.stagingDir, "dump-0-1000");
+        assertTrue(leftover.mkdirs());
+        File deletedDumpDir = new File(this.root, "dump-2");
+        assertTrue(deletedDumpDir.mkdirs());
+        writeStateDump(deletedDumpDir, "state/.state");
+        File deletedState = this.dumpExtractor.getStateDump(deletedDumpDir);
+        assertFalse(leftover.exists());
+
+        assertTrue(FileSystemUtils.deleteRecursively(deletedDumpDir));
+        File state = this.dumpExtractor.getStateDump(writeStateDump("state/.state").getParentFile());
+
+        assertFalse(deletedState.exists());
+        assertTrue(state.isDirectory());
+        assertEquals(1, FileSystemUtils.list(this.stagingDir).length);
+    }
+
+    @Test
+    public void dumpsWithTheSameDirectoryNameAreExtractedSeparately() throws IOException {
+        File firstDumpDir = new File(new File(this.root, "first"), "dump");
+        File secondDumpDir = new File(new File(this.root, "second"), "dump");
+        assertTrue(firstDumpDir.mkdirs());
+        assertTrue(secondDumpDir.mkdirs());
+        File firstZipFile = writeStateDump(firstDumpDir, "state/.state");
+        File secondZipFile = writeStateDump(secondDumpDir, "state/.state");
+        assertTrue(firstZipFile.setLastModified(1000000));
+        assertTrue(secondZipFile.setLastModified(1000000));
+
+        File first = this.dumpExtractor.getStateDump(firstDumpDir);
+        File second = this.dumpExtractor.getStateDump(secondDumpDir);
+
+        assertFalse(first.equals(second));
+        assertTrue(new File(first, ".state").isFile());
+        assertTrue(new File(second, ".state").isFile());
+    }
+
+    @Test
+    public void leastRecentlyUsedExtractionIsDiscarded() throws IOException {
+        StandardDumpExtractor boundedExtractor = new StandardDumpExtractor(this.stagingDir, 2);
+        File[] states = new File[3];
+        for (int i = 0; i < states.length; i++) {
+            File dumpDir = new File(this.root, "bounded-" + i);
+            assertTrue(dumpDir.mkdirs());
+            writeStateDump(dumpDir, "state/.state");
+            states[i] = boundedExtractor.getStateDump(dumpDir);
+            if (i == 1) {
+                assertEquals(states[0], boundedExtractor.getStateDump(new File(this.root, "bounded-0")));
+            }
+        }
+
+        assertTrue(states[0].isDirectory());
+        assertFalse(states[1].exists());
+        assertTrue(states[2].isDirectory());
+        assertEquals(2, FileSystemUtils.list(this.stagingDir).length);
+    }
+
+    @Test(expected = ZipException.class)
+    public void stateDumpWithoutStateIsRejected() throws IOException {
+        writeStateDump("other/large.bin");
+        this.dumpExtractor.getStateDump(this.dumpDir);
+    }
+
+    @Test
+    public void regionDigraphDumpIsLocated() throws IOException {
+        File regionDigraphFile = new File(this.dumpDir, DumpExtractor.REGION_DIGRAPH_FILE_NAME);
+        assertTrue(regionDigraphFile.createNewFile());
+
+        assertEquals(regionDigraphFile, this.dumpExtractor.getRegionDigraphDump(this.dumpDir));
+        assertEquals(1, getStatistics(DumpExtractor.REGION_DIGRAPH_FILE_NAME).getReads());
+    }
+
+    private DumpFileStatistics getStatistics(String fileName) {
+        List<DumpFileStatistics> statistics = this.dumpExtractor.getDumpFileStatistics();
+        for (DumpFileStatistics fileStatistics : statistics) {
+            if (fileName.equals(fileStatistics.getFileName())) {
+                return fileStatistics;
+            }
+        }
+        throw new AssertionError("No statistics for " + fileName);
+    }
+
+    private File writeStateDump(String... entryNames) throws IOException {
+        return writeStateDump(this.dumpDir, entryNames);
+    }
+
+    private static File writeStateDump(File dumpDir, String... entryNames) throws IOException {
+        File stateDumpZipFile = new File(dumpDir, DumpExtractor.STATE_DUMP_FILE_NAME);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(stateDumpZipFile));
+        try {
+            for (String entryName : entryNames) {
+                out.putNextEntry(new ZipEntry(entryName));
+                out.write(STATE_CONTENT);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return stateDumpZipFile;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                offset += in.read(content, offset, content.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -34,6 +34,7 @@ import org.eclipse.virgo.kernel.equinox.extensions.ExtendedEquinoxLauncher;
 import org.eclipse.virgo.kernel.equinox.extensions.hooks.PluggableClassLoadingHook;
 import org.eclipse.virgo.kernel.osgi.framework.ImportExpander;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
 import org.eclipse.virgo.kernel.services.repository.internal.RepositoryFactoryBean;
 import org.eclipse.virgo.kernel.services.work.WorkArea;
 import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
@@ -82,8 +83,12 @@ public abstract class AbstractOsgiFrameworkLaunchingTests {
 
     private Equinox equinox;
 
+    protected QuasiFrameworkFactory quasiFrameworkFactory;
+
     protected QuasiFramework quasiFramework;
 
+    protected RegionDigraph regionDigraph;
+
     private ThreadLocal<Region> threadLocal;
 
     @Before
@@ -121,7 +126,7 @@ public abstract class AbstractOsgiFrameworkLaunchingTests {
         };
 
         this.threadLocal = new ThreadLocal<Region>();
-        RegionDigraph regionDigraph = new StandardRegionDigraph(this.bundleContext, this.threadLocal);
+        this.regionDigraph = new StandardRegionDigraph(this.bundleContext, this.threadLocal);
 
         Region userRegion = regionDigraph.createRegion("org.eclipse.virgo.region.user");
         userRegion.addBundle(this.bundleContext.getBundle());
@@ -180,7 +185,9 @@ public abstract class AbstractOsgiFrameworkLaunchingTests {
             }
         };
         DumpExtractor dumpExtractor = new StandardDumpExtractor(workArea);
-        this.quasiFramework = new StandardQuasiFrameworkFactory(bundleContext, detective, repository, bundleFileWrapper, regionDigraph, dumpExtractor).create();
+        this.quasiFrameworkFactory = new StandardQuasiFrameworkFactory(bundleContext, detective, repository, bundleFileWrapper, regionDigraph,
+            dumpExtractor);
+        this.quasiFramework = this.quasiFrameworkFactory.create();
     }
 
     private ImportExpander createImportExpander(PackageAdmin packageAdmin) {
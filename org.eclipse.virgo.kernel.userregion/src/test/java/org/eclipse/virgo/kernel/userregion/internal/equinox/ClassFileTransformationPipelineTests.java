@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.eclipse.virgo.kernel.osgi.framework.SelectiveClassFileTransformer;
+
+/**
+ */
+public class ClassFileTransformationPipelineTests {
+
+    private static final byte[] CLASS_BYTES = new byte[] { 1, 2, 3 };
+
+    private ClassFileTransformationStatistics statistics;
+
+    @Before
+    public void setUp() {
+        this.statistics = new ClassFileTransformationStatistics();
+    }
+
+    @Test
+    public void transformersAreAddedOnce() {
+        ClassFileTransformationPipeline pipeline = new ClassFileTransformationPipeline(this.statistics);
+        AppendingTransformer transformer = new AppendingTransformer((byte) 4);
+        assertTrue(pipeline.add(transformer));
+        assertFalse(pipeline.add(transformer));
+        assertEquals(1, pipeline.size());
+    }
+
+    @Test
+    public void transformersAreAppliedInOrderWithInternalName() throws IllegalClassFormatException {
+        ClassFileTransformationPipeline pipeline = new ClassFileTransformationPipeline(this.statistics);
+        AppendingTransformer first = new AppendingTransformer((byte) 4);
+        AppendingTransformer second = new AppendingTransformer((byte) 5);
+        pipeline.add(first);
+        pipeline.add(second);
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, pipeline.transform(null, "a.b.C", null, CLASS_BYTES));
+        assertEquals("a/b/C", first.lastClassName);
+        assertEquals(Long.valueOf(2), this.statistics.getTransformationCounts().get(AppendingTransformer.class.getName()));
+    }
+
+    @Test
+    public void selectiveTransformerIsSkippedForOtherPackages() throws IllegalClassFormatException {
+        ClassFileTransformationPipeline pipeline = new ClassFileTransformationPipeline(this.statistics);
+        SelectiveTransformer transformer = new SelectiveTransformer("a.b");
+        pipeline.add(transformer);
+
+        assertArrayEquals(CLASS_BYTES, pipeline.transform(null, "x.y.Z", null, CLASS_BYTES));
+        assertEquals(0, transformer.invocations.get());
+        assertEquals(Long.valueOf(1), this.statistics.getSkippedTransformationCounts().get(SelectiveTransformer.class.getName()));
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 9 }, pipeline.transform(null, "a.b.C", null, CLASS_BYTES));
+        assertEquals(1, transformer.invocations.get());
+    }
+
+    private static class AppendingTransformer implements ClassFileTransformer {
+
+        private final byte suffix;
+
+        final AtomicInteger invocations = new AtomicInteger();
+
+        private volatile String lastClassName;
+
+        AppendingTransformer(byte suffix) {
+            this.suffix = suffix;
+        }
+
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+            this.invocations.incrementAndGet();
+            this.lastClassName = className;
+            byte[] transformed = new byte[classfileBuffer.length + 1];
+            System.arraycopy(classfileBuffer, 0, transformed, 0, classfileBuffer.length);
+            transformed[classfileBuffer.length] = this.suffix;
+            return transformed;
+        }
+    }
+
+    private static final class SelectiveTransformer extends AppendingTransformer implements SelectiveClassFileTransformer {
+
+        private final String packageName;
+
+        SelectiveTransformer(String packageName) {
+            super((byte) 9);
+            this.packageName = packageName;
+        }
+
+        public boolean transformsPackage(String packageName) {
+            return this.packageName.equals(packageName);
+        }
+    }
+}
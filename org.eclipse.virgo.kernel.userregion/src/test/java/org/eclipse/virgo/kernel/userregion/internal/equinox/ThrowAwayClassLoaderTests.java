@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Tests the loading of entity classes through throw away class loaders, in the way that JPA providers do when they
+ * repeatedly request a temporary class loader during persistence unit setup.
+ */
+public class ThrowAwayClassLoaderTests extends AbstractOsgiFrameworkLaunchingTests {
+
+    private static final int ENTITY_COUNT = 50;
+
+    private static final String ENTITY_PACKAGE = "throwaway.entities";
+
+    private KernelBundleClassLoader entitiesClassLoader;
+
+    private KernelBundleClassLoader persistenceClassLoader;
+
+    @Override
+    protected String getRepositoryConfigDirectory() {
+        return new File("src/test/resources/config/LoadTimeWeavingTests").getAbsolutePath();
+    }
+
+    @Before
+    public void installBundles() throws Exception {
+        File entities = createBundle("throwaway.entities", "Export-Package", ENTITY_PACKAGE, ENTITY_COUNT);
+        File persistence = createBundle("throwaway.persistence", "Import-Package", ENTITY_PACKAGE, 0);
+        Bundle entitiesBundle = this.framework.getBundleContext().installBundle(entities.toURI().toString());
+        Bundle persistenceBundle = this.framework.getBundleContext().installBundle(persistence.toURI().toString());
+
+        this.entitiesClassLoader = (KernelBundleClassLoader) this.framework.getBundleClassLoader(entitiesBundle);
+        this.persistenceClassLoader = (KernelBundleClassLoader) this.framework.getBundleClassLoader(persistenceBundle);
+    }
+
+    @Test
+    public void importedClassesAreDefinedByOneDependencyThrowAway() throws Exception {
+        ClassLoader throwAway = this.persistenceClassLoader.createThrowAway();
+
+        ClassLoader definingLoader = throwAway.loadClass(getEntityName(0)).getClassLoader();
+        assertNotSame(this.entitiesClassLoader, definingLoader);
+        assertNotSame(this.persistenceClassLoader, definingLoader);
+        for (int e = 0; e < ENTITY_COUNT; e++) {
+            Class<?> entity = throwAway.loadClass(getEntityName(e));
+            assertSame(definingLoader, entity.getClassLoader());
+            assertSame(entity, throwAway.loadClass(getEntityName(e)));
+        }
+    }
+
+    @Test
+    public void throwAwaysDoNotShareOrLeakClasses() throws Exception {
+        ClassLoader first = this.persistenceClassLoader.createThrowAway();
+        ClassLoader second = this.persistenceClassLoader.createThrowAway();
+
+        for (int e = 0; e < ENTITY_COUNT; e++) {
+            assertNotSame(first.loadClass(getEntityName(e)), second.loadClass(getEntityName(e)));
+            assertNull(this.entitiesClassLoader.publicFindLoaded(getEntityName(e)));
+        }
+    }
+
+    @Test
+    public void throwAwaysRemainUsableAfterRelease() throws Exception {
+        ClassLoader before = this.persistenceClassLoader.createThrowAway();
+        Class<?> entity = before.loadClass(getEntityName(0));
+
+        this.persistenceClassLoader.releaseThrowAways();
+
+        assertSame(entity, before.loadClass(getEntityName(0)));
+        ClassLoader after = this.persistenceClassLoader.createThrowAway();
+        assertNotSame(entity, after.loadClass(getEntityName(0)));
+        assertSame(after.loadClass(getEntityName(1)).getClassLoader(), after.loadClass(getEntityName(0)).getClassLoader());
+    }
+
+    private static File createBundle(String symbolicName, String packageHeader, String packageName, int entityCount) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", symbolicName);
+        attributes.putValue(packageHeader, packageName);
+
+        File jar = new File("build/" + symbolicName + ".jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (int e = 0; e < entityCount; e++) {
+                String internalName = getEntityName(e).replace('.', '/');
+                out.putNextEntry(new ZipEntry(internalName + ".class"));
+                out.write(createEmptyClass(internalName));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static String getEntityName(int index) {
+        return ENTITY_PACKAGE + ".Entity" + index;
+    }
+
+    /**
+     * Creates the bytes of a minimal public class, with no members, that extends <code>Object</code>.
+     */
+    private static byte[] createEmptyClass(String internalName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(50); // major version: Java 6
+        out.writeShort(5); // constant pool count
+        out.writeByte(1); // #1 Utf8
+        out.writeUTF(internalName);
+        out.writeByte(7); // #2 Class #1
+        out.writeShort(1);
+        out.writeByte(1); // #3 Utf8
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7); // #4 Class #3
+        out.writeShort(3);
+        out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(0); // methods
+        out.writeShort(0); // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
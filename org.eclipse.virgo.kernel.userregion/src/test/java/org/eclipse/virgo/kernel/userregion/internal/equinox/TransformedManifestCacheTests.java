@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ */
+public class TransformedManifestCacheTests {
+
+    private static final byte[] TRANSFORMED = { 1, 2, 3 };
+
+    private final File cacheDirectory = new File("build/TransformedManifestCacheTests");
+
+    @Before
+    public void setUp() {
+        File[] files = this.cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.cacheDirectory.mkdirs();
+    }
+
+    @Test
+    public void keyDependsOnManifestAndExpansionIdentity() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+
+        assertEquals(cache.getKey(new byte[] { 1 }), cache.getKey(new byte[] { 1 }));
+        assertFalse(cache.getKey(new byte[] { 1 }).equals(cache.getKey(new byte[] { 2 })));
+        assertFalse(cache.getKey(new byte[] { 1 }).equals(new TransformedManifestCache(this.cacheDirectory, "other").getKey(new byte[] { 1 })));
+    }
+
+    @Test
+    public void repositoryIndependentEntryIsPersisted() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        cache.put("a", TRANSFORMED, false, cache.getGeneration());
+
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, createMock(ServiceReference.class)));
+        assertArrayEquals(TRANSFORMED, cache.get("a"));
+
+        TransformedManifestCache restartedCache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        assertEquals(1, restartedCache.getSize());
+        assertArrayEquals(TRANSFORMED, restartedCache.get("a"));
+        assertEquals(1, restartedCache.getHits());
+    }
+
+    @Test
+    public void repositoryDependentEntryIsDiscardedOnBundleAndRepositoryChanges() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+
+        cache.put("a", TRANSFORMED, true, cache.getGeneration());
+        cache.bundleChanged(new BundleEvent(BundleEvent.STARTED, createMock(Bundle.class)));
+        assertArrayEquals(TRANSFORMED, cache.get("a"));
+        cache.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, createMock(Bundle.class)));
+        assertNull(cache.get("a"));
+
+        cache.put("a", TRANSFORMED, true, cache.getGeneration());
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, createMock(ServiceReference.class)));
+        assertNull(cache.get("a"));
+
+        assertEquals(0, new TransformedManifestCache(this.cacheDirectory, "identity").getSize());
+    }
+
+    @Test
+    public void repositoryDependentEntryExpires() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity", 10, 0);
+        cache.put("a", TRANSFORMED, true, cache.getGeneration());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void transformationStartedBeforeInvalidationIsNotCached() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("a", TRANSFORMED, true, generation);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity", 2, TimeUnit.SECONDS.toNanos(5));
+        cache.put("a", TRANSFORMED, false, cache.getGeneration());
+        cache.put("b", TRANSFORMED, false, cache.getGeneration());
+        cache.get("a");
+        cache.put("c", TRANSFORMED, false, cache.getGeneration());
+
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("b"));
+        assertFalse(new File(this.cacheDirectory, "b.MF").exists());
+        assertArrayEquals(TRANSFORMED, cache.get("a"));
+        assertArrayEquals(TRANSFORMED, cache.get("c"));
+    }
+
+    @Test
+    public void persistedEntriesBeyondMaximumAreDiscardedOnRestart() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        cache.put("a", TRANSFORMED, false, cache.getGeneration());
+        cache.put("b", TRANSFORMED, false, cache.getGeneration());
+        cache.put("c", TRANSFORMED, false, cache.getGeneration());
+
+        TransformedManifestCache restartedCache = new TransformedManifestCache(this.cacheDirectory, "identity", 2, TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, restartedCache.getSize());
+        assertEquals(2, this.cacheDirectory.list().length);
+    }
+
+    @Test
+    public void clearDeletesPersistedEntries() {
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        cache.put("a", TRANSFORMED, false, cache.getGeneration());
+        cache.clear();
+
+        assertNull(cache.get("a"));
+        assertEquals(0, this.cacheDirectory.list().length);
+        assertEquals(1, cache.getInvalidations());
+    }
+}
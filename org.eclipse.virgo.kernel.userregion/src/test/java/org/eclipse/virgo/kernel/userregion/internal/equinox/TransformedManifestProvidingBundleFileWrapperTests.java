@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.userregion.internal.equinox;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarFile;
+
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
+import org.eclipse.osgi.baseadaptor.bundlefile.BundleFile;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import org.eclipse.virgo.kernel.osgi.framework.ImportExpander;
+import org.eclipse.virgo.kernel.osgi.framework.ManifestTransformer;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+
+/**
+ */
+public class TransformedManifestProvidingBundleFileWrapperTests {
+
+    private static final String MANIFEST = "Manifest-Version: 1.0\nBundle-ManifestVersion: 2\nBundle-SymbolicName: a\nImport-Package: b\n";
+
+    private static final String IMPORT_BUNDLE_MANIFEST = MANIFEST + "Import-Bundle: c\n";
+
+    private final File cacheDirectory = new File("build/TransformedManifestProvidingBundleFileWrapperTests");
+
+    private final ImportExpander importExpander = createMock(ImportExpander.class);
+
+    @Before
+    public void setUp() {
+        deleteRecursively(this.cacheDirectory);
+        this.cacheDirectory.mkdirs();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void expandedManifestIsServedFromCacheAfterRestart() throws Exception {
+        expect(this.importExpander.expandImports(isA(List.class))).andReturn(null).once();
+        replay(this.importExpander);
+
+        byte[] expanded = readManifest(createWrapper("identity"), MANIFEST);
+        byte[] cached = readManifest(createWrapper("identity"), MANIFEST);
+
+        assertArrayEquals(expanded, cached);
+        verify(this.importExpander);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void changedExpansionIdentityIsNotServedFromCache() throws Exception {
+        expect(this.importExpander.expandImports(isA(List.class))).andReturn(null).times(2);
+        replay(this.importExpander);
+
+        readManifest(createWrapper("identity"), MANIFEST);
+        readManifest(createWrapper("reconfigured identity"), MANIFEST);
+
+        verify(this.importExpander);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void repositoryDependentManifestIsNotServedFromCacheAfterRestart() throws Exception {
+        expect(this.importExpander.expandImports(isA(List.class))).andReturn(null).times(2);
+        replay(this.importExpander);
+
+        readManifest(createWrapper("identity"), IMPORT_BUNDLE_MANIFEST);
+        readManifest(createWrapper("identity"), IMPORT_BUNDLE_MANIFEST);
+
+        verify(this.importExpander);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void repositoryDependentManifestIsServedFromCacheUntilRepositoryChanges() throws Exception {
+        expect(this.importExpander.expandImports(isA(List.class))).andReturn(null).times(2);
+        replay(this.importExpander);
+
+        TransformedManifestCache cache = new TransformedManifestCache(this.cacheDirectory, "identity");
+        TransformedManifestProvidingBundleFileWrapper wrapper = new TransformedManifestProvidingBundleFileWrapper(this.importExpander, cache);
+        readManifest(wrapper, IMPORT_BUNDLE_MANIFEST);
+        readManifest(wrapper, IMPORT_BUNDLE_MANIFEST);
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, createMock(ServiceReference.class)));
+        readManifest(wrapper, IMPORT_BUNDLE_MANIFEST);
+
+        verify(this.importExpander);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void manifestTransformedByPushedTransformerIsNotCached() throws Exception {
+        expect(this.importExpander.expandImports(isA(List.class))).andReturn(null).times(2);
+        replay(this.importExpander);
+
+        TransformedManifestProvidingBundleFileWrapper wrapper = createWrapper("identity");
+        wrapper.pushManifestTransformer(new ManifestTransformer() {
+
+            public BundleManifest transform(BundleManifest bundleManifest) {
+                return bundleManifest;
+            }
+        });
+        try {
+            readManifest(wrapper, MANIFEST);
+            readManifest(wrapper, MANIFEST);
+        } finally {
+            wrapper.popManifestTransformer();
+        }
+
+        verify(this.importExpander);
+    }
+
+    private TransformedManifestProvidingBundleFileWrapper createWrapper(String expansionIdentity) {
+        return new TransformedManifestProvidingBundleFileWrapper(this.importExpander, new TransformedManifestCache(this.cacheDirectory,
+            expansionIdentity));
+    }
+
+    private static byte[] readManifest(TransformedManifestProvidingBundleFileWrapper wrapper, String manifest) throws IOException {
+        BundleFile bundleFile = wrapper.wrapBundleFile(new StubBundleFile(manifest.getBytes(Charset.forName("UTF-8"))));
+        try (InputStream in = bundleFile.getEntry(JarFile.MANIFEST_NAME).getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read()) != -1) {
+                out.write(read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class StubBundleFile extends BundleFile {
+
+        private final byte[] manifestBytes;
+
+        private StubBundleFile(byte[] manifestBytes) {
+            this.manifestBytes = manifestBytes;
+        }
+
+        @Override
+        public File getFile(String path, boolean nativeCode) {
+            return null;
+        }
+
+        @Override
+        public BundleEntry getEntry(String path) {
+            return JarFile.MANIFEST_NAME.equals(path) ? new StubBundleEntry(this.manifestBytes) : null;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public Enumeration getEntryPaths(String path) {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        @Override
+        public void open() throws IOException {
+        }
+
+        @Override
+        public boolean containsDir(String dir) {
+            return false;
+        }
+    }
+
+    private static final class StubBundleEntry extends BundleEntry {
+
+        private final byte[] bytes;
+
+        private StubBundleEntry(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(this.bytes);
+        }
+
+        @Override
+        public long getSize() {
+            return this.bytes.length;
+        }
+
+        @Override
+        public String getName() {
+            return JarFile.MANIFEST_NAME;
+        }
+
+        @Override
+        public long getTime() {
+            return 0;
+        }
+
+        @Override
+        public URL getLocalURL() {
+            return null;
+        }
+
+        @Override
+        public URL getFileURL() {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,9 @@
 package org.eclipse.virgo.kernel.userregion.internal.equinox;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 
@@ -21,6 +23,7 @@ import org.eclipse.osgi.service.resolver.ResolverError;
 import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser;
 import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser.AnalysedUsesConflict;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.UsesAnalyser.UsesConflictAnalysis;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
@@ -144,6 +147,79 @@ public class UsesAnalyserTests extends AbstractOsgiFrameworkLaunchingTests {
         assertEquals(new Version("0.0.0"), usesConflicts[0].getConflictingPackage().getVersion());
     }
 
+    @Test
+    public void repeatedAnalysisOfUnchangedState() throws Exception {
+        Bundle a = installTransitiveConstraint();
+        State systemState = ((StateManager) this.platformAdmin).getSystemState();
+        UsesAnalyser analyser = new UsesAnalyser();
+
+        ResolverError[] resolverErrors = analyser.getUsesResolverErrors(systemState, systemState.getBundle(a.getBundleId()));
+        assertNotNull("No uses errors found for bundle '" + a + "'.", resolverErrors);
+
+        UsesConflictAnalysis first = analyser.analyseUsesConflicts(systemState, resolverErrors[0]);
+        UsesConflictAnalysis second = analyser.analyseUsesConflicts(systemState, resolverErrors[0]);
+
+        assertTrue(first.isComplete());
+        assertTrue(second.isComplete());
+        assertEquals(1, first.getConflicts().length);
+        assertEquals(1, second.getConflicts().length);
+        assertEquals(first.getConflicts()[0].getPackage(), second.getConflicts()[0].getPackage());
+        assertEquals(first.getConflicts()[0].getConflictingPackage(), second.getConflicts()[0].getConflictingPackage());
+    }
+
+    @Test
+    public void exhaustedBudgetGivesIncompleteAnalysis() throws Exception {
+        Bundle a = installTransitiveConstraint();
+        State systemState = ((StateManager) this.platformAdmin).getSystemState();
+        UsesAnalyser analyser = new UsesAnalyser(60000, 0, 100);
+
+        ResolverError[] resolverErrors = analyser.getUsesResolverErrors(systemState, systemState.getBundle(a.getBundleId()));
+        assertNotNull("No uses errors found for bundle '" + a + "'.", resolverErrors);
+
+        UsesConflictAnalysis analysis = analyser.analyseUsesConflicts(systemState, resolverErrors[0]);
+        assertFalse(analysis.isComplete());
+    }
+
+    @Test
+    public void conflictLimitReachedGivesIncompleteAnalysis() throws Exception {
+        Bundle a = installTransitiveConstraint();
+        State systemState = ((StateManager) this.platformAdmin).getSystemState();
+        UsesAnalyser analyser = new UsesAnalyser(60000, 100000, 0);
+
+        ResolverError[] resolverErrors = analyser.getUsesResolverErrors(systemState, systemState.getBundle(a.getBundleId()));
+        assertNotNull("No uses errors found for bundle '" + a + "'.", resolverErrors);
+
+        UsesConflictAnalysis analysis = analyser.analyseUsesConflicts(systemState, resolverErrors[0]);
+        assertEquals(0, analysis.getConflicts().length);
+        assertFalse(analysis.isComplete());
+    }
+
+    @Test
+    public void conflictLimitNotReachedGivesCompleteAnalysis() throws Exception {
+        Bundle a = installTransitiveConstraint();
+        State systemState = ((StateManager) this.platformAdmin).getSystemState();
+        UsesAnalyser analyser = new UsesAnalyser(60000, 100000, 1);
+
+        ResolverError[] resolverErrors = analyser.getUsesResolverErrors(systemState, systemState.getBundle(a.getBundleId()));
+        assertNotNull("No uses errors found for bundle '" + a + "'.", resolverErrors);
+
+        UsesConflictAnalysis analysis = analyser.analyseUsesConflicts(systemState, resolverErrors[0]);
+        assertEquals(1, analysis.getConflicts().length);
+        assertTrue(analysis.isComplete());
+    }
+
+    private Bundle installTransitiveConstraint() throws BundleException {
+        install("transitiveconstraint/tmD.jar");
+        install("transitiveconstraint/tmC.jar");
+        install("transitiveconstraint/tmB.jar");
+        Bundle a = install("transitiveconstraint/tmA.jar");
+        try {
+            a.start();
+        } catch (BundleException ignored) {
+        }
+        return a;
+    }
+
     private static final void printUsesConflicts(AnalysedUsesConflict[] usesConflicts) {
         int count = 0;
         for (AnalysedUsesConflict a : usesConflicts) {
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.eclipse.virgo.repository.ArtifactDescriptor;
+import org.eclipse.virgo.util.math.OrderedPair;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ */
+public class ImportExpansionCacheTests {
+
+    private final ImportExpansionCache cache = new ImportExpansionCache();
+
+    private final VersionRange range = new VersionRange("[1,2)");
+
+    @Test
+    public void installedBundleLookupIsCachedUntilBundleInstalled() {
+        OrderedPair<BundleManifest, Boolean> bundle = new OrderedPair<BundleManifest, Boolean>(BundleManifestFactory.createBundleManifest(), true);
+        assertNull(this.cache.getBundle("a", this.range));
+        this.cache.putBundle("a", this.range, bundle, false, this.cache.getGeneration());
+
+        assertSame(bundle, this.cache.getBundle("a", new VersionRange("[1,2)")));
+        assertNull(this.cache.getBundle("a", new VersionRange("[1,3)")));
+
+        this.cache.bundleChanged(new BundleEvent(BundleEvent.STARTED, createMock(Bundle.class)));
+        assertSame(bundle, this.cache.getBundle("a", this.range));
+
+        this.cache.bundleChanged(new BundleEvent(BundleEvent.INSTALLED, createMock(Bundle.class)));
+        assertNull(this.cache.getBundle("a", this.range));
+
+        assertEquals(2, this.cache.getHits());
+        assertEquals(3, this.cache.getMisses());
+        assertEquals(0.4, this.cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void libraryLookupIsDiscardedOnRepositoryChange() {
+        ArtifactDescriptor library = createMock(ArtifactDescriptor.class);
+        this.cache.putLibrary("lib", this.range, library, this.cache.getGeneration());
+        assertSame(library, this.cache.getLibrary("lib", this.range));
+
+        this.cache.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, createMock(ServiceReference.class)));
+        assertNull(this.cache.getLibrary("lib", this.range));
+        assertEquals(0, this.cache.getSize());
+    }
+
+    @Test
+    public void lookupStartedBeforeInvalidationIsNotCached() {
+        long generation = this.cache.getGeneration();
+        this.cache.clear();
+        this.cache.putLibrary("lib", this.range, createMock(ArtifactDescriptor.class), generation);
+        assertNull(this.cache.getLibrary("lib", this.range));
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.userregion.internal.importexpansion;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.eclipse.virgo.kernel.osgi.framework.ImportMergeException;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
+import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
+import org.eclipse.virgo.util.osgi.manifest.ImportedPackage;
+import org.eclipse.virgo.util.osgi.manifest.VersionRange;
+
+/**
+ * Performs {@value #THREAD_COUNT} concurrent import expansions. Each expansion merges a set of libraries whose
+ * package imports overlap with those of every other library into its own collector, and promotes them into a single
+ * collector shared by all expansions.
+ */
+public class TrackedPackageImportsConcurrencyTests {
+
+    private static final int THREAD_COUNT = 16;
+
+    private static final int LIBRARY_COUNT = 16;
+
+    private static final int PACKAGES_PER_LIBRARY = 40;
+
+    private static final int SHARED_PACKAGE_COUNT = 20;
+
+    private static final int EXPANSIONS_PER_THREAD = 10;
+
+    private final TrackedPackageImportsFactory trackedPackageImportsFactory = new StandardTrackedPackageImportsFactory();
+
+    @Test
+    public void concurrentlyMergeOverlappingLibraryImports() throws Exception {
+        final List<TrackedPackageImports> libraries = createLibraries();
+        final TrackedPackageImports promoted = this.trackedPackageImportsFactory.createCollector();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicInteger merges = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+                        startLatch.await();
+                        for (int e = 0; e < EXPANSIONS_PER_THREAD; e++) {
+                            TrackedPackageImports expansion = trackedPackageImportsFactory.createCollector();
+                            for (int l = 0; l < LIBRARY_COUNT; l++) {
+                                TrackedPackageImports library = libraries.get((offset + e + l) % LIBRARY_COUNT);
+                                expansion.merge(library);
+                                promoted.merge(library);
+                                merges.addAndGet(2);
+                            }
+                            Assert.assertFalse(expansion.isEmpty());
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            startLatch.countDown();
+            for (Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(2 * THREAD_COUNT * EXPANSIONS_PER_THREAD * LIBRARY_COUNT, merges.get());
+
+        List<ImportedPackage> mergedImports = promoted.getMergedImports();
+        Assert.assertEquals(SHARED_PACKAGE_COUNT + LIBRARY_COUNT * (PACKAGES_PER_LIBRARY - SHARED_PACKAGE_COUNT), mergedImports.size());
+        for (ImportedPackage importedPackage : mergedImports) {
+            if (importedPackage.getPackageName().startsWith("shared.")) {
+                VersionRange versionRange = new VersionRange(importedPackage.getAttributes().get("version"));
+                Assert.assertEquals("Incorrectly merged version of " + importedPackage.getPackageName(), LIBRARY_COUNT,
+                    versionRange.getFloor().getMajor());
+            }
+        }
+    }
+
+    @Test
+    public void concurrentConflictIsDetected() throws Exception {
+        final List<TrackedPackageImports> libraries = createLibraries();
+        final TrackedPackageImports promoted = this.trackedPackageImportsFactory.createCollector();
+        final TrackedPackageImports conflicting = this.trackedPackageImportsFactory.create(
+            BundleManifestFactory.createBundleManifest(new StringReader("bundle-symbolicname: X\nimport-package: shared.p0;version=\"[0,1)\"")));
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicInteger conflicts = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+                        startLatch.await();
+                        try {
+                            if (offset == THREAD_COUNT / 2) {
+                                promoted.merge(conflicting);
+                            }
+                            for (int l = 0; l < LIBRARY_COUNT; l++) {
+                                promoted.merge(libraries.get((offset + l) % LIBRARY_COUNT));
+                            }
+                        } catch (ImportMergeException e) {
+                            Assert.assertEquals("shared.p0", e.getConflictingPackageName());
+                            conflicts.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertTrue(conflicts.get() > 0);
+        try {
+            promoted.getMergedImports();
+            Assert.fail("Conflict was not retained");
+        } catch (ImportMergeException e) {
+            Assert.assertEquals("shared.p0", e.getConflictingPackageName());
+        }
+    }
+
+    /**
+     * Create libraries which each import {@value #SHARED_PACKAGE_COUNT} shared packages, with overlapping version
+     * ranges <code>[i+1, 100)</code>, and a number of packages of their own.
+     */
+    private List<TrackedPackageImports> createLibraries() {
+        List<TrackedPackageImports> libraries = new ArrayList<TrackedPackageImports>();
+        for (int l = 0; l < LIBRARY_COUNT; l++) {
+            BundleManifest manifest = BundleManifestFactory.createBundleManifest();
+            List<ImportedPackage> libraryImports = new ArrayList<ImportedPackage>();
+            for (int p = 0; p < PACKAGES_PER_LIBRARY; p++) {
+                ImportedPackage importedPackage;
+                if (p < SHARED_PACKAGE_COUNT) {
+                    importedPackage = manifest.getImportPackage().addImportedPackage("shared.p" + p);
+                    importedPackage.getAttributes().put("version", "[" + (l + 1) + ",100)");
+                } else {
+                    importedPackage = manifest.getImportPackage().addImportedPackage("library" + l + ".p" + p);
+                }
+                libraryImports.add(importedPackage);
+            }
+            TrackedPackageImports library = this.trackedPackageImportsFactory.createContainer("Import-Library 'library" + l + "'");
+            try {
+                library.merge(this.trackedPackageImportsFactory.create(libraryImports, "library" + l));
+            } catch (ImportMergeException e) {
+                throw new IllegalStateException(e);
+            }
+            libraries.add(library);
+        }
+        return libraries;
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -155,6 +155,41 @@ public class TrackedPackageImportsTests {
         Assert.assertTrue("Incorrectly merged resolution", pImport.getResolution() == Resolution.MANDATORY);
     }
 
+    @Test public void testMergeLeavesSourcesUnchanged() throws ImportMergeException, IOException {
+
+        BundleManifest manifestA = BundleManifestFactory.createBundleManifest(new StringReader(
+            "bundle-symbolicname: A\nimport-package: p;version=\"[1,3]\""));
+        TrackedPackageImports tpiA = this.trackedPackageImportsFactory.create(manifestA);
+        String originalVersion = manifestA.getImportPackage().getImportedPackages().get(0).getAttributes().get("version");
+
+        BundleManifest manifestB = BundleManifestFactory.createBundleManifest(new StringReader(
+            "bundle-symbolicname: B\nimport-package: p;version=\"2\""));
+        TrackedPackageImports tpiB = this.trackedPackageImportsFactory.create(manifestB);
+
+        TrackedPackageImports tpiC = this.trackedPackageImportsFactory.createCollector();
+        tpiC.merge(tpiA);
+        tpiC.merge(tpiB);
+
+        Assert.assertEquals(originalVersion, convertImportedPackageListToMap(tpiA.getMergedImports()).get("p").getAttributes().get("version"));
+        Assert.assertEquals(originalVersion, manifestA.getImportPackage().getImportedPackages().get(0).getAttributes().get("version"));
+
+        VersionRange v = new VersionRange(convertImportedPackageListToMap(tpiC.getMergedImports()).get("p").getAttributes().get("version"));
+        Assert.assertEquals(2, v.getFloor().getMajor());
+    }
+
+    @Test public void testMergedImportsAreNotCopied() throws ImportMergeException, IOException {
+
+        BundleManifest manifestA = BundleManifestFactory.createBundleManifest(new StringReader(
+            "bundle-symbolicname: A\nimport-package: p;version=\"[1,3]\",q"));
+        TrackedPackageImports tpiA = this.trackedPackageImportsFactory.create(manifestA);
+
+        Map<String, ImportedPackage> first = convertImportedPackageListToMap(tpiA.getMergedImports());
+        Map<String, ImportedPackage> second = convertImportedPackageListToMap(tpiA.getMergedImports());
+        Assert.assertSame(first.get("p"), second.get("p"));
+        Assert.assertSame(first.get("q"), second.get("q"));
+        Assert.assertNotSame(manifestA.getImportPackage().getImportedPackages().get(0), first.get("p"));
+    }
+
     @Test public void testConsistentAttributes() throws ImportMergeException, IOException {
         
         BundleManifest manifestA = BundleManifestFactory.createBundleManifest(new StringReader(
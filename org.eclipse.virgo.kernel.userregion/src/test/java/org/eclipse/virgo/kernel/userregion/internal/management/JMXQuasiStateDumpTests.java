@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,10 +12,15 @@ package org.eclipse.virgo.kernel.userregion.internal.management;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipException;
 
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiFrameworkFactory;
+import org.eclipse.virgo.kernel.userregion.internal.management.StateDumpCache.LoadedDump;
+import org.eclipse.virgo.util.io.FileSystemUtils;
+import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -28,6 +33,8 @@ public class JMXQuasiStateDumpTests {
 	private static final String TEST_DUMP = "src/test/resources/testDump";
 	
 	private final JMXQuasiStateDump quasiStateDumpMBean;
+
+	private final File dumpRoot = new File("build/dumps");
 	
 	public JMXQuasiStateDumpTests() {
 		quasiStateDumpMBean = new JMXQuasiStateDump(new QuasiFrameworkFactory() {
@@ -72,4 +79,118 @@ public class JMXQuasiStateDumpTests {
 		assertEquals(5l, bundle.getIdentifier());
 	}
 	
+	@Test
+	public void testDumpIsLoadedOnce() {
+		CountingQuasiFrameworkFactory factory = new CountingQuasiFrameworkFactory();
+		JMXQuasiStateDump stateDump = new JMXQuasiStateDump(factory);
+		String dump = createDump("once", 1000).getPath();
+
+		stateDump.listBundles(dump);
+		stateDump.getBundle(dump, 5l);
+		stateDump.getBundle(dump, 6l);
+		stateDump.getUnresolvedBundleFailures(dump);
+		stateDump.getUnresolvedBundleFailures(dump);
+
+		assertEquals(1, factory.created.size());
+	}
+
+	@Test
+	public void testModifiedDumpIsReloaded() {
+		CountingQuasiFrameworkFactory factory = new CountingQuasiFrameworkFactory();
+		JMXQuasiStateDump stateDump = new JMXQuasiStateDump(factory);
+		File dump = createDump("modified", 1000);
+
+		stateDump.listBundles(dump.getPath());
+		assertTrue(dump.setLastModified(2000));
+		stateDump.listBundles(dump.getPath());
+
+		assertEquals(2, factory.created.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedDumpIsEvicted() {
+		CountingQuasiFrameworkFactory factory = new CountingQuasiFrameworkFactory();
+		JMXQuasiStateDump stateDump = new JMXQuasiStateDump(factory, 2);
+		String first = createDump("first", 1000).getPath();
+		String second = createDump("second", 1000).getPath();
+		String third = createDump("third", 1000).getPath();
+
+		stateDump.listBundles(first);
+		stateDump.listBundles(second);
+		stateDump.listBundles(first);
+		stateDump.listBundles(third);
+		assertEquals(3, factory.created.size());
+		assertTrue(factory.created.get(1).destroyed);
+
+		stateDump.listBundles(first);
+		assertEquals(3, factory.created.size());
+
+		stateDump.listBundles(second);
+		assertEquals(4, factory.created.size());
+	}
+
+	@Test
+	public void testDiscardedDumpIsNotLoaded() throws Exception {
+		CountingQuasiFrameworkFactory factory = new CountingQuasiFrameworkFactory();
+		StateDumpCache cache = new StateDumpCache(factory, 1);
+		LoadedDump evicted = cache.getDump(createDump("evicted", 1000));
+		cache.getDump(createDump("current", 1000));
+
+		assertNull(evicted.getQuasiFramework());
+		assertNull(evicted.getUnresolvedBundleFailures());
+		assertEquals(0, factory.created.size());
+	}
+
+	@Test
+	public void testClearedDumpIsDestroyedAndNotReloaded() throws Exception {
+		CountingQuasiFrameworkFactory factory = new CountingQuasiFrameworkFactory();
+		StateDumpCache cache = new StateDumpCache(factory, 1);
+		LoadedDump dump = cache.getDump(createDump("cleared", 1000));
+		assertNotNull(dump.getQuasiFramework());
+
+		cache.clear();
+
+		assertTrue(factory.created.get(0).destroyed);
+		assertNull(dump.getQuasiFramework());
+		assertEquals(1, factory.created.size());
+	}
+
+	@After
+	public void deleteDumps() {
+		FileSystemUtils.deleteRecursively(this.dumpRoot);
+	}
+
+	private File createDump(String name, long lastModified) {
+		File dump = new File(this.dumpRoot, name);
+		assertTrue(dump.mkdirs());
+		assertTrue(dump.setLastModified(lastModified));
+		return dump;
+	}
+
+	private static final class CountingQuasiFrameworkFactory implements QuasiFrameworkFactory {
+
+		private final List<DestroyRecordingQuasiFramework> created = new ArrayList<DestroyRecordingQuasiFramework>();
+
+		@Override
+		public QuasiFramework create(File stateDump) throws ZipException, IOException {
+			DestroyRecordingQuasiFramework quasiFramework = new DestroyRecordingQuasiFramework();
+			this.created.add(quasiFramework);
+			return quasiFramework;
+		}
+
+		@Override
+		public QuasiFramework create() {
+			return new StubQuasiFramework();
+		}
+	}
+
+	private static final class DestroyRecordingQuasiFramework extends StubQuasiFramework {
+
+		private boolean destroyed;
+
+		@Override
+		public void destroy() {
+			this.destroyed = true;
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregion.internal.quasi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.virgo.kernel.osgi.quasi.QuasiFramework;
+import org.eclipse.virgo.kernel.userregion.internal.DumpExtractor;
+import org.eclipse.virgo.kernel.userregion.internal.equinox.AbstractOsgiFrameworkLaunchingTests;
+import org.eclipse.virgo.util.io.FileSystemUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ */
+public class StandardQuasiFrameworkFactoryTests extends AbstractOsgiFrameworkLaunchingTests {
+
+    private final File dumpDir = new File("build/quasi-framework-factory-tests/dump");
+
+    @Override
+    protected String getRepositoryConfigDirectory() {
+        return new File("src/test/resources/config/StandardQuasiFrameworkFactoryTests").getAbsolutePath();
+    }
+
+    @After
+    public void deleteDump() {
+        FileSystemUtils.deleteRecursively(this.dumpDir.getParentFile());
+    }
+
+    @Test
+    public void sameDumpCanBeLoadedTwice() throws Exception {
+        createDump();
+
+        QuasiFramework first = this.quasiFrameworkFactory.create(this.dumpDir);
+        QuasiFramework second = this.quasiFrameworkFactory.create(this.dumpDir);
+        try {
+            assertFalse(first.getBundles().isEmpty());
+            assertEquals(first.getBundles().size(), second.getBundles().size());
+            assertEquals(first.getBundle(0).getSymbolicName(), second.getBundle(0).getSymbolicName());
+        } finally {
+            first.destroy();
+            second.destroy();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void createDump() throws IOException {
+        FileSystemUtils.deleteRecursively(this.dumpDir);
+        File stateDir = new File(this.dumpDir, "state");
+        assertTrue(stateDir.mkdirs());
+        this.platformAdmin.getFactory().writeState(this.platformAdmin.getState(false), stateDir);
+
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(this.dumpDir, DumpExtractor.STATE_DUMP_FILE_NAME)));
+        try {
+            for (File stateFile : FileSystemUtils.listFiles(stateDir)) {
+                zip.putNextEntry(new ZipEntry("state/" + stateFile.getName()));
+                copy(stateFile, zip);
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        assertTrue(FileSystemUtils.deleteRecursively(stateDir));
+
+        OutputStream regionDigraphDump = new FileOutputStream(new File(this.dumpDir, DumpExtractor.REGION_DIGRAPH_FILE_NAME));
+        try {
+            this.regionDigraph.getRegionDigraphPersistence().save(this.regionDigraph, regionDigraphDump);
+        } finally {
+            regionDigraphDump.close();
+        }
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 /*******************************************************************************
  * This file is part of the Virgo Web Server.
  *
- * Copyright (c) 2010 VMware Inc.
+ * Copyright (c) 2010, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,8 +15,8 @@ package org.eclipse.virgo.kernel.userregionfactory;
 
 import static org.eclipse.virgo.kernel.osgi.framework.ServiceUtils.getPotentiallyDelayedService;
 
-import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -33,7 +33,6 @@ import org.eclipse.virgo.nano.core.Shutdown;
 import org.eclipse.virgo.medic.dump.DumpGenerator;
 import org.eclipse.virgo.medic.eventlog.EventLogger;
 import org.eclipse.virgo.util.parser.launcher.ArgumentParser;
-import org.eclipse.virgo.util.parser.launcher.BundleEntry;
 import org.eclipse.virgo.util.osgi.ServiceRegistrationTracker;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifest;
 import org.eclipse.virgo.util.osgi.manifest.BundleManifestFactory;
@@ -48,6 +47,7 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.Version;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.component.ComponentContext;
@@ -171,7 +171,7 @@ public final class Activator {
 
         notifyUserRegionStarting(this.bundleContext);
 
-        initialiseUserRegionBundles(userRegion);
+        initialiseUserRegionBundles(userRegion, eventLogger);
 
         registerRegionService(userRegion);
         publishUserRegionBundleContext(this.bundleContext);
@@ -319,32 +319,15 @@ public final class Activator {
         this.eventAdmin.sendEvent(new Event(EVENT_REGION_STARTING, properties));
     }
 
-    private void initialiseUserRegionBundles(Region userRegion) throws BundleException {
+    private void initialiseUserRegionBundles(Region userRegion, EventLogger eventLogger) throws BundleException {
 
         String userRegionBundlesProperty = this.regionBundles != null ? this.regionBundles
             : this.bundleContext.getProperty(USER_REGION_BASE_BUNDLES_PROPERTY);
 
         if (userRegionBundlesProperty != null) {
-            List<Bundle> bundlesToStart = new ArrayList<Bundle>();
-
-            for (BundleEntry entry : this.parser.parseBundleEntries(userRegionBundlesProperty)) {
-                URI uri = entry.getURI();
-                Bundle bundle = userRegion.installBundle(uri.toString());
-
-                if (entry.isAutoStart()) {
-                    bundlesToStart.add(bundle);
-                }
-            }
-
-            for (Bundle bundle : bundlesToStart) {
-                try {
-                    bundle.start();
-                } catch (BundleException e) {
-                    // Take state dump for diagnosis of resolution failures
-                    this.dumpGenerator.generateDump("User region bundle failed to start", e);
-                    throw new BundleException("Failed to start bundle " + bundle.getSymbolicName() + " " + bundle.getVersion(), e);
-                }
-            }
+            FrameworkWiring frameworkWiring = this.bundleContext.getBundle(0L).adapt(FrameworkWiring.class);
+            UserRegionBundleBootstrap bootstrap = new UserRegionBundleBootstrap(userRegion, frameworkWiring, eventLogger, this.dumpGenerator);
+            bootstrap.bootstrap(Arrays.asList(this.parser.parseBundleEntries(userRegionBundlesProperty)));
         }
     }
 
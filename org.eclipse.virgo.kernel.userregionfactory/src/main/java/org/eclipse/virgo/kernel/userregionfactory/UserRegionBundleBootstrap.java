@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.kernel.userregionfactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.medic.dump.DumpGenerator;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.util.parser.launcher.BundleEntry;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * {@link UserRegionBundleBootstrap} installs and starts the base bundles of the user region.
+ * <p />
+ * The base bundles are installed in parallel and then resolved together in a single resolve operation. The bundles
+ * marked for automatic start are then started in waves derived from their wiring: a bundle is started only after every
+ * base bundle it is wired to, directly or indirectly, has been started, and the bundles of a wave are started
+ * concurrently. Bundles involved in a wiring cycle are started together in a final wave. The time taken to install and
+ * start each bundle is written to the event log.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Not thread safe.
+ * 
+ */
+final class UserRegionBundleBootstrap {
+
+    private static final String THREAD_NAME_PREFIX = "user-region-bootstrap-";
+
+    private static final int MINIMUM_THREAD_COUNT = 2;
+
+    private final Region userRegion;
+
+    private final FrameworkWiring frameworkWiring;
+
+    private final EventLogger eventLogger;
+
+    private final DumpGenerator dumpGenerator;
+
+    UserRegionBundleBootstrap(Region userRegion, FrameworkWiring frameworkWiring, EventLogger eventLogger, DumpGenerator dumpGenerator) {
+        this.userRegion = userRegion;
+        this.frameworkWiring = frameworkWiring;
+        this.eventLogger = eventLogger;
+        this.dumpGenerator = dumpGenerator;
+    }
+
+    /**
+     * Install, resolve, and start the given base bundles.
+     * 
+     * @param bundleEntries the base bundles in the order they were configured
+     * @throws BundleException if a bundle cannot be installed or started
+     */
+    void bootstrap(List<BundleEntry> bundleEntries) throws BundleException {
+        if (bundleEntries.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = createExecutor(bundleEntries.size());
+        try {
+            long installStart = System.nanoTime();
+            List<BaseBundle> baseBundles = installBundles(bundleEntries, executor);
+            long installMillis = millisSince(installStart);
+
+            long resolveStart = System.nanoTime();
+            this.frameworkWiring.resolveBundles(getBundles(baseBundles));
+            long resolveMillis = millisSince(resolveStart);
+
+            long startStart = System.nanoTime();
+            List<List<BaseBundle>> waves = getStartWaves(baseBundles);
+            for (List<BaseBundle> wave : waves) {
+                startBundles(wave, executor);
+            }
+            long startMillis = millisSince(startStart);
+
+            int startedCount = 0;
+            for (BaseBundle baseBundle : baseBundles) {
+                Bundle bundle = baseBundle.bundle;
+                if (baseBundle.autoStart) {
+                    this.eventLogger.log(UserRegionFactoryLogEvents.USER_REGION_BUNDLE_STARTED, bundle.getSymbolicName(), bundle.getVersion(),
+                        baseBundle.installMillis, baseBundle.startMillis);
+                    startedCount++;
+                } else {
+                    this.eventLogger.log(UserRegionFactoryLogEvents.USER_REGION_BUNDLE_INSTALLED, bundle.getSymbolicName(), bundle.getVersion(),
+                        baseBundle.installMillis);
+                }
+            }
+            this.eventLogger.log(UserRegionFactoryLogEvents.USER_REGION_BUNDLES_BOOTSTRAPPED, baseBundles.size(), installMillis, resolveMillis,
+                startedCount, waves.size(), startMillis);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<BaseBundle> installBundles(List<BundleEntry> bundleEntries, ExecutorService executor) throws BundleException {
+        List<Future<BaseBundle>> installations = new ArrayList<Future<BaseBundle>>(bundleEntries.size());
+        for (final BundleEntry entry : bundleEntries) {
+            installations.add(executor.submit(new Callable<BaseBundle>() {
+
+                public BaseBundle call() throws BundleException {
+                    long start = System.nanoTime();
+                    Bundle bundle = UserRegionBundleBootstrap.this.userRegion.installBundle(entry.getURI().toString());
+                    return new BaseBundle(bundle, entry.isAutoStart(), millisSince(start));
+                }
+            }));
+        }
+
+        // Wait for every installation so that any failure is reported for the first failing bundle in configured order.
+        List<BaseBundle> baseBundles = new ArrayList<BaseBundle>(bundleEntries.size());
+        BundleException failure = null;
+        for (Future<BaseBundle> installation : installations) {
+            try {
+                baseBundles.add(awaitCompletion(installation));
+            } catch (BundleException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return baseBundles;
+    }
+
+    private void startBundles(List<BaseBundle> wave, ExecutorService executor) throws BundleException {
+        List<Future<BaseBundle>> starts = new ArrayList<Future<BaseBundle>>(wave.size());
+        for (final BaseBundle baseBundle : wave) {
+            starts.add(executor.submit(new Callable<BaseBundle>() {
+
+                public BaseBundle call() throws BundleException {
+                    long start = System.nanoTime();
+                    baseBundle.bundle.start();
+                    baseBundle.startMillis = millisSince(start);
+                    return baseBundle;
+                }
+            }));
+        }
+
+        BundleException failure = null;
+        Bundle failedBundle = null;
+        for (int i = 0; i < starts.size(); i++) {
+            try {
+                awaitCompletion(starts.get(i));
+            } catch (BundleException e) {
+                if (failure == null) {
+                    failure = e;
+                    failedBundle = wave.get(i).bundle;
+                }
+            }
+        }
+        if (failure != null) {
+            // Take state dump for diagnosis of resolution failures
+            this.dumpGenerator.generateDump("User region bundle failed to start", failure);
+            throw new BundleException("Failed to start bundle " + failedBundle.getSymbolicName() + " " + failedBundle.getVersion(), failure);
+        }
+    }
+
+    /**
+     * Group the bundles to be started into waves such that every base bundle to be started that a bundle depends on,
+     * directly or through other base bundles, is in an earlier wave.
+     * 
+     * @param baseBundles the installed and resolved base bundles
+     * @return the waves of bundles to start, in start order
+     */
+    private static List<List<BaseBundle>> getStartWaves(List<BaseBundle> baseBundles) {
+        Map<Bundle, BaseBundle> bundlesToStart = new LinkedHashMap<Bundle, BaseBundle>();
+        Set<Bundle> installedBundles = new HashSet<Bundle>();
+        for (BaseBundle baseBundle : baseBundles) {
+            installedBundles.add(baseBundle.bundle);
+            if (baseBundle.autoStart) {
+                bundlesToStart.put(baseBundle.bundle, baseBundle);
+            }
+        }
+
+        Map<Bundle, Set<Bundle>> providers = new HashMap<Bundle, Set<Bundle>>();
+        for (Bundle bundle : installedBundles) {
+            providers.put(bundle, getProviders(bundle, installedBundles));
+        }
+
+        Map<BaseBundle, Set<BaseBundle>> prerequisites = new LinkedHashMap<BaseBundle, Set<BaseBundle>>();
+        for (BaseBundle baseBundle : bundlesToStart.values()) {
+            Set<BaseBundle> bundlePrerequisites = new HashSet<BaseBundle>();
+            for (Bundle provider : getTransitiveProviders(baseBundle.bundle, providers)) {
+                BaseBundle prerequisite = bundlesToStart.get(provider);
+                if (prerequisite != null) {
+                    bundlePrerequisites.add(prerequisite);
+                }
+            }
+            prerequisites.put(baseBundle, bundlePrerequisites);
+        }
+
+        List<List<BaseBundle>> waves = new ArrayList<List<BaseBundle>>();
+        Set<BaseBundle> scheduled = new HashSet<BaseBundle>();
+        while (scheduled.size() < prerequisites.size()) {
+            List<BaseBundle> wave = new ArrayList<BaseBundle>();
+            for (Map.Entry<BaseBundle, Set<BaseBundle>> entry : prerequisites.entrySet()) {
+                if (!scheduled.contains(entry.getKey()) && scheduled.containsAll(entry.getValue())) {
+                    wave.add(entry.getKey());
+                }
+            }
+            if (wave.isEmpty()) {
+                // The remaining bundles are wired in a cycle.
+                for (BaseBundle baseBundle : prerequisites.keySet()) {
+                    if (!scheduled.contains(baseBundle)) {
+                        wave.add(baseBundle);
+                    }
+                }
+            }
+            scheduled.addAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    private static Set<Bundle> getProviders(Bundle bundle, Set<Bundle> candidates) {
+        Set<Bundle> providers = new HashSet<Bundle>();
+        BundleWiring wiring = bundle.adapt(BundleWiring.class);
+        if (wiring != null) {
+            List<BundleWire> requiredWires = wiring.getRequiredWires(null);
+            if (requiredWires != null) {
+                for (BundleWire wire : requiredWires) {
+                    Bundle provider = wire.getProviderWiring().getBundle();
+                    if (provider != bundle && candidates.contains(provider)) {
+                        providers.add(provider);
+                    }
+                }
+            }
+        }
+        return providers;
+    }
+
+    private static Set<Bundle> getTransitiveProviders(Bundle bundle, Map<Bundle, Set<Bundle>> providers) {
+        Set<Bundle> transitiveProviders = new HashSet<Bundle>();
+        List<Bundle> pending = new ArrayList<Bundle>(providers.get(bundle));
+        while (!pending.isEmpty()) {
+            Bundle provider = pending.remove(pending.size() - 1);
+            if (provider != bundle && transitiveProviders.add(provider)) {
+                pending.addAll(providers.get(provider));
+            }
+        }
+        return transitiveProviders;
+    }
+
+    private static Collection<Bundle> getBundles(List<BaseBundle> baseBundles) {
+        List<Bundle> bundles = new ArrayList<Bundle>(baseBundles.size());
+        for (BaseBundle baseBundle : baseBundles) {
+            bundles.add(baseBundle.bundle);
+        }
+        return bundles;
+    }
+
+    private static <T> T awaitCompletion(Future<T> future) throws BundleException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BundleException("Interrupted while initialising user region bundles", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BundleException) {
+                throw (BundleException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new BundleException("Unexpected failure while initialising user region bundles", cause);
+        }
+    }
+
+    private static ExecutorService createExecutor(int bundleCount) {
+        int threadCount = Math.min(bundleCount, Math.max(MINIMUM_THREAD_COUNT, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, THREAD_NAME_PREFIX + threadNumber.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static final class BaseBundle {
+
+        private final Bundle bundle;
+
+        private final boolean autoStart;
+
+        private final long installMillis;
+
+        private volatile long startMillis;
+
+        private BaseBundle(Bundle bundle, boolean autoStart, long installMillis) {
+            this.bundle = bundle;
+            this.autoStart = autoStart;
+            this.installMillis = installMillis;
+        }
+    }
+}
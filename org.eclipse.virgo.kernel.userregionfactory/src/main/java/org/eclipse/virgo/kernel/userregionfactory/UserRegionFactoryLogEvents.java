@@ -28,7 +28,10 @@ public enum UserRegionFactoryLogEvents implements LogEvent {
 
     REGION_IMPORTS_PARSE_FAILED(1, Level.ERROR), //
     REGION_IMPORT_NO_MATCH(2, Level.WARNING), //
-    USER_REGION_CONFIGURATION_UNAVAILABLE(10, Level.ERROR);
+    USER_REGION_CONFIGURATION_UNAVAILABLE(10, Level.ERROR), //
+    USER_REGION_BUNDLE_INSTALLED(11, Level.INFO), //
+    USER_REGION_BUNDLE_STARTED(12, Level.INFO), //
+    USER_REGION_BUNDLES_BOOTSTRAPPED(13, Level.INFO);
 
     private static final String PREFIX = "UF";
 
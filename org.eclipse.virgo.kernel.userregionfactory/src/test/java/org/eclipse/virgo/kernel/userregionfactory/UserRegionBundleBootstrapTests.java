@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.kernel.userregionfactory;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.IAnswer;
+import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.medic.dump.DumpGenerator;
+import org.eclipse.virgo.medic.eventlog.EventLogger;
+import org.eclipse.virgo.medic.eventlog.Level;
+import org.eclipse.virgo.medic.eventlog.LogEvent;
+import org.eclipse.virgo.util.parser.launcher.ArgumentParser;
+import org.eclipse.virgo.util.parser.launcher.BundleEntry;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ */
+public class UserRegionBundleBootstrapTests {
+
+    private final Map<String, Callable<Bundle>> installers = new HashMap<String, Callable<Bundle>>();
+
+    private final Map<Bundle, String> symbolicNames = new IdentityHashMap<Bundle, String>();
+
+    private final List<String> startOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    private final FrameworkWiring frameworkWiring = createNiceMock(FrameworkWiring.class);
+
+    private final DumpGenerator dumpGenerator = createMock(DumpGenerator.class);
+
+    private final RecordingEventLogger eventLogger = new RecordingEventLogger();
+
+    @Test
+    public void providersStartBeforeConsumers() throws Exception {
+        Bundle a = createBundle("a");
+        Bundle b = createBundle("b");
+        Bundle c = createBundle("c");
+        Bundle d = createBundle("d");
+        wire(a);
+        wire(b, a, d);
+        wire(c, b);
+        wire(d);
+        expectStart(a);
+        expectStart(b);
+        expectStart(c);
+        replay(a, b, c, d, this.frameworkWiring, this.dumpGenerator);
+
+        createBootstrap().bootstrap(parseBundleEntries("file:c.jar@start,file:d.jar,file:b.jar@start,file:a.jar@start"));
+
+        assertEquals(Arrays.asList("a", "b", "c"), this.startOrder);
+        assertEquals(Arrays.<Object> asList("d", Version.emptyVersion), this.eventLogger.getInserts("UF0011I").subList(0, 2));
+        Object[] summary = this.eventLogger.getInserts("UF0013I").toArray();
+        assertEquals(4, summary[0]);
+        assertEquals(3, summary[3]);
+        assertEquals(3, summary[4]);
+        verify(a, b, c, d, this.dumpGenerator);
+    }
+
+    @Test
+    public void importCycleIsStartedInFinalWave() throws Exception {
+        Bundle a = createBundle("a");
+        Bundle b = createBundle("b");
+        Bundle c = createBundle("c");
+        wire(a, b);
+        wire(b, a);
+        wire(c);
+        expectStart(a);
+        expectStart(b);
+        expectStart(c);
+        replay(a, b, c, this.frameworkWiring, this.dumpGenerator);
+
+        createBootstrap().bootstrap(parseBundleEntries("file:a.jar@start,file:b.jar@start,file:c.jar@start"));
+
+        assertEquals("c", this.startOrder.get(0));
+        assertTrue(this.startOrder.containsAll(Arrays.asList("a", "b")));
+        assertEquals(3, this.startOrder.size());
+        assertEquals(2, this.eventLogger.getInserts("UF0013I").get(4));
+        verify(a, b, c, this.dumpGenerator);
+    }
+
+    @Test
+    public void installFailureIsReportedInConfiguredOrder() throws Exception {
+        final BundleException firstFailure = new BundleException("b failed");
+        final BundleException secondFailure = new BundleException("c failed");
+        final CountDownLatch secondFailed = new CountDownLatch(1);
+        this.installers.put("file:b.jar", new Callable<Bundle>() {
+
+            public Bundle call() throws Exception {
+                // Fail only after the later configured bundle has already failed
+                assertTrue(secondFailed.await(10, TimeUnit.SECONDS));
+                throw firstFailure;
+            }
+        });
+        this.installers.put("file:c.jar", new Callable<Bundle>() {
+
+            public Bundle call() throws Exception {
+                secondFailed.countDown();
+                throw secondFailure;
+            }
+        });
+        FrameworkWiring unusedFrameworkWiring = createMock(FrameworkWiring.class);
+        replay(unusedFrameworkWiring, this.dumpGenerator);
+
+        try {
+            new UserRegionBundleBootstrap(createUserRegion(), unusedFrameworkWiring, this.eventLogger, this.dumpGenerator).bootstrap(
+                parseBundleEntries("file:b.jar@start,file:c.jar@start"));
+            fail("Install failure was not reported");
+        } catch (BundleException e) {
+            assertSame(firstFailure, e);
+        }
+        assertTrue(this.eventLogger.events.isEmpty());
+        verify(unusedFrameworkWiring, this.dumpGenerator);
+    }
+
+    @Test
+    public void startFailureGeneratesDiagnosticDump() throws Exception {
+        BundleException failure = new BundleException("b failed to start");
+        Bundle a = createBundle("a");
+        Bundle b = createBundle("b");
+        Bundle c = createBundle("c");
+        wire(a);
+        wire(b);
+        wire(c, b);
+        expectStart(a);
+        b.start();
+        expectLastCall().andThrow(failure);
+        this.dumpGenerator.generateDump("User region bundle failed to start", failure);
+        replay(a, b, c, this.frameworkWiring, this.dumpGenerator);
+
+        try {
+            createBootstrap().bootstrap(parseBundleEntries("file:a.jar@start,file:b.jar@start,file:c.jar@start"));
+            fail("Start failure was not reported");
+        } catch (BundleException e) {
+            assertEquals("Failed to start bundle b 0.0.0", e.getMessage());
+            assertSame(failure, e.getCause());
+        }
+        assertFalse(this.startOrder.contains("c"));
+        assertTrue(this.eventLogger.events.isEmpty());
+        verify(a, b, c, this.dumpGenerator);
+    }
+
+    private UserRegionBundleBootstrap createBootstrap() {
+        return new UserRegionBundleBootstrap(createUserRegion(), this.frameworkWiring, this.eventLogger, this.dumpGenerator);
+    }
+
+    private Region createUserRegion() {
+        return (Region) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Region.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("installBundle".equals(method.getName()) && args.length == 1) {
+                    Callable<Bundle> installer = UserRegionBundleBootstrapTests.this.installers.get(args[0]);
+                    if (installer != null) {
+                        return installer.call();
+                    }
+                    throw new BundleException("Unexpected install of " + args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Bundle createBundle(String symbolicName) {
+        final Bundle bundle = createMock(Bundle.class);
+        expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        expect(bundle.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+        this.symbolicNames.put(bundle, symbolicName);
+        this.installers.put("file:" + symbolicName + ".jar", new Callable<Bundle>() {
+
+            public Bundle call() {
+                return bundle;
+            }
+        });
+        return bundle;
+    }
+
+    private static void wire(Bundle requirer, Bundle... providers) {
+        List<BundleWire> wires = new ArrayList<BundleWire>();
+        for (Bundle provider : providers) {
+            BundleWiring providerWiring = createMock(BundleWiring.class);
+            expect(providerWiring.getBundle()).andReturn(provider).anyTimes();
+            BundleWire wire = createMock(BundleWire.class);
+            expect(wire.getProviderWiring()).andReturn(providerWiring).anyTimes();
+            replay(providerWiring, wire);
+            wires.add(wire);
+        }
+        BundleWiring wiring = createMock(BundleWiring.class);
+        expect(wiring.getRequiredWires(null)).andReturn(wires).anyTimes();
+        replay(wiring);
+        expect(requirer.adapt(BundleWiring.class)).andReturn(wiring).anyTimes();
+    }
+
+    private void expectStart(Bundle bundle) throws BundleException {
+        final String symbolicName = this.symbolicNames.get(bundle);
+        bundle.start();
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+
+            public Object answer() {
+                UserRegionBundleBootstrapTests.this.startOrder.add(symbolicName);
+                return null;
+            }
+        });
+    }
+
+    private static List<BundleEntry> parseBundleEntries(String bundleEntries) {
+        return Arrays.asList(new ArgumentParser().parseBundleEntries(bundleEntries));
+    }
+
+    private static final class RecordingEventLogger implements EventLogger {
+
+        private final List<LoggedEvent> events = new ArrayList<LoggedEvent>();
+
+        public void log(LogEvent logEvent, Object... inserts) {
+            log(logEvent.getEventCode(), logEvent.getLevel(), inserts);
+        }
+
+        public void log(String code, Level level, Object... inserts) {
+            this.events.add(new LoggedEvent(code, inserts));
+        }
+
+        public void log(LogEvent logEvent, Throwable throwable, Object... inserts) {
+            log(logEvent.getEventCode(), logEvent.getLevel(), inserts);
+        }
+
+        public void log(String code, Level level, Throwable throwable, Object... inserts) {
+            log(code, level, inserts);
+        }
+
+        private List<Object> getInserts(String code) {
+            for (LoggedEvent event : this.events) {
+                if (event.code.equals(code)) {
+                    return Arrays.asList(event.inserts);
+                }
+            }
+            throw new AssertionError("Event " + code + " was not logged");
+        }
+    }
+
+    private static final class LoggedEvent {
+
+        private final String code;
+
+        private final Object[] inserts;
+
+        private LoggedEvent(String code, Object[] inserts) {
+            this.code = code;
+            this.inserts = inserts;
+        }
+    }
+}
@@ -16,7 +16,6 @@
 package org.eclipse.virgo.management.console;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
@@ -75,6 +74,8 @@ public class ContentServlet extends HttpServlet {
 
 	private ContentURLFetcher urlFetcher;
 
+	private Parser parser;
+
 	private Map<String, String> defaultMimeTypes = new HashMap<String, String>();
 	{
 		defaultMimeTypes.put(".html",  "text/html");
@@ -93,6 +94,7 @@ public class ContentServlet extends HttpServlet {
     	String prefix = config.getInitParameter(CONTENT_SERVLET_PREFIX);
     	String suffix = config.getInitParameter(CONTENT_SERVLET_SUFFIX);
     	this.urlFetcher = new ContentURLFetcher(config.getServletContext(), prefix, suffix);
+    	this.parser = new Parser(this.urlFetcher);
     }
 	
 	/**
@@ -114,16 +116,10 @@ public class ContentServlet extends HttpServlet {
 		}
 		prepareContentResponse(response, resource);
 		PrintWriter out = selectOutputStream(request, response, resource);
-		URLConnection resourceConn = resource.openConnection();
 		try {
-			InputStream in = resourceConn.getInputStream();
-			try {
-				Map<String, String> pageContext = new HashMap<String, String>();
-				this.preparePageContext(pageContext, rawRequestPath);
-				new Parser(out, this.urlFetcher, pageContext).parse(in);
-			} finally {
-				in.close();
-			}
+			Map<String, String> pageContext = new HashMap<String, String>();
+			this.preparePageContext(pageContext, rawRequestPath);
+			this.parser.parse(resource, out, pageContext);
 		} finally {
 			out.close();
 		}
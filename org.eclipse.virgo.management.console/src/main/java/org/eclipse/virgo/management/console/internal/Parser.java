@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,15 +10,38 @@
  *******************************************************************************/
 package org.eclipse.virgo.management.console.internal;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.virgo.management.console.internal.Template.DynamicImportNode;
+import org.eclipse.virgo.management.console.internal.Template.EvaluateNode;
+import org.eclipse.virgo.management.console.internal.Template.Line;
+import org.eclipse.virgo.management.console.internal.Template.LiteralNode;
+import org.eclipse.virgo.management.console.internal.Template.LookupNode;
+import org.eclipse.virgo.management.console.internal.Template.Node;
+import org.eclipse.virgo.management.console.internal.Template.SetNode;
+import org.eclipse.virgo.management.console.internal.Template.StaticImportNode;
 
 /**
+ * Compiles pages into {@link Template}s and renders them. Compiled templates are cached by URL and recompiled when the
+ * last modified time of their content changes. Imports whose path is a literal are resolved once, when the importing
+ * template is compiled.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Thread safe.
+ * 
  * @author cgfrost
  * 
  */
@@ -28,139 +51,152 @@ public class Parser {
 
 	private static final String END_DECLARATION = "@-->";
 
-	private static final char IMPORT = '&'; // Replace the declaration with another file that will also be parsed, value can be a lookup.
+	static final char IMPORT = '&'; // Replace the declaration with another file that will also be parsed, value can be a lookup.
 
-	private static final char SET = '>'; //Place the given value in to the page context, 'String:String'.
+	static final char SET = '>'; //Place the given value in to the page context, 'String:String'.
 	
-	private static final char LOOKUP = '<'; // Replace the declaration with a lookup from the page context.
+	static final char LOOKUP = '<'; // Replace the declaration with a lookup from the page context.
 
-	private static final char EVALUATE = '?'; // Replace the declaration with a the result of an evaluation.
+	static final char EVALUATE = '?'; // Replace the declaration with a the result of an evaluation.
 
-	private final Map<String, String> pageContext;
-
-	private final PrintWriter out;
+	private final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>();
 
 	private final ContentURLFetcher urlFetcher;
 
 	/**
 	 * 
-	 * @param out
-	 * @param modelData
+	 * @param urlFetcher
 	 */
-	public Parser(PrintWriter out, ContentURLFetcher urlFetcher, Map<String, String> modelData) {
-		this.out = out;
+	public Parser(ContentURLFetcher urlFetcher) {
 		this.urlFetcher = urlFetcher;
-		this.pageContext = modelData;
 	}
 
 	/**
+	 * Render the page at the given URL, compiling it first unless an up to date compiled template is cached.
 	 * 
-	 * @param in
+	 * @param content
+	 * @param out
+	 * @param pageContext
 	 */
-	public final void parse(InputStream in) throws IOException {
-		try (Scanner scanner = new Scanner(in)) {
-			String parsedLine;
-			while (scanner.hasNextLine()) {
-				parsedLine = parseLine(scanner.nextLine());
-				if (parsedLine != null && !parsedLine.trim().isEmpty()) {
-					out.append(parsedLine);
-					out.append('\n');
-				}
-			}
-		}
+	public final void parse(URL content, PrintWriter out, Map<String, String> pageContext) throws IOException {
+		getTemplate(content).render(out, this, pageContext);
 	}
 
-	private String parseLine(String line) throws IOException {
-		int startOffset = line.indexOf(START_DECLARATION);
-		if(startOffset > -1){
-			int endOffset = line.indexOf(END_DECLARATION);
-			if(endOffset  > startOffset){
-				String arg = line.substring(startOffset + START_DECLARATION.length() + 1, endOffset);
-				String newValue = "";
-				switch (line.charAt(startOffset + START_DECLARATION.length())) {
-				case IMPORT:
-					newValue = doImport(arg);
-					break;
-				case SET:
-					newValue = doSet(arg);
-					break;
-				case LOOKUP:
-					newValue = doLookup(arg);
-					break;
-				case EVALUATE:
-					newValue = doEvaluate(arg);
-					break;
-				default:
-					//Unknown command, do nothing
-					break;
-				}
-				line = String.format("%s%s%s", line.substring(0, startOffset), newValue, line.substring(endOffset + END_DECLARATION.length()));
-				line = parseLine(line);// There might be further declarations in the line.
-			}
-		}
-		return line;
+	/**
+	 * Discard all cached templates.
+	 */
+	public final void clear() {
+		this.templates.clear();
 	}
 
-	private String doImport(String arg) throws IOException {
-		arg = resolveField(arg);
-		if(arg.charAt(0) != '/'){
-			arg = '/' + arg;
+	Template getTemplate(URL content) throws IOException {
+		String key = content.toExternalForm();
+		URLConnection connection = content.openConnection();
+		long lastModified = connection.getLastModified();
+
+		CachedTemplate cached = this.templates.get(key);
+		if (cached != null && lastModified != 0 && cached.lastModified == lastModified) {
+			return cached.template;
 		}
-		URL content = this.urlFetcher.getRequestedContentURL(arg);
-		URLConnection resourceConn = content.openConnection();
-		InputStream in = resourceConn.getInputStream();
+
+		Template template;
+		InputStream in = connection.getInputStream();
 		try {
-			this.parse(in);
+			template = compile(in);
 		} finally {
 			in.close();
 		}
-		return "";
+		if (lastModified != 0) {
+			this.templates.put(key, new CachedTemplate(template, lastModified));
+		}
+		return template;
 	}
-	
-	private String doSet(String arg) {
-		int splitOffSet = arg.indexOf(':');
-		if(splitOffSet >= 0){
-			this.pageContext.put(arg.substring(0, splitOffSet), arg.substring(splitOffSet + 1));
+
+	URL getContentURL(String path) throws IOException {
+		return this.urlFetcher.getRequestedContentURL(path);
+	}
+
+	static String toImportPath(String path) {
+		if (path.charAt(0) != '/') {
+			path = '/' + path;
 		}
-		return "";
+		return path;
 	}
 
-	private String doLookup(String arg){
-		String newValue = this.pageContext.get(arg);
-		if(newValue == null){
-			return "";
+	private Template compile(InputStream in) throws IOException {
+		List<Line> lines = new ArrayList<Line>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			Line compiledLine = compileLine(line);
+			if (compiledLine != null) {
+				lines.add(compiledLine);
+			}
 		}
-		return newValue;
+		return new Template(lines);
 	}
 
-	private String doEvaluate(String arg) {
-		int equalsOffset = arg.indexOf('=');
-		int thenOffset = arg.indexOf(':');
-		int elseOffset = arg.indexOf(':', thenOffset + 1);
-		
-		boolean result;
-		if(equalsOffset >= 0  && equalsOffset < thenOffset){
-			String query = resolveField(arg.substring(0, equalsOffset));
-			String comparator = resolveField(arg.substring(equalsOffset + 1, thenOffset));
-			result = query.equals(comparator);
-		} else {
-			String query = resolveField(arg.substring(0, thenOffset));
-			result = Boolean.valueOf(query);
+	private Line compileLine(String line) throws IOException {
+		List<Node> nodes = new ArrayList<Node>();
+		boolean declarations = false;
+		int offset = 0;
+		int startOffset;
+		while ((startOffset = line.indexOf(START_DECLARATION, offset)) > -1) {
+			int commandOffset = startOffset + START_DECLARATION.length();
+			int endOffset = line.indexOf(END_DECLARATION, commandOffset);
+			if (endOffset <= commandOffset) {
+				break;
+			}
+			if (startOffset > offset) {
+				nodes.add(new LiteralNode(line.substring(offset, startOffset)));
+			}
+			declarations = true;
+			Node node = compileDeclaration(line.charAt(commandOffset), line.substring(commandOffset + 1, endOffset));
+			if (node != null) {
+				nodes.add(node);
+			}
+			offset = endOffset + END_DECLARATION.length();
+		}
+
+		if (!declarations) {
+			return line.trim().isEmpty() ? null : new Line(line);
 		}
-		if(result){
-			return resolveField(arg.substring(thenOffset + 1, elseOffset));
-		} else {
-			return ((elseOffset + 1) == arg.length()) ? "" : resolveField(arg.substring(elseOffset + 1));
+		if (offset < line.length()) {
+			nodes.add(new LiteralNode(line.substring(offset)));
 		}
+		return new Line(nodes);
 	}
-	
-	private String resolveField(String field){
-		if(field.charAt(0) == LOOKUP){
-			field = this.doLookup(field.substring(1));
-		} else if (field.charAt(0) == SET){
-			field = this.doSet(field).substring(1);
+
+	private Node compileDeclaration(char command, String arg) throws IOException {
+		switch (command) {
+		case IMPORT:
+			if (arg.charAt(0) == LOOKUP || arg.charAt(0) == SET) {
+				return new DynamicImportNode(arg);
+			}
+			String path = toImportPath(arg);
+			return new StaticImportNode(path, getContentURL(path));
+		case SET:
+			return new SetNode(arg);
+		case LOOKUP:
+			return new LookupNode(arg);
+		case EVALUATE:
+			return new EvaluateNode(arg);
+		default:
+			//Unknown command, do nothing
+			return null;
+		}
+	}
+
+	private static final class CachedTemplate {
+
+		private final Template template;
+
+		private final long lastModified;
+
+		private CachedTemplate(Template template, long lastModified) {
+			this.template = template;
+			this.lastModified = lastModified;
 		}
-		return field;
 	}
 
 }
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.management.console.internal;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page compiled by the {@link Parser}. A template is a list of lines, each of which is a list of nodes holding either
+ * literal text or a declaration to be evaluated against the page context when the template is rendered.
+ * <p />
+ * 
+ * <strong>Concurrent Semantics</strong><br />
+ * 
+ * Immutable and therefore thread safe. A page context must not be shared between concurrent renderings.
+ * 
+ */
+final class Template {
+
+	private final List<Line> lines;
+
+	Template(List<Line> lines) {
+		this.lines = lines;
+	}
+
+	/**
+	 * Write this template to the given writer. As when the template was interpreted line by line, imported templates
+	 * are written ahead of the line containing the import and lines that render as blank are omitted.
+	 * 
+	 * @param out the writer to render to
+	 * @param parser the {@link Parser} used to find imported templates
+	 * @param pageContext the page context, which may be updated by declarations in the template
+	 * @throws IOException if an imported template cannot be read
+	 */
+	void render(PrintWriter out, Parser parser, Map<String, String> pageContext) throws IOException {
+		StringBuilder buffer = new StringBuilder();
+		for (Line line : this.lines) {
+			line.render(out, buffer, parser, pageContext);
+		}
+	}
+
+	static final class Line {
+
+		private final String literal;
+
+		private final List<Node> nodes;
+
+		/**
+		 * A line without declarations, which is written as is.
+		 */
+		Line(String literal) {
+			this.literal = literal;
+			this.nodes = null;
+		}
+
+		/**
+		 * A line with declarations, which must be evaluated before it is known whether the line is blank.
+		 */
+		Line(List<Node> nodes) {
+			this.literal = null;
+			this.nodes = nodes;
+		}
+
+		private void render(PrintWriter out, StringBuilder buffer, Parser parser, Map<String, String> pageContext) throws IOException {
+			if (this.literal != null) {
+				out.append(this.literal);
+				out.append('\n');
+				return;
+			}
+			buffer.setLength(0);
+			for (Node node : this.nodes) {
+				node.render(out, buffer, parser, pageContext);
+			}
+			if (!isBlank(buffer)) {
+				out.append(buffer);
+				out.append('\n');
+			}
+		}
+
+		private static boolean isBlank(CharSequence text) {
+			for (int i = 0; i < text.length(); i++) {
+				if (text.charAt(i) > ' ') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	interface Node {
+
+		/**
+		 * @param out the writer that imported templates are written to
+		 * @param line the buffer holding the line being rendered
+		 * @param parser the {@link Parser} used to find imported templates
+		 * @param pageContext the page context
+		 * @throws IOException if an imported template cannot be read
+		 */
+		void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) throws IOException;
+	}
+
+	static final class LiteralNode implements Node {
+
+		private final String text;
+
+		LiteralNode(String text) {
+			this.text = text;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) {
+			line.append(this.text);
+		}
+	}
+
+	static final class LookupNode implements Node {
+
+		private final String key;
+
+		LookupNode(String key) {
+			this.key = key;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) {
+			line.append(lookup(pageContext, this.key));
+		}
+	}
+
+	static final class SetNode implements Node {
+
+		private final String arg;
+
+		SetNode(String arg) {
+			this.arg = arg;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) {
+			set(pageContext, this.arg);
+		}
+	}
+
+	static final class EvaluateNode implements Node {
+
+		private final String arg;
+
+		EvaluateNode(String arg) {
+			this.arg = arg;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) {
+			int equalsOffset = this.arg.indexOf('=');
+			int thenOffset = this.arg.indexOf(':');
+			int elseOffset = this.arg.indexOf(':', thenOffset + 1);
+
+			boolean result;
+			if (equalsOffset >= 0 && equalsOffset < thenOffset) {
+				String query = resolveField(pageContext, this.arg.substring(0, equalsOffset));
+				String comparator = resolveField(pageContext, this.arg.substring(equalsOffset + 1, thenOffset));
+				result = query.equals(comparator);
+			} else {
+				String query = resolveField(pageContext, this.arg.substring(0, thenOffset));
+				result = Boolean.valueOf(query);
+			}
+			if (result) {
+				line.append(resolveField(pageContext, this.arg.substring(thenOffset + 1, elseOffset)));
+			} else if ((elseOffset + 1) != this.arg.length()) {
+				line.append(resolveField(pageContext, this.arg.substring(elseOffset + 1)));
+			}
+		}
+	}
+
+	/**
+	 * An import whose path is known when the template is compiled and has therefore already been resolved.
+	 */
+	static final class StaticImportNode implements Node {
+
+		private final String path;
+
+		private final URL content;
+
+		StaticImportNode(String path, URL content) {
+			this.path = path;
+			this.content = content;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) throws IOException {
+			if (this.content == null) {
+				throw new FileNotFoundException(this.path);
+			}
+			parser.getTemplate(this.content).render(out, parser, pageContext);
+		}
+	}
+
+	/**
+	 * An import whose path is looked up in the page context when the template is rendered.
+	 */
+	static final class DynamicImportNode implements Node {
+
+		private final String arg;
+
+		DynamicImportNode(String arg) {
+			this.arg = arg;
+		}
+
+		public void render(PrintWriter out, StringBuilder line, Parser parser, Map<String, String> pageContext) throws IOException {
+			String path = Parser.toImportPath(resolveField(pageContext, this.arg));
+			URL content = parser.getContentURL(path);
+			if (content == null) {
+				throw new FileNotFoundException(path);
+			}
+			parser.getTemplate(content).render(out, parser, pageContext);
+		}
+	}
+
+	private static String lookup(Map<String, String> pageContext, String key) {
+		String value = pageContext.get(key);
+		if (value == null) {
+			return "";
+		}
+		return value;
+	}
+
+	private static String set(Map<String, String> pageContext, String arg) {
+		int splitOffSet = arg.indexOf(':');
+		if (splitOffSet >= 0) {
+			pageContext.put(arg.substring(0, splitOffSet), arg.substring(splitOffSet + 1));
+		}
+		return "";
+	}
+
+	private static String resolveField(Map<String, String> pageContext, String field) {
+		if (field.charAt(0) == Parser.LOOKUP) {
+			field = lookup(pageContext, field.substring(1));
+		} else if (field.charAt(0) == Parser.SET) {
+			field = set(pageContext, field).substring(1);
+		}
+		return field;
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+package org.eclipse.virgo.management.console.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockServletContext;
+
+public class ParserTests {
+
+    private final File pages = new File("build/pages");
+
+    private Parser parser;
+
+    @Before
+    public void createParser() {
+        this.pages.mkdirs();
+        MockServletContext servletContext = new MockServletContext("file:" + this.pages.getAbsolutePath(), new DefaultResourceLoader());
+        this.parser = new Parser(new ContentURLFetcher(servletContext, "", ".html"));
+    }
+
+    @After
+    public void deletePages() {
+        for (File page : this.pages.listFiles()) {
+            page.delete();
+        }
+        this.pages.delete();
+    }
+
+    @Test
+    public void testDeclarations() throws IOException {
+        writePage("header", "<head><!--@<viewName@--></head>\n");
+        writePage("footer", "<foot/>\n");
+        File page = writePage("page", "<html>\n<!--@&header@-->\n\n   \n<p><!--@<viewName@--> and <!--@<missing@-->!</p>\n"
+            + "<!--@>colour:red@-->\n<b><!--@<colour@--></b><!--@?<colour=red:yes:no@--><!--@?false:a:@-->\nx<!--@&<fragment@-->y\n"
+            + "<!--@%unknown@-->tail\n</html>\n");
+
+        assertEquals("<html>\n<head>overview</head>\n<p>overview and !</p>\n<b>red</b>yes\n<foot/>\nxy\ntail\n</html>\n", render(page));
+    }
+
+    @Test
+    public void testCompiledTemplateIsReused() throws IOException {
+        File page = writePage("page", "<p>first</p>\n");
+        long lastModified = page.lastModified();
+        assertEquals("<p>first</p>\n", render(page));
+
+        writePage("page", "<p>second</p>\n");
+        page.setLastModified(lastModified);
+        assertEquals("<p>first</p>\n", render(page));
+
+        page.setLastModified(lastModified + 2000);
+        assertEquals("<p>second</p>\n", render(page));
+    }
+
+    @Test
+    public void testModifiedImportIsRecompiled() throws IOException {
+        File footer = writePage("footer", "<foot/>\n");
+        File page = writePage("page", "<!--@&footer@-->\n");
+        long lastModified = footer.lastModified();
+        assertEquals("<foot/>\n", render(page));
+
+        writePage("footer", "<footer/>\n");
+        footer.setLastModified(lastModified + 2000);
+        assertEquals("<footer/>\n", render(page));
+    }
+
+    private String render(File page) throws IOException {
+        Map<String, String> pageContext = new HashMap<String, String>();
+        pageContext.put("viewName", "overview");
+        pageContext.put("fragment", "footer");
+
+        StringWriter content = new StringWriter();
+        PrintWriter out = new PrintWriter(content);
+        this.parser.parse(page.toURI().toURL(), out, pageContext);
+        out.flush();
+        return content.toString();
+    }
+
+    private File writePage(String name, String content) throws IOException {
+        File page = new File(this.pages, name + ".html");
+        FileWriter writer = new FileWriter(page);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return page;
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,19 +13,15 @@ package org.eclipse.virgo.shell.internal.commands;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.management.ManagementFactory;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 import javax.management.InstanceNotFoundException;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
 
 import org.osgi.framework.Version;
 
 import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.equinox.region.Region;
 import org.eclipse.equinox.region.RegionDigraph;
@@ -45,39 +41,24 @@ abstract class AbstractInstallArtifactBasedCommands<T extends ManageableArtifact
 
     private static final String NO_ARTIFACT_FOR_NAME_AND_VERSION = "No %s with name '%s' and version '%s' in Region '%s' was found";
 
-    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-
     private final String type;
 
-    private final RuntimeArtifactModelObjectNameCreator objectNameCreator;
-
     private final InstallArtifactCommandFormatter<T> formatter;
 
     private final ArtifactRetriever<T> artifactRetriever;
 
     private final RegionDigraph regionDigraph;
 
-    public AbstractInstallArtifactBasedCommands(String type, RuntimeArtifactModelObjectNameCreator objectNameCreator, InstallArtifactCommandFormatter<T> formatter, Class<T> artifactType, RegionDigraph regionDigraph) {
+    public AbstractInstallArtifactBasedCommands(String type, RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator, InstallArtifactCommandFormatter<T> formatter, Class<T> artifactType, RegionDigraph regionDigraph) {
         this.type = type;
-        this.objectNameCreator = objectNameCreator;
         this.formatter = formatter;
-        this.artifactRetriever = new ArtifactRetriever<T>(type, objectNameCreator, artifactType);
+        this.artifactRetriever = new ArtifactRetriever<T>(type, objectNameCreator, artifactType, artifactLocator);
         this.regionDigraph = regionDigraph;
     }
 
     @Command("list")
     public List<String> list() {
-        Set<ObjectName> objectNames = this.server.queryNames(this.objectNameCreator.createArtifactsOfTypeQuery(this.type), null);
-        List<T> artifacts = new ArrayList<T>(objectNames.size());
-        for (ObjectName objectName : objectNames) {
-            try {
-                artifacts.add(this.artifactRetriever.getArtifact(objectName));
-            } catch (InstanceNotFoundException e) {
-                // Swallow to allow other to proceed
-            }
-        }
-
-        return this.formatter.formatList(artifacts);
+        return this.formatter.formatList(this.artifactRetriever.getArtifacts());
     }
 
     @Command("examine")
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,11 +11,20 @@
 
 package org.eclipse.virgo.shell.internal.commands;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
 import org.eclipse.equinox.region.RegionDigraph;
+import org.eclipse.virgo.kernel.management.RefreshImpactAnalysis;
 import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.kernel.module.ModuleContextAccessor;
 import org.eclipse.virgo.kernel.osgi.quasi.QuasiBundle;
@@ -45,12 +54,22 @@ final class BundleCommands extends AbstractInstallArtifactBasedCommands<Manageab
     
     private static final String TYPE = "bundle";
 
+    private static final String REFRESH_IMPACT = "Refreshing bundle %s %s would stop, rewire and restart %d bundle(s):";
+
+    private static final String REFRESH_IMPACT_EXCEEDS_THRESHOLD = "The deployer would reject this refresh as it exceeds the blast radius threshold of %d bundle(s)";
+
+    private static final String REFRESH_IMPACT_FAILED = "Refresh impact analysis failed: %s";
+
+    private static final String REFRESH_IMPACT_ANALYSIS_OBJECT_NAME = "org.eclipse.virgo.kernel:category=Control,type=RefreshImpactAnalysis";
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
     private final BundleInstallArtifactCommandFormatter formatter;
 
     private final QuasiBundleUtil quasiBundleUtil;
 
-    public BundleCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, QuasiBundleUtil quasiBundleUtil, QuasiServiceUtil quasiServiceUtil, ModuleContextAccessor moduleContextAccessor, RegionDigraph regionDigraph) {
-        super(TYPE, objectNameCreator, new BundleInstallArtifactCommandFormatter(regionDigraph, quasiBundleUtil, quasiServiceUtil, moduleContextAccessor), ManageableArtifact.class, regionDigraph);
+    public BundleCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator, QuasiBundleUtil quasiBundleUtil, QuasiServiceUtil quasiServiceUtil, ModuleContextAccessor moduleContextAccessor, RegionDigraph regionDigraph) {
+        super(TYPE, objectNameCreator, artifactLocator, new BundleInstallArtifactCommandFormatter(regionDigraph, quasiBundleUtil, quasiServiceUtil, moduleContextAccessor), ManageableArtifact.class, regionDigraph);
         this.quasiBundleUtil = quasiBundleUtil;
         this.formatter = new BundleInstallArtifactCommandFormatter(regionDigraph, quasiBundleUtil, quasiServiceUtil, moduleContextAccessor);
     }
@@ -141,6 +160,43 @@ final class BundleCommands extends AbstractInstallArtifactBasedCommands<Manageab
         return this.formatter.formatHeaders(getBundle(name, version, region));
     }
 
+    @Command("impact")
+    public List<String> impact(long id) {
+        QuasiBundle bundle = this.quasiBundleUtil.getBundle(id);
+        if (bundle != null) {
+            return impact(bundle.getSymbolicName(), bundle.getVersion().toString());
+        } else {
+            return Arrays.asList(String.format(NO_BUNDLE_FOR_BUNDLE_ID, id));
+        }
+    }
+
+    @Command("impact")
+    public List<String> impact(String name, String version) {
+        String[] impact;
+        int blastRadiusThreshold;
+        try {
+            RefreshImpactAnalysis refreshImpactAnalysis = getRefreshImpactAnalysis();
+            impact = refreshImpactAnalysis.analyzeBundleRefresh(name, version);
+            blastRadiusThreshold = refreshImpactAnalysis.getBlastRadiusThreshold();
+        } catch (Exception e) {
+            return Arrays.asList(String.format(REFRESH_IMPACT_FAILED, e.getMessage()));
+        }
+
+        List<String> lines = new ArrayList<String>(impact.length + 2);
+        lines.add(String.format(REFRESH_IMPACT, name, version, impact.length));
+        for (String affectedBundle : impact) {
+            lines.add("    " + affectedBundle);
+        }
+        if (blastRadiusThreshold > 0 && impact.length > blastRadiusThreshold) {
+            lines.add(String.format(REFRESH_IMPACT_EXCEEDS_THRESHOLD, blastRadiusThreshold));
+        }
+        return lines;
+    }
+
+    private RefreshImpactAnalysis getRefreshImpactAnalysis() throws MalformedObjectNameException {
+        return JMX.newMXBeanProxy(this.server, new ObjectName(REFRESH_IMPACT_ANALYSIS_OBJECT_NAME), RefreshImpactAnalysis.class);
+    }
+
     private QuasiBundle getBundle(String name, String version, String region) {
         Version v = new Version(version);
         List<QuasiBundle> bundles = this.quasiBundleUtil.getAllBundles();
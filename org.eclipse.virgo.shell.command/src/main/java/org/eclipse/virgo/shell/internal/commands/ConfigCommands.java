@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,6 +21,7 @@ import org.osgi.service.cm.ConfigurationAdmin;
 
 import org.eclipse.equinox.region.RegionDigraph;
 import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.shell.Command;
 import org.eclipse.virgo.shell.internal.formatting.ConfigInstallArtifactCommandFormatter;
@@ -48,8 +49,8 @@ final class ConfigCommands extends AbstractInstallArtifactBasedCommands<Manageab
 
     private static final String STATE_ACTIVE = "ACTIVE";
 
-    public ConfigCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, ConfigurationAdmin configurationAdmin, RegionDigraph regionDigraph) {
-        super(TYPE, objectNameCreator, new ConfigInstallArtifactCommandFormatter(configurationAdmin), ManageableArtifact.class, regionDigraph);
+    public ConfigCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator, ConfigurationAdmin configurationAdmin, RegionDigraph regionDigraph) {
+        super(TYPE, objectNameCreator, artifactLocator, new ConfigInstallArtifactCommandFormatter(configurationAdmin), ManageableArtifact.class, regionDigraph);
     }
 
     @Command("examine")
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.virgo.shell.internal.commands;
 
 import org.eclipse.virgo.kernel.model.management.ManageableCompositeArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.shell.Command;
 import org.eclipse.virgo.shell.internal.formatting.CompositeInstallArtifactCommandFormatter;
@@ -21,7 +22,7 @@ final class ParCommands extends AbstractInstallArtifactBasedCommands<ManageableC
 
     private static final String TYPE = "par";
 
-    public ParCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator) {
-        super(TYPE, objectNameCreator, new CompositeInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, null);
+    public ParCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator) {
+        super(TYPE, objectNameCreator, artifactLocator, new CompositeInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, null);
     }
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,7 @@ import java.util.List;
 
 import org.eclipse.equinox.region.RegionDigraph;
 import org.eclipse.virgo.kernel.model.management.ManageableCompositeArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.shell.Command;
 import org.eclipse.virgo.shell.internal.formatting.CompositeInstallArtifactCommandFormatter;
@@ -26,8 +27,8 @@ final class PlanCommands extends AbstractInstallArtifactBasedCommands<Manageable
 
     private static final String GLOBAL_REGION_NAME = "global";
 
-    public PlanCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, RegionDigraph regionDigraph) {
-        super(TYPE, objectNameCreator, new CompositeInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, regionDigraph);
+    public PlanCommands(RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator, RegionDigraph regionDigraph) {
+        super(TYPE, objectNameCreator, artifactLocator, new CompositeInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, regionDigraph);
     }
 
     @Command("examine")
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -24,6 +24,7 @@ import org.osgi.framework.Version;
 import org.eclipse.equinox.region.Region;
 import org.eclipse.equinox.region.RegionDigraph;
 import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.eclipse.virgo.shell.internal.util.ArtifactRetriever;
 
@@ -43,11 +44,11 @@ final class ConfigCompleter extends AbstractInstallArtifactCompleter {
 
     private final ArtifactRetriever<ManageableArtifact> artifactRetriever;
 
-    public ConfigCompleter(RuntimeArtifactModelObjectNameCreator objectNameCreator, RegionDigraph regionDigraph) {
+    public ConfigCompleter(RuntimeArtifactModelObjectNameCreator objectNameCreator, ManageableArtifactLocator artifactLocator, RegionDigraph regionDigraph) {
         super(TYPE, objectNameCreator);
         this.objectNameCreator = objectNameCreator;
         this.globalRegion = regionDigraph.getRegion("global");
-        this.artifactRetriever = new ArtifactRetriever<ManageableArtifact>(TYPE, objectNameCreator, ManageableArtifact.class);
+        this.artifactRetriever = new ArtifactRetriever<ManageableArtifact>(TYPE, objectNameCreator, ManageableArtifact.class, artifactLocator);
     }
 
     @Override
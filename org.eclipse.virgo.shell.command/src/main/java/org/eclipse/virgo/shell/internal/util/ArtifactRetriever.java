@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 VMware Inc.
+ * Copyright (c) 2008, 2012 VMware Inc.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,14 +12,32 @@
 package org.eclipse.virgo.shell.internal.util;
 
 import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.JMX;
+import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 
 import org.eclipse.equinox.region.Region;
+import org.eclipse.virgo.kernel.model.management.ArtifactModelQuery;
 import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
 import org.eclipse.virgo.kernel.model.management.RuntimeArtifactModelObjectNameCreator;
 import org.osgi.framework.Version;
 
@@ -29,6 +47,15 @@ import org.osgi.framework.Version;
  * MBeans published by the Runtime Artifact Model. One instance of this class can
  * only retrieve MBeans backed by the given type T.
  * </p>
+ * <p>
+ * When the runtime artifact model publishes an {@link ArtifactModelQuery}, all of the artifacts of the type are
+ * retrieved with a single query and their summary attributes are read without further calls to the MBean server.
+ * </p>
+ * <p>
+ * When a {@link ManageableArtifactLocator} is available the shell is running in the same JVM as the runtime artifact
+ * model, and artifacts are used directly rather than through an MBean proxy. Otherwise MBean proxies are created once
+ * per {@link ObjectName} and cached until the MBean is unregistered.
+ * </p>
  *
  * <strong>Concurrent Semantics</strong><br />
  *
@@ -46,6 +73,12 @@ public final class ArtifactRetriever<T extends ManageableArtifact> {
     
     private final Class<T> artifactType;
 
+    private final ManageableArtifactLocator artifactLocator;
+
+    private final ConcurrentMap<ObjectName, T> proxies = new ConcurrentHashMap<ObjectName, T>();
+
+    private final AtomicBoolean listeningForUnregistrations = new AtomicBoolean();
+
     /**
      * 
      * @param type
@@ -53,11 +86,55 @@ public final class ArtifactRetriever<T extends ManageableArtifact> {
      * @param artifactType
      */
     public ArtifactRetriever(String type, RuntimeArtifactModelObjectNameCreator objectNameCreator, Class<T> artifactType) {
+        this(type, objectNameCreator, artifactType, null);
+    }
+
+    /**
+     * 
+     * @param type
+     * @param objectNameCreator
+     * @param artifactType
+     * @param artifactLocator to locate artifacts in-process, or <code>null</code> to always use MBean proxies
+     */
+    public ArtifactRetriever(String type, RuntimeArtifactModelObjectNameCreator objectNameCreator, Class<T> artifactType,
+        ManageableArtifactLocator artifactLocator) {
         this.type = type;
         this.objectNameCreator = objectNameCreator;
         this.artifactType = artifactType;
+        this.artifactLocator = artifactLocator;
     }
     
+    /**
+     * @return all of the artifacts of this retriever's type
+     */
+    public List<T> getArtifacts() {
+        ObjectName artifactsQuery = this.objectNameCreator.createArtifactsOfTypeQuery(this.type);
+        ObjectName queryName = createArtifactModelQueryName(artifactsQuery.getDomain());
+        if (queryName != null && this.server.isRegistered(queryName)) {
+            TabularData rows = JMX.newMBeanProxy(this.server, queryName, ArtifactModelQuery.class).getArtifacts(this.type);
+            List<T> artifacts = new ArrayList<T>(rows.size());
+            for (Object row : rows.values()) {
+                try {
+                    artifacts.add(ArtifactSummary.create(this.artifactType, (CompositeData) row, this));
+                } catch (MalformedObjectNameException e) {
+                    // Swallow to allow other to proceed
+                }
+            }
+            return artifacts;
+        }
+
+        Set<ObjectName> objectNames = this.server.queryNames(artifactsQuery, null);
+        List<T> artifacts = new ArrayList<T>(objectNames.size());
+        for (ObjectName objectName : objectNames) {
+            try {
+                artifacts.add(getArtifact(objectName));
+            } catch (InstanceNotFoundException e) {
+                // Swallow to allow other to proceed
+            }
+        }
+        return artifacts;
+    }
+
     /**
      * @param name
      * @param version
@@ -76,9 +153,85 @@ public final class ArtifactRetriever<T extends ManageableArtifact> {
      * @throws InstanceNotFoundException
      */
     public T getArtifact(final ObjectName objectName) throws InstanceNotFoundException {
+        if (this.artifactLocator != null) {
+            ManageableArtifact artifact = this.artifactLocator.getManageableArtifact(objectName);
+            if (this.artifactType.isInstance(artifact)) {
+                return this.artifactType.cast(artifact);
+            }
+        }
+
+        T proxy = this.proxies.get(objectName);
+        if (proxy != null) {
+            return proxy;
+        }
+
+        listenForUnregistrations();
         if (this.server.isRegistered(objectName)) {
-            return JMX.newMXBeanProxy(this.server, objectName, this.artifactType);
+            proxy = JMX.newMXBeanProxy(this.server, objectName, this.artifactType);
+            T existingProxy = this.proxies.putIfAbsent(objectName, proxy);
+            if (existingProxy != null) {
+                return existingProxy;
+            }
+            // The MBean may have been unregistered, and the notification delivered, before the proxy was cached
+            if (!this.server.isRegistered(objectName)) {
+                this.proxies.remove(objectName, proxy);
+            }
+            return proxy;
         }
         throw new InstanceNotFoundException(String.format("Instance '%s' not found", objectName.getCanonicalName()));
     }
+
+    private void listenForUnregistrations() {
+        if (this.listeningForUnregistrations.compareAndSet(false, true)) {
+            NotificationFilterSupport filter = new NotificationFilterSupport();
+            filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+            try {
+                this.server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, new UnregistrationListener(this.server, this.proxies),
+                    filter, null);
+            } catch (InstanceNotFoundException e) {
+                throw new IllegalStateException("MBean server delegate not found", e);
+            }
+        }
+    }
+
+    private static ObjectName createArtifactModelQueryName(String domain) {
+        try {
+            return new ObjectName(domain + ":" + ArtifactModelQuery.OBJECT_NAME_PROPERTIES);
+        } catch (MalformedObjectNameException e) {
+            // Fall back to the individual artifacts
+            return null;
+        }
+    }
+
+    /**
+     * Removes the cached proxy of each MBean that is unregistered. The proxy cache is only weakly reachable from the MBean
+     * server, so that a discarded <code>ArtifactRetriever</code> can be collected, and the listener removes itself when
+     * it finds the cache has gone.
+     */
+    private static final class UnregistrationListener implements NotificationListener {
+
+        private final MBeanServer server;
+
+        private final WeakReference<ConcurrentMap<ObjectName, ?>> proxies;
+
+        private UnregistrationListener(MBeanServer server, ConcurrentMap<ObjectName, ?> proxies) {
+            this.server = server;
+            this.proxies = new WeakReference<ConcurrentMap<ObjectName, ?>>(proxies);
+        }
+
+        public void handleNotification(Notification notification, Object handback) {
+            ConcurrentMap<ObjectName, ?> cachedProxies = this.proxies.get();
+            if (cachedProxies == null) {
+                try {
+                    this.server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+                } catch (InstanceNotFoundException e) {
+                    // Swallow: nothing left to remove the listener from
+                } catch (ListenerNotFoundException e) {
+                    // Swallow: already removed
+                }
+            } else if (notification instanceof MBeanServerNotification) {
+                cachedProxies.remove(((MBeanServerNotification) notification).getMBeanName());
+            }
+        }
+    }
 }
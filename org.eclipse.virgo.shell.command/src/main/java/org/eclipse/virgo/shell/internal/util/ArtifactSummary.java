@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.shell.internal.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.eclipse.virgo.kernel.model.management.ArtifactModelQuery;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+
+/**
+ * <p>
+ * ArtifactSummary answers the attributes of a {@link ManageableArtifact} that are held in a row returned by the
+ * {@link ArtifactModelQuery} without calling the MBean server. Any other method is delegated to a proxy for the
+ * artifact's MBean, which is created the first time it is needed.
+ * </p>
+ *
+ * <strong>Concurrent Semantics</strong><br />
+ *
+ * ArtifactSummary is threadsafe
+ *
+ */
+final class ArtifactSummary<T extends ManageableArtifact> implements InvocationHandler {
+
+    private static final Map<String, String> COLUMNS = new HashMap<String, String>();
+
+    static {
+        COLUMNS.put("getType", ArtifactModelQuery.TYPE);
+        COLUMNS.put("getName", ArtifactModelQuery.NAME);
+        COLUMNS.put("getVersion", ArtifactModelQuery.VERSION);
+        COLUMNS.put("getRegion", ArtifactModelQuery.REGION);
+        COLUMNS.put("getState", ArtifactModelQuery.STATE);
+    }
+
+    private final Object monitor = new Object();
+
+    private final CompositeData row;
+
+    private final ObjectName objectName;
+
+    private final ArtifactRetriever<T> artifactRetriever;
+
+    private T artifact;
+
+    private ArtifactSummary(CompositeData row, ArtifactRetriever<T> artifactRetriever) throws MalformedObjectNameException {
+        this.row = row;
+        this.objectName = new ObjectName((String) row.get(ArtifactModelQuery.OBJECT_NAME));
+        this.artifactRetriever = artifactRetriever;
+    }
+
+    static <T extends ManageableArtifact> T create(Class<T> artifactType, CompositeData row, ArtifactRetriever<T> artifactRetriever)
+        throws MalformedObjectNameException {
+        return artifactType.cast(Proxy.newProxyInstance(artifactType.getClassLoader(), new Class<?>[] { artifactType },
+            new ArtifactSummary<T>(row, artifactRetriever)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObjectMethod(method, args);
+        }
+        String column = COLUMNS.get(method.getName());
+        if (column != null && method.getParameterTypes().length == 0 && this.row.containsKey(column)) {
+            return this.row.get(column);
+        }
+        try {
+            return method.invoke(getArtifact(), args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object invokeObjectMethod(Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            Object other = args[0];
+            return other != null && Proxy.isProxyClass(other.getClass()) && Proxy.getInvocationHandler(other) instanceof ArtifactSummary
+                && this.objectName.equals(((ArtifactSummary<?>) Proxy.getInvocationHandler(other)).objectName);
+        } else if ("hashCode".equals(name)) {
+            return this.objectName.hashCode();
+        }
+        return String.format("ArtifactSummary(%s)", this.objectName);
+    }
+
+    private T getArtifact() {
+        synchronized (this.monitor) {
+            if (this.artifact == null) {
+                try {
+                    this.artifact = this.artifactRetriever.getArtifact(this.objectName);
+                } catch (InstanceNotFoundException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+            return this.artifact;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+package org.eclipse.virgo.shell.internal.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.eclipse.virgo.kernel.management.RefreshImpactAnalysis;
+import org.eclipse.virgo.shell.internal.util.QuasiBundleUtil;
+import org.eclipse.virgo.shell.stubs.StubQuasiFrameworkFactory;
+import org.eclipse.virgo.test.stubs.framework.StubBundle;
+import org.eclipse.virgo.test.stubs.region.StubRegionDigraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class BundleCommandsTests {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final StubRefreshImpactAnalysis refreshImpactAnalysis = new StubRefreshImpactAnalysis();
+
+    private final BundleCommands commands = new BundleCommands(new StubRuntimeArtifactModelObjectNameCreator(), null, new QuasiBundleUtil(
+        new StubQuasiFrameworkFactory(new StubBundle(4L, "test.symbolic.name", new Version("1.2.3"), "location"))), null, null,
+        new StubRegionDigraph());
+
+    private ObjectName name;
+
+    @Before
+    public void registerRefreshImpactAnalysis() throws Exception {
+        this.name = new ObjectName("org.eclipse.virgo.kernel:category=Control,type=RefreshImpactAnalysis");
+        this.server.registerMBean(new StandardMBean(this.refreshImpactAnalysis, RefreshImpactAnalysis.class, true), this.name);
+    }
+
+    @After
+    public void unregisterRefreshImpactAnalysis() throws Exception {
+        this.server.unregisterMBean(this.name);
+    }
+
+    @Test
+    public void impact() {
+        this.refreshImpactAnalysis.impact = new String[] { "3 a.b 1.0.0 ACTIVE", "7 c.d 2.0.0 RESOLVED" };
+
+        List<String> lines = this.commands.impact("c.d", "2.0.0");
+
+        assertEquals(Arrays.asList("Refreshing bundle c.d 2.0.0 would stop, rewire and restart 2 bundle(s):", "    3 a.b 1.0.0 ACTIVE",
+            "    7 c.d 2.0.0 RESOLVED"), lines);
+        assertEquals("c.d", this.refreshImpactAnalysis.bundleSymbolicName);
+        assertEquals("2.0.0", this.refreshImpactAnalysis.bundleVersion);
+    }
+
+    @Test
+    public void impactWithinBlastRadiusThreshold() {
+        this.refreshImpactAnalysis.impact = new String[] { "3 a.b 1.0.0 ACTIVE", "7 c.d 2.0.0 RESOLVED" };
+        this.refreshImpactAnalysis.blastRadiusThreshold = 2;
+
+        assertEquals(3, this.commands.impact("c.d", "2.0.0").size());
+    }
+
+    @Test
+    public void impactExceedingBlastRadiusThreshold() {
+        this.refreshImpactAnalysis.impact = new String[] { "3 a.b 1.0.0 ACTIVE", "7 c.d 2.0.0 RESOLVED" };
+        this.refreshImpactAnalysis.blastRadiusThreshold = 1;
+
+        List<String> lines = this.commands.impact("c.d", "2.0.0");
+
+        assertEquals(4, lines.size());
+        assertEquals("The deployer would reject this refresh as it exceeds the blast radius threshold of 1 bundle(s)", lines.get(3));
+    }
+
+    @Test
+    public void impactOfBundleId() {
+        this.refreshImpactAnalysis.impact = new String[] { "4 test.symbolic.name 1.2.3 ACTIVE" };
+
+        List<String> lines = this.commands.impact(4);
+
+        assertEquals(Arrays.asList("Refreshing bundle test.symbolic.name 1.2.3 would stop, rewire and restart 1 bundle(s):",
+            "    4 test.symbolic.name 1.2.3 ACTIVE"), lines);
+    }
+
+    @Test
+    public void impactOfUnknownBundleId() {
+        assertEquals(Arrays.asList("No bundle with id '5' was found"), this.commands.impact(5));
+        assertNull(this.refreshImpactAnalysis.bundleSymbolicName);
+    }
+
+    @Test
+    public void impactOfUnknownBundle() {
+        assertEquals(Arrays.asList("Refresh impact analysis failed: No bundle with symbolic name 'e.f' and version '1.0.0' was found"),
+            this.commands.impact("e.f", "1.0.0"));
+    }
+
+    public static final class StubRefreshImpactAnalysis implements RefreshImpactAnalysis {
+
+        private volatile String[] impact;
+
+        private volatile int blastRadiusThreshold;
+
+        private volatile String bundleSymbolicName;
+
+        private volatile String bundleVersion;
+
+        public String[] analyzeBundleRefresh(String bundleSymbolicName, String bundleVersion) {
+            this.bundleSymbolicName = bundleSymbolicName;
+            this.bundleVersion = bundleVersion;
+            if (this.impact == null) {
+                throw new IllegalArgumentException(String.format("No bundle with symbolic name '%s' and version '%s' was found",
+                    bundleSymbolicName, bundleVersion));
+            }
+            return this.impact;
+        }
+
+        public int getBlastRadiusThreshold() {
+            return this.blastRadiusThreshold;
+        }
+    }
+}
@@ -40,7 +40,7 @@ public class ConfigCommandsTests {
 
 	private static final StubConfigurationAdmin CONFIG_ADMIN = new StubConfigurationAdmin();
 
-    private final ConfigCommands commands = new ConfigCommands(new StubRuntimeArtifactModelObjectNameCreator(), CONFIG_ADMIN, REGION_DIGRAPH);
+    private final ConfigCommands commands = new ConfigCommands(new StubRuntimeArtifactModelObjectNameCreator(), null, CONFIG_ADMIN, REGION_DIGRAPH);
 
     private final StubManageableCompositeArtifact artifact = new StubManageableCompositeArtifact();
 
@@ -30,7 +30,7 @@ final class StubAbstractCompositeInstallArtifactBasedCommands extends AbstractIn
     }
     
 	public StubAbstractCompositeInstallArtifactBasedCommands() {
-        super("test", new StubRuntimeArtifactModelObjectNameCreator(), new StubInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, REGION_DIGRAPH);
+        super("test", new StubRuntimeArtifactModelObjectNameCreator(), null, new StubInstallArtifactCommandFormatter(), ManageableCompositeArtifact.class, REGION_DIGRAPH);
     }
 
 }
@@ -35,7 +35,7 @@ public class ConfigCompleterTests {
 
     private static final StubRegionDigraph REGION_DIGRAPH = new StubRegionDigraph();
     
-	private final ConfigCompleter completer = new ConfigCompleter(new StubRuntimeArtifactModelObjectNameCreator(), REGION_DIGRAPH);
+	private final ConfigCompleter completer = new ConfigCompleter(new StubRuntimeArtifactModelObjectNameCreator(), null, REGION_DIGRAPH);
 
     @BeforeClass
     public static void installTestBean() throws InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException, BundleException {
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.shell.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
+import org.eclipse.virgo.kernel.model.management.ManageableCompositeArtifact;
+import org.eclipse.virgo.shell.internal.commands.StubRuntimeArtifactModelObjectNameCreator;
+import org.eclipse.virgo.shell.internal.formatting.StubManageableCompositeArtifact;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Repeats the artifact model lookups of <code>bundle examine</code> for each of {@value #BUNDLE_COUNT} bundles,
+ * {@value #EXAMINE_ROUNDS} times over.
+ */
+public class ArtifactRetrieverRepeatedExaminationTests {
+
+    private static final int BUNDLE_COUNT = 10;
+
+    private static final int EXAMINE_ROUNDS = 3;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final StubRuntimeArtifactModelObjectNameCreator objectNameCreator = new StubRuntimeArtifactModelObjectNameCreator();
+
+    private final Map<ObjectName, ManageableArtifact> artifacts = new HashMap<ObjectName, ManageableArtifact>();
+
+    @Before
+    public void installBundles() throws Exception {
+        for (int b = 0; b < BUNDLE_COUNT; b++) {
+            ObjectName objectName = new ObjectName("test:type=ArtifactModel,artifact-type=bundle,name=bundle" + b
+                + ",version=1.0.0,region=org.eclipse.virgo.region.user");
+            StubManageableCompositeArtifact artifact = new StubManageableCompositeArtifact();
+            this.server.registerMBean(artifact, objectName);
+            this.artifacts.put(objectName, artifact);
+        }
+    }
+
+    @After
+    public void uninstallBundles() throws Exception {
+        for (ObjectName objectName : this.artifacts.keySet()) {
+            this.server.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void proxiesAreReusedAcrossExaminations() throws Exception {
+        ArtifactRetriever<ManageableCompositeArtifact> artifactRetriever = new ArtifactRetriever<ManageableCompositeArtifact>("bundle",
+            this.objectNameCreator, ManageableCompositeArtifact.class);
+        Map<ObjectName, ManageableCompositeArtifact> proxies = new HashMap<ObjectName, ManageableCompositeArtifact>();
+        for (ObjectName objectName : this.artifacts.keySet()) {
+            proxies.put(objectName, artifactRetriever.getArtifact(objectName));
+        }
+
+        for (int r = 0; r < EXAMINE_ROUNDS; r++) {
+            for (ObjectName objectName : this.artifacts.keySet()) {
+                ManageableCompositeArtifact artifact = artifactRetriever.getArtifact(objectName);
+                assertSame(proxies.get(objectName), artifact);
+                examine(artifact);
+            }
+        }
+        for (ManageableCompositeArtifact proxy : proxies.values()) {
+            assertFalse(this.artifacts.containsValue(proxy));
+        }
+    }
+
+    @Test
+    public void locatedArtifactsAreReturnedAsIs() throws Exception {
+        ArtifactRetriever<ManageableCompositeArtifact> artifactRetriever = new ArtifactRetriever<ManageableCompositeArtifact>("bundle",
+            this.objectNameCreator, ManageableCompositeArtifact.class, new ManageableArtifactLocator() {
+
+                public ManageableArtifact getManageableArtifact(ObjectName objectName) {
+                    return ArtifactRetrieverRepeatedExaminationTests.this.artifacts.get(objectName);
+                }
+            });
+
+        for (int r = 0; r < EXAMINE_ROUNDS; r++) {
+            for (ObjectName objectName : this.artifacts.keySet()) {
+                ManageableCompositeArtifact artifact = artifactRetriever.getArtifact(objectName);
+                assertSame(this.artifacts.get(objectName), artifact);
+                examine(artifact);
+            }
+        }
+    }
+
+    private static void examine(ManageableCompositeArtifact artifact) {
+        assertEquals("com.springsource.testName", artifact.getName());
+        artifact.getType();
+        artifact.getVersion();
+        artifact.getRegion();
+        artifact.getState();
+        artifact.getProperties();
+        artifact.getDependents();
+    }
+}
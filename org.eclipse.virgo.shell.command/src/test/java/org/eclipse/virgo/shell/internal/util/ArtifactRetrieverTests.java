@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2012 VMware Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   VMware Inc. - initial contribution
+ *******************************************************************************/
+
+
+package org.eclipse.virgo.shell.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.eclipse.virgo.kernel.model.management.ArtifactModelQuery;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifact;
+import org.eclipse.virgo.kernel.model.management.ManageableArtifactLocator;
+import org.eclipse.virgo.kernel.model.management.ManageableCompositeArtifact;
+import org.eclipse.virgo.shell.internal.commands.StubRuntimeArtifactModelObjectNameCreator;
+import org.eclipse.virgo.shell.internal.formatting.StubManageableCompositeArtifact;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArtifactRetrieverTests {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private final StubRuntimeArtifactModelObjectNameCreator objectNameCreator = new StubRuntimeArtifactModelObjectNameCreator();
+
+    private final ArtifactRetriever<ManageableCompositeArtifact> artifactRetriever = new ArtifactRetriever<ManageableCompositeArtifact>("test",
+        this.objectNameCreator, ManageableCompositeArtifact.class);
+
+    private final StubManageableCompositeArtifact artifact = new StubManageableCompositeArtifact();
+
+    private ObjectName artifactName;
+
+    private ObjectName queryName;
+
+    @Before
+    public void installArtifact() throws Exception {
+        this.artifactName = new ObjectName("test:type=ArtifactModel,artifact-type=test,name=test1,version=0.0.0,region=region1");
+        this.server.registerMBean(this.artifact, this.artifactName);
+        this.queryName = new ObjectName("test:" + ArtifactModelQuery.OBJECT_NAME_PROPERTIES);
+    }
+
+    @After
+    public void uninstallMBeans() throws Exception {
+        this.server.unregisterMBean(this.artifactName);
+        if (this.server.isRegistered(this.queryName)) {
+            this.server.unregisterMBean(this.queryName);
+        }
+    }
+
+    @Test
+    public void artifactsWithoutQuery() {
+        List<ManageableCompositeArtifact> artifacts = this.artifactRetriever.getArtifacts();
+
+        assertEquals(1, artifacts.size());
+        assertEquals("com.springsource.testName", artifacts.get(0).getName());
+        assertTrue(this.artifact.getNamedCalled());
+    }
+
+    @Test
+    public void artifactsFromQuery() throws Exception {
+        this.server.registerMBean(new StandardMBean(new StubArtifactModelQuery(this.artifactName), ArtifactModelQuery.class),
+            this.queryName);
+
+        List<ManageableCompositeArtifact> artifacts = this.artifactRetriever.getArtifacts();
+
+        assertEquals(1, artifacts.size());
+        ManageableCompositeArtifact summary = artifacts.get(0);
+        assertEquals("test1", summary.getName());
+        assertEquals("0.0.0", summary.getVersion());
+        assertEquals("region1", summary.getRegion());
+        assertEquals("ACTIVE", summary.getState());
+        assertFalse(this.artifact.getNamedCalled());
+        assertFalse(this.artifact.getStateCalled());
+
+        summary.isAtomic();
+        assertTrue(this.artifact.getAtomicCalled());
+    }
+
+    @Test
+    public void proxiesAreCachedUntilUnregistered() throws Exception {
+        ManageableCompositeArtifact proxy = this.artifactRetriever.getArtifact(this.artifactName);
+        assertSame(proxy, this.artifactRetriever.getArtifact(this.artifactName));
+
+        this.server.unregisterMBean(this.artifactName);
+        this.server.registerMBean(this.artifact, this.artifactName);
+
+        assertNotSame(proxy, this.artifactRetriever.getArtifact(this.artifactName));
+    }
+
+    @Test
+    public void locatedArtifactsAreUsedDirectly() throws Exception {
+        ArtifactRetriever<ManageableCompositeArtifact> localArtifactRetriever = new ArtifactRetriever<ManageableCompositeArtifact>("test",
+            this.objectNameCreator, ManageableCompositeArtifact.class, new ManageableArtifactLocator() {
+
+                public ManageableArtifact getManageableArtifact(ObjectName objectName) {
+                    return ArtifactRetrieverTests.this.artifactName.equals(objectName) ? ArtifactRetrieverTests.this.artifact : null;
+                }
+            });
+
+        assertSame(this.artifact, localArtifactRetriever.getArtifact(this.artifactName));
+    }
+
+    private static final class StubArtifactModelQuery implements ArtifactModelQuery {
+
+        private static final String[] COLUMNS = { OBJECT_NAME, TYPE, NAME, VERSION, REGION, STATE };
+
+        private final ObjectName artifactName;
+
+        private StubArtifactModelQuery(ObjectName artifactName) {
+            this.artifactName = artifactName;
+        }
+
+        public TabularData getArtifacts(String type) {
+            return queryArtifacts(type, null, null, null, 0, 0, new String[] { STATE });
+        }
+
+        public TabularData queryArtifacts(String type, String nameFilter, String regionFilter, String stateFilter, int offset, int limit,
+            String[] columns) {
+            try {
+                CompositeType rowType = new CompositeType("Artifact", "Artifact", COLUMNS, COLUMNS, new OpenType<?>[] { SimpleType.STRING,
+                    SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING });
+                TabularDataSupport artifacts = new TabularDataSupport(new TabularType("Artifacts", "Artifacts", rowType, new String[] { OBJECT_NAME }));
+                artifacts.put(new CompositeDataSupport(rowType, COLUMNS, new Object[] { this.artifactName.getCanonicalName(), type, "test1",
+                    "0.0.0", "region1", "ACTIVE" }));
+                return artifacts;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public int countArtifacts(String type, String nameFilter, String regionFilter, String stateFilter) {
+            return 1;
+        }
+    }
+}